@@ -0,0 +1,458 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision;
+
+import com.microsoft.projectoxford.vision.contract.AnalysisInDomainResult;
+import com.microsoft.projectoxford.vision.contract.AnalysisResult;
+import com.microsoft.projectoxford.vision.contract.HandwritingRecognitionOperation;
+import com.microsoft.projectoxford.vision.contract.HandwritingRecognitionOperationResult;
+import com.microsoft.projectoxford.vision.contract.Model;
+import com.microsoft.projectoxford.vision.contract.ModelResult;
+import com.microsoft.projectoxford.vision.contract.OCR;
+import com.microsoft.projectoxford.vision.rest.CancellationToken;
+import com.microsoft.projectoxford.vision.rest.Deadline;
+import com.microsoft.projectoxford.vision.rest.NioHttpTransport;
+import com.microsoft.projectoxford.vision.rest.VisionServiceException;
+import com.microsoft.projectoxford.vision.rest.WebServiceRequest;
+
+import org.apache.commons.io.IOUtils;
+import org.reactivestreams.Publisher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking counterpart of {@link VisionServiceClient}. Every operation is started on an executor
+ * and returns a {@link VisionFuture}; cancelling the future aborts the HTTP request in flight. If the
+ * client was made with {@link VisionServiceRestClient#withCancellation}, cancelling its token cancels
+ * all futures of its calls.
+ * <p>
+ * Calls are sent with {@link WebServiceRequest#requestResponseAsync}. With a transport that can send
+ * them without blocking, such as {@link NioHttpTransport}, no thread is held while a call waits for
+ * the service, so a small executor can keep many calls in flight. Otherwise, or with interceptors or
+ * hedging configured, every call holds an executor thread until it has completed.
+ * <p>
+ * Calls go through a {@link VisionServiceRestClient}, so its connection pool, retry policy, deadline
+ * and other settings apply. Streams passed to upload operations are read on the executor and must not
+ * be used by the caller until the call has completed. A client is thread-safe.
+ */
+public class AsyncVisionServiceClient {
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final VisionServiceRestClient client;
+    private final Executor executor;
+    private HandwritingResultPoller poller;
+
+    /**
+     * Creates a client running calls on a shared pool of daemon threads, one per call in flight.
+     */
+    public AsyncVisionServiceClient(VisionServiceRestClient client) {
+        this(client, DefaultExecutorHolder.EXECUTOR);
+    }
+
+    /**
+     * @param client   client the calls are made with
+     * @param executor executor the calls run on, e.g. a bounded pool to limit concurrent calls, or
+     *                 {@link VisionExecutors#newVirtualThreadPerTaskExecutor()} on Java 21 and later
+     */
+    public AsyncVisionServiceClient(VisionServiceRestClient client, Executor executor) {
+        this.client = client;
+        this.executor = executor;
+    }
+
+    public VisionServiceRestClient getClient() {
+        return client;
+    }
+
+    public VisionFuture<AnalysisResult> analyzeImage(final String url, final String[] visualFeatures, final String[] details) {
+        return submit(new Call<AnalysisResult>() {
+            @Override
+            public void start(VisionServiceRestClient client, Executor executor, VisionCallback<AnalysisResult> callback) {
+                client.analyzeImage(url, null, visualFeatures, details, executor, callback);
+            }
+        });
+    }
+
+    public VisionFuture<AnalysisResult> analyzeImage(final InputStream stream, final String[] visualFeatures, final String[] details) {
+        return submit(new Call<AnalysisResult>() {
+            @Override
+            public void start(VisionServiceRestClient client, Executor executor, VisionCallback<AnalysisResult> callback) {
+                client.analyzeImage(null, stream, visualFeatures, details, executor, callback);
+            }
+        });
+    }
+
+    public VisionFuture<AnalysisInDomainResult> analyzeImageInDomain(String url, Model model) {
+        return analyzeImageInDomain(url, model.name);
+    }
+
+    public VisionFuture<AnalysisInDomainResult> analyzeImageInDomain(final String url, final String model) {
+        return submit(new Call<AnalysisInDomainResult>() {
+            @Override
+            public void start(VisionServiceRestClient client, Executor executor, VisionCallback<AnalysisInDomainResult> callback) {
+                client.analyzeImageInDomain(url, null, model, executor, callback);
+            }
+        });
+    }
+
+    public VisionFuture<AnalysisInDomainResult> analyzeImageInDomain(InputStream stream, Model model) {
+        return analyzeImageInDomain(stream, model.name);
+    }
+
+    public VisionFuture<AnalysisInDomainResult> analyzeImageInDomain(final InputStream stream, final String model) {
+        return submit(new Call<AnalysisInDomainResult>() {
+            @Override
+            public void start(VisionServiceRestClient client, Executor executor, VisionCallback<AnalysisInDomainResult> callback) {
+                client.analyzeImageInDomain(null, stream, model, executor, callback);
+            }
+        });
+    }
+
+    public VisionFuture<AnalysisResult> describe(final String url, final int maxCandidates) {
+        return submit(new Call<AnalysisResult>() {
+            @Override
+            public void start(VisionServiceRestClient client, Executor executor, VisionCallback<AnalysisResult> callback) {
+                client.describe(url, null, maxCandidates, executor, callback);
+            }
+        });
+    }
+
+    public VisionFuture<AnalysisResult> describe(final InputStream stream, final int maxCandidates) {
+        return submit(new Call<AnalysisResult>() {
+            @Override
+            public void start(VisionServiceRestClient client, Executor executor, VisionCallback<AnalysisResult> callback) {
+                client.describe(null, stream, maxCandidates, executor, callback);
+            }
+        });
+    }
+
+    public VisionFuture<ModelResult> listModels() {
+        return submit(new Call<ModelResult>() {
+            @Override
+            public void start(VisionServiceRestClient client, Executor executor, VisionCallback<ModelResult> callback) {
+                client.listModels(executor, callback);
+            }
+        });
+    }
+
+    public VisionFuture<OCR> recognizeText(final String url, final String languageCode, final boolean detectOrientation) {
+        return submit(new Call<OCR>() {
+            @Override
+            public void start(VisionServiceRestClient client, Executor executor, VisionCallback<OCR> callback) {
+                client.recognizeText(url, null, languageCode, detectOrientation, executor, callback);
+            }
+        });
+    }
+
+    public VisionFuture<OCR> recognizeText(final InputStream stream, final String languageCode, final boolean detectOrientation) {
+        return submit(new Call<OCR>() {
+            @Override
+            public void start(VisionServiceRestClient client, Executor executor, VisionCallback<OCR> callback) {
+                client.recognizeText(null, stream, languageCode, detectOrientation, executor, callback);
+            }
+        });
+    }
+
+    public VisionFuture<HandwritingRecognitionOperation> createHandwritingRecognitionOperation(final String url) {
+        return submit(new Call<HandwritingRecognitionOperation>() {
+            @Override
+            public void start(VisionServiceRestClient client, Executor executor, VisionCallback<HandwritingRecognitionOperation> callback) {
+                client.createHandwritingRecognitionOperation(url, null, executor, callback);
+            }
+        });
+    }
+
+    public VisionFuture<HandwritingRecognitionOperation> createHandwritingRecognitionOperation(final InputStream stream) {
+        return submit(new Call<HandwritingRecognitionOperation>() {
+            @Override
+            public void start(VisionServiceRestClient client, Executor executor, VisionCallback<HandwritingRecognitionOperation> callback) {
+                client.createHandwritingRecognitionOperation(null, stream, executor, callback);
+            }
+        });
+    }
+
+    public VisionFuture<HandwritingRecognitionOperationResult> getHandwritingRecognitionOperationResult(final String uri) {
+        return submit(new Call<HandwritingRecognitionOperationResult>() {
+            @Override
+            public void start(VisionServiceRestClient client, Executor executor, VisionCallback<HandwritingRecognitionOperationResult> callback) {
+                client.pollHandwriting(uri, client.getDeadline(), executor, callback);
+            }
+        });
+    }
+
+    public VisionFuture<HandwritingRecognitionOperationResult> awaitHandwritingResult(HandwritingRecognitionOperation operation) {
+        return awaitHandwritingResult(operation, null);
+    }
+
+    /**
+     * Polls the operation until it has finished, with a {@link HandwritingResultPoller} shared by the
+     * calls of this client, so that no thread waits between polls; cancelling the future stops the polling.
+     */
+    public VisionFuture<HandwritingRecognitionOperationResult> awaitHandwritingResult(HandwritingRecognitionOperation operation, Deadline deadline) {
+        return handwritingPoller().submit(operation, deadline);
+    }
+
+    public VisionFuture<byte[]> getThumbnail(final int width, final int height, final boolean smartCropping, final String url) {
+        return submit(new Call<byte[]>() {
+            @Override
+            public void start(VisionServiceRestClient client, Executor executor, VisionCallback<byte[]> callback) {
+                client.getThumbnail(width, height, smartCropping, url, null, executor, callback);
+            }
+        });
+    }
+
+    public VisionFuture<byte[]> getThumbnail(final int width, final int height, final boolean smartCropping, final InputStream stream) {
+        return submit(new Call<byte[]>() {
+            @Override
+            public void start(VisionServiceRestClient client, Executor executor, VisionCallback<byte[]> callback) {
+                client.getThumbnail(width, height, smartCropping, null, stream, executor, callback);
+            }
+        });
+    }
+
+    /**
+     * Analyzes a batch of images as results are requested, with at most {@code maxConcurrency} calls in flight.
+     */
+    public VisionBatchPublisher<ImageSource, AnalysisResult> analyzeImages(Iterable<? extends ImageSource> images, String[] visualFeatures, String[] details, int maxConcurrency) {
+        return new VisionBatchPublisher<>(images, analyzeOperation(visualFeatures, details), maxConcurrency);
+    }
+
+    /**
+     * Analyzes the images published upstream as results are requested, with at most {@code maxConcurrency} calls in flight.
+     */
+    public VisionBatchPublisher<ImageSource, AnalysisResult> analyzeImages(Publisher<? extends ImageSource> images, String[] visualFeatures, String[] details, int maxConcurrency) {
+        return new VisionBatchPublisher<>(images, analyzeOperation(visualFeatures, details), maxConcurrency);
+    }
+
+    /**
+     * Runs OCR on a batch of images as results are requested, with at most {@code maxConcurrency} calls in flight.
+     */
+    public VisionBatchPublisher<ImageSource, OCR> recognizeTextInImages(Iterable<? extends ImageSource> images, String languageCode, boolean detectOrientation, int maxConcurrency) {
+        return new VisionBatchPublisher<>(images, recognizeTextOperation(languageCode, detectOrientation), maxConcurrency);
+    }
+
+    /**
+     * Runs OCR on the images published upstream as results are requested, with at most {@code maxConcurrency} calls in flight.
+     */
+    public VisionBatchPublisher<ImageSource, OCR> recognizeTextInImages(Publisher<? extends ImageSource> images, String languageCode, boolean detectOrientation, int maxConcurrency) {
+        return new VisionBatchPublisher<>(images, recognizeTextOperation(languageCode, detectOrientation), maxConcurrency);
+    }
+
+    /**
+     * Generates thumbnails for a batch of images as results are requested, with at most {@code maxConcurrency} calls in flight.
+     */
+    public VisionBatchPublisher<ImageSource, byte[]> getThumbnails(Iterable<? extends ImageSource> images, int width, int height, boolean smartCropping, int maxConcurrency) {
+        return new VisionBatchPublisher<>(images, thumbnailOperation(width, height, smartCropping), maxConcurrency);
+    }
+
+    /**
+     * Generates thumbnails for the images published upstream as results are requested, with at most {@code maxConcurrency} calls in flight.
+     */
+    public VisionBatchPublisher<ImageSource, byte[]> getThumbnails(Publisher<? extends ImageSource> images, int width, int height, boolean smartCropping, int maxConcurrency) {
+        return new VisionBatchPublisher<>(images, thumbnailOperation(width, height, smartCropping), maxConcurrency);
+    }
+
+    private VisionBatchPublisher.Operation<ImageSource, AnalysisResult> analyzeOperation(final String[] visualFeatures, final String[] details) {
+        return new VisionBatchPublisher.Operation<ImageSource, AnalysisResult>() {
+            @Override
+            public VisionFuture<AnalysisResult> start(ImageSource image) {
+                return submit(new ImageCall<AnalysisResult>(image) {
+                    @Override
+                    void start(VisionServiceRestClient client, String url, InputStream stream, Executor executor, VisionCallback<AnalysisResult> callback) {
+                        client.analyzeImage(url, stream, visualFeatures, details, executor, callback);
+                    }
+                });
+            }
+        };
+    }
+
+    private VisionBatchPublisher.Operation<ImageSource, OCR> recognizeTextOperation(final String languageCode, final boolean detectOrientation) {
+        return new VisionBatchPublisher.Operation<ImageSource, OCR>() {
+            @Override
+            public VisionFuture<OCR> start(ImageSource image) {
+                return submit(new ImageCall<OCR>(image) {
+                    @Override
+                    void start(VisionServiceRestClient client, String url, InputStream stream, Executor executor, VisionCallback<OCR> callback) {
+                        client.recognizeText(url, stream, languageCode, detectOrientation, executor, callback);
+                    }
+                });
+            }
+        };
+    }
+
+    private VisionBatchPublisher.Operation<ImageSource, byte[]> thumbnailOperation(final int width, final int height, final boolean smartCropping) {
+        return new VisionBatchPublisher.Operation<ImageSource, byte[]>() {
+            @Override
+            public VisionFuture<byte[]> start(ImageSource image) {
+                return submit(new ImageCall<byte[]>(image) {
+                    @Override
+                    void start(VisionServiceRestClient client, String url, InputStream stream, Executor executor, VisionCallback<byte[]> callback) {
+                        client.getThumbnail(width, height, smartCropping, url, stream, executor, callback);
+                    }
+                });
+            }
+        };
+    }
+
+    private interface Call<T> {
+        /**
+         * Starts the call, which reports its outcome to the callback once it is done.
+         */
+        void start(VisionServiceRestClient client, Executor executor, VisionCallback<T> callback) throws VisionServiceException, IOException;
+    }
+
+    /**
+     * Sends an image by URL or as data; data is opened on the executor and closed once the call has completed.
+     */
+    private abstract static class ImageCall<T> implements Call<T> {
+        private final ImageSource image;
+
+        ImageCall(ImageSource image) {
+            this.image = image;
+        }
+
+        @Override
+        public void start(VisionServiceRestClient client, Executor executor, final VisionCallback<T> callback) throws IOException {
+            if (image.getUrl() != null) {
+                start(client, image.getUrl(), null, executor, callback);
+                return;
+            }
+
+            final InputStream stream = image.openStream();
+            try {
+                start(client, null, stream, executor, new VisionCallback<T>() {
+                    @Override
+                    public void onSuccess(T result) {
+                        IOUtils.closeQuietly(stream);
+                        callback.onSuccess(result);
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        IOUtils.closeQuietly(stream);
+                        callback.onFailure(e);
+                    }
+                });
+            } catch (RuntimeException e) {
+                IOUtils.closeQuietly(stream);
+                throw e;
+            }
+        }
+
+        /**
+         * @param url    url of the image, or null if it is sent as data
+         * @param stream data of the image, or null if it is sent by url
+         */
+        abstract void start(VisionServiceRestClient client, String url, InputStream stream, Executor executor, VisionCallback<T> callback);
+    }
+
+    private <T> VisionFuture<T> submit(final Call<T> call) {
+        final CancellationToken cancellation = client.newCallCancellation();
+        final VisionFuture<T> future = new VisionFuture<>(cancellation);
+        final VisionServiceRestClient view = client.withCancellation(cancellation);
+        final VisionCallback<T> completion = new VisionCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                cancellation.detach();
+                future.complete(result);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                cancellation.detach();
+                future.fail(e);
+            }
+        };
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!future.isDone()) {
+                            call.start(view, executor, completion);
+                        } else {
+                            cancellation.detach();
+                        }
+                    } catch (VisionServiceException | IOException | RuntimeException e) {
+                        completion.onFailure(e);
+                    } catch (Error e) {
+                        // Fail the future before the error ends the thread, or its callers would wait forever.
+                        completion.onFailure(new VisionServiceException("Call failed: " + e, e));
+                        throw e;
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            completion.onFailure(new VisionServiceException("Executor rejected the call: " + e.getMessage(), e));
+        }
+        return future;
+    }
+
+    private synchronized HandwritingResultPoller handwritingPoller() {
+        if (poller == null) {
+            poller = new HandwritingResultPoller(client, HandwritingResultPoller.DEFAULT_MAX_CONCURRENT_POLLS, executor);
+        }
+        return poller;
+    }
+
+    private static VisionCallback<Object> whenDone(final Runnable action) {
+        return new VisionCallback<Object>() {
+            @Override
+            public void onSuccess(Object result) {
+                action.run();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                action.run();
+            }
+        };
+    }
+
+    private static class DefaultExecutorHolder {
+        static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "vision-async-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
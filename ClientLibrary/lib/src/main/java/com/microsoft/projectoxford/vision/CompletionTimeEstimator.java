@@ -0,0 +1,72 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision;
+
+/**
+ * Learns how long handwriting recognition takes for images of different sizes, so that results are
+ * polled for when they are likely to be ready rather than on a fixed interval. Estimates are moving
+ * averages of the completion times observed by one client.
+ */
+final class CompletionTimeEstimator {
+    private static final long[] SIZE_LIMITS = {128 * 1024, 512 * 1024, 1024 * 1024, 2 * 1024 * 1024};
+    private static final long[] INITIAL_ESTIMATES_MILLIS = {1000, 1500, 2000, 2500, 3000, 2000};
+    private static final double WEIGHT = 0.3;
+
+    // One estimate per size bucket, the last one for images of unknown size.
+    private final long[] estimatesMillis = INITIAL_ESTIMATES_MILLIS.clone();
+
+    /**
+     * @param imageSize bytes uploaded, or -1 if unknown
+     * @return the expected time from submission to completion
+     */
+    synchronized long estimateMillis(long imageSize) {
+        return estimatesMillis[bucket(imageSize)];
+    }
+
+    synchronized void record(long imageSize, long elapsedMillis) {
+        int bucket = bucket(imageSize);
+        estimatesMillis[bucket] = Math.round(estimatesMillis[bucket] + WEIGHT * (elapsedMillis - estimatesMillis[bucket]));
+    }
+
+    private static int bucket(long imageSize) {
+        if (imageSize < 0) {
+            return SIZE_LIMITS.length + 1;
+        }
+        for (int i = 0; i < SIZE_LIMITS.length; i++) {
+            if (imageSize < SIZE_LIMITS[i]) {
+                return i;
+            }
+        }
+        return SIZE_LIMITS.length;
+    }
+}
@@ -0,0 +1,113 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision;
+
+import com.microsoft.projectoxford.vision.contract.HandwritingRecognitionOperation;
+import com.microsoft.projectoxford.vision.contract.HandwritingRecognitionOperationResult;
+import com.microsoft.projectoxford.vision.contract.HandwritingRecognitionStatus;
+import com.microsoft.projectoxford.vision.rest.Deadline;
+import com.microsoft.projectoxford.vision.rest.VisionServiceException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When to poll one handwriting operation. The first poll is made when operations for images of the
+ * same size have finished so far; later polls back off exponentially, unless the service asks for a
+ * delay with {@code Retry-After}. Not thread-safe; one schedule is used by one poller at a time.
+ */
+final class HandwritingPollSchedule {
+    static final long MIN_INTERVAL_MILLIS = 250;
+    static final long MAX_INTERVAL_MILLIS = 5 * 1000;
+
+    private final HandwritingRecognitionOperation operation;
+    private final Deadline deadline;
+    private final CompletionTimeEstimator completionTimes;
+    private final long started = System.nanoTime();
+    private long delayMillis;
+    private long backoffMillis;
+    private int polls;
+
+    HandwritingPollSchedule(HandwritingRecognitionOperation operation, Deadline deadline, CompletionTimeEstimator completionTimes) {
+        this.operation = operation;
+        this.deadline = deadline;
+        this.completionTimes = completionTimes;
+
+        long expected = completionTimes.estimateMillis(operation.getImageSize());
+        this.delayMillis = expected;
+        this.backoffMillis = Math.max(MIN_INTERVAL_MILLIS, expected / 4);
+    }
+
+    HandwritingRecognitionOperation getOperation() {
+        return operation;
+    }
+
+    Deadline getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @return the time to wait before the next poll; time for a last poll before the deadline is kept in reserve
+     */
+    long nextDelayMillis() {
+        return Math.max(0, Math.min(delayMillis, deadline.remaining(TimeUnit.MILLISECONDS) - MIN_INTERVAL_MILLIS));
+    }
+
+    /**
+     * Takes the result of a poll into account.
+     *
+     * @return true if the operation has finished
+     * @throws VisionServiceException if it has not, and there is no time left for another poll
+     */
+    boolean onResult(HandwritingRecognitionOperationResult result) throws VisionServiceException {
+        polls++;
+        HandwritingRecognitionStatus status = result.getRecognitionStatus();
+        if (status.isTerminal()) {
+            if (status == HandwritingRecognitionStatus.SUCCEEDED) {
+                // Done at the first poll means it may have been done earlier, so probe for a shorter time.
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+                completionTimes.record(operation.getImageSize(), polls == 1 ? elapsed * 3 / 4 : elapsed);
+            }
+            return true;
+        } else if (deadline.remaining(TimeUnit.MILLISECONDS) <= MIN_INTERVAL_MILLIS) {
+            throw new VisionServiceException("Deadline exceeded waiting for " + operation.Url());
+        }
+
+        if (result.getRetryAfterMillis() >= 0) {
+            delayMillis = Math.max(MIN_INTERVAL_MILLIS, Math.min(MAX_INTERVAL_MILLIS, result.getRetryAfterMillis()));
+        } else {
+            delayMillis = backoffMillis;
+            backoffMillis = Math.min(MAX_INTERVAL_MILLIS, backoffMillis * 2);
+        }
+        return false;
+    }
+}
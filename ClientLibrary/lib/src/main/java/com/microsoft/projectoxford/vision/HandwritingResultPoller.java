@@ -0,0 +1,426 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision;
+
+import com.microsoft.projectoxford.vision.contract.HandwritingRecognitionOperation;
+import com.microsoft.projectoxford.vision.contract.HandwritingRecognitionOperationResult;
+import com.microsoft.projectoxford.vision.rest.CancellationToken;
+import com.microsoft.projectoxford.vision.rest.Deadline;
+import com.microsoft.projectoxford.vision.rest.VisionServiceException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Waits for many handwriting operations at once. Pending operations sit in a timer wheel driven by
+ * one thread; when an operation's next poll is due it is started on the executor, with at most
+ * {@code maxConcurrentPolls} polls in flight, so thousands of operations need neither thousands of
+ * threads nor thousands of simultaneous requests. Polls are sent with
+ * {@link com.microsoft.projectoxford.vision.rest.WebServiceRequest#requestResponseAsync}, so with a
+ * transport such as {@link com.microsoft.projectoxford.vision.rest.NioHttpTransport} no thread waits
+ * for their responses either. Polls are timed like {@link VisionServiceRestClient#awaitHandwritingResult}.
+ * <p>
+ * Cancelling a returned future stops polling its operation and aborts its poll in flight; cancelling
+ * the token of the client, see {@link VisionServiceRestClient#withCancellation}, does so for all of them.
+ */
+public class HandwritingResultPoller {
+    public static final int DEFAULT_MAX_CONCURRENT_POLLS = 16;
+
+    private static final long TICK_MILLIS = 50;
+    private static final int WHEEL_SIZE = 512;
+    private static final AtomicInteger pollerCount = new AtomicInteger();
+
+    private final VisionServiceRestClient client;
+    private final int maxConcurrentPolls;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final Thread timer;
+    private final long origin = System.nanoTime();
+
+    // Owned by the timer thread.
+    private final List<Pending>[] wheel;
+    private int scheduled;
+    private long processedTick;
+
+    // Guarded by this.
+    private final List<Pending> arrivals = new ArrayList<>();
+    private final ArrayDeque<Pending> due = new ArrayDeque<>();
+    private int inFlight;
+    private int pendingCount;
+    private boolean shutdown;
+
+    /**
+     * Creates a poller with {@link #DEFAULT_MAX_CONCURRENT_POLLS} polls in flight at most, run on its own threads.
+     */
+    public HandwritingResultPoller(VisionServiceRestClient client) {
+        this(client, DEFAULT_MAX_CONCURRENT_POLLS);
+    }
+
+    public HandwritingResultPoller(VisionServiceRestClient client, int maxConcurrentPolls) {
+        this(client, maxConcurrentPolls, null);
+    }
+
+    /**
+     * @param client             client the polls are made with
+     * @param maxConcurrentPolls number of polls in flight at most
+     * @param executor           executor the polls run on, or null for a pool of {@code maxConcurrentPolls} threads
+     *                           owned by this poller
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public HandwritingResultPoller(VisionServiceRestClient client, int maxConcurrentPolls, Executor executor) {
+        if (maxConcurrentPolls < 1) {
+            throw new IllegalArgumentException("maxConcurrentPolls must be positive");
+        }
+        this.client = client;
+        this.maxConcurrentPolls = maxConcurrentPolls;
+        int id = pollerCount.incrementAndGet();
+        this.ownedExecutor = executor == null ? Executors.newFixedThreadPool(maxConcurrentPolls, threadFactory(id, "poll")) : null;
+        this.executor = executor == null ? ownedExecutor : executor;
+
+        this.wheel = new List[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+
+        this.timer = threadFactory(id, "timer").newThread(new Runnable() {
+            @Override
+            public void run() {
+                runTimer();
+            }
+        });
+        this.timer.start();
+    }
+
+    public VisionFuture<HandwritingRecognitionOperationResult> submit(HandwritingRecognitionOperation operation) {
+        return submit(operation, null);
+    }
+
+    /**
+     * Starts waiting for the operation.
+     *
+     * @param deadline time by which the result must be in, or null for the deadline of the client or,
+     *                 without one, {@link VisionServiceRestClient#DEFAULT_HANDWRITING_TIMEOUT_MILLIS}
+     * @return a future completed with the final result, or failed if polling fails or the deadline passes
+     */
+    public VisionFuture<HandwritingRecognitionOperationResult> submit(HandwritingRecognitionOperation operation, Deadline deadline) {
+        CancellationToken cancellation = client.newCallCancellation();
+        Pending pending = new Pending(client.withCancellation(cancellation), client.scheduleFor(operation, deadline),
+                new VisionFuture<HandwritingRecognitionOperationResult>(cancellation));
+        synchronized (this) {
+            pendingCount++;
+        }
+        schedule(pending);
+        return pending.future;
+    }
+
+    /**
+     * @return the number of operations submitted and not finished yet, including cancelled ones not yet dropped
+     */
+    public synchronized int getPendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * Stops polling. Operations still pending fail, and threads owned by the poller are stopped.
+     */
+    public void shutdown() {
+        List<Pending> dropped;
+        synchronized (this) {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+            dropped = new ArrayList<>(arrivals);
+            dropped.addAll(due);
+            arrivals.clear();
+            due.clear();
+            notifyAll();
+        }
+        // Operations in the wheel are failed by the timer thread on its way out.
+        fail(dropped);
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    private void schedule(Pending pending) {
+        pending.dueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pending.schedule.nextDelayMillis());
+        synchronized (this) {
+            if (!shutdown) {
+                arrivals.add(pending);
+                notifyAll();
+                return;
+            }
+        }
+        finish(pending);
+        pending.future.fail(new VisionServiceException("Poller was shut down"));
+    }
+
+    private void runTimer() {
+        List<Pending> moved = new ArrayList<>();
+        while (true) {
+            synchronized (this) {
+                try {
+                    while (!shutdown && arrivals.isEmpty() && scheduled == 0) {
+                        wait();
+                    }
+                    if (!shutdown && scheduled > 0) {
+                        long wait = TimeUnit.NANOSECONDS.toMillis(origin + (processedTick + 1) * TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS) - System.nanoTime());
+                        if (wait > 0) {
+                            wait(wait);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    shutdown = true;
+                }
+                if (shutdown) {
+                    break;
+                }
+                moved.addAll(arrivals);
+                arrivals.clear();
+            }
+
+            long now = currentTick();
+            if (scheduled == 0) {
+                // Idle until now; no bucket has anything to fire.
+                processedTick = now;
+            }
+            for (Pending pending : moved) {
+                place(pending);
+            }
+            moved.clear();
+
+            for (; processedTick < now; processedTick++) {
+                fire(processedTick + 1);
+            }
+            dispatch();
+        }
+
+        List<Pending> dropped = new ArrayList<>();
+        for (List<Pending> bucket : wheel) {
+            dropped.addAll(bucket);
+            bucket.clear();
+        }
+        scheduled = 0;
+        fail(dropped);
+    }
+
+    private long currentTick() {
+        return (System.nanoTime() - origin) / TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+    }
+
+    private void place(Pending pending) {
+        long tick = Math.max(processedTick + 1, (pending.dueNanos - origin) / TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS) + 1);
+        pending.dueTick = tick;
+        wheel[(int) (tick % WHEEL_SIZE)].add(pending);
+        scheduled++;
+    }
+
+    /**
+     * Moves operations due at the tick from the wheel to the queue of polls to make; operations due
+     * in a later round of the wheel stay.
+     */
+    private void fire(long tick) {
+        List<Pending> bucket = wheel[(int) (tick % WHEEL_SIZE)];
+        if (bucket.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            Iterator<Pending> it = bucket.iterator();
+            while (it.hasNext()) {
+                Pending pending = it.next();
+                if (pending.dueTick <= tick) {
+                    it.remove();
+                    scheduled--;
+                    due.add(pending);
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts due polls while fewer than {@code maxConcurrentPolls} are in flight.
+     */
+    private void dispatch() {
+        while (true) {
+            final Pending pending;
+            synchronized (this) {
+                if (shutdown || inFlight >= maxConcurrentPolls || due.isEmpty()) {
+                    return;
+                }
+                pending = due.poll();
+                if (pending.future.isDone()) {
+                    // Cancelled while it waited; nothing to poll.
+                    finish(pending);
+                    continue;
+                }
+                inFlight++;
+            }
+
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        poll(pending);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    inFlight--;
+                    finish(pending);
+                }
+                pending.future.fail(new VisionServiceException("Executor rejected the poll: " + e.getMessage(), e));
+            }
+        }
+    }
+
+    /**
+     * Starts the poll; it counts as in flight until its response has been handled. Whatever happens,
+     * including an {@link Error}, the future of the operation is completed or failed exactly once
+     * per poll, so that no caller waits forever.
+     */
+    private void poll(final Pending pending) {
+        if (pending.future.isDone()) {
+            finish(pending);
+            pollDone();
+            return;
+        }
+
+        final AtomicBoolean handled = new AtomicBoolean();
+        try {
+            pending.client.pollHandwriting(pending.schedule.getOperation().Url(), pending.schedule.getDeadline(), executor,
+                    new VisionCallback<HandwritingRecognitionOperationResult>() {
+                        @Override
+                        public void onSuccess(HandwritingRecognitionOperationResult result) {
+                            if (!handled.compareAndSet(false, true)) {
+                                return;
+                            }
+                            try {
+                                if (pending.schedule.onResult(result)) {
+                                    finish(pending);
+                                    pending.future.complete(result);
+                                } else {
+                                    schedule(pending);
+                                }
+                            } catch (VisionServiceException | RuntimeException e) {
+                                finish(pending);
+                                pending.future.fail(e);
+                            } catch (Error e) {
+                                finish(pending);
+                                pending.future.fail(new VisionServiceException("Poll failed: " + e, e));
+                                pollDone();
+                                throw e;
+                            }
+                            pollDone();
+                        }
+
+                        @Override
+                        public void onFailure(Exception e) {
+                            pollFailed(pending, handled, e);
+                        }
+                    });
+        } catch (RuntimeException e) {
+            pollFailed(pending, handled, e);
+        } catch (Error e) {
+            pollFailed(pending, handled, new VisionServiceException("Poll failed: " + e, e));
+            throw e;
+        }
+    }
+
+    private void pollFailed(Pending pending, AtomicBoolean handled, Exception e) {
+        if (handled.compareAndSet(false, true)) {
+            finish(pending);
+            pending.future.fail(e);
+            pollDone();
+        }
+    }
+
+    private void pollDone() {
+        synchronized (this) {
+            inFlight--;
+        }
+        dispatch();
+    }
+
+    private synchronized void finish(Pending pending) {
+        if (!pending.finished) {
+            pending.finished = true;
+            pendingCount--;
+            pending.client.getCancellation().detach();
+        }
+    }
+
+    private void fail(List<Pending> dropped) {
+        for (Pending pending : dropped) {
+            finish(pending);
+            pending.future.fail(new VisionServiceException("Poller was shut down"));
+        }
+    }
+
+    private static ThreadFactory threadFactory(final int poller, final String role) {
+        final AtomicInteger threads = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "vision-handwriting-" + role + "-" + poller + "-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private static final class Pending {
+        final VisionServiceRestClient client;
+        final HandwritingPollSchedule schedule;
+        final VisionFuture<HandwritingRecognitionOperationResult> future;
+        long dueNanos;
+        long dueTick;
+        boolean finished;
+
+        Pending(VisionServiceRestClient client, HandwritingPollSchedule schedule, VisionFuture<HandwritingRecognitionOperationResult> future) {
+            this.client = client;
+            this.schedule = schedule;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An image to be sent in a batch, given by URL or as data. Files are only opened when their call
+ * starts, so a long list of them holds no file handles or image bytes in advance.
+ */
+public final class ImageSource {
+    private final String url;
+    private final File file;
+    private final byte[] data;
+    private final InputStream stream;
+
+    private ImageSource(String url, File file, byte[] data, InputStream stream) {
+        this.url = url;
+        this.file = file;
+        this.data = data;
+        this.stream = stream;
+    }
+
+    /**
+     * @param url image URL the service downloads the image from
+     */
+    public static ImageSource fromUrl(String url) {
+        return new ImageSource(url, null, null, null);
+    }
+
+    public static ImageSource fromFile(File file) {
+        return new ImageSource(null, file, null, null);
+    }
+
+    public static ImageSource fromBytes(byte[] data) {
+        return new ImageSource(null, null, data, null);
+    }
+
+    /**
+     * @param stream image data, read once and closed after the call
+     */
+    public static ImageSource fromStream(InputStream stream) {
+        return new ImageSource(null, null, null, stream);
+    }
+
+    /**
+     * @return the image URL, or null if the image is sent as data
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Opens the image data; the caller closes the stream.
+     */
+    InputStream openStream() throws IOException {
+        if (file != null) {
+            return new FileInputStream(file);
+        } else if (data != null) {
+            return new ByteArrayInputStream(data);
+        }
+        return stream;
+    }
+
+    @Override
+    public String toString() {
+        if (url != null) {
+            return url;
+        } else if (file != null) {
+            return file.getPath();
+        } else if (data != null) {
+            return "byte[" + data.length + "]";
+        }
+        return stream.toString();
+    }
+}
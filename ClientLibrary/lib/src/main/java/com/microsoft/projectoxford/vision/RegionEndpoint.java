@@ -0,0 +1,83 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision;
+
+/**
+ * A regional Computer Vision endpoint together with the subscription key valid for it.
+ */
+public class RegionEndpoint {
+    private final String apiRoot;
+    private final String subscriptionKey;
+
+    /**
+     * @param apiRoot         root url of the API, e.g. https://westeurope.api.cognitive.microsoft.com/vision/v1.0
+     * @param subscriptionKey subscription key for that region
+     */
+    public RegionEndpoint(String apiRoot, String subscriptionKey) {
+        this.apiRoot = apiRoot.replaceAll("/$", "");
+        this.subscriptionKey = subscriptionKey;
+    }
+
+    /**
+     * @param region          Azure region name, e.g. westus or westeurope
+     * @param subscriptionKey subscription key for that region
+     */
+    public static RegionEndpoint fromRegion(String region, String subscriptionKey) {
+        return new RegionEndpoint(VisionServiceRestClient.getApiUrlFromRegion(region), subscriptionKey);
+    }
+
+    public String getApiRoot() {
+        return apiRoot;
+    }
+
+    public String getSubscriptionKey() {
+        return subscriptionKey;
+    }
+
+    /**
+     * @return the host name of the endpoint, in lower case
+     */
+    String getHost() {
+        return hostOf(apiRoot);
+    }
+
+    static String hostOf(String url) {
+        int start = url.indexOf("://");
+        start = start < 0 ? 0 : start + 3;
+        int end = start;
+        while (end < url.length() && url.charAt(end) != '/' && url.charAt(end) != '?') {
+            end++;
+        }
+        return url.substring(start, end).toLowerCase();
+    }
+}
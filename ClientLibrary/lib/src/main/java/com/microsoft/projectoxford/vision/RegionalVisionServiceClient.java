@@ -0,0 +1,620 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision;
+
+import com.microsoft.projectoxford.vision.contract.AnalysisInDomainResult;
+import com.microsoft.projectoxford.vision.contract.AnalysisResult;
+import com.microsoft.projectoxford.vision.contract.HandwritingRecognitionOperation;
+import com.microsoft.projectoxford.vision.contract.HandwritingRecognitionOperationResult;
+import com.microsoft.projectoxford.vision.contract.Model;
+import com.microsoft.projectoxford.vision.contract.ModelResult;
+import com.microsoft.projectoxford.vision.contract.OCR;
+import com.microsoft.projectoxford.vision.contract.ThumbnailResult;
+import com.microsoft.projectoxford.vision.rest.ApacheHttpTransport;
+import com.microsoft.projectoxford.vision.rest.CancellationToken;
+import com.microsoft.projectoxford.vision.rest.Deadline;
+import com.microsoft.projectoxford.vision.rest.HttpTransport;
+import com.microsoft.projectoxford.vision.rest.VisionServiceException;
+import com.microsoft.projectoxford.vision.rest.WarmUpResult;
+import com.microsoft.projectoxford.vision.rest.WebServiceRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Client that spreads calls over several regional endpoints.
+ * <p>
+ * Latency and error rate are tracked per region as exponentially weighted moving averages. Each call
+ * goes to the fastest healthy region, with recent errors counting against a region's latency; a small
+ * share of calls explores the others so their figures stay current. When a region fails with an I/O
+ * error, or the service answers with throttling or a server error, the call fails over to the next
+ * region, provided its body can be sent again. Creating a handwriting operation only fails over when
+ * the region could not be connected to, since any other failure may leave the operation created. Rejections made by the client itself, such as its rate
+ * limiter or an open circuit breaker, do not fail over. Regions with a high error rate are skipped for
+ * a cooldown period. Handwriting operations are always polled in the region that created them.
+ * <p>
+ * Like {@link VisionServiceRestClient}, a client is thread-safe; the figures of each region are updated
+ * under the region's lock.
+ */
+public class RegionalVisionServiceClient implements VisionServiceClient {
+    private static final double EWMA_WEIGHT = 0.2;
+    private static final double UNHEALTHY_ERROR_RATE = 0.5;
+    private static final long UNHEALTHY_COOLDOWN_MILLIS = 30 * 1000;
+    private static final double EXPLORATION_RATE = 0.05;
+    private static final double ERROR_PENALTY = 4;
+
+    private final List<Region> regions;
+    private final HttpTransport transport;
+    private final Random random;
+    private final Deadline deadline;
+    private final CancellationToken cancellation;
+
+    public RegionalVisionServiceClient(List<RegionEndpoint> endpoints) {
+        this(endpoints, new ApacheHttpTransport());
+    }
+
+    /**
+     * @param endpoints regions to use, in order of preference until latencies have been observed
+     * @param transport transport shared by all regions
+     */
+    public RegionalVisionServiceClient(List<RegionEndpoint> endpoints, HttpTransport transport) {
+        if (endpoints == null || endpoints.isEmpty()) {
+            throw new IllegalArgumentException("At least one region endpoint is required");
+        }
+
+        List<Region> regions = new ArrayList<>(endpoints.size());
+        for (int i = 0; i < endpoints.size(); i++) {
+            RegionEndpoint endpoint = endpoints.get(i);
+            WebServiceRequest restCall = new WebServiceRequest(endpoint.getSubscriptionKey(), transport);
+            regions.add(new Region(i, endpoint, new VisionServiceRestClient(restCall, endpoint.getApiRoot())));
+        }
+
+        this.regions = Collections.unmodifiableList(regions);
+        this.transport = transport;
+        this.random = new Random();
+        this.deadline = null;
+        this.cancellation = null;
+    }
+
+    private RegionalVisionServiceClient(RegionalVisionServiceClient parent, Deadline deadline, CancellationToken cancellation) {
+        this.regions = parent.regions;
+        this.transport = parent.transport;
+        this.random = parent.random;
+        this.deadline = deadline;
+        this.cancellation = cancellation;
+    }
+
+    /**
+     * Returns a view of this client whose calls must complete by the given deadline, including retries
+     * and failover to other regions. The view shares regions and their latency figures with this client.
+     */
+    public RegionalVisionServiceClient withDeadline(Deadline deadline) {
+        return new RegionalVisionServiceClient(this, Deadline.earlierOf(this.deadline, deadline), cancellation);
+    }
+
+    /**
+     * Returns a view of this client whose calls are cancelled by the given token: cancelling it aborts
+     * the calls in flight, releasing their connections, and stops failover, retries and polling.
+     */
+    public RegionalVisionServiceClient withCancellation(CancellationToken cancellation) {
+        return new RegionalVisionServiceClient(this, deadline, cancellation);
+    }
+
+    /**
+     * @return the client of each region, in the order the endpoints were given, e.g. to configure retries
+     */
+    public List<VisionServiceRestClient> getRegionalClients() {
+        List<VisionServiceRestClient> clients = new ArrayList<>(regions.size());
+        for (Region region : regions) {
+            clients.add(region.client);
+        }
+        return clients;
+    }
+
+    /**
+     * @return the api root of the region the next call would be sent to
+     */
+    public String getPreferredApiRoot() {
+        return candidates(false).get(0).endpoint.getApiRoot();
+    }
+
+    /**
+     * Connects to every region ahead of the first call, see {@link VisionServiceRestClient#warmUp()}.
+     *
+     * @return time spent in each phase, per region in the order the endpoints were given
+     */
+    public List<WarmUpResult> warmUp() throws VisionServiceException {
+        List<WarmUpResult> results = new ArrayList<>(regions.size());
+        for (Region region : regions) {
+            results.add(region.client.warmUp());
+        }
+        return results;
+    }
+
+    /**
+     * Closes all pooled connections. The client must not be used afterwards.
+     */
+    public void shutdown() {
+        transport.shutdown();
+    }
+
+    @Override
+    public AnalysisResult analyzeImage(final String url, final String[] visualFeatures, final String[] details) throws VisionServiceException {
+        return routeUrl(true, new RegionCall<AnalysisResult>() {
+            @Override
+            public AnalysisResult invoke(VisionServiceRestClient client) throws VisionServiceException {
+                return client.analyzeImage(url, visualFeatures, details);
+            }
+        });
+    }
+
+    @Override
+    public AnalysisResult analyzeImage(final InputStream stream, final String[] visualFeatures, final String[] details) throws VisionServiceException, IOException {
+        return route(stream, true, new RegionCall<AnalysisResult>() {
+            @Override
+            public AnalysisResult invoke(VisionServiceRestClient client) throws VisionServiceException, IOException {
+                return client.analyzeImage(stream, visualFeatures, details);
+            }
+        });
+    }
+
+    @Override
+    public AnalysisInDomainResult analyzeImageInDomain(String url, Model model) throws VisionServiceException {
+        return analyzeImageInDomain(url, model.name);
+    }
+
+    @Override
+    public AnalysisInDomainResult analyzeImageInDomain(final String url, final String model) throws VisionServiceException {
+        return routeUrl(true, new RegionCall<AnalysisInDomainResult>() {
+            @Override
+            public AnalysisInDomainResult invoke(VisionServiceRestClient client) throws VisionServiceException {
+                return client.analyzeImageInDomain(url, model);
+            }
+        });
+    }
+
+    @Override
+    public AnalysisInDomainResult analyzeImageInDomain(InputStream stream, Model model) throws VisionServiceException, IOException {
+        return analyzeImageInDomain(stream, model.name);
+    }
+
+    @Override
+    public AnalysisInDomainResult analyzeImageInDomain(final InputStream stream, final String model) throws VisionServiceException, IOException {
+        return route(stream, true, new RegionCall<AnalysisInDomainResult>() {
+            @Override
+            public AnalysisInDomainResult invoke(VisionServiceRestClient client) throws VisionServiceException, IOException {
+                return client.analyzeImageInDomain(stream, model);
+            }
+        });
+    }
+
+    @Override
+    public AnalysisResult describe(final String url, final int maxCandidates) throws VisionServiceException {
+        return routeUrl(true, new RegionCall<AnalysisResult>() {
+            @Override
+            public AnalysisResult invoke(VisionServiceRestClient client) throws VisionServiceException {
+                return client.describe(url, maxCandidates);
+            }
+        });
+    }
+
+    @Override
+    public AnalysisResult describe(final InputStream stream, final int maxCandidates) throws VisionServiceException, IOException {
+        return route(stream, true, new RegionCall<AnalysisResult>() {
+            @Override
+            public AnalysisResult invoke(VisionServiceRestClient client) throws VisionServiceException, IOException {
+                return client.describe(stream, maxCandidates);
+            }
+        });
+    }
+
+    @Override
+    public ModelResult listModels() throws VisionServiceException {
+        return routeUrl(true, new RegionCall<ModelResult>() {
+            @Override
+            public ModelResult invoke(VisionServiceRestClient client) throws VisionServiceException {
+                return client.listModels();
+            }
+        });
+    }
+
+    @Override
+    public OCR recognizeText(final String url, final String languageCode, final boolean detectOrientation) throws VisionServiceException {
+        return routeUrl(true, new RegionCall<OCR>() {
+            @Override
+            public OCR invoke(VisionServiceRestClient client) throws VisionServiceException {
+                return client.recognizeText(url, languageCode, detectOrientation);
+            }
+        });
+    }
+
+    @Override
+    public OCR recognizeText(final InputStream stream, final String languageCode, final boolean detectOrientation) throws VisionServiceException, IOException {
+        return route(stream, true, new RegionCall<OCR>() {
+            @Override
+            public OCR invoke(VisionServiceRestClient client) throws VisionServiceException, IOException {
+                return client.recognizeText(stream, languageCode, detectOrientation);
+            }
+        });
+    }
+
+    @Override
+    public HandwritingRecognitionOperation createHandwritingRecognitionOperationAsync(final String url) throws VisionServiceException {
+        return routeUrl(false, new RegionCall<HandwritingRecognitionOperation>() {
+            @Override
+            public HandwritingRecognitionOperation invoke(VisionServiceRestClient client) throws VisionServiceException {
+                return client.createHandwritingRecognitionOperationAsync(url);
+            }
+        });
+    }
+
+    @Override
+    public HandwritingRecognitionOperation createHandwritingRecognitionOperationAsync(final InputStream stream) throws VisionServiceException, IOException {
+        return route(stream, false, new RegionCall<HandwritingRecognitionOperation>() {
+            @Override
+            public HandwritingRecognitionOperation invoke(VisionServiceRestClient client) throws VisionServiceException, IOException {
+                return client.createHandwritingRecognitionOperationAsync(stream);
+            }
+        });
+    }
+
+    /**
+     * Polls the operation in the region that issued its {@code Operation-Location}; it is never failed over.
+     */
+    @Override
+    public HandwritingRecognitionOperationResult getHandwritingRecognitionOperationResultAsync(String uri) throws VisionServiceException {
+        Region region = regionOf(uri);
+        long start = System.nanoTime();
+        try {
+            HandwritingRecognitionOperationResult result = clientOf(region).getHandwritingRecognitionOperationResultAsync(uri);
+            region.recordSuccess(System.nanoTime() - start);
+            return result;
+        } catch (VisionServiceException e) {
+            if (isRegionFailure(e) && !isExpired()) {
+                region.recordFailure();
+            }
+            throw e;
+        }
+    }
+
+    public HandwritingRecognitionOperationResult awaitHandwritingResult(HandwritingRecognitionOperation operation) throws VisionServiceException {
+        return awaitHandwritingResult(operation, null);
+    }
+
+    /**
+     * Waits for the operation in the region that issued it, using that region's completion times.
+     */
+    public HandwritingRecognitionOperationResult awaitHandwritingResult(HandwritingRecognitionOperation operation, Deadline deadline) throws VisionServiceException {
+        return clientOf(regionOf(operation.Url())).awaitHandwritingResult(operation, deadline);
+    }
+
+    @Override
+    public byte[] getThumbnail(final int width, final int height, final boolean smartCropping, final String url) throws VisionServiceException, IOException {
+        return route(null, true, new RegionCall<byte[]>() {
+            @Override
+            public byte[] invoke(VisionServiceRestClient client) throws VisionServiceException, IOException {
+                return client.getThumbnail(width, height, smartCropping, url);
+            }
+        });
+    }
+
+    @Override
+    public byte[] getThumbnail(final int width, final int height, final boolean smartCropping, final InputStream stream) throws VisionServiceException, IOException {
+        return route(stream, true, new RegionCall<byte[]>() {
+            @Override
+            public byte[] invoke(VisionServiceRestClient client) throws VisionServiceException, IOException {
+                return client.getThumbnail(width, height, smartCropping, stream);
+            }
+        });
+    }
+
+    /**
+     * See {@link VisionServiceRestClient#getThumbnail(int, int, boolean, String, OutputStream)}. The call is
+     * only failed over to another region if nothing has been written to the sink yet.
+     */
+    public ThumbnailResult getThumbnail(final int width, final int height, final boolean smartCropping, final String url, final OutputStream sink) throws VisionServiceException, IOException {
+        return route(null, true, new RegionCall<ThumbnailResult>() {
+            @Override
+            public ThumbnailResult invoke(VisionServiceRestClient client) throws VisionServiceException, IOException {
+                return client.getThumbnail(width, height, smartCropping, url, sink);
+            }
+        });
+    }
+
+    /**
+     * See {@link VisionServiceRestClient#getThumbnail(int, int, boolean, String, WritableByteChannel)}. The call
+     * is only failed over to another region if nothing has been written to the sink yet.
+     */
+    public ThumbnailResult getThumbnail(final int width, final int height, final boolean smartCropping, final String url, final WritableByteChannel sink) throws VisionServiceException, IOException {
+        return route(null, true, new RegionCall<ThumbnailResult>() {
+            @Override
+            public ThumbnailResult invoke(VisionServiceRestClient client) throws VisionServiceException, IOException {
+                return client.getThumbnail(width, height, smartCropping, url, sink);
+            }
+        });
+    }
+
+    /**
+     * See {@link VisionServiceRestClient#getThumbnail(int, int, boolean, String, ByteBuffer)}. The call is
+     * only failed over to another region if nothing has been written to the buffer yet.
+     */
+    public ThumbnailResult getThumbnail(final int width, final int height, final boolean smartCropping, final String url, final ByteBuffer sink) throws VisionServiceException, IOException {
+        return route(null, true, new RegionCall<ThumbnailResult>() {
+            @Override
+            public ThumbnailResult invoke(VisionServiceRestClient client) throws VisionServiceException, IOException {
+                return client.getThumbnail(width, height, smartCropping, url, sink);
+            }
+        });
+    }
+
+    /**
+     * See {@link VisionServiceRestClient#getThumbnail(int, int, boolean, InputStream, OutputStream)}. The call is
+     * only failed over to another region if nothing has been written to the sink yet.
+     */
+    public ThumbnailResult getThumbnail(final int width, final int height, final boolean smartCropping, final InputStream stream, final OutputStream sink) throws VisionServiceException, IOException {
+        return route(stream, true, new RegionCall<ThumbnailResult>() {
+            @Override
+            public ThumbnailResult invoke(VisionServiceRestClient client) throws VisionServiceException, IOException {
+                return client.getThumbnail(width, height, smartCropping, stream, sink);
+            }
+        });
+    }
+
+    /**
+     * See {@link VisionServiceRestClient#getThumbnail(int, int, boolean, InputStream, WritableByteChannel)}. The call
+     * is only failed over to another region if nothing has been written to the sink yet.
+     */
+    public ThumbnailResult getThumbnail(final int width, final int height, final boolean smartCropping, final InputStream stream, final WritableByteChannel sink) throws VisionServiceException, IOException {
+        return route(stream, true, new RegionCall<ThumbnailResult>() {
+            @Override
+            public ThumbnailResult invoke(VisionServiceRestClient client) throws VisionServiceException, IOException {
+                return client.getThumbnail(width, height, smartCropping, stream, sink);
+            }
+        });
+    }
+
+    /**
+     * See {@link VisionServiceRestClient#getThumbnail(int, int, boolean, InputStream, ByteBuffer)}. The call is
+     * only failed over to another region if nothing has been written to the buffer yet.
+     */
+    public ThumbnailResult getThumbnail(final int width, final int height, final boolean smartCropping, final InputStream stream, final ByteBuffer sink) throws VisionServiceException, IOException {
+        return route(stream, true, new RegionCall<ThumbnailResult>() {
+            @Override
+            public ThumbnailResult invoke(VisionServiceRestClient client) throws VisionServiceException, IOException {
+                return client.getThumbnail(width, height, smartCropping, stream, sink);
+            }
+        });
+    }
+
+    private interface RegionCall<T> {
+        T invoke(VisionServiceRestClient client) throws VisionServiceException, IOException;
+    }
+
+    private <T> T routeUrl(boolean idempotent, RegionCall<T> call) throws VisionServiceException {
+        try {
+            return route(null, idempotent, call);
+        } catch (IOException e) {
+            throw new VisionServiceException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Sends the call to the best region and fails over to the next ones on region failures. Calls
+     * uploading a stream are only failed over if the stream can be rewound, and calls that are not
+     * idempotent only if the region could not be connected to.
+     */
+    private <T> T route(InputStream stream, boolean idempotent, RegionCall<T> call) throws VisionServiceException, IOException {
+        boolean replayable = stream == null || stream instanceof ByteArrayInputStream;
+        if (stream != null && replayable) {
+            stream.mark(0);
+        }
+
+        VisionServiceException lastFailure = null;
+        for (Region region : candidates(true)) {
+            if (lastFailure != null) {
+                if (!replayable || Thread.currentThread().isInterrupted() || isExpired()) {
+                    break;
+                }
+                if (stream != null) {
+                    stream.reset();
+                }
+            }
+
+            long start = System.nanoTime();
+            try {
+                T result = call.invoke(clientOf(region));
+                region.recordSuccess(System.nanoTime() - start);
+                return result;
+            } catch (VisionServiceException e) {
+                if (!isRegionFailure(e)) {
+                    // The region answered; the request itself was rejected.
+                    region.recordSuccess(System.nanoTime() - start);
+                    throw e;
+                }
+                if (isExpired()) {
+                    // The caller ran out of time or gave up; that says nothing about the region.
+                    throw e;
+                }
+                region.recordFailure();
+                if (!idempotent && !isConnectFailure(e)) {
+                    // The region may have acted on the call, e.g. created an operation; sending it to
+                    // another region could do so twice.
+                    throw e;
+                }
+                lastFailure = e;
+            }
+        }
+
+        throw lastFailure;
+    }
+
+    private VisionServiceRestClient clientOf(Region region) {
+        VisionServiceRestClient client = deadline != null ? region.client.withDeadline(deadline) : region.client;
+        return cancellation != null ? client.withCancellation(cancellation) : client;
+    }
+
+    /**
+     * @return true if the caller has run out of time or given up, which says nothing about the region
+     */
+    private boolean isExpired() {
+        return (deadline != null && deadline.isExpired()) || (cancellation != null && cancellation.isCancelled());
+    }
+
+    private static boolean isRegionFailure(VisionServiceException e) {
+        int statusCode = e.getStatusCode();
+        if (statusCode != 0) {
+            // Permanent errors, e.g. an invalid image, would fail the same way in every region.
+            return statusCode == 429 || statusCode >= 500;
+        }
+        // Without a status the call either never reached the service or was rejected by the client
+        // itself; only the former says something about the region.
+        return e.isRetriable() && e.getCause() instanceof IOException;
+    }
+
+    private static boolean isConnectFailure(VisionServiceException e) {
+        return e.getStatusCode() == 0 && e.getCause() instanceof IOException
+                && WebServiceRequest.isConnectFailure((IOException) e.getCause());
+    }
+
+    private Region regionOf(String operationUrl) throws VisionServiceException {
+        String host = RegionEndpoint.hostOf(operationUrl);
+        for (Region region : regions) {
+            if (region.endpoint.getHost().equals(host)) {
+                return region;
+            }
+        }
+        throw new VisionServiceException("No configured region issued the operation " + operationUrl);
+    }
+
+    /**
+     * @return healthy regions, fastest first, followed by unhealthy ones as a last resort
+     */
+    private List<Region> candidates(boolean explore) {
+        final long now = System.currentTimeMillis();
+        List<Region> healthy = new ArrayList<>(regions.size());
+        List<Region> unhealthy = new ArrayList<>();
+        for (Region region : regions) {
+            if (region.isHealthy(now)) {
+                healthy.add(region);
+            } else {
+                unhealthy.add(region);
+            }
+        }
+
+        Collections.sort(healthy, new Comparator<Region>() {
+            @Override
+            public int compare(Region a, Region b) {
+                int byScore = Double.compare(a.getScore(), b.getScore());
+                return byScore != 0 ? byScore : a.index - b.index;
+            }
+        });
+        Collections.sort(unhealthy, new Comparator<Region>() {
+            @Override
+            public int compare(Region a, Region b) {
+                long diff = a.getUnhealthyUntil() - b.getUnhealthyUntil();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+
+        if (explore && healthy.size() > 1) {
+            int explored = -1;
+            synchronized (random) {
+                if (random.nextDouble() < EXPLORATION_RATE) {
+                    explored = 1 + random.nextInt(healthy.size() - 1);
+                }
+            }
+            if (explored > 0) {
+                healthy.add(0, healthy.remove(explored));
+            }
+        }
+
+        healthy.addAll(unhealthy);
+        return healthy;
+    }
+
+    private static class Region {
+        private final int index;
+        private final RegionEndpoint endpoint;
+        private final VisionServiceRestClient client;
+        private double latencyNanos;
+        private double errorRate;
+        private long unhealthyUntil;
+
+        Region(int index, RegionEndpoint endpoint, VisionServiceRestClient client) {
+            this.index = index;
+            this.endpoint = endpoint;
+            this.client = client;
+        }
+
+        synchronized void recordSuccess(long nanos) {
+            latencyNanos = latencyNanos == 0 ? nanos : latencyNanos + EWMA_WEIGHT * (nanos - latencyNanos);
+            errorRate -= EWMA_WEIGHT * errorRate;
+            unhealthyUntil = 0;
+        }
+
+        synchronized void recordFailure() {
+            errorRate += EWMA_WEIGHT * (1 - errorRate);
+            if (errorRate >= UNHEALTHY_ERROR_RATE) {
+                unhealthyUntil = System.currentTimeMillis() + UNHEALTHY_COOLDOWN_MILLIS;
+            }
+        }
+
+        synchronized boolean isHealthy(long now) {
+            return now >= unhealthyUntil;
+        }
+
+        /**
+         * @return the average latency, penalized by the error rate so that flaky regions rank lower
+         */
+        synchronized double getScore() {
+            if (latencyNanos == 0) {
+                // Untried regions go first, regions that have only ever failed go last.
+                return errorRate == 0 ? 0 : Double.MAX_VALUE;
+            }
+            return latencyNanos * (1 + ERROR_PENALTY * errorRate);
+        }
+
+        synchronized long getUnhealthyUntil() {
+            return unhealthyUntil;
+        }
+    }
+}
@@ -0,0 +1,420 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reactive Streams {@link Publisher} that runs one call per source and emits the results in the
+ * order the calls complete. A call is only started once a subscriber has requested its result, and
+ * at most {@code maxConcurrency} calls are in flight, so a fast producer of sources can never queue
+ * up more work or memory than the subscriber is ready for.
+ * <p>
+ * Sources come from an {@link Iterable}, read lazily, or from an upstream {@link Publisher}, which is
+ * requested one source at a time. Failed calls are emitted as {@link BatchResult}s carrying the error;
+ * the stream itself only fails if the sources do. Cancelling the subscription cancels the calls in
+ * flight. Every subscriber gets its own run over the sources.
+ * <p>
+ * Results are delivered on the threads completing the calls or requesting more, one at a time.
+ */
+public class VisionBatchPublisher<S, R> implements Publisher<BatchResult<S, R>> {
+    /**
+     * Starts the call for one source, typically through an {@link AsyncVisionServiceClient}.
+     */
+    public interface Operation<S, R> {
+        VisionFuture<R> start(S source);
+    }
+
+    private final Iterable<? extends S> iterable;
+    private final Publisher<? extends S> publisher;
+    private final Operation<S, R> operation;
+    private final int maxConcurrency;
+
+    /**
+     * @param sources        sources to run the operation on, iterated as results are requested
+     * @param operation      starts the call for a source
+     * @param maxConcurrency upper bound on calls in flight at a time
+     */
+    public VisionBatchPublisher(Iterable<? extends S> sources, Operation<S, R> operation, int maxConcurrency) {
+        this(sources, null, operation, maxConcurrency);
+    }
+
+    /**
+     * @param sources        publisher of the sources, requested as results are requested
+     * @param operation      starts the call for a source
+     * @param maxConcurrency upper bound on calls in flight at a time
+     */
+    public VisionBatchPublisher(Publisher<? extends S> sources, Operation<S, R> operation, int maxConcurrency) {
+        this(null, sources, operation, maxConcurrency);
+    }
+
+    private VisionBatchPublisher(Iterable<? extends S> iterable, Publisher<? extends S> publisher,
+                                 Operation<S, R> operation, int maxConcurrency) {
+        if ((iterable == null && publisher == null) || operation == null) {
+            throw new NullPointerException();
+        } else if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1");
+        }
+        this.iterable = iterable;
+        this.publisher = publisher;
+        this.operation = operation;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super BatchResult<S, R>> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+
+        BatchSubscription batch = new BatchSubscription(subscriber);
+        if (iterable != null) {
+            Iterator<? extends S> iterator;
+            try {
+                iterator = iterable.iterator();
+            } catch (RuntimeException e) {
+                batch.failBeforeStart(e);
+                return;
+            }
+            batch.start(new IteratorUpstream(iterator, batch));
+        } else {
+            batch.start(new PublisherUpstream(batch));
+        }
+    }
+
+    /**
+     * Where sources come from: each {@link #requestOne()} leads to exactly one call of
+     * {@link BatchSubscription#onSource}, {@link BatchSubscription#onSourcesComplete} or
+     * {@link BatchSubscription#onSourcesFailed}, possibly before it returns.
+     */
+    private interface Upstream {
+        void start();
+
+        void requestOne();
+
+        void cancel();
+    }
+
+    private final class IteratorUpstream implements Upstream {
+        private final Iterator<? extends S> iterator;
+        private final BatchSubscription batch;
+
+        IteratorUpstream(Iterator<? extends S> iterator, BatchSubscription batch) {
+            this.iterator = iterator;
+            this.batch = batch;
+        }
+
+        @Override
+        public void start() {
+            // Sources are pulled on demand.
+        }
+
+        @Override
+        public void requestOne() {
+            S source;
+            try {
+                if (!iterator.hasNext()) {
+                    batch.onSourcesComplete();
+                    return;
+                }
+                source = iterator.next();
+            } catch (RuntimeException e) {
+                batch.onSourcesFailed(e);
+                return;
+            }
+            batch.onSource(source);
+        }
+
+        @Override
+        public void cancel() {
+            // Nothing is held beyond the iterator.
+        }
+    }
+
+    private final class PublisherUpstream implements Upstream, Subscriber<S> {
+        private final BatchSubscription batch;
+        private final AtomicLong pendingRequests = new AtomicLong();
+        private volatile Subscription subscription;
+        private volatile boolean cancelled;
+
+        PublisherUpstream(BatchSubscription batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void start() {
+            publisher.subscribe(this);
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            if (s == null) {
+                throw new NullPointerException("subscription");
+            } else if (subscription != null || cancelled) {
+                s.cancel();
+                return;
+            }
+            subscription = s;
+            long pending = pendingRequests.getAndSet(0);
+            if (pending > 0) {
+                s.request(pending);
+            }
+        }
+
+        @Override
+        public void requestOne() {
+            Subscription s = subscription;
+            if (s != null) {
+                s.request(1);
+            } else {
+                pendingRequests.incrementAndGet();
+                // The subscription may have arrived meanwhile and missed this request.
+                s = subscription;
+                if (s != null && pendingRequests.getAndSet(0) > 0) {
+                    s.request(1);
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            Subscription s = subscription;
+            if (s != null) {
+                s.cancel();
+            }
+        }
+
+        @Override
+        public void onNext(S source) {
+            if (source == null) {
+                throw new NullPointerException("source");
+            }
+            batch.onSource(source);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            batch.onSourcesFailed(t);
+        }
+
+        @Override
+        public void onComplete() {
+            batch.onSourcesComplete();
+        }
+    }
+
+    private final class BatchSubscription implements Subscription {
+        private final Subscriber<? super BatchResult<S, R>> subscriber;
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicLong requested = new AtomicLong();
+        private final Queue<BatchResult<S, R>> ready = new ConcurrentLinkedQueue<>();
+        private final Set<VisionFuture<R>> running =
+                Collections.newSetFromMap(new ConcurrentHashMap<VisionFuture<R>, Boolean>());
+        // Calls started and not yet emitted, whether still running or waiting in the queue.
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private Upstream upstream;
+        private long emitted;
+        private volatile boolean sourcePending;
+        private volatile boolean sourcesDone;
+        private volatile Throwable sourcesError;
+        private volatile Throwable invalidRequest;
+        private volatile boolean cancelled;
+        private boolean terminated;
+
+        BatchSubscription(Subscriber<? super BatchResult<S, R>> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void start(Upstream upstream) {
+            this.upstream = upstream;
+            subscriber.onSubscribe(this);
+            upstream.start();
+            drain();
+        }
+
+        void failBeforeStart(Throwable error) {
+            subscriber.onSubscribe(this);
+            terminated = true;
+            subscriber.onError(error);
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Requested " + n + " results, which is not positive");
+            } else {
+                long current;
+                long next;
+                do {
+                    current = requested.get();
+                    next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while (!requested.compareAndSet(current, next));
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        void onSource(S source) {
+            VisionFuture<R> future;
+            outstanding.incrementAndGet();
+            try {
+                future = operation.start(source);
+            } catch (RuntimeException e) {
+                ready.offer(new BatchResult<S, R>(source, null, e));
+                sourcePending = false;
+                drain();
+                return;
+            }
+
+            // The call counts as running before another source may be requested, or a drain on
+            // another thread could start one call more than maxConcurrency.
+            running.add(future);
+            sourcePending = false;
+            final S callSource = source;
+            final VisionFuture<R> callFuture = future;
+            future.addCallback(new VisionCallback<R>() {
+                @Override
+                public void onSuccess(R result) {
+                    finished(new BatchResult<S, R>(callSource, result, null));
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    finished(new BatchResult<S, R>(callSource, null, e));
+                }
+
+                private void finished(BatchResult<S, R> result) {
+                    running.remove(callFuture);
+                    ready.offer(result);
+                    drain();
+                }
+            });
+            drain();
+        }
+
+        void onSourcesComplete() {
+            sourcesDone = true;
+            sourcePending = false;
+            drain();
+        }
+
+        void onSourcesFailed(Throwable error) {
+            sourcesError = error;
+            sourcesDone = true;
+            sourcePending = false;
+            drain();
+        }
+
+        /**
+         * Emits what is ready and demanded, starts calls for unmet demand and signals termination.
+         * Runs on one thread at a time; callers arriving meanwhile make the running thread loop again.
+         */
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+
+            int missed = 1;
+            do {
+                if (terminated) {
+                    ready.clear();
+                    return;
+                } else if (cancelled) {
+                    stop();
+                    return;
+                } else if (invalidRequest != null) {
+                    stop();
+                    subscriber.onError(invalidRequest);
+                    return;
+                } else if (sourcesError != null) {
+                    stop();
+                    subscriber.onError(sourcesError);
+                    return;
+                }
+
+                long demand = requested.get();
+                BatchResult<S, R> result;
+                while (emitted != demand && !cancelled && (result = ready.poll()) != null) {
+                    emitted++;
+                    outstanding.decrementAndGet();
+                    subscriber.onNext(result);
+                }
+
+                if (cancelled) {
+                    stop();
+                    return;
+                } else if (sourcesDone && !sourcePending && outstanding.get() == 0) {
+                    terminated = true;
+                    subscriber.onComplete();
+                    return;
+                }
+
+                // Only start calls whose results have been asked for.
+                while (!sourcesDone && !sourcePending && !cancelled && running.size() < maxConcurrency
+                        && emitted + outstanding.get() < requested.get()) {
+                    sourcePending = true;
+                    upstream.requestOne();
+                }
+
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void stop() {
+            terminated = true;
+            upstream.cancel();
+            for (VisionFuture<R> future : running) {
+                future.cancel(true);
+            }
+            running.clear();
+            ready.clear();
+        }
+    }
+}
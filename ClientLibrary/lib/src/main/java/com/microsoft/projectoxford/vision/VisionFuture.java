@@ -0,0 +1,197 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision;
+
+import com.microsoft.projectoxford.vision.rest.CancellationToken;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Result of a call made by an {@link AsyncVisionServiceClient}. Besides blocking in {@link #get()},
+ * callers can register callbacks that run when the call completes. Cancelling the future aborts the
+ * HTTP request in flight and releases its connection.
+ */
+public class VisionFuture<T> implements Future<T> {
+    private static final int PENDING = 0;
+    private static final int SUCCEEDED = 1;
+    private static final int FAILED = 2;
+    private static final int CANCELLED = 3;
+
+    private final CancellationToken cancellation;
+    private final List<Runnable> listeners = new ArrayList<>(1);
+    // Callers of get() block on the latch rather than on the monitor, which would pin a virtual thread to its carrier.
+    private final CountDownLatch done = new CountDownLatch(1);
+    private int state = PENDING;
+    private T result;
+    private Exception failure;
+
+    VisionFuture(CancellationToken cancellation) {
+        this.cancellation = cancellation;
+        // Cancelling the token, e.g. along with the token of the client, cancels the future too.
+        cancellation.addListener(new Runnable() {
+            @Override
+            public void run() {
+                finish(CANCELLED, null, null);
+            }
+        });
+    }
+
+    /**
+     * Cancels the call. The HTTP request in flight, if any, is aborted regardless of
+     * {@code mayInterruptIfRunning}.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!finish(CANCELLED, null, null)) {
+            return false;
+        }
+        cancellation.cancel();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return state == CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return state != PENDING;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        done.await();
+        return report();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return report();
+    }
+
+    /**
+     * Runs the callback on the thread that completes the call, or right away if it has completed.
+     */
+    public void addCallback(VisionCallback<? super T> callback) {
+        addCallback(callback, null);
+    }
+
+    /**
+     * Runs the callback on the given executor, e.g. one posting to the main thread, once the call completes.
+     */
+    public void addCallback(final VisionCallback<? super T> callback, final Executor executor) {
+        final Runnable notify = new Runnable() {
+            @Override
+            public void run() {
+                T value;
+                Exception error;
+                synchronized (VisionFuture.this) {
+                    value = result;
+                    error = state == CANCELLED ? new CancellationException() : failure;
+                }
+                if (error == null) {
+                    callback.onSuccess(value);
+                } else {
+                    callback.onFailure(error);
+                }
+            }
+        };
+        Runnable listener = executor == null ? notify : new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(notify);
+            }
+        };
+
+        synchronized (this) {
+            if (state == PENDING) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    boolean complete(T result) {
+        return finish(SUCCEEDED, result, null);
+    }
+
+    boolean fail(Exception failure) {
+        if (cancellation.isCancelled()) {
+            // The call was aborted by the cancellation, which may have run ahead of its listeners.
+            return finish(CANCELLED, null, null);
+        }
+        return finish(FAILED, null, failure);
+    }
+
+    private boolean finish(int state, T result, Exception failure) {
+        List<Runnable> toNotify;
+        synchronized (this) {
+            if (this.state != PENDING) {
+                return false;
+            }
+            this.state = state;
+            this.result = result;
+            this.failure = failure;
+            toNotify = new ArrayList<>(listeners);
+            listeners.clear();
+        }
+        done.countDown();
+
+        for (Runnable listener : toNotify) {
+            listener.run();
+        }
+        return true;
+    }
+
+    private synchronized T report() throws ExecutionException {
+        if (state == CANCELLED) {
+            throw new CancellationException();
+        } else if (state == FAILED) {
+            throw new ExecutionException(failure);
+        }
+        return result;
+    }
+}
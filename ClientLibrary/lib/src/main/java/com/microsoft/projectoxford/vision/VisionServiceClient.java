@@ -44,6 +44,10 @@ import com.microsoft.projectoxford.vision.rest.VisionServiceException;
 import java.io.IOException;
 import java.io.InputStream;
 
+/**
+ * Calls of the Computer Vision API. Implementations of this library are safe for concurrent use by
+ * any number of threads.
+ */
 public interface VisionServiceClient {
     public AnalysisResult analyzeImage(String url, String[] visualFeatures, String[] details) throws VisionServiceException;
 
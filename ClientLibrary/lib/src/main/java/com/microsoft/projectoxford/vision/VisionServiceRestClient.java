@@ -32,73 +32,223 @@
 //
 package com.microsoft.projectoxford.vision;
 
-import com.google.gson.Gson;
 import com.microsoft.projectoxford.vision.contract.AnalysisInDomainResult;
 import com.microsoft.projectoxford.vision.contract.AnalysisResult;
 import com.microsoft.projectoxford.vision.contract.HandwritingRecognitionOperationResult;
 import com.microsoft.projectoxford.vision.contract.HandwritingRecognitionOperation;
+import com.microsoft.projectoxford.vision.contract.HandwritingRecognitionStatus;
 import com.microsoft.projectoxford.vision.contract.Model;
 import com.microsoft.projectoxford.vision.contract.ModelResult;
 import com.microsoft.projectoxford.vision.contract.OCR;
+import com.microsoft.projectoxford.vision.contract.ThumbnailResult;
+import com.microsoft.projectoxford.vision.rest.CancellationToken;
+import com.microsoft.projectoxford.vision.rest.CircuitBreakerRegistry;
+import com.microsoft.projectoxford.vision.rest.Deadline;
+import com.microsoft.projectoxford.vision.rest.HedgingPolicy;
+import com.microsoft.projectoxford.vision.rest.Interceptor;
+import com.microsoft.projectoxford.vision.rest.RateLimiter;
+import com.microsoft.projectoxford.vision.rest.RequestDescriptor;
+import com.microsoft.projectoxford.vision.rest.ResponseCallback;
+import com.microsoft.projectoxford.vision.rest.RetryPolicy;
+import com.microsoft.projectoxford.vision.rest.TransportResponse;
 import com.microsoft.projectoxford.vision.rest.VisionServiceException;
+import com.microsoft.projectoxford.vision.rest.WarmUpResult;
 import com.microsoft.projectoxford.vision.rest.WebServiceRequest;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link VisionServiceClient} calling the service over HTTP through a {@link WebServiceRequest}.
+ * <p>
+ * A client is thread-safe and should be shared by all threads of a process, so that they share its
+ * pool of keep-alive connections: its state is either immutable or synchronized, and the views made by
+ * {@link #withDeadline} and {@link #withCancellation} share it. The setters change the settings of all
+ * views and may be called while calls are running. What callers pass in is not copied, so a stream or
+ * sink must not be used elsewhere while a call is using it, and results belong to the calling thread.
+ */
 public class VisionServiceRestClient implements VisionServiceClient {
     private static final String DEFAULT_REGION = "westus";
     private static final String DEFAULT_API_ROOT = "https://%s.api.cognitive.microsoft.com/vision/v1.0";
+    private static final int COPY_BUFFER_SIZE = 8 * 1024;
+    public static final long DEFAULT_HANDWRITING_TIMEOUT_MILLIS = 2 * 60 * 1000;
     private final String apiRoot;
     private final WebServiceRequest restCall;
-    private Gson gson = new Gson();
+    private final Endpoints endpoints;
+    private final Deadline deadline;
+    private final CancellationToken cancellation;
+    private final CompletionTimeEstimator completionTimes;
 
     public VisionServiceRestClient(String subscriptKey) {
         this(subscriptKey, getApiUrlFromRegion(DEFAULT_REGION));
     }
 
     public VisionServiceRestClient(String subscriptKey, String apiRoot) {
-        this.restCall = new WebServiceRequest(subscriptKey);
-        this.apiRoot = apiRoot.replaceAll("/$", "");
+        this(new WebServiceRequest(subscriptKey), apiRoot);
     }
 
-    @Override
-    public AnalysisResult analyzeImage(String url, String[] visualFeatures, String[] details) throws VisionServiceException {
-        Map<String, Object> params = new HashMap<>();
-        AppendParams(params, "visualFeatures", visualFeatures);
-        AppendParams(params, "details", details);
+    /**
+     * Creates a client on top of an existing request executor, e.g. one with a custom connection pool size.
+     * A single instance can serve concurrent calls from multiple threads.
+     */
+    public VisionServiceRestClient(WebServiceRequest restCall, String apiRoot) {
+        this(restCall, new Endpoints(apiRoot.replaceAll("/$", "")), null, null, new CompletionTimeEstimator());
+    }
+
+    private VisionServiceRestClient(WebServiceRequest restCall, Endpoints endpoints, Deadline deadline, CancellationToken cancellation,
+                                    CompletionTimeEstimator completionTimes) {
+        this.restCall = restCall;
+        this.apiRoot = endpoints.apiRoot;
+        this.endpoints = endpoints;
+        this.deadline = deadline;
+        this.cancellation = cancellation;
+        this.completionTimes = completionTimes;
+    }
+
+    /**
+     * Returns a view of this client whose calls must complete by the given deadline, including retries
+     * and reading the response. The view shares connections and settings with this client, so a
+     * sequence of calls, e.g. creating a handwriting operation and polling for its result, can be
+     * bound by a single deadline.
+     */
+    public VisionServiceRestClient withDeadline(Deadline deadline) {
+        return new VisionServiceRestClient(restCall, endpoints, Deadline.earlierOf(this.deadline, deadline), cancellation, completionTimes);
+    }
+
+    public Deadline getDeadline() {
+        return deadline;
+    }
 
-        String path = apiRoot + "/analyze";
-        String uri = WebServiceRequest.getUrl(path, params);
+    /**
+     * Returns a view of this client whose calls are cancelled by the given token: cancelling it aborts
+     * the calls in flight, releasing their connections, and makes later calls fail right away.
+     */
+    public VisionServiceRestClient withCancellation(CancellationToken cancellation) {
+        return new VisionServiceRestClient(restCall, endpoints, deadline, cancellation, completionTimes);
+    }
+
+    public CancellationToken getCancellation() {
+        return cancellation;
+    }
+
+    /**
+     * @return a token for a single call, cancelled along with the token of this client if it has one;
+     * detach it once the call has completed
+     */
+    CancellationToken newCallCancellation() {
+        return cancellation != null ? cancellation.newChild() : new CancellationToken();
+    }
 
-        params.clear();
-        params.put("url", url);
+    /**
+     * Sets the total time allowed for every call, including retries and reading the response.
+     * Connect and read timeouts are configured on the transport of the {@link WebServiceRequest}.
+     *
+     * @param callTimeoutMillis time allowed per call, or 0 for no limit
+     */
+    public void setCallTimeoutMillis(long callTimeoutMillis) {
+        this.restCall.setCallTimeoutMillis(callTimeoutMillis);
+    }
 
-        String json = (String) this.restCall.request(uri, "POST", params, null, false);
-        AnalysisResult visualFeature = this.gson.fromJson(json, AnalysisResult.class);
+    /**
+     * Sets the policy used to retry throttled and failed calls. No retries are made by default.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.restCall.setRetryPolicy(retryPolicy);
+    }
+
+    /**
+     * Limits the rate at which this client sends calls, including retries. Calls wait for a permit
+     * as long as necessary.
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.restCall.setRateLimiter(rateLimiter);
+    }
+
+    /**
+     * Limits the rate at which this client sends calls, including retries.
+     *
+     * @param maxWaitMillis how long a call may wait for a permit before failing; 0 fails immediately and
+     *                      a negative value waits as long as necessary
+     */
+    public void setRateLimiter(RateLimiter rateLimiter, long maxWaitMillis) {
+        this.restCall.setRateLimiter(rateLimiter, maxWaitMillis);
+    }
+
+    /**
+     * Guards every endpoint with its own circuit breaker, so that calls to a degraded endpoint fail
+     * fast instead of waiting out timeouts.
+     *
+     * @param circuitBreakers settings and state of the breakers, or null to disable them
+     */
+    public void setCircuitBreakers(CircuitBreakerRegistry circuitBreakers) {
+        this.restCall.setCircuitBreakers(circuitBreakers);
+    }
+
+    /**
+     * Enables hedging of idempotent calls: every call except creating a handwriting operation. Image
+     * streams are only hedged when they can be read again, i.e. a {@link java.io.ByteArrayInputStream}.
+     * A duplicate is sent when the first attempt is slow and whichever finishes first is used.
+     *
+     * @param hedgingPolicy hedge delay and budget, or null to disable hedging
+     */
+    public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+        this.restCall.setHedgingPolicy(hedgingPolicy);
+    }
+
+    /**
+     * Adds an interceptor that runs around every call of this client, see {@link Interceptor}.
+     */
+    public void addInterceptor(Interceptor interceptor) {
+        this.restCall.addInterceptor(interceptor);
+    }
+
+    /**
+     * Connects to the API ahead of the first call, so that it does not pay for DNS resolution, TCP
+     * connect and a full TLS handshake. Safe to call from a background thread right after construction.
+     *
+     * @return time spent in each phase
+     */
+    public WarmUpResult warmUp() throws VisionServiceException {
+        return this.restCall.warmUp(apiRoot);
+    }
+
+    /**
+     * Closes all pooled connections held by this client. The client must not be used afterwards.
+     */
+    public void shutdown() {
+        this.restCall.shutdown();
+    }
+
+    @Override
+    public AnalysisResult analyzeImage(String url, String[] visualFeatures, String[] details) throws VisionServiceException {
+        RequestDescriptor request = endpoints.analyze(visualFeatures, details);
+
+        AnalysisResult visualFeature = this.restCall.request(request.getUrl(), request.getMethod(), urlBody(url), null, AnalysisResult.class, true, deadline, cancellation);
 
         return visualFeature;
     }
 
     @Override
     public AnalysisResult analyzeImage(InputStream stream, String[] visualFeatures, String[] details) throws VisionServiceException, IOException {
-        Map<String, Object> params = new HashMap<>();
-        AppendParams(params, "visualFeatures", visualFeatures);
-        AppendParams(params, "details", details);
-        String path = apiRoot + "/analyze";
-        String uri = WebServiceRequest.getUrl(path, params);
+        RequestDescriptor request = endpoints.analyze(visualFeatures, details);
 
-        params.clear();
-        byte[] data = IOUtils.toByteArray(stream);
-        params.put("data", data);
-
-        String json = (String) this.restCall.request(uri, "POST", params, "application/octet-stream", false);
-        AnalysisResult visualFeature = this.gson.fromJson(json, AnalysisResult.class);
+        AnalysisResult visualFeature = this.restCall.request(request.getUrl(), request.getMethod(), streamBody(stream), "application/octet-stream", AnalysisResult.class, true, deadline, cancellation);
 
         return visualFeature;
     }
@@ -110,15 +260,9 @@ public class VisionServiceRestClient implements VisionServiceClient {
 
     @Override
     public AnalysisInDomainResult analyzeImageInDomain(String url, String model) throws VisionServiceException {
-        Map<String, Object> params = new HashMap<>();
-        String path = apiRoot + "/models/" + model + "/analyze";
-        String uri = WebServiceRequest.getUrl(path, params);
-
-        params.clear();
-        params.put("url", url);
+        RequestDescriptor request = endpoints.analyzeInDomain(model);
 
-        String json = (String) this.restCall.request(uri, "POST", params, null, false);
-        AnalysisInDomainResult visualFeature = this.gson.fromJson(json, AnalysisInDomainResult.class);
+        AnalysisInDomainResult visualFeature = this.restCall.request(request.getUrl(), request.getMethod(), urlBody(url), null, AnalysisInDomainResult.class, true, deadline, cancellation);
 
         return visualFeature;
     }
@@ -130,105 +274,63 @@ public class VisionServiceRestClient implements VisionServiceClient {
 
     @Override
     public AnalysisInDomainResult analyzeImageInDomain(InputStream stream, String model) throws VisionServiceException, IOException {
-        Map<String, Object> params = new HashMap<>();
-        String path = apiRoot + "/models/" + model + "/analyze";
-        String uri = WebServiceRequest.getUrl(path, params);
+        RequestDescriptor request = endpoints.analyzeInDomain(model);
 
-        params.clear();
-        byte[] data = IOUtils.toByteArray(stream);
-        params.put("data", data);
-
-        String json = (String) this.restCall.request(uri, "POST", params, "application/octet-stream", false);
-        AnalysisInDomainResult visualFeature = this.gson.fromJson(json, AnalysisInDomainResult.class);
+        AnalysisInDomainResult visualFeature = this.restCall.request(request.getUrl(), request.getMethod(), streamBody(stream), "application/octet-stream", AnalysisInDomainResult.class, true, deadline, cancellation);
 
         return visualFeature;
     }
 
     @Override
     public AnalysisResult describe(String url, int maxCandidates) throws VisionServiceException{
-        Map<String, Object> params = new HashMap<>();
-        params.put("maxCandidates", maxCandidates);
-        String path = apiRoot + "/describe";
-        String uri = WebServiceRequest.getUrl(path, params);
-
-        params.clear();
-        params.put("url", url);
+        RequestDescriptor request = endpoints.describe(maxCandidates);
 
-        String json = (String) this.restCall.request(uri, "POST", params, null, false);
-        AnalysisResult visualFeature = this.gson.fromJson(json, AnalysisResult.class);
+        AnalysisResult visualFeature = this.restCall.request(request.getUrl(), request.getMethod(), urlBody(url), null, AnalysisResult.class, true, deadline, cancellation);
 
         return visualFeature;
     }
 
     @Override
     public AnalysisResult describe(InputStream stream, int maxCandidates) throws VisionServiceException, IOException{
-        Map<String, Object> params = new HashMap<>();
-        params.put("maxCandidates", maxCandidates);
-        String path = apiRoot + "/describe";
-        String uri = WebServiceRequest.getUrl(path, params);
+        RequestDescriptor request = endpoints.describe(maxCandidates);
 
-        params.clear();
-        byte[] data = IOUtils.toByteArray(stream);
-        params.put("data", data);
-
-        String json = (String) this.restCall.request(uri, "POST", params, "application/octet-stream", false);
-        AnalysisResult visualFeature = this.gson.fromJson(json, AnalysisResult.class);
+        AnalysisResult visualFeature = this.restCall.request(request.getUrl(), request.getMethod(), streamBody(stream), "application/octet-stream", AnalysisResult.class, true, deadline, cancellation);
 
         return visualFeature;
     }
 
     @Override
     public ModelResult listModels() throws VisionServiceException{
-        Map<String, Object> params = new HashMap<>();
-        String path = apiRoot + "/models";
-        String uri = WebServiceRequest.getUrl(path, params);
+        RequestDescriptor request = endpoints.models;
 
-        String json = (String) this.restCall.request(uri, "GET", params, null, false);
-        ModelResult models = this.gson.fromJson(json, ModelResult.class);
+        ModelResult models = this.restCall.request(request.getUrl(), request.getMethod(), null, null, ModelResult.class, true, deadline, cancellation);
 
         return models;
     }
 
     @Override
     public OCR recognizeText(String url, String languageCode, boolean detectOrientation) throws VisionServiceException {
-        Map<String, Object> params = new HashMap<>();
-        params.put("language", languageCode);
-        params.put("detectOrientation", detectOrientation);
-        String path = apiRoot + "/ocr";
-        String uri = WebServiceRequest.getUrl(path, params);
+        RequestDescriptor request = endpoints.ocr(languageCode, detectOrientation);
 
-        params.clear();
-        params.put("url", url);
-        String json = (String) this.restCall.request(uri, "POST", params, null, false);
-        OCR ocr = this.gson.fromJson(json, OCR.class);
+        OCR ocr = this.restCall.request(request.getUrl(), request.getMethod(), urlBody(url), null, OCR.class, true, deadline, cancellation);
 
         return ocr;
     }
 
     @Override
     public OCR recognizeText(InputStream stream, String languageCode, boolean detectOrientation) throws VisionServiceException, IOException {
-        Map<String, Object> params = new HashMap<>();
-        params.put("language", languageCode);
-        params.put("detectOrientation", detectOrientation);
-        String path = apiRoot + "/ocr";
-        String uri = WebServiceRequest.getUrl(path, params);
+        RequestDescriptor request = endpoints.ocr(languageCode, detectOrientation);
 
-        byte[] data = IOUtils.toByteArray(stream);
-        params.put("data", data);
-        String json = (String) this.restCall.request(uri, "POST", params, "application/octet-stream", false);
-        OCR ocr = this.gson.fromJson(json, OCR.class);
+        OCR ocr = this.restCall.request(request.getUrl(), request.getMethod(), streamBody(stream), "application/octet-stream", OCR.class, true, deadline, cancellation);
 
         return ocr;
     }
 
     @Override
     public HandwritingRecognitionOperation createHandwritingRecognitionOperationAsync(String url) throws VisionServiceException {
-        Map<String, Object> params = new HashMap<>();
-        String path = apiRoot + "/RecognizeText?handwriting=true";
-        String uri = WebServiceRequest.getUrl(path, params);
+        RequestDescriptor request = endpoints.recognizeHandwriting;
 
-        params.put("url", url);
-        String operationUrl = (String) this.restCall.request(uri, "POST", params, null, false);
+        String operationUrl = (String) this.restCall.request(request.getUrl(), request.getMethod(), urlBody(url), null, false, deadline, cancellation);
         HandwritingRecognitionOperation HandwrittenOCR = new HandwritingRecognitionOperation(operationUrl);
 
         return HandwrittenOCR;
@@ -236,77 +338,556 @@ public class VisionServiceRestClient implements VisionServiceClient {
 
     @Override
     public HandwritingRecognitionOperation createHandwritingRecognitionOperationAsync(InputStream stream) throws VisionServiceException, IOException {
-        Map<String, Object> params = new HashMap<>();
-        String path = apiRoot + "/RecognizeText?handwriting=true";
-        String uri = WebServiceRequest.getUrl(path, params);
+        RequestDescriptor request = endpoints.recognizeHandwriting;
 
-        byte[] data = IOUtils.toByteArray(stream);
-        params.put("data", data);
-        String operationUrl = (String) this.restCall.request(uri, "POST", params, "application/octet-stream", false);
-        HandwritingRecognitionOperation HandwrittenOCR = new HandwritingRecognitionOperation(operationUrl);
+        long imageSize = sizeOf(stream);
+        String operationUrl = (String) this.restCall.request(request.getUrl(), request.getMethod(), streamBody(stream), "application/octet-stream", false, deadline, cancellation);
+        HandwritingRecognitionOperation HandwrittenOCR = new HandwritingRecognitionOperation(operationUrl, imageSize);
 
         return HandwrittenOCR;
     }
 
     @Override
     public HandwritingRecognitionOperationResult getHandwritingRecognitionOperationResultAsync(String uri) throws VisionServiceException {
-        String json = (String) this.restCall.request(uri, "GET", null, null, false);
-        HandwritingRecognitionOperationResult HandwrittenOCR = this.gson.fromJson(json, HandwritingRecognitionOperationResult.class);
+        return pollHandwriting(uri, deadline);
+    }
 
-        return HandwrittenOCR;
+    public HandwritingRecognitionOperationResult awaitHandwritingResult(HandwritingRecognitionOperation operation) throws VisionServiceException {
+        return awaitHandwritingResult(operation, null);
+    }
+
+    /**
+     * Polls the operation until it has finished. The first poll is made when operations for images of
+     * the same size have finished so far; later polls back off exponentially, unless the service asks
+     * for a delay with {@code Retry-After}.
+     *
+     * @param deadline time by which the result must be in, or null for the deadline of this client or,
+     *                 without one, {@link #DEFAULT_HANDWRITING_TIMEOUT_MILLIS}
+     * @return the final result, with status {@link HandwritingRecognitionStatus#SUCCEEDED} or
+     * {@link HandwritingRecognitionStatus#FAILED}
+     */
+    public HandwritingRecognitionOperationResult awaitHandwritingResult(HandwritingRecognitionOperation operation, Deadline deadline) throws VisionServiceException {
+        HandwritingPollSchedule schedule = scheduleFor(operation, deadline);
+        while (true) {
+            pause(schedule.nextDelayMillis(), operation.Url());
+            HandwritingRecognitionOperationResult result = pollHandwriting(operation.Url(), schedule.getDeadline());
+            if (schedule.onResult(result)) {
+                return result;
+            }
+        }
     }
 
     @Override
     public byte[] getThumbnail(int width, int height, boolean smartCropping, String url) throws VisionServiceException, IOException {
-        Map<String, Object> params = new HashMap<>();
-        params.put("width", width);
-        params.put("height", height);
-        params.put("smartCropping", smartCropping);
-        String path = apiRoot + "/generateThumbnail";
-        String uri = WebServiceRequest.getUrl(path, params);
+        TransportResponse response = openThumbnail(width, height, smartCropping, url, null);
+        try {
+            return IOUtils.toByteArray(response.getBody());
+        } finally {
+            response.close();
+        }
+    }
 
-        params.clear();
-        params.put("url", url);
+    @Override
+    public byte[] getThumbnail(int width, int height, boolean smartCropping, InputStream stream) throws VisionServiceException, IOException {
+        TransportResponse response = openThumbnail(width, height, smartCropping, null, stream);
+        try {
+            return IOUtils.toByteArray(response.getBody());
+        } finally {
+            response.close();
+        }
+    }
 
-        InputStream is = (InputStream) this.restCall.request(uri, "POST", params, null, true);
-        byte[] image = IOUtils.toByteArray(is);
-        if (is != null) {
-            is.close();
+    /**
+     * Writes the thumbnail straight into the given stream as it is received, without buffering it on the heap.
+     * The stream is not closed.
+     */
+    public ThumbnailResult getThumbnail(int width, int height, boolean smartCropping, String url, OutputStream sink) throws VisionServiceException, IOException {
+        TransportResponse response = openThumbnail(width, height, smartCropping, url, null);
+        try {
+            return new ThumbnailResult(copy(response.getBody(), sink), response.getHeader("Content-Type"));
+        } finally {
+            response.close();
         }
+    }
 
-        return image;
+    /**
+     * Writes the thumbnail straight into the given stream as it is received, without buffering it on the heap.
+     * The stream is not closed.
+     */
+    public ThumbnailResult getThumbnail(int width, int height, boolean smartCropping, InputStream stream, OutputStream sink) throws VisionServiceException, IOException {
+        TransportResponse response = openThumbnail(width, height, smartCropping, null, stream);
+        try {
+            return new ThumbnailResult(copy(response.getBody(), sink), response.getHeader("Content-Type"));
+        } finally {
+            response.close();
+        }
     }
 
-    @Override
-    public byte[] getThumbnail(int width, int height, boolean smartCropping, InputStream stream) throws VisionServiceException, IOException {
-        Map<String, Object> params = new HashMap<>();
-        params.put("width", width);
-        params.put("height", height);
-        params.put("smartCropping", smartCropping);
-        String path = apiRoot + "/generateThumbnail";
-        String uri = WebServiceRequest.getUrl(path, params);
+    /**
+     * Writes the thumbnail straight into the given channel, e.g. a {@code FileChannel}, as it is received.
+     * The channel is not closed.
+     */
+    public ThumbnailResult getThumbnail(int width, int height, boolean smartCropping, String url, WritableByteChannel sink) throws VisionServiceException, IOException {
+        TransportResponse response = openThumbnail(width, height, smartCropping, url, null);
+        try {
+            return new ThumbnailResult(copy(response.getBody(), sink), response.getHeader("Content-Type"));
+        } finally {
+            response.close();
+        }
+    }
 
-        params.clear();
-        byte[] data = IOUtils.toByteArray(stream);
-        params.put("data", data);
+    /**
+     * Writes the thumbnail straight into the given channel, e.g. a {@code FileChannel}, as it is received.
+     * The channel is not closed.
+     */
+    public ThumbnailResult getThumbnail(int width, int height, boolean smartCropping, InputStream stream, WritableByteChannel sink) throws VisionServiceException, IOException {
+        TransportResponse response = openThumbnail(width, height, smartCropping, null, stream);
+        try {
+            return new ThumbnailResult(copy(response.getBody(), sink), response.getHeader("Content-Type"));
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Reads the thumbnail into the given buffer, starting at its position, so that one buffer can be reused
+     * for many thumbnails. On return the position is advanced past the thumbnail.
+     *
+     * @throws BufferOverflowException if the thumbnail does not fit into the remaining space; the position is then unchanged
+     */
+    public ThumbnailResult getThumbnail(int width, int height, boolean smartCropping, String url, ByteBuffer sink) throws VisionServiceException, IOException {
+        TransportResponse response = openThumbnail(width, height, smartCropping, url, null);
+        try {
+            return new ThumbnailResult(copy(response, sink), response.getHeader("Content-Type"));
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Reads the thumbnail into the given buffer, starting at its position, so that one buffer can be reused
+     * for many thumbnails. On return the position is advanced past the thumbnail.
+     *
+     * @throws BufferOverflowException if the thumbnail does not fit into the remaining space; the position is then unchanged
+     */
+    public ThumbnailResult getThumbnail(int width, int height, boolean smartCropping, InputStream stream, ByteBuffer sink) throws VisionServiceException, IOException {
+        TransportResponse response = openThumbnail(width, height, smartCropping, null, stream);
+        try {
+            return new ThumbnailResult(copy(response, sink), response.getHeader("Content-Type"));
+        } finally {
+            response.close();
+        }
+    }
+
+    private TransportResponse openThumbnail(int width, int height, boolean smartCropping, String url, InputStream stream) throws VisionServiceException {
+        RequestDescriptor request = endpoints.thumbnail(width, height, smartCropping);
 
-        InputStream is = (InputStream) this.restCall.request(uri, "POST", params, "application/octet-stream", true);
-        byte[] image = IOUtils.toByteArray(is);
-        if (is != null) {
-            is.close();
+        if (stream != null) {
+            return this.restCall.requestResponse(request.getUrl(), request.getMethod(), streamBody(stream), "application/octet-stream", true, deadline, cancellation);
         }
+        return this.restCall.requestResponse(request.getUrl(), request.getMethod(), urlBody(url), null, true, deadline, cancellation);
+    }
 
-        return image;
+    /**
+     * @param deadline time by which the operation must have finished, or null for the deadline of this client
+     */
+    HandwritingPollSchedule scheduleFor(HandwritingRecognitionOperation operation, Deadline deadline) {
+        Deadline limit = Deadline.earlierOf(deadline, this.deadline);
+        if (limit == null) {
+            limit = Deadline.after(DEFAULT_HANDWRITING_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return new HandwritingPollSchedule(operation, limit, completionTimes);
     }
 
-    private void AppendParams(Map<String, Object> params, String name, String[] args) {
-        if(args != null && args.length > 0) {
-            String features = StringUtils.join(args, ',');
-            params.put(name, features);
+    HandwritingRecognitionOperationResult pollHandwriting(String uri, Deadline deadline) throws VisionServiceException {
+        TransportResponse response = this.restCall.requestResponse(uri, "GET", null, null, true, deadline, cancellation);
+        return readPollResult(uri, response, deadline);
+    }
+
+    private HandwritingRecognitionOperationResult readPollResult(String uri, TransportResponse response, Deadline deadline) throws VisionServiceException {
+        long retryAfterMillis = RetryPolicy.parseRetryAfterMillis(response.getHeader("Retry-After"));
+        HandwritingRecognitionOperationResult result = this.restCall.readJson(uri, response, HandwritingRecognitionOperationResult.class, deadline, cancellation);
+        if (result == null) {
+            throw new VisionServiceException("Empty response when polling " + uri, response.getStatusCode(), null, null, null, retryAfterMillis, true);
+        }
+        result.setRetryAfterMillis(retryAfterMillis);
+        return result;
+    }
+
+    // Non-blocking forms of the calls above, for AsyncVisionServiceClient and HandwritingResultPoller;
+    // see WebServiceRequest#requestResponseAsync. An image is passed either by url or as a stream, the
+    // other one being null. The callback runs on the executor.
+
+    void analyzeImage(String url, InputStream stream, String[] visualFeatures, String[] details, Executor executor, VisionCallback<AnalysisResult> callback) {
+        sendImage(endpoints.analyze(visualFeatures, details), url, stream, AnalysisResult.class, executor, callback);
+    }
+
+    void analyzeImageInDomain(String url, InputStream stream, String model, Executor executor, VisionCallback<AnalysisInDomainResult> callback) {
+        sendImage(endpoints.analyzeInDomain(model), url, stream, AnalysisInDomainResult.class, executor, callback);
+    }
+
+    void describe(String url, InputStream stream, int maxCandidates, Executor executor, VisionCallback<AnalysisResult> callback) {
+        sendImage(endpoints.describe(maxCandidates), url, stream, AnalysisResult.class, executor, callback);
+    }
+
+    void listModels(Executor executor, VisionCallback<ModelResult> callback) {
+        RequestDescriptor request = endpoints.models;
+        send(request.getUrl(), request.getMethod(), null, null, true, jsonReader(ModelResult.class), executor, callback);
+    }
+
+    void recognizeText(String url, InputStream stream, String languageCode, boolean detectOrientation, Executor executor, VisionCallback<OCR> callback) {
+        sendImage(endpoints.ocr(languageCode, detectOrientation), url, stream, OCR.class, executor, callback);
+    }
+
+    void createHandwritingRecognitionOperation(String url, InputStream stream, Executor executor, VisionCallback<HandwritingRecognitionOperation> callback) {
+        RequestDescriptor request = endpoints.recognizeHandwriting;
+
+        final long imageSize = stream != null ? sizeOf(stream) : -1;
+        ResponseReader<HandwritingRecognitionOperation> reader = new ResponseReader<HandwritingRecognitionOperation>() {
+            @Override
+            public HandwritingRecognitionOperation read(String url, TransportResponse response) {
+                return new HandwritingRecognitionOperation(response.getHeader("Operation-Location"), imageSize);
+            }
+        };
+        if (stream != null) {
+            send(request.getUrl(), request.getMethod(), streamBody(stream), "application/octet-stream", false, reader, executor, callback);
+        } else {
+            send(request.getUrl(), request.getMethod(), urlBody(url), null, false, reader, executor, callback);
+        }
+    }
+
+    void pollHandwriting(String uri, final Deadline deadline, Executor executor, VisionCallback<HandwritingRecognitionOperationResult> callback) {
+        send(uri, "GET", null, null, true, deadline, new ResponseReader<HandwritingRecognitionOperationResult>() {
+            @Override
+            public HandwritingRecognitionOperationResult read(String url, TransportResponse response) throws VisionServiceException {
+                return readPollResult(url, response, deadline);
+            }
+        }, executor, callback);
+    }
+
+    void getThumbnail(int width, int height, boolean smartCropping, String url, InputStream stream, Executor executor, VisionCallback<byte[]> callback) {
+        RequestDescriptor request = endpoints.thumbnail(width, height, smartCropping);
+        ResponseReader<byte[]> reader = new ResponseReader<byte[]>() {
+            @Override
+            public byte[] read(String url, TransportResponse response) throws IOException {
+                return IOUtils.toByteArray(response.getBody());
+            }
+        };
+        if (stream != null) {
+            send(request.getUrl(), request.getMethod(), streamBody(stream), "application/octet-stream", true, reader, executor, callback);
+        } else {
+            send(request.getUrl(), request.getMethod(), urlBody(url), null, true, reader, executor, callback);
+        }
+    }
+
+    private <T> void sendImage(RequestDescriptor request, String url, InputStream stream, Class<T> resultType, Executor executor, VisionCallback<T> callback) {
+        if (stream != null) {
+            send(request.getUrl(), request.getMethod(), streamBody(stream), "application/octet-stream", true, jsonReader(resultType), executor, callback);
+        } else {
+            send(request.getUrl(), request.getMethod(), urlBody(url), null, true, jsonReader(resultType), executor, callback);
+        }
+    }
+
+    private <T> void send(String url, String method, Map<String, Object> body, String contentType, boolean idempotent,
+                          ResponseReader<T> reader, Executor executor, VisionCallback<T> callback) {
+        send(url, method, body, contentType, idempotent, this.deadline, reader, executor, callback);
+    }
+
+    private <T> void send(final String url, String method, Map<String, Object> body, String contentType, boolean idempotent,
+                          Deadline deadline, final ResponseReader<T> reader, Executor executor, final VisionCallback<T> callback) {
+        this.restCall.requestResponseAsync(url, method, body, contentType, idempotent, deadline, cancellation, executor, new ResponseCallback() {
+            @Override
+            public void onResponse(TransportResponse response) {
+                T result;
+                try {
+                    result = reader.read(url, response);
+                } catch (VisionServiceException | IOException | RuntimeException e) {
+                    callback.onFailure(e);
+                    return;
+                } catch (Error e) {
+                    callback.onFailure(new VisionServiceException("Call failed: " + e, e));
+                    throw e;
+                } finally {
+                    IOUtils.closeQuietly(response);
+                }
+                callback.onSuccess(result);
+            }
+
+            @Override
+            public void onFailure(VisionServiceException e) {
+                callback.onFailure(e);
+            }
+        });
+    }
+
+    private <T> ResponseReader<T> jsonReader(final Class<T> resultType) {
+        return new ResponseReader<T>() {
+            @Override
+            public T read(String url, TransportResponse response) throws VisionServiceException {
+                return restCall.readJson(url, response, resultType, deadline, cancellation);
+            }
+        };
+    }
+
+    /**
+     * Makes the result of a call from its response, which is closed afterwards.
+     */
+    private interface ResponseReader<T> {
+        T read(String url, TransportResponse response) throws VisionServiceException, IOException;
+    }
+
+    private void pause(long millis, String uri) throws VisionServiceException {
+        try {
+            if (cancellation == null) {
+                Thread.sleep(millis);
+            } else if (!cancellation.await(millis)) {
+                throw new VisionServiceException("Call to " + uri + " was cancelled");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new VisionServiceException("Interrupted while waiting for " + uri, e);
+        }
+    }
+
+    /**
+     * @return the number of bytes left in the stream if it can be told without reading it, otherwise -1
+     */
+    private static long sizeOf(InputStream stream) {
+        try {
+            if (stream instanceof ByteArrayInputStream) {
+                return stream.available();
+            } else if (stream instanceof FileInputStream) {
+                FileChannel channel = ((FileInputStream) stream).getChannel();
+                return channel.size() - channel.position();
+            }
+        } catch (IOException e) {
+            // Unknown then.
+        }
+        return -1;
+    }
+
+    private static Map<String, Object> urlBody(String url) {
+        return Collections.<String, Object>singletonMap("url", url);
+    }
+
+    private static Map<String, Object> streamBody(InputStream stream) {
+        return Collections.<String, Object>singletonMap("data", stream);
+    }
+
+    private static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long count = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            count += read;
+        }
+        return count;
+    }
+
+    private static long copy(InputStream in, WritableByteChannel out) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+        long count = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            wrapped.clear().limit(read);
+            while (wrapped.hasRemaining()) {
+                out.write(wrapped);
+            }
+            count += read;
+        }
+        return count;
+    }
+
+    private static long copy(TransportResponse response, ByteBuffer out) throws IOException {
+        int start = out.position();
+        String contentLength = response.getHeader("Content-Length");
+        String encoding = response.getHeader("Content-Encoding");
+        if (encoding == null && parseContentLength(contentLength) > out.remaining()) {
+            throw new BufferOverflowException();
+        }
+
+        InputStream in = response.getBody();
+        byte[] buffer = out.hasArray() ? out.array() : new byte[COPY_BUFFER_SIZE];
+        while (out.hasRemaining()) {
+            int read;
+            if (out.hasArray()) {
+                read = in.read(buffer, out.arrayOffset() + out.position(), out.remaining());
+                if (read > 0) {
+                    out.position(out.position() + read);
+                }
+            } else {
+                read = in.read(buffer, 0, Math.min(buffer.length, out.remaining()));
+                if (read > 0) {
+                    out.put(buffer, 0, read);
+                }
+            }
+            if (read == -1) {
+                return out.position() - start;
+            }
+        }
+
+        if (in.read() != -1) {
+            out.position(start);
+            throw new BufferOverflowException();
+        }
+        return out.position() - start;
+    }
+
+    /**
+     * The declared body length, or -1 when absent or malformed; the copy then relies on its own
+     * bounds check while streaming.
+     */
+    private static long parseContentLength(String contentLength) {
+        if (contentLength == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String join(String[] args) {
+        if (args != null && args.length > 0) {
+            return StringUtils.join(args, ',');
+        }
+        return null;
+    }
+
+    /**
+     * Descriptors of the endpoints under one api root. Descriptors that depend on call parameters are
+     * cached per parameter set, so repeated calls reuse the encoded URL. Shared by views of a client.
+     */
+    private static final class Endpoints {
+        private static final int MAX_CACHED_DESCRIPTORS = 256;
+
+        private final String apiRoot;
+        private final RequestDescriptor analyze;
+        private final RequestDescriptor describe;
+        private final RequestDescriptor models;
+        private final RequestDescriptor ocr;
+        private final RequestDescriptor recognizeHandwriting;
+        private final RequestDescriptor thumbnail;
+        private final ConcurrentHashMap<QueryKey, RequestDescriptor> cache = new ConcurrentHashMap<>();
+
+        Endpoints(String apiRoot) {
+            this.apiRoot = apiRoot;
+            this.analyze = new RequestDescriptor("POST", apiRoot + "/analyze");
+            this.describe = new RequestDescriptor("POST", apiRoot + "/describe");
+            this.models = new RequestDescriptor("GET", apiRoot + "/models");
+            this.ocr = new RequestDescriptor("POST", apiRoot + "/ocr");
+            this.recognizeHandwriting = new RequestDescriptor("POST", apiRoot + "/RecognizeText?handwriting=true");
+            this.thumbnail = new RequestDescriptor("POST", apiRoot + "/generateThumbnail");
+        }
+
+        RequestDescriptor analyze(String[] visualFeatures, String[] details) {
+            QueryKey key = new QueryKey("analyze", visualFeatures, details);
+            RequestDescriptor descriptor = cache.get(key);
+            if (descriptor == null) {
+                descriptor = analyze.withQuery("visualFeatures", join(visualFeatures)).withQuery("details", join(details));
+                put(key, descriptor);
+            }
+            return descriptor;
+        }
+
+        RequestDescriptor analyzeInDomain(String model) {
+            QueryKey key = new QueryKey("models", model);
+            RequestDescriptor descriptor = cache.get(key);
+            if (descriptor == null) {
+                descriptor = new RequestDescriptor("POST", apiRoot + "/models/" + model + "/analyze");
+                put(key, descriptor);
+            }
+            return descriptor;
+        }
+
+        RequestDescriptor describe(int maxCandidates) {
+            QueryKey key = new QueryKey("describe", maxCandidates);
+            RequestDescriptor descriptor = cache.get(key);
+            if (descriptor == null) {
+                descriptor = describe.withQuery("maxCandidates", maxCandidates);
+                put(key, descriptor);
+            }
+            return descriptor;
+        }
+
+        RequestDescriptor ocr(String languageCode, boolean detectOrientation) {
+            QueryKey key = new QueryKey("ocr", languageCode, detectOrientation);
+            RequestDescriptor descriptor = cache.get(key);
+            if (descriptor == null) {
+                descriptor = ocr.withQuery("language", languageCode).withQuery("detectOrientation", detectOrientation);
+                put(key, descriptor);
+            }
+            return descriptor;
+        }
+
+        RequestDescriptor thumbnail(int width, int height, boolean smartCropping) {
+            QueryKey key = new QueryKey("generateThumbnail", width, height, smartCropping);
+            RequestDescriptor descriptor = cache.get(key);
+            if (descriptor == null) {
+                descriptor = thumbnail.withQuery("width", width).withQuery("height", height).withQuery("smartCropping", smartCropping);
+                put(key, descriptor);
+            }
+            return descriptor;
+        }
+
+        private void put(QueryKey key, RequestDescriptor descriptor) {
+            if (cache.size() >= MAX_CACHED_DESCRIPTORS) {
+                // Callers varying parameters without bound would otherwise grow the cache forever.
+                cache.clear();
+            }
+            cache.put(key.detach(), descriptor);
+        }
+    }
+
+    /**
+     * Operation and parameter values a descriptor was built from. Arrays are compared by content.
+     */
+    private static final class QueryKey {
+        private final String operation;
+        private final Object[] values;
+        private final int hash;
+
+        QueryKey(String operation, Object... values) {
+            this.operation = operation;
+            this.values = values;
+            this.hash = 31 * operation.hashCode() + Arrays.deepHashCode(values);
+        }
+
+        /**
+         * @return a key that does not share arrays with the caller, who may modify them after the call
+         */
+        QueryKey detach() {
+            Object[] copy = values.clone();
+            for (int i = 0; i < copy.length; i++) {
+                if (copy[i] instanceof String[]) {
+                    copy[i] = ((String[]) copy[i]).clone();
+                }
+            }
+            return new QueryKey(operation, copy);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof QueryKey)) {
+                return false;
+            }
+            QueryKey other = (QueryKey) o;
+            return hash == other.hash && operation.equals(other.operation) && Arrays.deepEquals(values, other.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
         }
     }
 
-    private static String getApiUrlFromRegion(String region) {
+    static String getApiUrlFromRegion(String region) {
         return String.format(DEFAULT_API_ROOT, region);
     }
 }
@@ -36,8 +36,14 @@ package com.microsoft.projectoxford.vision.contract;
 public class HandwritingRecognitionOperation {
 
     public HandwritingRecognitionOperation(String url)
+    {
+        this(url, -1);
+    }
+
+    public HandwritingRecognitionOperation(String url, long imageSize)
     {
         this.url =url;
+        this.imageSize = imageSize;
     }
 
     public String Url()
@@ -45,5 +51,12 @@ public class HandwritingRecognitionOperation {
         return url;
     } //Url of operation
 
+    public long getImageSize()
+    {
+        return imageSize;
+    } //Bytes uploaded for the image, or -1 if unknown, e.g. for images given by URL
+
     private String url;
+
+    private long imageSize;
 }
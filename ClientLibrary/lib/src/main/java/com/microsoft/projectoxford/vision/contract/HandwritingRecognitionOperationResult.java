@@ -39,10 +39,16 @@ public class HandwritingRecognitionOperationResult {
 
     private HandwritingTextResult recognitionResult; //content of recognition result
 
+    private transient long retryAfterMillis = -1; //poll delay asked for by the service, not part of the JSON
+
     public String getStatus() {
         return status;
     }
 
+    public HandwritingRecognitionStatus getRecognitionStatus() {
+        return HandwritingRecognitionStatus.parse(status);
+    }
+
     public void setStatus(String status) {
         this.status = status;
     }
@@ -54,4 +60,15 @@ public class HandwritingRecognitionOperationResult {
     public void setRecognitionResult(HandwritingTextResult recognitionResult) {
         this.recognitionResult = recognitionResult;
     }
+
+    /**
+     * @return how long the service asked to wait before polling again, or -1 if it did not say
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    public void setRetryAfterMillis(long retryAfterMillis) {
+        this.retryAfterMillis = retryAfterMillis;
+    }
 }
@@ -0,0 +1,72 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.contract;
+
+/**
+ * Status of a handwriting recognition operation, parsed from the status string the service returns.
+ */
+public enum HandwritingRecognitionStatus {
+    NOT_STARTED("NotStarted"),
+    RUNNING("Running"),
+    SUCCEEDED("Succeeded"),
+    FAILED("Failed"),
+    /**
+     * A status this version of the library does not know.
+     */
+    UNKNOWN(null);
+
+    private final String value;
+
+    HandwritingRecognitionStatus(String value) {
+        this.value = value;
+    }
+
+    /**
+     * @return true if the operation has finished, successfully or not
+     */
+    public boolean isTerminal() {
+        return this == SUCCEEDED || this == FAILED;
+    }
+
+    /**
+     * @return the status for the service's status string, or {@link #UNKNOWN}
+     */
+    public static HandwritingRecognitionStatus parse(String status) {
+        for (HandwritingRecognitionStatus candidate : values()) {
+            if (candidate.value != null && candidate.value.equalsIgnoreCase(status)) {
+                return candidate;
+            }
+        }
+        return UNKNOWN;
+    }
+}
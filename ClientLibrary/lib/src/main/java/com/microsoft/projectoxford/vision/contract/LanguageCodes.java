@@ -33,47 +33,47 @@
 package com.microsoft.projectoxford.vision.contract;
 
 public class LanguageCodes {
-    public static String AutoDetect = "unk";
+    public static final String AutoDetect = "unk";
 
-    public static String ChineseSimplified = "zh-Hans";
+    public static final String ChineseSimplified = "zh-Hans";
 
-    public static String ChineseTraditional = "zh-Hant";
+    public static final String ChineseTraditional = "zh-Hant";
 
-    public static String Czech = "cs";
+    public static final String Czech = "cs";
 
-    public static String Danish = "da";
+    public static final String Danish = "da";
 
-    public static String Dutch = "nl";
+    public static final String Dutch = "nl";
 
-    public static String English = "en";
+    public static final String English = "en";
 
-    public static String Finnish = "fi";
+    public static final String Finnish = "fi";
 
-    public static String French = "fr";
+    public static final String French = "fr";
 
-    public static String German = "de";
+    public static final String German = "de";
 
-    public static String Greek = "el";
+    public static final String Greek = "el";
 
-    public static String Hungarian = "hu";
+    public static final String Hungarian = "hu";
 
-    public static String Italian = "it";
+    public static final String Italian = "it";
 
-    public static String Japanese = "ja";
+    public static final String Japanese = "ja";
 
-    public static String Korean = "ko";
+    public static final String Korean = "ko";
 
-    public static String Norwegian = "nb";
+    public static final String Norwegian = "nb";
 
-    public static String Polish = "pl";
+    public static final String Polish = "pl";
 
-    public static String Portuguese = "pt";
+    public static final String Portuguese = "pt";
 
-    public static String Russian = "ru";
+    public static final String Russian = "ru";
 
-    public static String Spanish = "es";
+    public static final String Spanish = "es";
 
-    public static String Swedish = "sv";
+    public static final String Swedish = "sv";
 
-    public static String Turkish= "tr";
+    public static final String Turkish= "tr";
 }
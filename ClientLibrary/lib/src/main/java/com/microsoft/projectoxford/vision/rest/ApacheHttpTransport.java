@@ -0,0 +1,353 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.LayeredSocketFactory;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.conn.ssl.X509HostnameVerifier;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * {@link HttpTransport} backed by the Apache HttpClient with a pool of keep-alive connections.
+ * <p>
+ * https connections are made with an {@link SSLContext} of the transport, whose client session cache
+ * keeps up to {@link #DEFAULT_TLS_SESSION_CACHE_SIZE} sessions, so that new connections to a host
+ * make abbreviated handshakes. {@link WebServiceRequest#warmUp(String)} seeds this cache.
+ */
+public class ApacheHttpTransport implements HttpTransport, TlsSessionCache {
+    public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 64;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 32;
+    public static final long DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS = 60 * 1000;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 60 * 1000;
+    public static final int DEFAULT_TLS_SESSION_CACHE_SIZE = 64;
+    public static final int DEFAULT_TLS_SESSION_TIMEOUT_SECONDS = 8 * 60 * 60;
+
+    private final TlsSocketFactory tlsSocketFactory;
+    private final ThreadSafeClientConnManager connectionManager;
+    private final HttpClient client;
+    private final long idleConnectionTimeoutMillis;
+    private final AtomicLong lastIdleEviction = new AtomicLong();
+
+    public ApacheHttpTransport() {
+        this(DEFAULT_MAX_TOTAL_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_ROUTE, DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param maxTotalConnections         upper bound on pooled connections across all hosts
+     * @param maxConnectionsPerRoute      upper bound on pooled connections to a single host
+     * @param idleConnectionTimeoutMillis pooled connections idle for longer than this are closed
+     */
+    public ApacheHttpTransport(int maxTotalConnections, int maxConnectionsPerRoute, long idleConnectionTimeoutMillis) {
+        this(maxTotalConnections, maxConnectionsPerRoute, idleConnectionTimeoutMillis, DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param maxTotalConnections         upper bound on pooled connections across all hosts
+     * @param maxConnectionsPerRoute      upper bound on pooled connections to a single host
+     * @param idleConnectionTimeoutMillis pooled connections idle for longer than this are closed
+     * @param connectTimeoutMillis        time allowed to obtain a pooled connection and to open a new one
+     * @param readTimeoutMillis           time allowed between two packets of the response
+     */
+    public ApacheHttpTransport(int maxTotalConnections, int maxConnectionsPerRoute, long idleConnectionTimeoutMillis,
+                               int connectTimeoutMillis, int readTimeoutMillis) {
+        this(maxTotalConnections, maxConnectionsPerRoute, idleConnectionTimeoutMillis, connectTimeoutMillis,
+                readTimeoutMillis, null);
+    }
+
+    /**
+     * @param maxTotalConnections         upper bound on pooled connections across all hosts
+     * @param maxConnectionsPerRoute      upper bound on pooled connections to a single host
+     * @param idleConnectionTimeoutMillis pooled connections idle for longer than this are closed
+     * @param connectTimeoutMillis        time allowed to obtain a pooled connection and to open a new one
+     * @param readTimeoutMillis           time allowed between two packets of the response
+     * @param sslContext                  context for https connections, whose session cache is used as is,
+     *                                    or null for a context of this transport with the default trust store
+     */
+    public ApacheHttpTransport(int maxTotalConnections, int maxConnectionsPerRoute, long idleConnectionTimeoutMillis,
+                               int connectTimeoutMillis, int readTimeoutMillis, SSLContext sslContext) {
+        this.idleConnectionTimeoutMillis = idleConnectionTimeoutMillis;
+        this.tlsSocketFactory = new TlsSocketFactory(sslContext != null ? sslContext : newSslContext());
+
+        HttpParams params = new BasicHttpParams();
+        ConnManagerParams.setMaxTotalConnections(params, maxTotalConnections);
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxConnectionsPerRoute));
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        HttpProtocolParams.setContentCharset(params, "UTF-8");
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+        HttpConnectionParams.setTcpNoDelay(params, true);
+        HttpConnectionParams.setConnectionTimeout(params, connectTimeoutMillis);
+        HttpConnectionParams.setSoTimeout(params, readTimeoutMillis);
+        ConnManagerParams.setTimeout(params, connectTimeoutMillis);
+
+        SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        schemeRegistry.register(new Scheme("https", tlsSocketFactory, 443));
+
+        this.connectionManager = new ThreadSafeClientConnManager(params, schemeRegistry);
+        this.client = new DefaultHttpClient(this.connectionManager, params);
+    }
+
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        final HttpUriRequest httpRequest = createRequest(request);
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            httpRequest.setHeader(header.getKey(), header.getValue());
+        }
+
+        request.setAbortHandler(new Runnable() {
+            @Override
+            public void run() {
+                httpRequest.abort();
+            }
+        });
+
+        evictIdleConnections();
+
+        HttpResponse response;
+        try {
+            response = this.client.execute(httpRequest);
+        } catch (IOException e) {
+            // Make sure a half-open connection goes back to the pool instead of leaking.
+            httpRequest.abort();
+            throw e;
+        } catch (RuntimeException e) {
+            httpRequest.abort();
+            throw e;
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        for (Header header : response.getAllHeaders()) {
+            if (!headers.containsKey(header.getName())) {
+                headers.put(header.getName(), header.getValue());
+            }
+        }
+
+        // Closing the content stream consumes what is left of the entity and returns the connection to the pool.
+        HttpEntity entity = response.getEntity();
+        InputStream body = entity != null ? entity.getContent() : null;
+        return new TransportResponse(response.getStatusLine().getStatusCode(), headers, body);
+    }
+
+    @Override
+    public SSLSocket handshake(Socket socket, String host, int port) throws IOException {
+        return (SSLSocket) this.tlsSocketFactory.createSocket(socket, host, port, true);
+    }
+
+    @Override
+    public void closeIdleConnections() {
+        this.connectionManager.closeExpiredConnections();
+        this.connectionManager.closeIdleConnections(this.idleConnectionTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void shutdown() {
+        this.connectionManager.shutdown();
+    }
+
+    private static SSLContext newSslContext() {
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, null, null);
+            context.getClientSessionContext().setSessionCacheSize(DEFAULT_TLS_SESSION_CACHE_SIZE);
+            context.getClientSessionContext().setSessionTimeout(DEFAULT_TLS_SESSION_TIMEOUT_SECONDS);
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("No TLS support available", e);
+        }
+    }
+
+    private void evictIdleConnections() {
+        long now = System.currentTimeMillis();
+        long last = this.lastIdleEviction.get();
+        if (now - last >= this.idleConnectionTimeoutMillis / 2 && this.lastIdleEviction.compareAndSet(last, now)) {
+            closeIdleConnections();
+        }
+    }
+
+    private static HttpUriRequest createRequest(TransportRequest request) {
+        String method = request.getMethod();
+        String url = request.getUrl();
+
+        if (method.equals("GET")) {
+            return new HttpGet(url);
+        } else if (method.equals("HEAD")) {
+            return new HttpHead(url);
+        } else if (method.equals("DELETE")) {
+            return new HttpDelete(url);
+        }
+
+        HttpEntityEnclosingRequestBase entityRequest;
+        if (method.equals("POST")) {
+            entityRequest = new HttpPost(url);
+        } else if (method.equals("PUT")) {
+            entityRequest = new HttpPut(url);
+        } else if (method.equals("PATCH")) {
+            entityRequest = new HttpPatch(url);
+        } else {
+            throw new IllegalArgumentException("Unsupported method: " + method);
+        }
+
+        if (request.getBody() != null) {
+            entityRequest.setEntity(new RequestBodyEntity(request.getBody()));
+        }
+
+        return entityRequest;
+    }
+
+    private static class RequestBodyEntity extends AbstractHttpEntity {
+        private final RequestBody body;
+
+        RequestBodyEntity(RequestBody body) {
+            this.body = body;
+            setContentType(body.contentType());
+            setChunked(body.contentLength() < 0);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return body.isRepeatable();
+        }
+
+        @Override
+        public long getContentLength() {
+            return body.contentLength();
+        }
+
+        @Override
+        public InputStream getContent() {
+            throw new UnsupportedOperationException("Request bodies can only be written");
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            body.writeTo(out);
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return !body.isRepeatable();
+        }
+    }
+
+    /**
+     * Opens https connections with the sockets of an {@link SSLContext}. The factories of the Apache
+     * HttpClient cannot be built from a context in the version bundled with Android.
+     */
+    private static class TlsSocketFactory implements LayeredSocketFactory {
+        private final javax.net.ssl.SSLSocketFactory factory;
+        private final X509HostnameVerifier hostnameVerifier = SSLSocketFactory.BROWSER_COMPATIBLE_HOSTNAME_VERIFIER;
+
+        TlsSocketFactory(SSLContext context) {
+            this.factory = context.getSocketFactory();
+        }
+
+        @Override
+        public Socket createSocket() {
+            return new Socket();
+        }
+
+        @Override
+        public Socket connectSocket(Socket socket, String host, int port, InetAddress localAddress, int localPort,
+                                    HttpParams params) throws IOException {
+            Socket plain = socket != null ? socket : createSocket();
+            if (localAddress != null || localPort > 0) {
+                plain.bind(new InetSocketAddress(localAddress, Math.max(localPort, 0)));
+            }
+            plain.setSoTimeout(HttpConnectionParams.getSoTimeout(params));
+            try {
+                plain.connect(new InetSocketAddress(host, port), HttpConnectionParams.getConnectionTimeout(params));
+            } catch (IOException e) {
+                plain.close();
+                throw e;
+            }
+            return createSocket(plain, host, port, true);
+        }
+
+        @Override
+        public boolean isSecure(Socket socket) {
+            return socket instanceof SSLSocket;
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            SSLSocket sslSocket = (SSLSocket) factory.createSocket(socket, host, port, autoClose);
+            try {
+                sslSocket.startHandshake();
+                hostnameVerifier.verify(host, sslSocket);
+            } catch (IOException e) {
+                sslSocket.close();
+                throw e;
+            }
+            return sslSocket;
+        }
+    }
+}
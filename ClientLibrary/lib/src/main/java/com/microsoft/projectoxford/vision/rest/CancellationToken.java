@@ -0,0 +1,165 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cancels calls made with it. Cancelling aborts the requests in flight, which releases their
+ * connections, and stops pending retries. A token can be shared by several calls, e.g. all calls made
+ * on behalf of a screen that has been closed. Tokens are thread-safe.
+ */
+public final class CancellationToken {
+    private final List<TransportRequest> inFlight = new ArrayList<>(2);
+    private final List<Runnable> listeners = new ArrayList<>(1);
+    // Waiters block on the latch rather than on the monitor, which would pin a virtual thread to its carrier.
+    private final CountDownLatch cancelledSignal = new CountDownLatch(1);
+    private final CancellationToken parent;
+    private final Runnable cancelWithParent;
+    private boolean cancelled;
+
+    public CancellationToken() {
+        this.parent = null;
+        this.cancelWithParent = null;
+    }
+
+    private CancellationToken(CancellationToken parent) {
+        this.parent = parent;
+        this.cancelWithParent = new Runnable() {
+            @Override
+            public void run() {
+                cancel();
+            }
+        };
+    }
+
+    /**
+     * Creates a token that is cancelled along with this one but can also be cancelled on its own, e.g.
+     * for one call among all those made for a screen. Call {@link #detach} once the child is no longer
+     * used, so that this token stops tracking it.
+     */
+    public CancellationToken newChild() {
+        CancellationToken child = new CancellationToken(this);
+        addListener(child.cancelWithParent);
+        return child;
+    }
+
+    /**
+     * Stops this token from being cancelled by the token it was created from with {@link #newChild}.
+     */
+    public void detach() {
+        if (parent != null) {
+            parent.removeListener(cancelWithParent);
+        }
+    }
+
+    /**
+     * Cancels all calls made with this token, now and in the future. Calls in flight fail with a
+     * {@link VisionServiceException}.
+     */
+    public void cancel() {
+        List<TransportRequest> requests;
+        List<Runnable> toNotify;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            requests = new ArrayList<>(inFlight);
+            inFlight.clear();
+            toNotify = new ArrayList<>(listeners);
+            listeners.clear();
+        }
+        cancelledSignal.countDown();
+
+        for (TransportRequest request : requests) {
+            request.abort();
+        }
+        for (Runnable listener : toNotify) {
+            listener.run();
+        }
+        detach();
+    }
+
+    /**
+     * Runs the listener on the thread that cancels the token, or right away if it is already cancelled,
+     * e.g. to stop work of the caller's own that belongs to the cancelled calls.
+     */
+    public void addListener(Runnable listener) {
+        synchronized (this) {
+            if (!cancelled) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    public synchronized void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Tracks the request until {@link #unregister} so that it is aborted if the token is cancelled.
+     * A request registered after cancellation is aborted right away.
+     */
+    void register(TransportRequest request) {
+        synchronized (this) {
+            if (!cancelled) {
+                inFlight.add(request);
+                return;
+            }
+        }
+        request.abort();
+    }
+
+    synchronized void unregister(TransportRequest request) {
+        inFlight.remove(request);
+    }
+
+    /**
+     * Waits for the given time unless the token is cancelled first, e.g. between two polls.
+     *
+     * @return true if the time has passed, false if the token was cancelled
+     */
+    public boolean await(long millis) throws InterruptedException {
+        return !cancelledSignal.await(millis, TimeUnit.MILLISECONDS);
+    }
+}
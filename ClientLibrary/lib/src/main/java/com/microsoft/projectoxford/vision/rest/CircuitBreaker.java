@@ -0,0 +1,209 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker guarding a single endpoint.
+ * <p>
+ * While CLOSED, the outcome of the last {@code windowSize} calls is tracked. Once at least
+ * {@code minimumCalls} have been seen and either the failure rate or the slow-call rate reaches its
+ * threshold, the breaker OPENs and rejects calls without sending them. After the open duration it
+ * becomes HALF_OPEN and lets a few probe calls through: if they all succeed quickly it closes again,
+ * otherwise it reopens.
+ */
+public final class CircuitBreaker {
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    private final String endpoint;
+    private final CircuitBreakerRegistry registry;
+    private final byte[] window;
+    private int windowPosition;
+    private int recordedCalls;
+    private int failedCalls;
+    private int slowCalls;
+    private State state = State.CLOSED;
+    private long openedAtNanos;
+    private int probesIssued;
+    private int probesSucceeded;
+
+    CircuitBreaker(String endpoint, CircuitBreakerRegistry registry) {
+        if (registry.getWindowSize() < 1) {
+            throw new IllegalArgumentException("windowSize must be at least 1");
+        }
+        this.endpoint = endpoint;
+        this.registry = registry;
+        this.window = new byte[registry.getWindowSize()];
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Asks whether a call may be sent. Every permitted call must be reported through {@link #onResult}
+     * or {@link #releasePermission}.
+     *
+     * @return false if the breaker is open and the call must fail fast
+     */
+    public boolean tryAcquirePermission() {
+        State from;
+        State to;
+        boolean permitted;
+        synchronized (this) {
+            from = state;
+            if (state == State.OPEN && System.nanoTime() - openedAtNanos >= TimeUnit.MILLISECONDS.toNanos(registry.getOpenDurationMillis())) {
+                state = State.HALF_OPEN;
+                probesIssued = 0;
+                probesSucceeded = 0;
+            }
+
+            if (state == State.CLOSED) {
+                permitted = true;
+            } else if (state == State.HALF_OPEN && probesIssued < registry.getHalfOpenProbes()) {
+                probesIssued++;
+                permitted = true;
+            } else {
+                permitted = false;
+            }
+            to = state;
+        }
+
+        notifyTransition(from, to);
+        if (!permitted) {
+            registry.getListener().onCallNotPermitted(endpoint);
+        }
+        return permitted;
+    }
+
+    /**
+     * Gives back the permission of a call whose outcome says nothing about the endpoint, e.g. because
+     * it was never sent or was aborted by the caller, so that it does not hold up a probe slot.
+     */
+    public synchronized void releasePermission() {
+        if (state == State.HALF_OPEN && probesIssued > 0) {
+            probesIssued--;
+        }
+    }
+
+    /**
+     * Records the outcome of a permitted call.
+     *
+     * @param failed        true if the call failed in a way that points to the endpoint, e.g. a 5xx or an I/O error
+     * @param durationNanos time until the response headers were received
+     */
+    public void onResult(boolean failed, long durationNanos) {
+        boolean slow = durationNanos >= TimeUnit.MILLISECONDS.toNanos(registry.getSlowCallDurationMillis());
+
+        State from;
+        State to;
+        synchronized (this) {
+            from = state;
+            if (state == State.HALF_OPEN) {
+                if (failed || slow) {
+                    open();
+                } else if (++probesSucceeded >= registry.getHalfOpenProbes()) {
+                    close();
+                }
+            } else if (state == State.CLOSED) {
+                record(failed, slow);
+                if (recordedCalls >= registry.getMinimumCalls()
+                        && (failedCalls >= registry.getFailureRateThreshold() * recordedCalls
+                        || slowCalls >= registry.getSlowCallRateThreshold() * recordedCalls)) {
+                    open();
+                }
+            }
+            // Results arriving while OPEN belong to calls permitted before the breaker opened.
+            to = state;
+        }
+
+        notifyTransition(from, to);
+    }
+
+    private void record(boolean failed, boolean slow) {
+        if (recordedCalls == window.length) {
+            byte evicted = window[windowPosition];
+            if ((evicted & FAILED) != 0) {
+                failedCalls--;
+            }
+            if ((evicted & SLOW) != 0) {
+                slowCalls--;
+            }
+        } else {
+            recordedCalls++;
+        }
+
+        byte outcome = 0;
+        if (failed) {
+            outcome |= FAILED;
+            failedCalls++;
+        }
+        if (slow) {
+            outcome |= SLOW;
+            slowCalls++;
+        }
+        window[windowPosition] = outcome;
+        windowPosition = (windowPosition + 1) % window.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAtNanos = System.nanoTime();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        windowPosition = 0;
+        recordedCalls = 0;
+        failedCalls = 0;
+        slowCalls = 0;
+    }
+
+    private void notifyTransition(State from, State to) {
+        if (from != to) {
+            registry.getListener().onStateTransition(endpoint, from, to);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Settings and instances of the per-endpoint {@link CircuitBreaker}s used by a {@link WebServiceRequest}.
+ * Endpoints are identified by host and path, with operation ids removed so that all polls of
+ * {@code /textOperations/{id}} share one breaker.
+ */
+public class CircuitBreakerRegistry {
+    public static final int DEFAULT_WINDOW_SIZE = 50;
+    public static final int DEFAULT_MINIMUM_CALLS = 10;
+    public static final float DEFAULT_FAILURE_RATE_THRESHOLD = 0.5f;
+    public static final float DEFAULT_SLOW_CALL_RATE_THRESHOLD = 0.8f;
+    public static final long DEFAULT_SLOW_CALL_DURATION_MILLIS = 10 * 1000;
+    public static final long DEFAULT_OPEN_DURATION_MILLIS = 30 * 1000;
+    public static final int DEFAULT_HALF_OPEN_PROBES = 3;
+
+    private static final Pattern OPERATION_ID = Pattern.compile("/[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+
+    private static final CircuitBreakerListener NO_LISTENER = new CircuitBreakerListener() {
+        @Override
+        public void onStateTransition(String endpoint, CircuitBreaker.State from, CircuitBreaker.State to) {
+        }
+
+        @Override
+        public void onCallNotPermitted(String endpoint) {
+        }
+    };
+
+    private final int windowSize;
+    private final int minimumCalls;
+    private final float failureRateThreshold;
+    private final float slowCallRateThreshold;
+    private final long slowCallDurationMillis;
+    private final long openDurationMillis;
+    private final int halfOpenProbes;
+    private final CircuitBreakerListener listener;
+    private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    public CircuitBreakerRegistry() {
+        this(null);
+    }
+
+    public CircuitBreakerRegistry(CircuitBreakerListener listener) {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_MINIMUM_CALLS, DEFAULT_FAILURE_RATE_THRESHOLD, DEFAULT_SLOW_CALL_RATE_THRESHOLD,
+                DEFAULT_SLOW_CALL_DURATION_MILLIS, DEFAULT_OPEN_DURATION_MILLIS, DEFAULT_HALF_OPEN_PROBES, listener);
+    }
+
+    /**
+     * @param windowSize             number of most recent calls the rates are computed over
+     * @param minimumCalls           calls that must be recorded before the breaker can open
+     * @param failureRateThreshold   fraction of failed calls, between 0 and 1, that opens the breaker
+     * @param slowCallRateThreshold  fraction of slow calls, between 0 and 1, that opens the breaker
+     * @param slowCallDurationMillis calls taking at least this long count as slow
+     * @param openDurationMillis     how long the breaker rejects calls before probing the endpoint
+     * @param halfOpenProbes         calls let through to probe the endpoint before closing again
+     * @param listener               receives state transitions and rejected calls, may be null
+     */
+    public CircuitBreakerRegistry(int windowSize, int minimumCalls, float failureRateThreshold, float slowCallRateThreshold,
+                                  long slowCallDurationMillis, long openDurationMillis, int halfOpenProbes, CircuitBreakerListener listener) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be at least 1");
+        }
+        this.windowSize = windowSize;
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallDurationMillis = slowCallDurationMillis;
+        this.openDurationMillis = openDurationMillis;
+        this.halfOpenProbes = Math.max(1, halfOpenProbes);
+        this.listener = listener != null ? listener : NO_LISTENER;
+    }
+
+    /**
+     * @return the breaker for the endpoint the url points to, created on first use
+     */
+    public CircuitBreaker getBreaker(String url) {
+        String endpoint = endpointOf(url);
+        CircuitBreaker breaker = breakers.get(endpoint);
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker(endpoint, this);
+            breaker = breakers.putIfAbsent(endpoint, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    static String endpointOf(String url) {
+        int start = url.indexOf("://");
+        start = start < 0 ? 0 : start + 3;
+        int end = url.indexOf('?', start);
+        String endpoint = end < 0 ? url.substring(start) : url.substring(start, end);
+        return OPERATION_ID.matcher(endpoint).replaceAll("/{id}");
+    }
+
+    int getWindowSize() {
+        return windowSize;
+    }
+
+    int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    float getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    float getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    long getSlowCallDurationMillis() {
+        return slowCallDurationMillis;
+    }
+
+    long getOpenDurationMillis() {
+        return openDurationMillis;
+    }
+
+    int getHalfOpenProbes() {
+        return halfOpenProbes;
+    }
+
+    CircuitBreakerListener getListener() {
+        return listener;
+    }
+}
@@ -0,0 +1,224 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decodes gzip and deflate response bodies as they are read and keeps byte counts on both sides.
+ * Decoded responses no longer carry the {@code Content-Encoding} and {@code Content-Length} headers,
+ * which describe the bytes on the wire.
+ */
+class ContentDecoding {
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private ContentDecoding() {
+    }
+
+    static TransportResponse decode(final TransportResponse response, TransferStatistics statistics) {
+        String encoding = response.getHeader("Content-Encoding");
+        encoding = encoding != null ? encoding.trim().toLowerCase() : "identity";
+
+        InputStream wire = new CountingInputStream(response.getBody(), statistics.wireBytes());
+        InputStream decoded;
+        Map<String, String> headers = response.getHeaders();
+        if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+            statistics.compressedResponses().incrementAndGet();
+            decoded = new CountingInputStream(new LazyInflatingInputStream(wire, true), statistics.decodedBytes());
+            headers = withoutEncoding(headers);
+        } else if (encoding.equals("deflate")) {
+            statistics.compressedResponses().incrementAndGet();
+            decoded = new CountingInputStream(new LazyInflatingInputStream(wire, false), statistics.decodedBytes());
+            headers = withoutEncoding(headers);
+        } else {
+            decoded = new CountingInputStream(wire, statistics.decodedBytes());
+        }
+
+        return new TransportResponse(response.getStatusCode(), headers, decoded) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    response.close();
+                }
+            }
+        };
+    }
+
+    private static Map<String, String> withoutEncoding(Map<String, String> headers) {
+        Map<String, String> decoded = new HashMap<>();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            String name = header.getKey();
+            if (!name.equalsIgnoreCase("Content-Encoding") && !name.equalsIgnoreCase("Content-Length")) {
+                decoded.put(name, header.getValue());
+            }
+        }
+        return decoded;
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong counter;
+
+        CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                counter.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                counter.addAndGet(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            counter.addAndGet(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * Creates the inflater on first read. Empty bodies, which some servers send for compressed
+     * responses without content, read as empty instead of failing on the missing header.
+     */
+    private static class LazyInflatingInputStream extends InputStream {
+        private final InputStream wire;
+        private final boolean gzip;
+        private InputStream inflater;
+
+        LazyInflatingInputStream(InputStream wire, boolean gzip) {
+            this.wire = wire;
+            this.gzip = gzip;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return inflater().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return inflater().read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return inflater != null ? inflater.available() : 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (inflater != null) {
+                inflater.close();
+            } else {
+                wire.close();
+            }
+        }
+
+        private InputStream inflater() throws IOException {
+            if (inflater == null) {
+                PushbackInputStream in = new PushbackInputStream(wire, 2);
+                byte[] header = new byte[2];
+                int read = 0;
+                while (read < 2) {
+                    int n = in.read(header, read, 2 - read);
+                    if (n == -1) {
+                        break;
+                    }
+                    read += n;
+                }
+                in.unread(header, 0, read);
+
+                if (read == 0) {
+                    inflater = in;
+                } else if (gzip) {
+                    inflater = new GZIPInputStream(in);
+                } else {
+                    // "deflate" is meant to be zlib-wrapped, but some servers send a raw deflate stream.
+                    boolean zlib = read == 2
+                            && (header[0] & 0x0f) == 8
+                            && (((header[0] & 0xff) << 8) | (header[1] & 0xff)) % 31 == 0;
+                    inflater = new OwnedInflaterInputStream(in, new Inflater(!zlib));
+                }
+            }
+            return inflater;
+        }
+    }
+
+    /**
+     * Ends its inflater on close; {@link InflaterInputStream} only does so for inflaters it created
+     * itself, and an inflater that is not ended holds native memory until it is finalized.
+     */
+    private static class OwnedInflaterInputStream extends InflaterInputStream {
+        OwnedInflaterInputStream(InputStream in, Inflater inflater) {
+            super(in, inflater);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aborts requests that are still running when their {@link Deadline} passes, so that a call never
+ * outlives its deadline even if the socket stalls between the transport's connect and read timeouts.
+ * Its timer also ends the waits of calls sent with {@link WebServiceRequest#requestResponseAsync}.
+ */
+final class DeadlineWatchdog {
+    private static final ScheduledThreadPoolExecutor timer = createTimer();
+
+    private DeadlineWatchdog() {
+    }
+
+    /**
+     * Schedules the request to be aborted when the deadline passes.
+     *
+     * @return a handle to cancel the abort once the response has been consumed, or null if there is no deadline
+     */
+    static ScheduledFuture<?> arm(final TransportRequest request, Deadline deadline) {
+        if (deadline == null) {
+            return null;
+        }
+
+        return timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                request.abort();
+            }
+        }, Math.max(0, deadline.remaining(TimeUnit.NANOSECONDS)), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Runs the task on the timer thread after the delay. The task must hand any work that may block
+     * to another thread.
+     */
+    static ScheduledFuture<?> schedule(Runnable task, long delayNanos) {
+        return timer.schedule(task, Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+    }
+
+    static void disarm(ScheduledFuture<?> abort) {
+        if (abort != null) {
+            abort.cancel(false);
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor createTimer() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "vision-deadline");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            // Most aborts are cancelled long before they are due; drop them instead of keeping them queued.
+            executor.setRemoveOnCancelPolicy(true);
+        } catch (NoSuchMethodError e) {
+            // Not available before Android 5.0; cancelled aborts are then dropped when they fall due.
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,167 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Controls hedging of idempotent calls by {@link WebServiceRequest}: when a call has not completed
+ * after the hedge delay, a duplicate is sent and whichever finishes first wins, the other one is aborted.
+ * <p>
+ * The delay is either fixed or follows a percentile of recently observed latencies, e.g. the p95.
+ * Hedges are capped by a budget: every call earns {@code maxHedgeRatio} tokens and every hedge
+ * spends one, so hedging never adds more than that fraction of extra load.
+ */
+public class HedgingPolicy {
+    private static final int SAMPLE_COUNT = 128;
+    private static final int MIN_SAMPLES = 20;
+    private static final int RECOMPUTE_INTERVAL = 16;
+    private static final double MIN_BUDGET_TOKENS = 10;
+
+    private final long fixedDelayMillis;
+    private final double percentile;
+    private final double maxHedgeRatio;
+    private final ExecutorService executor;
+    private final long[] samples = new long[SAMPLE_COUNT];
+    private final AtomicLong hedgeCount = new AtomicLong();
+    private int sampleCount;
+    private int samplePosition;
+    private long percentileDelayMillis;
+    private double budgetTokens = MIN_BUDGET_TOKENS;
+
+    /**
+     * Hedges calls that take longer than a fixed delay.
+     *
+     * @param delayMillis   time to wait for the first attempt before sending a hedge
+     * @param maxHedgeRatio hedges allowed per call over the long run, e.g. 0.05
+     */
+    public HedgingPolicy(long delayMillis, double maxHedgeRatio) {
+        this(delayMillis, -1, maxHedgeRatio, defaultExecutor());
+    }
+
+    /**
+     * @param delayMillis   fixed hedge delay, or the initial delay until enough latencies have been
+     *                      observed when {@code percentile} is positive
+     * @param percentile    latency percentile to use as the hedge delay, e.g. 0.95, or a negative
+     *                      value to always use {@code delayMillis}
+     * @param maxHedgeRatio hedges allowed per call over the long run, e.g. 0.05
+     * @param executor      runs the attempts; it needs at least two threads per concurrent call
+     */
+    public HedgingPolicy(long delayMillis, double percentile, double maxHedgeRatio, ExecutorService executor) {
+        this.fixedDelayMillis = delayMillis;
+        this.percentile = percentile;
+        this.maxHedgeRatio = maxHedgeRatio;
+        this.executor = executor;
+        this.percentileDelayMillis = delayMillis;
+    }
+
+    /**
+     * Hedges calls that take longer than the given percentile of recently observed latencies.
+     *
+     * @param percentile         latency percentile to use as the hedge delay, e.g. 0.95
+     * @param initialDelayMillis delay used until enough latencies have been observed
+     * @param maxHedgeRatio      hedges allowed per call over the long run, e.g. 0.05
+     */
+    public static HedgingPolicy atPercentile(double percentile, long initialDelayMillis, double maxHedgeRatio) {
+        return new HedgingPolicy(initialDelayMillis, percentile, maxHedgeRatio, defaultExecutor());
+    }
+
+    /**
+     * @return how long the first attempt may run before a hedge is sent
+     */
+    public synchronized long getDelayMillis() {
+        return percentile > 0 ? percentileDelayMillis : fixedDelayMillis;
+    }
+
+    /**
+     * @return the number of hedges sent so far
+     */
+    public long getHedgeCount() {
+        return hedgeCount.get();
+    }
+
+    ExecutorService getExecutor() {
+        return executor;
+    }
+
+    synchronized void onCall() {
+        budgetTokens = Math.min(MIN_BUDGET_TOKENS, budgetTokens + maxHedgeRatio);
+    }
+
+    synchronized boolean tryAcquireHedge() {
+        if (budgetTokens < 1) {
+            return false;
+        }
+        budgetTokens -= 1;
+        hedgeCount.incrementAndGet();
+        return true;
+    }
+
+    synchronized void recordLatency(long nanos) {
+        if (percentile <= 0) {
+            return;
+        }
+
+        samples[samplePosition] = nanos;
+        samplePosition = (samplePosition + 1) % SAMPLE_COUNT;
+        if (sampleCount < SAMPLE_COUNT) {
+            sampleCount++;
+        }
+
+        if (sampleCount >= MIN_SAMPLES && samplePosition % RECOMPUTE_INTERVAL == 0) {
+            long[] sorted = Arrays.copyOf(samples, sampleCount);
+            Arrays.sort(sorted);
+            int index = Math.min(sampleCount - 1, (int) Math.ceil(percentile * sampleCount) - 1);
+            percentileDelayMillis = TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, index)]);
+        }
+    }
+
+    private static ExecutorService defaultExecutor() {
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "vision-hedge-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
@@ -0,0 +1,59 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import java.io.IOException;
+
+/**
+ * Carries a single HTTP exchange for {@link WebServiceRequest}. Implementations must be safe for
+ * concurrent use, since one instance is shared by every call made through a client.
+ */
+public interface HttpTransport {
+    /**
+     * Sends the request and returns once the status line and headers have been received.
+     * The caller must close the returned response to release the underlying connection.
+     * Implementations register an abort handler on the request, so that {@link TransportRequest#abort()}
+     * interrupts the exchange and frees its connection at any point.
+     */
+    TransportResponse execute(TransportRequest request) throws IOException;
+
+    /**
+     * Closes pooled connections that have been idle for too long. Transports without a pool do nothing.
+     */
+    void closeIdleConnections();
+
+    /**
+     * Releases all resources held by the transport. The instance must not be used afterwards.
+     */
+    void shutdown();
+}
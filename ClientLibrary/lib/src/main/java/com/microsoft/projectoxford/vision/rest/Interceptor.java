@@ -0,0 +1,75 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import java.io.IOException;
+
+/**
+ * Observes, modifies or short-circuits calls made by a {@link WebServiceRequest}, e.g. to add headers,
+ * record metrics, log or answer from a cache.
+ * <p>
+ * Interceptors run once per call, in the order they were added, around everything the request
+ * executor does for the call: rate limiting, circuit breakers, retries and hedging. An interceptor
+ * either passes the call on with {@link Chain#proceed} or returns a response of its own. Responses
+ * returned by {@code proceed} have already been decompressed. Interceptors are shared by all threads
+ * using the executor and must be thread-safe.
+ */
+public interface Interceptor {
+    /**
+     * @return the response to the call; the caller closes it
+     */
+    TransportResponse intercept(Chain chain) throws VisionServiceException, IOException;
+
+    interface Chain {
+        /**
+         * @return the request as modified by the interceptors before this one; it already carries
+         * the subscription key and accepted encodings
+         */
+        TransportRequest request();
+
+        /**
+         * @return the deadline of the call, or null if it has none
+         */
+        Deadline deadline();
+
+        /**
+         * @return the token that cancels the call, or null if it has none
+         */
+        CancellationToken cancellation();
+
+        /**
+         * Passes the request on to the next interceptor, or sends it if this is the last one.
+         */
+        TransportResponse proceed(TransportRequest request) throws VisionServiceException, IOException;
+    }
+}
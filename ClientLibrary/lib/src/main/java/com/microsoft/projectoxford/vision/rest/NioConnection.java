@@ -0,0 +1,776 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * A non-blocking HTTP/1.1 connection owned by one {@link NioEventLoop}, optionally over TLS. It carries
+ * one exchange at a time and goes back to its pool when the response has been read in full. All
+ * methods run on the event loop thread.
+ */
+final class NioConnection {
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_LINE_LENGTH = 8 * 1024;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private static final int STATUS_LINE = 0;
+    private static final int HEADERS = 1;
+    private static final int BODY_FIXED = 2;
+    private static final int CHUNK_SIZE = 3;
+    private static final int CHUNK_DATA = 4;
+    private static final int CHUNK_END = 5;
+    private static final int TRAILERS = 6;
+    private static final int BODY_UNTIL_CLOSE = 7;
+    private static final int COMPLETE = 8;
+
+    final NioEventLoop.HostPool pool;
+
+    private final NioEventLoop loop;
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private final boolean engineVerifiesHost;
+    private SelectionKey key;
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private ByteBuffer appIn;
+
+    private boolean connecting = true;
+    private boolean handshaking;
+    private boolean closed;
+    private boolean reused;
+    private boolean wantWrite;
+    private boolean uploadStalled;
+    private boolean readPaused;
+    private boolean endOfStream;
+    private long activityNanos = System.nanoTime();
+    private NioExchange exchange;
+
+    private int state;
+    private final StringBuilder line = new StringBuilder();
+    private boolean http10;
+    private int statusCode;
+    private Map<String, String> headers;
+    private long remaining;
+    private boolean keepAlive;
+    private boolean responseStarted;
+    private NioPipe download;
+
+    NioConnection(NioEventLoop loop, NioEventLoop.HostPool pool, SSLContext sslContext) throws IOException {
+        this.loop = loop;
+        this.pool = pool;
+        this.channel = SocketChannel.open();
+        try {
+            this.channel.configureBlocking(false);
+            this.channel.socket().setTcpNoDelay(true);
+        } catch (IOException e) {
+            closeQuietly();
+            throw e;
+        }
+
+        if (pool.secure) {
+            this.engine = sslContext.createSSLEngine(pool.host, pool.port);
+            this.engine.setUseClientMode(true);
+            this.engineVerifiesHost = requestHostVerification(this.engine);
+        } else {
+            this.engine = null;
+            this.engineVerifiesHost = false;
+        }
+    }
+
+    /**
+     * Starts connecting; the first exchange is sent once the connection is up.
+     */
+    void connect(NioExchange first) {
+        exchange = first;
+        first.connection = this;
+        try {
+            key = channel.register(loop.selector(), 0, this);
+            if (channel.connect(first.address)) {
+                onConnected();
+            } else {
+                key.interestOps(SelectionKey.OP_CONNECT);
+            }
+        } catch (IOException e) {
+            fail(e, false);
+        }
+    }
+
+    /**
+     * Sends an exchange over this pooled connection.
+     */
+    void start(NioExchange next) {
+        exchange = next;
+        next.connection = this;
+        reused = true;
+        begin();
+    }
+
+    /**
+     * @return true if an idle connection can carry another exchange
+     */
+    boolean isUsable() {
+        return !closed && channel.isOpen() && !endOfStream;
+    }
+
+    void onReady(int readyOps) {
+        try {
+            if (connecting) {
+                if ((readyOps & SelectionKey.OP_CONNECT) != 0 && channel.finishConnect()) {
+                    onConnected();
+                }
+                return;
+            } else if (handshaking) {
+                handshake();
+                return;
+            }
+
+            if ((readyOps & SelectionKey.OP_READ) != 0) {
+                readIncoming();
+            }
+            if ((readyOps & SelectionKey.OP_WRITE) != 0 && exchange != null && !closed) {
+                writeOutgoing();
+            }
+            updateInterest();
+        } catch (IOException e) {
+            fail(e, true);
+        } catch (RuntimeException e) {
+            // SSLEngine reports some protocol errors unchecked.
+            fail(new IOException(e), false);
+        }
+    }
+
+    /**
+     * Called when the application side of one of the exchange pipes has made progress.
+     */
+    void onPoke(NioExchange target) {
+        if (target != exchange || closed) {
+            return;
+        }
+
+        try {
+            if (download != null && download.isConsumerClosed()) {
+                // The reader gave up on the body; the rest of it cannot be skipped cheaply.
+                abort(target, new IOException("Response body closed before it was read in full"));
+                return;
+            }
+
+            readPaused = false;
+            readIncoming();
+            if (exchange == target && !closed) {
+                writeOutgoing();
+                updateInterest();
+            }
+        } catch (IOException e) {
+            fail(e, false);
+        } catch (RuntimeException e) {
+            fail(new IOException(e), false);
+        }
+    }
+
+    /**
+     * Fails the exchange if it is still carried by this connection and closes the connection.
+     */
+    void abort(NioExchange target, IOException e) {
+        if (target == exchange) {
+            fail(e, false);
+        }
+    }
+
+    /**
+     * Enforces the connect and read timeouts, and closes connections idle for longer than allowed.
+     */
+    void checkTimeout(long nowNanos, long connectTimeoutNanos, long readTimeoutNanos, long idleTimeoutNanos) {
+        if (closed) {
+            return;
+        }
+
+        long elapsed = nowNanos - activityNanos;
+        if (connecting || handshaking) {
+            if (elapsed > connectTimeoutNanos) {
+                fail(new SocketTimeoutException("Connect timed out"), false);
+            }
+        } else if (exchange != null) {
+            // Waiting on the application, either for upload data or for room in the response pipe,
+            // does not count against the server.
+            if (!readPaused && !uploadStalled && elapsed > readTimeoutNanos) {
+                fail(new SocketTimeoutException("Read timed out"), false);
+            }
+        } else if (elapsed > idleTimeoutNanos) {
+            close();
+        }
+    }
+
+    /**
+     * Marks the connection idle as of now.
+     */
+    void idle() {
+        activityNanos = System.nanoTime();
+        readPaused = false;
+        updateInterest();
+    }
+
+    /**
+     * Fails the current exchange and closes the connection. A stale pooled connection that failed
+     * before any response arrived is replaced transparently, once, if the request can be sent again:
+     * its body is buffered, and either it was not written in full or its method is idempotent. A
+     * request that was written in full may have reached the server and been acted on.
+     */
+    void fail(IOException e, boolean retriable) {
+        NioExchange failed = exchange;
+        exchange = null;
+        download = null;
+        boolean resend = failed != null && retriable && reused && !responseStarted
+                && (!failed.isSent() || failed.isIdempotent()) && failed.rewind();
+        close();
+
+        if (failed != null) {
+            failed.connection = null;
+            if (resend) {
+                loop.dispatch(failed);
+            } else {
+                failed.fail(e);
+            }
+        }
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (key != null) {
+            key.cancel();
+        }
+        closeQuietly();
+        loop.onClosed(this);
+    }
+
+    private void closeQuietly() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing left to release.
+        }
+    }
+
+    private void onConnected() throws IOException {
+        connecting = false;
+        activityNanos = System.nanoTime();
+        if (engine != null) {
+            netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+            netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+            appIn = ByteBuffer.allocate(Math.max(READ_BUFFER_SIZE, engine.getSession().getApplicationBufferSize()));
+            handshaking = true;
+            engine.beginHandshake();
+            handshake();
+        } else {
+            appIn = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            begin();
+        }
+    }
+
+    private void begin() {
+        state = STATUS_LINE;
+        line.setLength(0);
+        headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        responseStarted = false;
+        readPaused = false;
+        uploadStalled = false;
+        download = null;
+        activityNanos = System.nanoTime();
+        try {
+            writeOutgoing();
+            updateInterest();
+        } catch (IOException e) {
+            fail(e, true);
+        } catch (RuntimeException e) {
+            fail(new IOException(e), false);
+        }
+    }
+
+    private void handshake() throws IOException {
+        while (true) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    runDelegatedTasks();
+                    break;
+                case NEED_WRAP:
+                    if (flush()) {
+                        wrap(EMPTY);
+                    }
+                    if (!flush()) {
+                        updateInterest();
+                        return;
+                    }
+                    break;
+                case NEED_UNWRAP:
+                    if (!unwrapHandshake()) {
+                        updateInterest();
+                        return;
+                    }
+                    break;
+                default:
+                    handshaking = false;
+                    if (!engineVerifiesHost
+                            && !HttpsURLConnection.getDefaultHostnameVerifier().verify(pool.host, engine.getSession())) {
+                        throw new SSLPeerUnverifiedException("Hostname " + pool.host + " not verified");
+                    }
+                    begin();
+                    return;
+            }
+        }
+    }
+
+    /**
+     * @return false if the handshake has to wait for more data from the server
+     */
+    private boolean unwrapHandshake() throws IOException {
+        netIn.flip();
+        SSLEngineResult result = engine.unwrap(netIn, appIn);
+        netIn.compact();
+
+        switch (result.getStatus()) {
+            case BUFFER_UNDERFLOW:
+                int read = channel.read(netIn);
+                if (read < 0) {
+                    throw new SSLException("Connection closed during the TLS handshake");
+                } else if (read > 0) {
+                    activityNanos = System.nanoTime();
+                }
+                return read > 0;
+            case CLOSED:
+                throw new SSLException("Connection closed during the TLS handshake");
+            default:
+                return true;
+        }
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Encrypts as much of the source as fits into the outgoing network buffer.
+     */
+    private void wrap(ByteBuffer source) throws IOException {
+        SSLEngineResult result = engine.wrap(source, netOut);
+        if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+            throw new SSLException("TLS session closed");
+        }
+        if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+            runDelegatedTasks();
+        }
+    }
+
+    /**
+     * @return true if the outgoing network buffer was written out in full
+     */
+    private boolean flush() throws IOException {
+        if (netOut.position() == 0) {
+            return true;
+        }
+
+        netOut.flip();
+        int written = channel.write(netOut);
+        netOut.compact();
+        if (written > 0) {
+            activityNanos = System.nanoTime();
+        }
+        return netOut.position() == 0;
+    }
+
+    private void writeOutgoing() throws IOException {
+        wantWrite = false;
+        uploadStalled = false;
+        if (engine != null && !flush()) {
+            wantWrite = true;
+            return;
+        }
+
+        while (exchange != null && !exchange.isSent()) {
+            ByteBuffer source = exchange.nextOutgoing();
+            if (source == null) {
+                uploadStalled = !exchange.isSent();
+                return;
+            }
+
+            if (engine == null) {
+                if (channel.write(source) > 0) {
+                    activityNanos = System.nanoTime();
+                }
+                if (source.hasRemaining()) {
+                    wantWrite = true;
+                    return;
+                }
+            } else {
+                wrap(source);
+                if (!flush()) {
+                    wantWrite = true;
+                    return;
+                }
+            }
+        }
+    }
+
+    private void updateInterest() {
+        if (closed || key == null || !key.isValid()) {
+            return;
+        }
+
+        int ops;
+        if (connecting) {
+            ops = SelectionKey.OP_CONNECT;
+        } else {
+            ops = 0;
+            if (wantWrite || (netOut != null && netOut.position() > 0)) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            if (handshaking || !readPaused) {
+                ops |= SelectionKey.OP_READ;
+            }
+        }
+
+        if (key.interestOps() != ops) {
+            key.interestOps(ops);
+        }
+    }
+
+    private void readIncoming() throws IOException {
+        while (!closed) {
+            int read = engine == null ? channel.read(appIn) : readTls();
+            if (read > 0) {
+                activityNanos = System.nanoTime();
+            } else if (read < 0) {
+                endOfStream = true;
+            }
+
+            // Records still buffered in netIn only fit into appIn once the parser has made room.
+            int buffered = appIn.position();
+            parse();
+            boolean consumed = appIn.position() < buffered;
+            if (state == COMPLETE && exchange != null) {
+                finishExchange();
+                return;
+            } else if (endOfStream && !readPaused) {
+                onEndOfStream();
+                return;
+            } else if (readPaused || (read == 0 && !consumed)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads from the socket and decrypts into the application buffer.
+     *
+     * @return the number of bytes read or decrypted, or -1 at the end of the stream
+     */
+    private int readTls() throws IOException {
+        int read = netIn.hasRemaining() ? channel.read(netIn) : 0;
+        int produced = 0;
+        while (netIn.position() > 0 && appIn.hasRemaining()) {
+            netIn.flip();
+            SSLEngineResult result = engine.unwrap(netIn, appIn);
+            netIn.compact();
+            produced += result.bytesProduced();
+
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                break;
+            } else if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runDelegatedTasks();
+            } else if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                wrap(EMPTY);
+                flush();
+            }
+
+            if (result.getStatus() != SSLEngineResult.Status.OK) {
+                break;
+            }
+        }
+
+        if (produced > 0) {
+            return produced;
+        }
+        // A close_notify ends the stream even if the server keeps the socket open.
+        return read < 0 || engine.isInboundDone() ? -1 : read;
+    }
+
+    private void onEndOfStream() throws IOException {
+        if (exchange == null) {
+            close();
+        } else if (responseStarted) {
+            throw new IOException("Connection closed before the response was complete");
+        } else {
+            throw new IOException("Connection closed by the server");
+        }
+    }
+
+    private void finishExchange() {
+        NioExchange finished = exchange;
+        exchange = null;
+        download = null;
+        boolean reusable = keepAlive && finished.isSent() && appIn.position() == 0 && !endOfStream
+                && !finished.request.isAborted();
+        finished.complete();
+
+        if (reusable) {
+            loop.release(this);
+        } else {
+            close();
+        }
+    }
+
+    private void parse() throws IOException {
+        appIn.flip();
+        try {
+            if (exchange == null) {
+                if (appIn.hasRemaining()) {
+                    throw new IOException("Unexpected data on an idle connection");
+                }
+                return;
+            }
+
+            if (appIn.hasRemaining()) {
+                responseStarted = true;
+            }
+
+            while (!readPaused && state != COMPLETE) {
+                String text;
+                switch (state) {
+                    case STATUS_LINE:
+                        if ((text = readLine()) == null) {
+                            return;
+                        }
+                        parseStatusLine(text);
+                        state = HEADERS;
+                        break;
+                    case HEADERS:
+                        if ((text = readLine()) == null) {
+                            return;
+                        } else if (text.isEmpty()) {
+                            onHeadersComplete();
+                        } else {
+                            int colon = text.indexOf(':');
+                            if (colon <= 0) {
+                                throw new IOException("Malformed response header: " + text);
+                            }
+                            String name = text.substring(0, colon).trim();
+                            if (!headers.containsKey(name)) {
+                                headers.put(name, text.substring(colon + 1).trim());
+                            }
+                        }
+                        break;
+                    case BODY_FIXED:
+                    case CHUNK_DATA:
+                        if (!appIn.hasRemaining()) {
+                            return;
+                        }
+                        remaining -= transfer(remaining);
+                        if (remaining == 0) {
+                            state = state == BODY_FIXED ? COMPLETE : CHUNK_END;
+                        }
+                        break;
+                    case CHUNK_SIZE:
+                        if ((text = readLine()) == null) {
+                            return;
+                        }
+                        remaining = parseChunkSize(text);
+                        state = remaining == 0 ? TRAILERS : CHUNK_DATA;
+                        break;
+                    case CHUNK_END:
+                        if ((text = readLine()) == null) {
+                            return;
+                        }
+                        state = CHUNK_SIZE;
+                        break;
+                    case TRAILERS:
+                        if ((text = readLine()) == null) {
+                            return;
+                        } else if (text.isEmpty()) {
+                            state = COMPLETE;
+                        }
+                        break;
+                    case BODY_UNTIL_CLOSE:
+                        if (appIn.hasRemaining()) {
+                            transfer(Long.MAX_VALUE);
+                        }
+                        if (!appIn.hasRemaining() && endOfStream) {
+                            state = COMPLETE;
+                        } else if (!appIn.hasRemaining()) {
+                            return;
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown parser state " + state);
+                }
+            }
+        } finally {
+            appIn.compact();
+        }
+    }
+
+    /**
+     * @return the next line without its terminator, or null if it has not been received in full
+     */
+    private String readLine() throws IOException {
+        while (appIn.hasRemaining()) {
+            char c = (char) (appIn.get() & 0xff);
+            if (c == '\n') {
+                String text = line.toString();
+                line.setLength(0);
+                return text;
+            } else if (c != '\r') {
+                if (line.length() == MAX_LINE_LENGTH) {
+                    throw new IOException("Response line too long");
+                }
+                line.append(c);
+            }
+        }
+        return null;
+    }
+
+    private void parseStatusLine(String text) throws IOException {
+        int space = text.indexOf(' ');
+        if (!text.startsWith("HTTP/") || space < 0 || text.length() < space + 4) {
+            throw new IOException("Malformed status line: " + text);
+        }
+        http10 = text.startsWith("HTTP/1.0");
+        try {
+            statusCode = Integer.parseInt(text.substring(space + 1, space + 4));
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed status line: " + text);
+        }
+    }
+
+    private void onHeadersComplete() throws IOException {
+        if (statusCode >= 100 && statusCode < 200) {
+            // Interim response, the final one follows.
+            state = STATUS_LINE;
+            headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            return;
+        }
+
+        String connection = lower(headers.get("Connection"));
+        keepAlive = http10 ? connection.contains("keep-alive") : !connection.contains("close");
+
+        String contentLength = headers.get("Content-Length");
+        if ("HEAD".equals(exchange.request.getMethod()) || statusCode == 204 || statusCode == 304) {
+            state = COMPLETE;
+        } else if (lower(headers.get("Transfer-Encoding")).contains("chunked")) {
+            state = CHUNK_SIZE;
+        } else if (contentLength != null) {
+            try {
+                remaining = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed Content-Length: " + contentLength);
+            }
+            state = remaining > 0 ? BODY_FIXED : COMPLETE;
+        } else {
+            state = BODY_UNTIL_CLOSE;
+            keepAlive = false;
+        }
+
+        download = exchange.respond(statusCode, headers, state != COMPLETE);
+    }
+
+    /**
+     * Hands up to {@code limit} buffered bytes to the response pipe, pausing reads if it is full.
+     *
+     * @return the number of bytes handed over
+     */
+    private int transfer(long limit) {
+        int length = (int) Math.min(appIn.remaining(), limit);
+        ByteBuffer slice = appIn.duplicate();
+        slice.limit(appIn.position() + length);
+        int moved = download.offer(slice);
+        appIn.position(appIn.position() + moved);
+        if (moved < length) {
+            readPaused = true;
+        }
+        return moved;
+    }
+
+    private static long parseChunkSize(String text) throws IOException {
+        int extension = text.indexOf(';');
+        String size = (extension >= 0 ? text.substring(0, extension) : text).trim();
+        try {
+            long value = Long.parseLong(size, 16);
+            if (value < 0) {
+                throw new NumberFormatException();
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed chunk size: " + text);
+        }
+    }
+
+    private static String lower(String value) {
+        return value == null ? "" : value.toLowerCase(Locale.US);
+    }
+
+    /**
+     * Asks the engine to check the server host name during the handshake.
+     *
+     * @return false if the platform does not support it and the name must be checked afterwards
+     */
+    private static boolean requestHostVerification(SSLEngine engine) {
+        try {
+            SSLParameters parameters = engine.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            engine.setSSLParameters(parameters);
+            return true;
+        } catch (NoSuchMethodError e) {
+            // Endpoint identification is available on Android from API 24 only.
+            return false;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * A selector thread of {@link NioHttpTransport}. It owns its connections and their per-host pools,
+ * so none of that state is shared between threads; other threads only hand it tasks.
+ */
+final class NioEventLoop implements Runnable {
+    private static final long TICK_MILLIS = 250;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Map<String, HostPool> pools = new HashMap<>();
+    private final int maxConnectionsPerHost;
+    private final long idleTimeoutNanos;
+    private final long connectTimeoutNanos;
+    private final long readTimeoutNanos;
+    private final SSLContext sslContext;
+    private volatile boolean shutdown;
+
+    NioEventLoop(String name, int maxConnectionsPerHost, long idleTimeoutMillis, int connectTimeoutMillis,
+                 int readTimeoutMillis, SSLContext sslContext) throws IOException {
+        this.selector = Selector.open();
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.connectTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(connectTimeoutMillis);
+        this.readTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(readTimeoutMillis);
+        this.sslContext = sslContext;
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    Selector selector() {
+        return selector;
+    }
+
+    boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * Runs the task on the event loop thread.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Queues the exchange for a connection from any thread.
+     */
+    void submit(final NioExchange exchange) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                dispatch(exchange);
+            }
+        });
+    }
+
+    /**
+     * Sends the exchange over an idle pooled connection, a new connection if the host is below its
+     * limit, or queues it until a connection frees up.
+     */
+    void dispatch(NioExchange exchange) {
+        if (shutdown) {
+            exchange.fail(new IOException("Transport shut down"));
+            return;
+        } else if (exchange.request.isAborted()) {
+            exchange.fail(new IOException("Request aborted"));
+            return;
+        }
+
+        HostPool pool = pools.get(exchange.poolKey);
+        if (pool == null) {
+            pool = new HostPool(exchange.host, exchange.port, exchange.secure);
+            pools.put(exchange.poolKey, pool);
+        }
+
+        NioConnection connection;
+        while ((connection = pool.idle.pollFirst()) != null) {
+            if (connection.isUsable()) {
+                connection.start(exchange);
+                return;
+            }
+            connection.close();
+        }
+
+        if (pool.open < maxConnectionsPerHost) {
+            open(pool, exchange);
+        } else {
+            pool.waiting.add(exchange);
+        }
+    }
+
+    /**
+     * Removes an exchange that is still waiting for a connection.
+     */
+    void cancel(NioExchange exchange) {
+        HostPool pool = pools.get(exchange.poolKey);
+        if (pool != null) {
+            pool.waiting.remove(exchange);
+        }
+    }
+
+    /**
+     * Takes back a connection whose exchange completed with the connection still reusable.
+     */
+    void release(NioConnection connection) {
+        NioExchange next = nextWaiting(connection.pool);
+        if (next != null) {
+            connection.start(next);
+        } else {
+            // Most recently used first, so that surplus connections idle out.
+            connection.idle();
+            connection.pool.idle.addFirst(connection);
+        }
+    }
+
+    /**
+     * Accounts for a closed connection and lets a waiting exchange take its place.
+     */
+    void onClosed(NioConnection connection) {
+        HostPool pool = connection.pool;
+        pool.open--;
+        pool.idle.remove(connection);
+        if (!shutdown) {
+            NioExchange next = nextWaiting(pool);
+            if (next != null) {
+                open(pool, next);
+            }
+        }
+    }
+
+    void closeIdleConnections() {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                checkTimeouts(System.nanoTime());
+            }
+        });
+    }
+
+    void shutdown() {
+        shutdown = true;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        long lastTick = System.nanoTime();
+        while (!shutdown) {
+            try {
+                selector.select(TICK_MILLIS);
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    if (key.isValid()) {
+                        ((NioConnection) key.attachment()).onReady(key.readyOps());
+                    }
+                }
+
+                runTasks();
+
+                long now = System.nanoTime();
+                if (now - lastTick >= TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS)) {
+                    lastTick = now;
+                    checkTimeouts(now);
+                }
+            } catch (IOException e) {
+                // The selector itself failed; nothing on this loop can make progress any more.
+                shutdown = true;
+            } catch (RuntimeException e) {
+                // Keep serving the other connections.
+            }
+        }
+
+        closeAll();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void checkTimeouts(long now) {
+        List<SelectionKey> keys = new ArrayList<>(selector.keys());
+        for (SelectionKey key : keys) {
+            if (key.isValid()) {
+                ((NioConnection) key.attachment()).checkTimeout(now, connectTimeoutNanos, readTimeoutNanos, idleTimeoutNanos);
+            }
+        }
+    }
+
+    private void closeAll() {
+        IOException stopped = new IOException("Transport shut down");
+        for (SelectionKey key : new ArrayList<>(selector.keys())) {
+            ((NioConnection) key.attachment()).fail(stopped, false);
+        }
+        for (HostPool pool : pools.values()) {
+            NioExchange waiting;
+            while ((waiting = pool.waiting.poll()) != null) {
+                waiting.fail(stopped);
+            }
+        }
+
+        // Tasks queued concurrently with the shutdown still run, and fail their exchanges.
+        runTasks();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // Nothing left to release.
+        }
+        runTasks();
+    }
+
+    private void open(HostPool pool, NioExchange exchange) {
+        NioConnection connection;
+        try {
+            connection = new NioConnection(this, pool, sslContext);
+        } catch (IOException e) {
+            exchange.fail(e);
+            return;
+        }
+        pool.open++;
+        connection.connect(exchange);
+    }
+
+    private static NioExchange nextWaiting(HostPool pool) {
+        NioExchange next;
+        while ((next = pool.waiting.poll()) != null) {
+            if (!next.isDone()) {
+                return next;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Connections of one event loop to one scheme, host and port.
+     */
+    static final class HostPool {
+        final String host;
+        final int port;
+        final boolean secure;
+        final ArrayDeque<NioConnection> idle = new ArrayDeque<>();
+        final ArrayDeque<NioExchange> waiting = new ArrayDeque<>();
+        int open;
+
+        HostPool(String host, int port, boolean secure) {
+            this.host = host;
+            this.port = port;
+            this.secure = secure;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * One request/response exchange of {@link NioHttpTransport}. Apart from the constructor and
+ * {@link #abort}, every method runs on the event loop that owns the exchange.
+ */
+final class NioExchange {
+    private static final int STAGING_BUFFER_SIZE = 16 * 1024;
+    private static final int BUFFERED_RESPONSE_INITIAL_SIZE = 8 * 1024;
+
+    final TransportRequest request;
+    final String poolKey;
+    final String host;
+    final int port;
+    final boolean secure;
+    final InetSocketAddress address;
+
+    private final NioEventLoop loop;
+    private final TransportCallback callback;
+    private final ByteBuffer head;
+    private final ByteBuffer body;
+    private final NioPipe upload;
+    private final int pipeCapacity;
+    private final int maxBufferedResponse;
+    private final Runnable poke = new Runnable() {
+        @Override
+        public void run() {
+            if (connection != null) {
+                connection.onPoke(NioExchange.this);
+            }
+        }
+    };
+
+    private ByteBuffer staging;
+    private boolean uploadFinished;
+    private boolean responded;
+    private boolean delivered;
+    private TransportResponse heldResponse;
+    private boolean done;
+    private boolean resent;
+    private NioPipe download;
+    NioConnection connection;
+
+    /**
+     * @param head     encoded request line and headers
+     * @param body     buffered request body, or null
+     * @param streamed            true if the request body is written to {@link #uploadSink()} instead
+     * @param maxBufferedResponse if positive, the response is held back until its body, of at most this
+     *                            many bytes, has been received in full; otherwise it is delivered once
+     *                            its head has been received and the body streams in afterwards
+     */
+    NioExchange(NioEventLoop loop, TransportRequest request, String poolKey, String host, int port, boolean secure,
+                InetSocketAddress address, ByteBuffer head, ByteBuffer body, boolean streamed,
+                int pipeCapacity, int maxBufferedResponse, TransportCallback callback) {
+        this.loop = loop;
+        this.request = request;
+        this.poolKey = poolKey;
+        this.host = host;
+        this.port = port;
+        this.secure = secure;
+        this.address = address;
+        this.head = head;
+        this.body = body;
+        this.pipeCapacity = pipeCapacity;
+        this.maxBufferedResponse = maxBufferedResponse;
+        this.callback = callback;
+        this.upload = streamed ? new NioPipe(pipeCapacity, waker()) : null;
+    }
+
+    /**
+     * @return the stream a streamed request body is written to; it blocks while the buffer is full
+     */
+    OutputStream uploadSink() {
+        return upload.sink();
+    }
+
+    /**
+     * @return true if writing to {@link #uploadSink()} fails because the exchange ended, from any thread
+     */
+    boolean isUploadFailed() {
+        return upload != null && upload.isFailed();
+    }
+
+    /**
+     * @return a runnable that makes the owning connection look at this exchange again, from any thread
+     */
+    Runnable waker() {
+        return new Runnable() {
+            @Override
+            public void run() {
+                loop.execute(poke);
+            }
+        };
+    }
+
+    /**
+     * @return the next bytes to send, or null if nothing is available right now or everything was sent
+     */
+    ByteBuffer nextOutgoing() {
+        if (head.hasRemaining()) {
+            return head;
+        } else if (body != null) {
+            if (body.hasRemaining()) {
+                return body;
+            }
+            uploadFinished = true;
+            return null;
+        } else if (upload == null || uploadFinished) {
+            uploadFinished = true;
+            return null;
+        }
+
+        if (staging == null) {
+            staging = ByteBuffer.allocate(STAGING_BUFFER_SIZE);
+        } else if (staging.hasRemaining()) {
+            return staging;
+        }
+
+        staging.clear();
+        int moved = upload.drainTo(staging);
+        staging.flip();
+        if (moved < 0) {
+            uploadFinished = true;
+            return null;
+        }
+        return moved > 0 ? staging : null;
+    }
+
+    /**
+     * @return true once the whole request has been handed to the connection
+     */
+    boolean isSent() {
+        return uploadFinished && !head.hasRemaining();
+    }
+
+    boolean isDone() {
+        return done;
+    }
+
+    /**
+     * @return true if the method of the request allows it to be sent twice, as defined by HTTP
+     */
+    boolean isIdempotent() {
+        String method = request.getMethod();
+        return method.equals("GET") || method.equals("HEAD") || method.equals("PUT") || method.equals("DELETE")
+                || method.equals("OPTIONS");
+    }
+
+    /**
+     * Prepares the exchange to be sent again on a fresh connection, which is only possible once and
+     * only for buffered bodies.
+     *
+     * @return true if the exchange was rewound
+     */
+    boolean rewind() {
+        if (resent || responded || upload != null || request.isAborted()) {
+            return false;
+        }
+        resent = true;
+        uploadFinished = false;
+        head.rewind();
+        if (body != null) {
+            body.rewind();
+        }
+        return true;
+    }
+
+    /**
+     * Delivers the response head to the callback, or holds it back until {@link #complete()} if the
+     * response is buffered.
+     *
+     * @return the pipe the body is delivered through
+     */
+    NioPipe respond(int statusCode, Map<String, String> headers, boolean hasBody) {
+        download = maxBufferedResponse > 0
+                ? new NioPipe(Math.min(BUFFERED_RESPONSE_INITIAL_SIZE, maxBufferedResponse), maxBufferedResponse, waker())
+                : new NioPipe(pipeCapacity, waker());
+        if (!hasBody) {
+            download.finish();
+        }
+        responded = true;
+        TransportResponse response = new TransportResponse(statusCode, headers, download.source());
+        if (maxBufferedResponse > 0) {
+            heldResponse = response;
+        } else {
+            deliver(response);
+        }
+        return download;
+    }
+
+    private void deliver(TransportResponse response) {
+        delivered = true;
+        try {
+            callback.onResponse(response);
+        } catch (RuntimeException e) {
+            // A misbehaving callback must not take the event loop down with it.
+            download.fail(new IOException("Response callback failed", e));
+        }
+    }
+
+    /**
+     * Called once the response body has been received in full.
+     */
+    void complete() {
+        done = true;
+        connection = null;
+        if (upload != null && !uploadFinished) {
+            // The server answered without waiting for the rest of the body.
+            upload.fail(new IOException("Response received before the request body was sent"));
+        }
+        if (download != null) {
+            download.finish();
+        }
+        if (heldResponse != null) {
+            TransportResponse response = heldResponse;
+            heldResponse = null;
+            deliver(response);
+        }
+    }
+
+    /**
+     * Fails the exchange: the callback if no response was delivered yet, the body reader otherwise.
+     */
+    void fail(IOException e) {
+        if (done) {
+            return;
+        }
+        done = true;
+        connection = null;
+        if (upload != null) {
+            upload.fail(e);
+        }
+
+        heldResponse = null;
+        if (!delivered) {
+            delivered = true;
+            try {
+                callback.onFailure(e);
+            } catch (RuntimeException ignored) {
+                // Same as above; the loop keeps running.
+            }
+        } else if (download != null) {
+            download.fail(e);
+        }
+    }
+
+    /**
+     * Aborts the exchange from any thread.
+     */
+    void abort(final IOException aborted) {
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (connection != null) {
+                    connection.abort(NioExchange.this, aborted);
+                } else {
+                    loop.cancel(NioExchange.this);
+                    fail(aborted);
+                }
+            }
+        });
+    }
+}
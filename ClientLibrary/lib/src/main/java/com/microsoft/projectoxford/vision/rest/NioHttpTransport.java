@@ -0,0 +1,368 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * {@link HttpTransport} that multiplexes every connection over a few selector threads instead of
+ * holding a thread per exchange. Connections are pooled per host and event loop, and request and
+ * response bodies pass through bounded buffers, so a slow reader pauses its connection rather than
+ * buffering the response.
+ * <p>
+ * {@link #execute} keeps the calling thread until the response head has been received, like the other
+ * transports, so that the body can be streamed to the caller. {@link #executeAsync} returns at once and
+ * hands the response to a callback once it has been received in full; {@link WebServiceRequest} sends
+ * the calls of {@link com.microsoft.projectoxford.vision.AsyncVisionServiceClient} and
+ * {@link com.microsoft.projectoxford.vision.HandwritingResultPoller} that way, so that calls waiting
+ * for the service hold no thread at all.
+ */
+public class NioHttpTransport implements AsyncHttpTransport, TlsSessionCache {
+    public static final int DEFAULT_EVENT_LOOPS = 2;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 256;
+    public static final long DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS = 60 * 1000;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 60 * 1000;
+
+    /**
+     * Largest response body {@link #executeAsync} holds in memory; reading a larger one fails.
+     */
+    public static final int MAX_BUFFERED_RESPONSE_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * Bytes buffered per exchange in each direction. Request bodies up to this size are sent from memory.
+     */
+    static final int PIPE_CAPACITY = 64 * 1024;
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private final SSLContext sslContext;
+    private final NioEventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    public NioHttpTransport() {
+        this(DEFAULT_EVENT_LOOPS, DEFAULT_MAX_CONNECTIONS_PER_HOST);
+    }
+
+    /**
+     * @param eventLoops            number of selector threads
+     * @param maxConnectionsPerHost upper bound on connections to one host, shared out between the event
+     *                              loops; further exchanges wait for a connection to free up
+     */
+    public NioHttpTransport(int eventLoops, int maxConnectionsPerHost) {
+        this(eventLoops, maxConnectionsPerHost, DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS,
+                DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS, null);
+    }
+
+    /**
+     * @param eventLoops                  number of selector threads
+     * @param maxConnectionsPerHost       upper bound on connections to one host, shared out between the
+     *                                    event loops; further exchanges wait for a connection to free up
+     * @param idleConnectionTimeoutMillis pooled connections idle for longer than this are closed
+     * @param connectTimeoutMillis        time allowed to open a connection, including the TLS handshake
+     * @param readTimeoutMillis           time allowed without progress from the server
+     * @param sslContext                  context for https connections, or null for the platform default
+     */
+    public NioHttpTransport(int eventLoops, int maxConnectionsPerHost, long idleConnectionTimeoutMillis,
+                            int connectTimeoutMillis, int readTimeoutMillis, SSLContext sslContext) {
+        if (eventLoops < 1 || maxConnectionsPerHost < 1) {
+            throw new IllegalArgumentException("At least one event loop and one connection per host are needed");
+        }
+
+        SSLContext context = sslContext != null ? sslContext : defaultSslContext();
+        this.sslContext = context;
+        int connectionsPerLoop = Math.max(1, maxConnectionsPerHost / eventLoops);
+        this.loops = new NioEventLoop[eventLoops];
+        try {
+            for (int i = 0; i < eventLoops; i++) {
+                this.loops[i] = new NioEventLoop("vision-nio-" + (i + 1), connectionsPerLoop,
+                        idleConnectionTimeoutMillis, connectTimeoutMillis, readTimeoutMillis, context);
+            }
+        } catch (IOException e) {
+            shutdown();
+            throw new IllegalStateException("Cannot open a selector", e);
+        }
+    }
+
+    /**
+     * Sends the request and blocks until the response head has been received. A large or chunked
+     * request body is streamed to the connection from the calling thread through a bounded buffer.
+     */
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        RequestBody body = request.getBody();
+        long length = body != null ? body.contentLength() : 0;
+        boolean streamed = length < 0 || length > PIPE_CAPACITY;
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final TransportResponse[] response = new TransportResponse[1];
+        final IOException[] failure = new IOException[1];
+        final NioExchange exchange = prepare(request, !streamed, 0, new TransportCallback() {
+            @Override
+            public void onResponse(TransportResponse received) {
+                response[0] = received;
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(IOException e) {
+                failure[0] = e;
+                done.countDown();
+            }
+        });
+
+        IOException uploadFailure = null;
+        if (streamed) {
+            OutputStream out = exchange.uploadSink();
+            if (length < 0) {
+                out = new ChunkedOutputStream(out);
+            }
+            try {
+                body.writeTo(out);
+                out.close();
+            } catch (IOException e) {
+                // Either the body could not be read, or the exchange failed or was answered early.
+                uploadFailure = e;
+                if (!exchange.isUploadFailed()) {
+                    exchange.abort(e);
+                }
+            }
+        }
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            exchange.abort(new InterruptedIOException("Interrupted while waiting for the response"));
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the response");
+        }
+
+        if (response[0] != null) {
+            return response[0];
+        }
+        throw uploadFailure != null ? uploadFailure : failure[0];
+    }
+
+    /**
+     * Sends the request without waiting for the response. The request body is read into memory on the
+     * calling thread first; the response is held in memory, up to {@link #MAX_BUFFERED_RESPONSE_BYTES},
+     * until it has been received in full, so the callback can read it without blocking. If the request
+     * cannot be sent at all, e.g. because its host is unknown, the callback is called on the calling thread.
+     */
+    @Override
+    public void executeAsync(TransportRequest request, TransportCallback callback) {
+        try {
+            prepare(request, true, MAX_BUFFERED_RESPONSE_BYTES, callback);
+        } catch (IOException e) {
+            callback.onFailure(e);
+        }
+    }
+
+    /**
+     * Handshakes with a socket of the context the event loops create their engines from; sockets and
+     * engines of one context share its session cache.
+     */
+    @Override
+    public SSLSocket handshake(Socket socket, String host, int port) throws IOException {
+        return UrlConnectionTransport.startHandshake(sslContext.getSocketFactory().createSocket(socket, host, port, true));
+    }
+
+    @Override
+    public void closeIdleConnections() {
+        for (NioEventLoop loop : loops) {
+            loop.closeIdleConnections();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        for (NioEventLoop loop : loops) {
+            if (loop != null) {
+                loop.shutdown();
+            }
+        }
+    }
+
+    /**
+     * @param buffered            true to read the request body into memory before sending it
+     * @param maxBufferedResponse maximum size of a response held until it is complete, or 0 to deliver
+     *                            the response as soon as its head has been received
+     */
+    private NioExchange prepare(TransportRequest request, boolean buffered, int maxBufferedResponse,
+                                TransportCallback callback) throws IOException {
+        URL url = new URL(request.getUrl());
+        String scheme = url.getProtocol().toLowerCase(Locale.US);
+        boolean secure = "https".equals(scheme);
+        if (!secure && !"http".equals(scheme)) {
+            throw new IOException("Unsupported protocol: " + scheme);
+        }
+
+        String host = url.getHost();
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getByName(host), port);
+
+        RequestBody body = request.getBody();
+        ByteBuffer bufferedBody = null;
+        if (body != null && buffered) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(
+                    body.contentLength() >= 0 ? (int) Math.min(body.contentLength(), Integer.MAX_VALUE) : 1024);
+            body.writeTo(out);
+            bufferedBody = ByteBuffer.wrap(out.toByteArray());
+        }
+
+        ByteBuffer head = encodeHead(request, host, port, url, bufferedBody);
+        NioEventLoop loop = loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+        if (loop.isShutdown()) {
+            throw new IOException("Transport shut down");
+        }
+
+        final NioExchange exchange = new NioExchange(loop, request, scheme + "://" + host + ":" + port, host, port,
+                secure, address, head, bufferedBody, body != null && !buffered, PIPE_CAPACITY, maxBufferedResponse, callback);
+        request.setAbortHandler(new Runnable() {
+            @Override
+            public void run() {
+                exchange.abort(new IOException("Request aborted"));
+            }
+        });
+        loop.submit(exchange);
+        return exchange;
+    }
+
+    private static ByteBuffer encodeHead(TransportRequest request, String host, int port, URL url,
+                                         ByteBuffer bufferedBody) {
+        String path = url.getFile();
+        StringBuilder head = new StringBuilder(256)
+                .append(request.getMethod()).append(' ').append(path.isEmpty() ? "/" : path).append(" HTTP/1.1\r\n");
+
+        Map<String, String> headers = request.getHeaders();
+        if (!containsHeader(headers, "Host")) {
+            head.append("Host: ").append(host);
+            if (port != url.getDefaultPort()) {
+                head.append(':').append(port);
+            }
+            head.append("\r\n");
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getValue() != null) {
+                head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+        }
+
+        RequestBody body = request.getBody();
+        if (body != null) {
+            if (body.contentType() != null && !containsHeader(headers, "Content-Type")) {
+                head.append("Content-Type: ").append(body.contentType()).append("\r\n");
+            }
+            long length = bufferedBody != null ? bufferedBody.remaining() : body.contentLength();
+            if (length >= 0) {
+                head.append("Content-Length: ").append(length).append("\r\n");
+            } else {
+                head.append("Transfer-Encoding: chunked\r\n");
+            }
+        } else if (!"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod())) {
+            head.append("Content-Length: 0\r\n");
+        }
+
+        head.append("\r\n");
+        return ByteBuffer.wrap(head.toString().getBytes(ISO_8859_1));
+    }
+
+    private static boolean containsHeader(Map<String, String> headers, String name) {
+        for (String key : headers.keySet()) {
+            if (key.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static SSLContext defaultSslContext() {
+        try {
+            return SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No TLS support available", e);
+        }
+    }
+
+    /**
+     * Frames a body of unknown length with the chunked transfer coding.
+     */
+    private static class ChunkedOutputStream extends FilterOutputStream {
+        private static final byte[] CRLF = {'\r', '\n'};
+        private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+        ChunkedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            out.write(Integer.toHexString(len).getBytes(ISO_8859_1));
+            out.write(CRLF);
+            out.write(b, off, len);
+            out.write(CRLF);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.write(LAST_CHUNK);
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,389 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded byte buffer between an event loop and an application thread. The event loop side never
+ * blocks: it moves what fits and is woken up through {@code wakeLoop} once the application side has
+ * made room or added data. The application side blocks on the buffer through {@link #source()} or
+ * {@link #sink()}. This keeps the memory held per exchange bounded and makes a slow reader pause the
+ * connection instead of buffering the whole response. The application side waits on a
+ * {@link ReentrantLock} condition rather than a monitor, so that a virtual thread waiting for data
+ * does not pin its carrier.
+ */
+final class NioPipe {
+    private byte[] buffer;
+    private final int maxCapacity;
+    private final boolean growable;
+    private final Runnable wakeLoop;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private int readPosition;
+    private int count;
+    private boolean finished;
+    private boolean consumerClosed;
+    private boolean loopWaiting;
+    private IOException failure;
+
+    /**
+     * @param capacity maximum number of bytes held
+     * @param wakeLoop run on the application thread when the event loop should look at the pipe again
+     */
+    NioPipe(int capacity, Runnable wakeLoop) {
+        this(capacity, capacity, wakeLoop);
+    }
+
+    /**
+     * Creates a pipe that grows up to {@code maxCapacity} instead of holding the event loop back, for
+     * responses that are delivered once received in full. Bytes beyond that are dropped and make the
+     * consumer fail.
+     *
+     * @param capacity    number of bytes held at first
+     * @param maxCapacity maximum number of bytes held
+     * @param wakeLoop    run on the application thread when the event loop should look at the pipe again
+     */
+    NioPipe(int capacity, int maxCapacity, Runnable wakeLoop) {
+        this.buffer = new byte[capacity];
+        this.maxCapacity = maxCapacity;
+        this.growable = maxCapacity > capacity;
+        this.wakeLoop = wakeLoop;
+    }
+
+    /**
+     * Moves as many bytes as fit from the source. Bytes offered after the consumer closed its end are dropped.
+     *
+     * @return the number of bytes taken from the source
+     */
+    int offer(ByteBuffer source) {
+        lock.lock();
+        try {
+            if (consumerClosed) {
+                int dropped = source.remaining();
+                source.position(source.limit());
+                return dropped;
+            }
+            if (growable && count + source.remaining() > buffer.length) {
+                if (count + source.remaining() > maxCapacity) {
+                    if (failure == null) {
+                        failure = new IOException("Response body larger than " + maxCapacity + " bytes");
+                    }
+                    count = 0;
+                    changed.signalAll();
+                    int dropped = source.remaining();
+                    source.position(source.limit());
+                    return dropped;
+                }
+                grow(count + source.remaining());
+            }
+
+            int moved = 0;
+            while (source.hasRemaining() && count < buffer.length) {
+                int writePosition = (readPosition + count) % buffer.length;
+                int length = Math.min(source.remaining(), Math.min(buffer.length - count, buffer.length - writePosition));
+                source.get(buffer, writePosition, length);
+                count += length;
+                moved += length;
+            }
+
+            if (source.hasRemaining()) {
+                loopWaiting = true;
+            }
+            if (moved > 0) {
+                changed.signalAll();
+            }
+            return moved;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void grow(int needed) {
+        byte[] grown = new byte[(int) Math.min(maxCapacity, Math.max(needed, 2L * buffer.length))];
+        int first = Math.min(count, buffer.length - readPosition);
+        System.arraycopy(buffer, readPosition, grown, 0, first);
+        System.arraycopy(buffer, 0, grown, first, count - first);
+        buffer = grown;
+        readPosition = 0;
+    }
+
+    /**
+     * Moves as many buffered bytes as fit into the destination.
+     *
+     * @return the number of bytes moved, or -1 once the producer has finished and all bytes were taken
+     */
+    int drainTo(ByteBuffer destination) {
+        lock.lock();
+        try {
+            if (count == 0) {
+                if (finished) {
+                    return -1;
+                }
+                loopWaiting = true;
+                return 0;
+            }
+
+            int moved = 0;
+            while (destination.hasRemaining() && count > 0) {
+                int length = Math.min(destination.remaining(), Math.min(count, buffer.length - readPosition));
+                destination.put(buffer, readPosition, length);
+                readPosition = (readPosition + length) % buffer.length;
+                count -= length;
+                moved += length;
+            }
+            changed.signalAll();
+            return moved;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the end of the data; buffered bytes can still be taken.
+     */
+    void finish() {
+        lock.lock();
+        try {
+            finished = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isFinished() {
+        lock.lock();
+        try {
+            return finished;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isFailed() {
+        lock.lock();
+        try {
+            return failure != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isConsumerClosed() {
+        lock.lock();
+        try {
+            return consumerClosed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Makes the blocking side fail with the given exception.
+     */
+    void fail(IOException e) {
+        lock.lock();
+        try {
+            if (failure == null) {
+                failure = e;
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the consuming end for an application thread
+     */
+    InputStream source() {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+
+                int moved = 0;
+                boolean wake;
+                lock.lock();
+                try {
+                    try {
+                        while (count == 0 && !finished && failure == null && !consumerClosed) {
+                            changed.await();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new java.io.InterruptedIOException("Interrupted while reading the response");
+                    }
+
+                    if (failure != null) {
+                        throw failure;
+                    } else if (consumerClosed) {
+                        throw new IOException("Stream closed");
+                    } else if (count == 0) {
+                        return -1;
+                    }
+
+                    while (moved < len && count > 0) {
+                        int length = Math.min(len - moved, Math.min(count, buffer.length - readPosition));
+                        System.arraycopy(buffer, readPosition, b, off + moved, length);
+                        readPosition = (readPosition + length) % buffer.length;
+                        count -= length;
+                        moved += length;
+                    }
+                    wake = loopWaiting;
+                    loopWaiting = false;
+                } finally {
+                    lock.unlock();
+                }
+
+                if (wake) {
+                    wakeLoop.run();
+                }
+                return moved;
+            }
+
+            @Override
+            public int available() {
+                lock.lock();
+                try {
+                    return count;
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            public void close() {
+                lock.lock();
+                try {
+                    if (consumerClosed) {
+                        return;
+                    }
+                    consumerClosed = true;
+                    count = 0;
+                    changed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                wakeLoop.run();
+            }
+        };
+    }
+
+    /**
+     * @return the producing end for an application thread
+     */
+    OutputStream sink() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    int moved = 0;
+                    boolean wake;
+                    lock.lock();
+                    try {
+                        try {
+                            while (count == buffer.length && failure == null) {
+                                changed.await();
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new java.io.InterruptedIOException("Interrupted while sending the request");
+                        }
+
+                        if (failure != null) {
+                            throw failure;
+                        }
+
+                        while (moved < len && count < buffer.length) {
+                            int writePosition = (readPosition + count) % buffer.length;
+                            int length = Math.min(len - moved, Math.min(buffer.length - count, buffer.length - writePosition));
+                            System.arraycopy(b, off + moved, buffer, writePosition, length);
+                            count += length;
+                            moved += length;
+                        }
+                        wake = loopWaiting;
+                        loopWaiting = false;
+                    } finally {
+                        lock.unlock();
+                    }
+
+                    off += moved;
+                    len -= moved;
+                    if (wake) {
+                        wakeLoop.run();
+                    }
+                }
+            }
+
+            @Override
+            public void close() {
+                boolean wake;
+                lock.lock();
+                try {
+                    if (finished) {
+                        return;
+                    }
+                    finished = true;
+                    wake = loopWaiting;
+                    loopWaiting = false;
+                    changed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                if (wake) {
+                    wakeLoop.run();
+                }
+            }
+        };
+    }
+}
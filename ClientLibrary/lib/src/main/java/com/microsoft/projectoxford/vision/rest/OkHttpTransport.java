@@ -0,0 +1,223 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+
+import javax.net.ssl.SSLSocket;
+
+/**
+ * {@link HttpTransport} backed by OkHttp that multiplexes concurrent calls over HTTP/2.
+ * <p>
+ * For https endpoints the protocol is negotiated with ALPN, falling back to HTTP/1.1 when the
+ * server or the platform does not support HTTP/2. OkHttp is not a dependency of this library,
+ * so applications using this transport must add {@code com.squareup.okhttp3:okhttp} themselves.
+ * <p>
+ * Request bodies that cannot be written twice, e.g. those read from a stream, are sent without
+ * OkHttp's silent retries and redirects, which would resend a body that has already been consumed.
+ */
+public class OkHttpTransport implements HttpTransport, TlsSessionCache {
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = 5 * 60 * 1000;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 60 * 1000;
+
+    private final OkHttpClient client;
+    private final OkHttpClient oneShotClient;
+    private final boolean ownsClient;
+    private final AtomicLong http2Responses = new AtomicLong();
+    private final AtomicLong http1Responses = new AtomicLong();
+
+    public OkHttpTransport() {
+        this(DEFAULT_MAX_IDLE_CONNECTIONS, DEFAULT_KEEP_ALIVE_MILLIS);
+    }
+
+    /**
+     * @param maxIdleConnections upper bound on idle connections kept for reuse
+     * @param keepAliveMillis    idle connections are closed after this long
+     */
+    public OkHttpTransport(int maxIdleConnections, long keepAliveMillis) {
+        this(new OkHttpClient.Builder()
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveMillis, TimeUnit.MILLISECONDS))
+                .connectTimeout(DEFAULT_CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .readTimeout(DEFAULT_READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .writeTimeout(DEFAULT_READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .build(), true);
+    }
+
+    /**
+     * Creates a transport on top of an existing client, e.g. one sharing a pool with other parts of the
+     * application. The client stays usable after {@link #shutdown}, which leaves its pool and dispatcher alone.
+     */
+    public OkHttpTransport(OkHttpClient client) {
+        this(client, false);
+    }
+
+    private OkHttpTransport(OkHttpClient client, boolean ownsClient) {
+        this.client = client;
+        // Shares the pool and dispatcher of the client.
+        this.oneShotClient = client.newBuilder()
+                .retryOnConnectionFailure(false)
+                .followRedirects(false)
+                .build();
+        this.ownsClient = ownsClient;
+    }
+
+    /**
+     * Creates a transport that speaks cleartext HTTP/2 without negotiation, for use against a local
+     * h2c stand-in server. Servers that only speak HTTP/1.1 cannot be reached with it.
+     */
+    public static OkHttpTransport withPriorKnowledge() {
+        return new OkHttpTransport(new OkHttpClient.Builder()
+                .protocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE))
+                .connectTimeout(DEFAULT_CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .readTimeout(DEFAULT_READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .writeTimeout(DEFAULT_READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .build(), true);
+    }
+
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        Request.Builder builder = new Request.Builder().url(request.getUrl());
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+
+        RequestBody body = request.getBody();
+        builder.method(request.getMethod(), body != null ? new OkRequestBody(body) : null);
+
+        OkHttpClient sender = body != null && !body.isRepeatable() ? oneShotClient : client;
+        final Call call = sender.newCall(builder.build());
+        request.setAbortHandler(new Runnable() {
+            @Override
+            public void run() {
+                call.cancel();
+            }
+        });
+
+        final Response response = call.execute();
+        if (response.protocol() == Protocol.HTTP_2 || response.protocol() == Protocol.H2_PRIOR_KNOWLEDGE) {
+            http2Responses.incrementAndGet();
+        } else {
+            http1Responses.incrementAndGet();
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        Headers responseHeaders = response.headers();
+        for (String name : responseHeaders.names()) {
+            headers.put(name, responseHeaders.get(name));
+        }
+
+        ResponseBody responseBody = response.body();
+        return new TransportResponse(response.code(), headers, responseBody != null ? responseBody.byteStream() : null) {
+            @Override
+            public void close() {
+                response.close();
+            }
+        };
+    }
+
+    /**
+     * @return the number of responses received over HTTP/2
+     */
+    public long getHttp2ResponseCount() {
+        return http2Responses.get();
+    }
+
+    /**
+     * @return the number of responses received over HTTP/1.x
+     */
+    public long getHttp1ResponseCount() {
+        return http1Responses.get();
+    }
+
+    @Override
+    public SSLSocket handshake(Socket socket, String host, int port) throws IOException {
+        return UrlConnectionTransport.startHandshake(client.sslSocketFactory().createSocket(socket, host, port, true));
+    }
+
+    @Override
+    public void closeIdleConnections() {
+        // OkHttp evicts connections idle for longer than the keep-alive duration on its own.
+    }
+
+    @Override
+    public void shutdown() {
+        if (ownsClient) {
+            client.dispatcher().executorService().shutdown();
+            client.connectionPool().evictAll();
+        }
+    }
+
+    private static class OkRequestBody extends okhttp3.RequestBody {
+        private final RequestBody body;
+
+        OkRequestBody(RequestBody body) {
+            this.body = body;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return body.contentType() != null ? MediaType.parse(body.contentType()) : null;
+        }
+
+        @Override
+        public long contentLength() {
+            return body.contentLength();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            body.writeTo(sink.outputStream());
+        }
+    }
+}
@@ -0,0 +1,139 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket that smooths calls to the rate allowed by a subscription tier.
+ * <p>
+ * Permits are added continuously at {@code permitsPerSecond} up to {@code burst}. Blocking
+ * acquisitions reserve their permit before waiting, so callers are served in arrival order and
+ * waiting threads never hold the lock. One instance may be shared by any number of threads and clients.
+ */
+public class RateLimiter {
+    private final double permitsPerNano;
+    private final double burst;
+    private double permits;
+    private long lastRefillNanos;
+
+    /**
+     * @param permitsPerSecond sustained rate, e.g. the transactions per second of the subscription tier
+     * @param burst            permits that may be used at once after a quiet period, at least 1
+     */
+    public RateLimiter(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be at least 1");
+        }
+
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.permits = burst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Takes a permit, waiting as long as necessary.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            refill();
+            permits -= 1;
+            waitNanos = permits < 0 ? (long) (-permits / permitsPerNano) : 0;
+        }
+        sleep(waitNanos);
+    }
+
+    /**
+     * Takes a permit if one is available right now.
+     *
+     * @return true if a permit was taken
+     */
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (permits < 1) {
+            return false;
+        }
+        permits -= 1;
+        return true;
+    }
+
+    /**
+     * Takes a permit if one becomes available within the timeout. Gives up immediately, without
+     * waiting, if it is known that the timeout will not be enough.
+     *
+     * @return true if a permit was taken
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long waitNanos = reserve(unit.toNanos(timeout));
+        if (waitNanos < 0) {
+            return false;
+        }
+        sleep(waitNanos);
+        return true;
+    }
+
+    /**
+     * Takes a permit that may only be used after the returned wait, for callers that wait on a timer
+     * rather than in a thread.
+     *
+     * @param maxWaitNanos longest acceptable wait, or a negative value for no limit
+     * @return the nanoseconds to wait before using the permit, or -1 if no permit was taken because the
+     * wait would be longer than {@code maxWaitNanos}
+     */
+    synchronized long reserve(long maxWaitNanos) {
+        refill();
+        long waitNanos = permits >= 1 ? 0 : (long) ((1 - permits) / permitsPerNano);
+        if (maxWaitNanos >= 0 && waitNanos > maxWaitNanos) {
+            return -1;
+        }
+        permits -= 1;
+        return waitNanos;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        permits = Math.min(burst, permits + (now - lastRefillNanos) * permitsPerNano);
+        lastRefillNanos = now;
+    }
+
+    private static void sleep(long nanos) throws InterruptedException {
+        if (nanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+
+/**
+ * Body of an outgoing request, written directly to the connection by the transport.
+ */
+public abstract class RequestBody {
+    /**
+     * @return the media type of the body, or null if none should be sent
+     */
+    public abstract String contentType();
+
+    /**
+     * @return the number of bytes {@link #writeTo(OutputStream)} will write, or -1 if unknown
+     */
+    public abstract long contentLength();
+
+    /**
+     * @return true if {@link #writeTo(OutputStream)} can be called more than once
+     */
+    public abstract boolean isRepeatable();
+
+    public abstract void writeTo(OutputStream out) throws IOException;
+
+    public static RequestBody create(String contentType, byte[] data) {
+        return new ByteArrayBody(contentType, data);
+    }
+
+    /**
+     * Returns a body with the same content that several threads can write at once, e.g. the attempts
+     * of a hedged call. Byte array bodies are returned as they are; other repeatable bodies, which may
+     * keep a read position, are copied into memory once.
+     */
+    static RequestBody shareable(RequestBody body) throws IOException {
+        if (body == null || body instanceof ByteArrayBody) {
+            return body;
+        }
+
+        long length = body.contentLength();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length >= 0 && length <= Integer.MAX_VALUE ? (int) length : 8192);
+        body.writeTo(out);
+        return new ByteArrayBody(body.contentType(), out.toByteArray());
+    }
+
+    /**
+     * Creates a body that copies the stream to the connection as it is sent, without buffering it
+     * in memory. The length is known for byte array and file streams; other streams are sent chunked.
+     * Unless the stream is a {@link ByteArrayInputStream}, the body can only be written once.
+     */
+    public static RequestBody create(String contentType, InputStream stream) {
+        return new InputStreamBody(contentType, stream);
+    }
+
+    private static class ByteArrayBody extends RequestBody {
+        private final String contentType;
+        private final byte[] data;
+
+        ByteArrayBody(String contentType, byte[] data) {
+            this.contentType = contentType;
+            this.data = data;
+        }
+
+        @Override
+        public String contentType() {
+            return contentType;
+        }
+
+        @Override
+        public long contentLength() {
+            return data.length;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(data);
+        }
+    }
+
+    private static class InputStreamBody extends RequestBody {
+        private static final int BUFFER_SIZE = 8192;
+
+        private final String contentType;
+        private final InputStream stream;
+        private final long contentLength;
+        private final boolean repeatable;
+
+        InputStreamBody(String contentType, InputStream stream) {
+            this.contentType = contentType;
+            this.stream = stream;
+            this.contentLength = knownLength(stream);
+            // In-memory streams can be rewound cheaply, which lets the call be retried.
+            this.repeatable = stream instanceof ByteArrayInputStream;
+            if (this.repeatable) {
+                stream.mark(0);
+            }
+        }
+
+        @Override
+        public String contentType() {
+            return contentType;
+        }
+
+        @Override
+        public long contentLength() {
+            return contentLength;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return repeatable;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            if (repeatable) {
+                stream.reset();
+            }
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+
+        private static long knownLength(InputStream stream) {
+            try {
+                if (stream instanceof ByteArrayInputStream) {
+                    return stream.available();
+                } else if (stream instanceof FileInputStream) {
+                    FileChannel channel = ((FileInputStream) stream).getChannel();
+                    return channel.size() - channel.position();
+                }
+            } catch (IOException e) {
+                // Fall back to a chunked upload.
+            }
+
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Immutable method and URL of a call, with its query string encoded once when the descriptor is
+ * built. Descriptors can be cached and shared between threads, so that calls repeating the same
+ * endpoint and parameters do not build and encode the URL again.
+ */
+public final class RequestDescriptor {
+    private final String method;
+    private final String url;
+
+    /**
+     * @param method HTTP method, e.g. {@code POST}
+     * @param url    URL of the endpoint, optionally with an encoded query string
+     */
+    public RequestDescriptor(String method, String url) {
+        this.method = method;
+        this.url = url;
+    }
+
+    /**
+     * @return a descriptor with the parameter appended to the query string, or this one if the value is null
+     */
+    public RequestDescriptor withQuery(String name, Object value) {
+        if (value == null) {
+            return this;
+        }
+
+        StringBuilder builder = new StringBuilder(url.length() + name.length() + 16).append(url);
+        appendQuery(builder, url.indexOf('?') < 0, name, value);
+        return new RequestDescriptor(method, builder.toString());
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + url;
+    }
+
+    static void appendQuery(StringBuilder url, boolean first, String name, Object value) {
+        url.append(first ? '?' : '&').append(name).append('=');
+        try {
+            url.append(URLEncoder.encode(value.toString(), "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is supported on every platform.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Decides whether and when a failed call is retried by {@link WebServiceRequest}.
+ * <p>
+ * Throttling (429), timeouts (408), server errors (500, 502, 503, 504) and I/O failures are retried
+ * with jittered exponential backoff, or after the delay requested by a {@code Retry-After} header.
+ * Calls that are not idempotent, such as creating a handwriting operation, are only retried if the
+ * service cannot have acted on them: after a connect failure, a 429, or a 503 with {@code Retry-After}.
+ * Retries are also capped by a budget: every first attempt earns {@code retryBudgetRatio} tokens and
+ * every retry spends one, so under sustained failure no more than that fraction of traffic is retried.
+ * The budget is kept per instance, so share one policy between the clients that should share it.
+ */
+public class RetryPolicy {
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 500;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 30 * 1000;
+    public static final double DEFAULT_RETRY_BUDGET_RATIO = 0.2;
+
+    private static final double MIN_BUDGET_TOKENS = 10;
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final double retryBudgetRatio;
+    private final Random random = new Random();
+    private double budgetTokens = MIN_BUDGET_TOKENS;
+
+    public RetryPolicy() {
+        this(DEFAULT_MAX_RETRIES, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_RETRY_BUDGET_RATIO);
+    }
+
+    /**
+     * @param maxRetries       retries allowed per call after the first attempt
+     * @param baseDelayMillis  backoff before the first retry, doubled for each further retry
+     * @param maxDelayMillis   upper bound on a single backoff; calls asked to wait longer by
+     *                         {@code Retry-After} fail instead
+     * @param retryBudgetRatio retries allowed per first attempt over the long run
+     */
+    public RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis, double retryBudgetRatio) {
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.retryBudgetRatio = retryBudgetRatio;
+    }
+
+    /**
+     * @return a policy that never retries
+     */
+    public static RetryPolicy none() {
+        return new RetryPolicy(0, 0, 0, 0);
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @return true if a response with this status code may succeed when sent again
+     */
+    public boolean isRetriableStatus(int statusCode) {
+        return isTransientStatus(statusCode);
+    }
+
+    static boolean isTransientStatus(int statusCode) {
+        switch (statusCode) {
+            case 408:
+            case 429:
+            case 500:
+            case 502:
+            case 503:
+            case 504:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Called once for every call before its first attempt.
+     */
+    synchronized void onFirstAttempt() {
+        double maxTokens = Math.max(MIN_BUDGET_TOKENS, maxRetries * MIN_BUDGET_TOKENS);
+        budgetTokens = Math.min(maxTokens, budgetTokens + retryBudgetRatio);
+    }
+
+    /**
+     * Takes one token from the retry budget.
+     *
+     * @param retry number of the retry about to be made, starting at 1
+     * @return true if the retry may go ahead
+     */
+    synchronized boolean tryAcquireRetry(int retry) {
+        if (retry > maxRetries || budgetTokens < 1) {
+            return false;
+        }
+        budgetTokens -= 1;
+        return true;
+    }
+
+    /**
+     * @param retry      number of the retry about to be made, starting at 1
+     * @param retryAfter value of the {@code Retry-After} header, or null
+     * @return how long to wait before the retry, or -1 if the server asked for a longer wait than allowed
+     */
+    long backoffMillis(int retry, String retryAfter) {
+        long requested = parseRetryAfterMillis(retryAfter);
+        if (requested >= 0) {
+            return requested <= maxDelayMillis ? requested : -1;
+        }
+
+        long exponential = baseDelayMillis << Math.min(retry - 1, 30);
+        if (exponential <= 0 || exponential > maxDelayMillis) {
+            exponential = maxDelayMillis;
+        }
+
+        // Equal jitter: wait at least half of the exponential delay, randomize the rest.
+        long half = exponential / 2;
+        double jitter;
+        synchronized (random) {
+            jitter = random.nextDouble();
+        }
+        return half + (long) (jitter * (exponential - half));
+    }
+
+    /**
+     * Parses a {@code Retry-After} value given either in seconds or as an HTTP date.
+     *
+     * @return the requested delay in milliseconds, or -1 if the value is absent or malformed
+     */
+    public static long parseRetryAfterMillis(String retryAfter) {
+        if (retryAfter == null || retryAfter.trim().isEmpty()) {
+            return -1;
+        }
+
+        String value = retryAfter.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            // Not a number of seconds, try the date form.
+        }
+
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return Math.max(0, format.parse(value).getTime() - System.currentTimeMillis());
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory {@link HttpTransport} that never touches the network. Request bodies are written to a
+ * discarding sink and every call is answered by a {@link Handler}, which makes it suitable for
+ * measuring the overhead of the client itself.
+ * <p>
+ * Like the network transports, it honours {@link TransportRequest#abort()}: the thread running the
+ * handler is interrupted, and reading the body of an aborted response fails.
+ */
+public class StubHttpTransport implements HttpTransport {
+    /**
+     * Produces the response for a request sent through a {@link StubHttpTransport}.
+     */
+    public interface Handler {
+        /**
+         * @return the response to the request; a handler that returns null fails the call with an {@link IOException}
+         */
+        TransportResponse handle(TransportRequest request) throws IOException;
+    }
+
+    private final Handler handler;
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong requestBytes = new AtomicLong();
+
+    public StubHttpTransport(Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Creates a transport that answers every request with the same status and body.
+     */
+    public static StubHttpTransport fixed(final int statusCode, final String contentType, final byte[] body) {
+        return new StubHttpTransport(new Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) {
+                Map<String, String> headers = new HashMap<>();
+                if (contentType != null) {
+                    headers.put("Content-Type", contentType);
+                }
+                return new TransportResponse(statusCode, headers, new ByteArrayInputStream(body));
+            }
+        });
+    }
+
+    /**
+     * Creates a transport that answers every request with 200 and the given JSON document.
+     */
+    public static StubHttpTransport json(String json) {
+        return fixed(200, "application/json; charset=utf-8", json.getBytes(Charset.forName("UTF-8")));
+    }
+
+    @Override
+    public TransportResponse execute(final TransportRequest request) throws IOException {
+        final Exchange exchange = new Exchange(Thread.currentThread());
+        request.setAbortHandler(new Runnable() {
+            @Override
+            public void run() {
+                exchange.abort();
+            }
+        });
+        if (request.isAborted()) {
+            throw new IOException("Request aborted");
+        }
+        requestCount.incrementAndGet();
+
+        TransportResponse response;
+        try {
+            RequestBody body = request.getBody();
+            if (body != null) {
+                CountingSink sink = new CountingSink();
+                body.writeTo(sink);
+                requestBytes.addAndGet(sink.count);
+            }
+
+            response = handler.handle(request);
+        } finally {
+            exchange.finish();
+        }
+
+        if (request.isAborted()) {
+            if (response != null) {
+                response.close();
+            }
+            throw new InterruptedIOException("Request aborted");
+        }
+        if (response == null) {
+            throw new IOException("Stub handler returned no response");
+        }
+        return new TransportResponse(response.getStatusCode(), response.getHeaders(),
+                new AbortableInputStream(response.getBody(), request));
+    }
+
+    /**
+     * @return the number of requests executed so far
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return the total number of request body bytes written so far
+     */
+    public long getRequestBytes() {
+        return requestBytes.get();
+    }
+
+    @Override
+    public void closeIdleConnections() {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    /**
+     * Tracks the thread running the handler, so that an abort interrupts it only while it is inside
+     * {@link #execute}.
+     */
+    private static class Exchange {
+        private Thread thread;
+        private boolean interrupted;
+
+        Exchange(Thread thread) {
+            this.thread = thread;
+        }
+
+        synchronized void abort() {
+            if (thread != null) {
+                interrupted = true;
+                thread.interrupt();
+            }
+        }
+
+        synchronized void finish() {
+            thread = null;
+            if (interrupted) {
+                // The interrupt was meant for the handler, not for the caller.
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private static class AbortableInputStream extends FilterInputStream {
+        private final TransportRequest request;
+
+        AbortableInputStream(InputStream in, TransportRequest request) {
+            super(in);
+            this.request = request;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkAborted();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkAborted();
+            return super.read(b, off, len);
+        }
+
+        private void checkAborted() throws IOException {
+            if (request.isAborted()) {
+                throw new IOException("Request aborted");
+            }
+        }
+    }
+
+    private static class CountingSink extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals of response bytes received by a {@link WebServiceRequest}, before and after
+ * content decoding.
+ */
+public class TransferStatistics {
+    private final AtomicLong wireBytes = new AtomicLong();
+    private final AtomicLong decodedBytes = new AtomicLong();
+    private final AtomicLong compressedResponses = new AtomicLong();
+
+    /**
+     * @return the number of response body bytes read from the connection, compressed or not
+     */
+    public long getWireBytesReceived() {
+        return wireBytes.get();
+    }
+
+    /**
+     * @return the number of response body bytes handed to the caller after decompression
+     */
+    public long getDecodedBytesReceived() {
+        return decodedBytes.get();
+    }
+
+    /**
+     * @return the number of responses that arrived gzip or deflate encoded
+     */
+    public long getCompressedResponseCount() {
+        return compressedResponses.get();
+    }
+
+    AtomicLong wireBytes() {
+        return wireBytes;
+    }
+
+    AtomicLong decodedBytes() {
+        return decodedBytes;
+    }
+
+    AtomicLong compressedResponses() {
+        return compressedResponses;
+    }
+}
@@ -0,0 +1,112 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An outgoing HTTP request handed to an {@link HttpTransport}.
+ */
+public final class TransportRequest {
+    private final String method;
+    private final String url;
+    private final RequestBody body;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    private Runnable abortHandler;
+    private boolean aborted;
+
+    public TransportRequest(String method, String url, RequestBody body) {
+        this.method = method;
+        this.url = url;
+        this.body = body;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return the request body, or null for requests without one
+     */
+    public RequestBody getBody() {
+        return body;
+    }
+
+    public Map<String, String> getHeaders() {
+        return Collections.unmodifiableMap(headers);
+    }
+
+    public void setHeader(String name, String value) {
+        headers.put(name, value);
+    }
+
+    /**
+     * Registers how the transport aborts the exchange currently in flight. If the request has
+     * already been aborted, the handler runs immediately.
+     */
+    public void setAbortHandler(Runnable abortHandler) {
+        boolean runNow;
+        synchronized (this) {
+            this.abortHandler = abortHandler;
+            runNow = aborted;
+        }
+        if (runNow && abortHandler != null) {
+            abortHandler.run();
+        }
+    }
+
+    /**
+     * Aborts the exchange: the connection is closed and a blocked {@link HttpTransport#execute} or
+     * body read fails with an {@link java.io.IOException}.
+     */
+    public void abort() {
+        Runnable handler;
+        synchronized (this) {
+            aborted = true;
+            handler = abortHandler;
+        }
+        if (handler != null) {
+            handler.run();
+        }
+    }
+
+    public synchronized boolean isAborted() {
+        return aborted;
+    }
+}
@@ -0,0 +1,177 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * {@link HttpTransport} backed by the platform {@link HttpURLConnection}, which keeps its own
+ * pool of keep-alive connections. {@link HttpURLConnection} does not accept PATCH; such requests are
+ * rejected with a {@link ProtocolException}, which is not retried. TLS sessions are cached by the
+ * platform's default socket factory.
+ */
+public class UrlConnectionTransport implements HttpTransport, TlsSessionCache {
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 60 * 1000;
+
+    private static final Set<String> SUPPORTED_METHODS = new HashSet<>(Arrays.asList(
+            "GET", "POST", "HEAD", "OPTIONS", "PUT", "DELETE", "TRACE"));
+
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+
+    public UrlConnectionTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param connectTimeoutMillis time allowed to open a connection
+     * @param readTimeoutMillis    time allowed between two packets of the response
+     */
+    public UrlConnectionTransport(int connectTimeoutMillis, int readTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        if (!SUPPORTED_METHODS.contains(request.getMethod())) {
+            throw new ProtocolException("HttpURLConnection does not support the " + request.getMethod()
+                    + " method; use ApacheHttpTransport or OkHttpTransport instead");
+        }
+
+        final HttpURLConnection connection = (HttpURLConnection) new URL(request.getUrl()).openConnection();
+        request.setAbortHandler(new Runnable() {
+            @Override
+            public void run() {
+                connection.disconnect();
+            }
+        });
+
+        try {
+            if (request.isAborted()) {
+                throw new IOException("Request aborted");
+            }
+
+            connection.setRequestMethod(request.getMethod());
+            connection.setConnectTimeout(connectTimeoutMillis);
+            connection.setReadTimeout(readTimeoutMillis);
+            connection.setUseCaches(false);
+            for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+
+            RequestBody body = request.getBody();
+            if (body != null) {
+                if (body.contentType() != null) {
+                    connection.setRequestProperty("Content-Type", body.contentType());
+                }
+
+                long length = body.contentLength();
+                if (length >= 0 && length <= Integer.MAX_VALUE) {
+                    connection.setFixedLengthStreamingMode((int) length);
+                } else {
+                    connection.setChunkedStreamingMode(0);
+                }
+
+                connection.setDoOutput(true);
+                OutputStream out = connection.getOutputStream();
+                try {
+                    body.writeTo(out);
+                } finally {
+                    out.close();
+                }
+            }
+
+            int statusCode = connection.getResponseCode();
+
+            Map<String, String> headers = new HashMap<>();
+            for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+                // The status line is reported under a null key.
+                if (header.getKey() != null && !header.getValue().isEmpty()) {
+                    headers.put(header.getKey(), header.getValue().get(0));
+                }
+            }
+
+            InputStream stream = statusCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            return new TransportResponse(statusCode, headers, stream);
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        } catch (RuntimeException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    @Override
+    public SSLSocket handshake(Socket socket, String host, int port) throws IOException {
+        return startHandshake(HttpsURLConnection.getDefaultSSLSocketFactory().createSocket(socket, host, port, true));
+    }
+
+    static SSLSocket startHandshake(Socket socket) throws IOException {
+        SSLSocket sslSocket = (SSLSocket) socket;
+        try {
+            sslSocket.startHandshake();
+        } catch (IOException e) {
+            sslSocket.close();
+            throw e;
+        }
+        return sslSocket;
+    }
+
+    @Override
+    public void closeIdleConnections() {
+        // Idle connections are managed by the platform.
+    }
+
+    @Override
+    public void shutdown() {
+        // Nothing is held outside the platform connection pool.
+    }
+}
@@ -34,13 +34,109 @@ package com.microsoft.projectoxford.vision.rest;
 
 import com.google.gson.Gson;
 
+/**
+ * Failure of a call to the Vision API. When the service answered, the exception carries the HTTP
+ * status and the error code, message and request id it returned, so failures can be told apart
+ * without parsing the message. {@link #isRetriable()} tells whether sending the same request again
+ * may succeed, e.g. after throttling or a server error, as opposed to a permanent error such as an
+ * invalid image that would fail again.
+ */
 public class VisionServiceException extends Exception {
+    private final int statusCode;
+    private final String errorCode;
+    private final String serviceMessage;
+    private final String requestId;
+    private final long retryAfterMillis;
+    private final boolean retriable;
 
     public VisionServiceException(String message) {
-        super(message);
+        this(message, 0, null, null, null, -1, false);
+    }
+
+    /**
+     * @param cause failure that led to this one, e.g. the {@code IOException} of the transport
+     */
+    public VisionServiceException(String message, Throwable cause) {
+        this(message, 0, null, null, null, -1, false, cause);
+    }
+
+    public VisionServiceException(String message, int statusCode) {
+        this(message, statusCode, null, null, null, -1, RetryPolicy.isTransientStatus(statusCode));
+    }
+
+    /**
+     * @param message          description of the failure
+     * @param statusCode       HTTP status code, or 0 if no response was received
+     * @param errorCode        error code returned by the service, or null
+     * @param serviceMessage   error message returned by the service, or null
+     * @param requestId        id the service assigned to the request, or null
+     * @param retryAfterMillis delay the service asked for before a retry, or -1
+     * @param retriable        true if sending the same request again may succeed
+     */
+    public VisionServiceException(String message, int statusCode, String errorCode, String serviceMessage,
+                                  String requestId, long retryAfterMillis, boolean retriable) {
+        this(message, statusCode, errorCode, serviceMessage, requestId, retryAfterMillis, retriable, null);
+    }
+
+    /**
+     * @param cause failure that led to this one, or null
+     * @see #VisionServiceException(String, int, String, String, String, long, boolean)
+     */
+    public VisionServiceException(String message, int statusCode, String errorCode, String serviceMessage,
+                                  String requestId, long retryAfterMillis, boolean retriable, Throwable cause) {
+        super(message, cause);
+        this.statusCode = statusCode;
+        this.errorCode = errorCode;
+        this.serviceMessage = serviceMessage;
+        this.requestId = requestId;
+        this.retryAfterMillis = retryAfterMillis;
+        this.retriable = retriable;
     }
 
     public VisionServiceException(Gson errorObject) {
-        super(errorObject.toString());
+        this(errorObject.toString());
+    }
+
+    /**
+     * @return the HTTP status code returned by the service, or 0 if no response was received
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return the error code returned by the service, e.g. {@code InvalidImageUrl}, or null
+     */
+    public String getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * @return the error message returned by the service, or null
+     */
+    public String getServiceMessage() {
+        return serviceMessage;
+    }
+
+    /**
+     * @return the id the service assigned to the request, to quote when reporting a problem, or null
+     */
+    public String getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * @return the delay in milliseconds the service asked for before a retry, or -1 if it gave none
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * @return true if sending the same request again may succeed; false for permanent errors, which
+     * should not be retried or have their payload uploaded again
+     */
+    public boolean isRetriable() {
+        return retriable;
     }
 }
@@ -0,0 +1,121 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+/**
+ * Time spent in each phase of warming up the connection to an endpoint, see {@link WebServiceRequest#warmUp(String)}.
+ * <p>
+ * The connect and TLS handshake times are those of a probe connection that is closed once it has
+ * seeded the caches; the connection left in the pool is opened by the request, so its connect and
+ * resumed handshake are part of {@link #getRequestMillis()}.
+ */
+public class WarmUpResult {
+    private final String host;
+    private final long dnsMillis;
+    private final long connectMillis;
+    private final long tlsHandshakeMillis;
+    private final boolean tlsSessionResumed;
+    private final long requestMillis;
+    private final int statusCode;
+
+    WarmUpResult(String host, long dnsMillis, long connectMillis, long tlsHandshakeMillis, boolean tlsSessionResumed,
+                 long requestMillis, int statusCode) {
+        this.host = host;
+        this.dnsMillis = dnsMillis;
+        this.connectMillis = connectMillis;
+        this.tlsHandshakeMillis = tlsHandshakeMillis;
+        this.tlsSessionResumed = tlsSessionResumed;
+        this.requestMillis = requestMillis;
+        this.statusCode = statusCode;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return time to resolve the host name
+     */
+    public long getDnsMillis() {
+        return dnsMillis;
+    }
+
+    /**
+     * @return time to open the probe TCP connection
+     */
+    public long getConnectMillis() {
+        return connectMillis;
+    }
+
+    /**
+     * @return time of the probe's TLS handshake, or 0 for plain http endpoints and for transports that are not
+     * a {@link TlsSessionCache}, whose handshake is part of the request
+     */
+    public long getTlsHandshakeMillis() {
+        return tlsHandshakeMillis;
+    }
+
+    /**
+     * @return true if the handshake resumed a cached TLS session instead of negotiating a new one.
+     * Platforms that report TLS 1.3 resumptions as new sessions always return false.
+     */
+    public boolean isTlsSessionResumed() {
+        return tlsSessionResumed;
+    }
+
+    /**
+     * @return time of the request that left a warm connection in the transport's pool, including
+     * opening that connection
+     */
+    public long getRequestMillis() {
+        return requestMillis;
+    }
+
+    /**
+     * @return HTTP status of the request; an error status, e.g. 401 for a rejected subscription key,
+     * still leaves a warm connection
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    @Override
+    public String toString() {
+        return "WarmUpResult{host=" + host
+                + ", dns=" + dnsMillis + "ms"
+                + ", connect=" + connectMillis + "ms"
+                + ", tls=" + tlsHandshakeMillis + "ms" + (tlsSessionResumed ? " (resumed)" : "")
+                + ", request=" + requestMillis + "ms"
+                + ", status=" + statusCode + "}";
+    }
+}
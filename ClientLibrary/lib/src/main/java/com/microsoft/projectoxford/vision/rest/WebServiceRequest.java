@@ -33,198 +33,1365 @@
 package com.microsoft.projectoxford.vision.rest;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 
-import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.net.InetAddress;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.NoRouteToHostException;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpDelete;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.methods.HttpPut;
-import org.apache.http.entity.ByteArrayEntity;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
+import javax.net.ssl.SSLSocket;
 
+import org.apache.http.conn.ConnectTimeoutException;
+
+/**
+ * Sends calls to the service over an {@link HttpTransport}, applying the configured retries, rate
+ * limiting, circuit breakers, hedging and interceptors.
+ * <p>
+ * Instances are thread-safe and meant to be shared: concurrent calls only share the connection pool
+ * of the transport and the statistics, budgets and breakers of the policies, all of which are
+ * synchronized. Settings may be changed while calls are running; each call uses the settings in
+ * effect when its attempt starts.
+ * <p>
+ * Calls block the calling thread until the response has arrived, except those made with
+ * {@link #requestResponseAsync} through an {@link AsyncHttpTransport}.
+ */
 public class WebServiceRequest {
+    public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = ApacheHttpTransport.DEFAULT_MAX_TOTAL_CONNECTIONS;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = ApacheHttpTransport.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    public static final long DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS = ApacheHttpTransport.DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS;
+
     private static final String headerKey = "ocp-apim-subscription-key";
-    private HttpClient client = new DefaultHttpClient();
-    private String subscriptionKey;
-    private Gson gson = new Gson();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int WARM_UP_CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    private static final int MAX_ERROR_BODY_CHARS = 16 * 1024;
+    private final HttpTransport transport;
+    private final TransferStatistics statistics = new TransferStatistics();
+    private volatile RetryPolicy retryPolicy = RetryPolicy.none();
+    private volatile RateLimiter rateLimiter;
+    private volatile long rateLimiterMaxWaitMillis = -1;
+    private volatile CircuitBreakerRegistry circuitBreakers;
+    private volatile HedgingPolicy hedgingPolicy;
+    private volatile long callTimeoutMillis;
+    private final List<Interceptor> interceptors = new CopyOnWriteArrayList<>();
+    private final String subscriptionKey;
+    private final Gson gson = new Gson();
 
     public WebServiceRequest(String key) {
+        this(key, new ApacheHttpTransport());
+    }
+
+    /**
+     * Creates a request executor backed by a pool of keep-alive connections that can be shared by
+     * concurrent callers.
+     *
+     * @param key                         subscription key sent with every request
+     * @param maxTotalConnections         upper bound on pooled connections across all hosts
+     * @param maxConnectionsPerRoute      upper bound on pooled connections to a single host
+     * @param idleConnectionTimeoutMillis pooled connections idle for longer than this are closed
+     */
+    public WebServiceRequest(String key, int maxTotalConnections, int maxConnectionsPerRoute, long idleConnectionTimeoutMillis) {
+        this(key, new ApacheHttpTransport(maxTotalConnections, maxConnectionsPerRoute, idleConnectionTimeoutMillis));
+    }
+
+    /**
+     * Creates a request executor that sends every call through the given transport.
+     *
+     * @param key       subscription key sent with every request
+     * @param transport transport used for all calls, e.g. {@link ApacheHttpTransport},
+     *                  {@link UrlConnectionTransport} or {@link StubHttpTransport}
+     */
+    public WebServiceRequest(String key, HttpTransport transport) {
         this.subscriptionKey = key;
+        this.transport = transport;
     }
 
-    public Object request(String url, String method, Map<String, Object> data, String contentType, boolean responseInputStream) throws VisionServiceException {
-        if (method.matches("GET")) {
-            return get(url);
-        } else if (method.matches("POST")) {
-            return post(url, data, contentType, responseInputStream);
-        } else if (method.matches("PUT")) {
-            return put(url, data);
-        } else if (method.matches("DELETE")) {
-            return delete(url);
-        } else if (method.matches("PATCH")) {
-            return patch(url, data, contentType, false);
+    public HttpTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * @return byte counts of the responses received so far, before and after decompression
+     */
+    public TransferStatistics getStatistics() {
+        return statistics;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the policy used to retry throttled and failed calls. No retries are made by default.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy != null ? retryPolicy : RetryPolicy.none();
+    }
+
+    /**
+     * Limits the rate at which calls, including retries, are sent. Calls wait for a permit as long as necessary.
+     *
+     * @param rateLimiter limiter to take a permit from before every attempt, or null to disable limiting
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        setRateLimiter(rateLimiter, -1);
+    }
+
+    /**
+     * Limits the rate at which calls, including retries, are sent.
+     *
+     * @param rateLimiter   limiter to take a permit from before every attempt, or null to disable limiting
+     * @param maxWaitMillis how long a call may wait for a permit before failing; 0 fails immediately and
+     *                      a negative value waits as long as necessary
+     */
+    public void setRateLimiter(RateLimiter rateLimiter, long maxWaitMillis) {
+        this.rateLimiterMaxWaitMillis = maxWaitMillis;
+        this.rateLimiter = rateLimiter;
+    }
+
+    public CircuitBreakerRegistry getCircuitBreakers() {
+        return circuitBreakers;
+    }
+
+    /**
+     * Guards every endpoint with its own circuit breaker, so that calls to a degraded endpoint fail
+     * fast instead of waiting out timeouts.
+     *
+     * @param circuitBreakers settings and state of the breakers, or null to disable them
+     */
+    public void setCircuitBreakers(CircuitBreakerRegistry circuitBreakers) {
+        this.circuitBreakers = circuitBreakers;
+    }
+
+    public HedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
+    }
+
+    /**
+     * Enables hedging of calls made with {@code idempotent} set: a duplicate is sent when the first
+     * attempt is slow and whichever finishes first is used.
+     *
+     * @param hedgingPolicy hedge delay and budget, or null to disable hedging
+     */
+    public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+    }
+
+    /**
+     * Adds an interceptor that runs around every call made after this point. Interceptors run in the
+     * order they were added; the first one sees the call first and the response last.
+     */
+    public void addInterceptor(Interceptor interceptor) {
+        if (interceptor == null) {
+            throw new IllegalArgumentException("interceptor");
         }
+        this.interceptors.add(interceptor);
+    }
 
-        throw new VisionServiceException("Error! Incorrect method provided: " + method);
+    public void removeInterceptor(Interceptor interceptor) {
+        this.interceptors.remove(interceptor);
     }
 
-    private Object get(String url) throws VisionServiceException {
-        HttpGet request = new HttpGet(url);
-        request.setHeader(headerKey, this.subscriptionKey);
+    public List<Interceptor> getInterceptors() {
+        return Collections.unmodifiableList(interceptors);
+    }
+
+    public long getCallTimeoutMillis() {
+        return callTimeoutMillis;
+    }
+
+    /**
+     * Sets the total time allowed for every call, including retries, hedges and reading the response.
+     * Calls made with an explicit {@link Deadline} are bound by whichever of the two is earlier.
+     * Connect and read timeouts are configured on the transport.
+     *
+     * @param callTimeoutMillis time allowed per call, or 0 for no limit
+     */
+    public void setCallTimeoutMillis(long callTimeoutMillis) {
+        this.callTimeoutMillis = Math.max(0, callTimeoutMillis);
+    }
+
+    /**
+     * Establishes a connection to the host of the url ahead of the first call and reports how long
+     * each phase took. The host name is resolved, which seeds the platform DNS cache. A probe socket is
+     * then connected and, for https urls on a transport that is a {@link TlsSessionCache}, makes a TLS
+     * handshake with the transport's own socket factory, which seeds the session cache its connections
+     * resume from; the probe is closed afterwards, so its timings describe the path to the host rather
+     * than the pooled connection. A HEAD request is then sent like any other call, through the
+     * interceptors, rate limiter and circuit breakers, but never hedged, and leaves a warm keep-alive
+     * connection in the transport's pool.
+     * <p>
+     * An error status of the HEAD request is reported in the result rather than thrown, since the
+     * connection is warm all the same; a 401, for instance, means the subscription key was rejected.
+     */
+    public WarmUpResult warmUp(String url) throws VisionServiceException {
+        long start = System.nanoTime();
+        String host;
+        long resolved;
+        long connected;
+        long handshaken;
+        boolean resumed = false;
+        try {
+            URL target = new URL(url);
+            host = target.getHost();
+            boolean secure = target.getProtocol().equalsIgnoreCase("https");
+            int port = target.getPort() != -1 ? target.getPort() : target.getDefaultPort();
+
+            InetAddress address = InetAddress.getByName(host);
+            resolved = System.nanoTime();
+
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(address, port), WARM_UP_CONNECT_TIMEOUT_MILLIS);
+                connected = System.nanoTime();
+
+                if (secure && this.transport instanceof TlsSessionCache) {
+                    long handshakeStart = System.currentTimeMillis();
+                    SSLSocket sslSocket = ((TlsSessionCache) this.transport).handshake(socket, host, port);
+                    socket = sslSocket;
+                    // A resumed session was created by an earlier handshake.
+                    resumed = sslSocket.getSession().getCreationTime() < handshakeStart;
+                }
+                handshaken = System.nanoTime();
+            } finally {
+                socket.close();
+            }
+        } catch (IOException e) {
+            throw new VisionServiceException(e.getMessage(), e);
+        }
+
+        int statusCode;
+        try {
+            // Not marked idempotent, so that it is never hedged: a second HEAD would open a second
+            // connection and skew the timing. It is still resent after a connect failure.
+            TransportResponse response = requestResponse(url, "HEAD", null, null, false, null);
+            statusCode = response.getStatusCode();
+            closeQuietly(response);
+        } catch (VisionServiceException e) {
+            if (e.getStatusCode() == 0) {
+                throw e;
+            }
+            statusCode = e.getStatusCode();
+        }
+        long done = System.nanoTime();
+
+        return new WarmUpResult(host,
+                TimeUnit.NANOSECONDS.toMillis(resolved - start),
+                TimeUnit.NANOSECONDS.toMillis(connected - resolved),
+                handshaken > connected ? TimeUnit.NANOSECONDS.toMillis(handshaken - connected) : 0,
+                resumed,
+                TimeUnit.NANOSECONDS.toMillis(done - handshaken),
+                statusCode);
+    }
+
+    /**
+     * Closes pooled connections that have expired or have been idle for longer than the configured timeout.
+     */
+    public void closeIdleConnections() {
+        this.transport.closeIdleConnections();
+    }
+
+    /**
+     * Closes all pooled connections. The instance must not be used afterwards.
+     */
+    public void shutdown() {
+        this.transport.shutdown();
+    }
+
+    public Object request(String url, String method, Map<String, Object> data, String contentType, boolean responseInputStream) throws VisionServiceException {
+        return request(url, method, data, contentType, responseInputStream, null);
+    }
+
+    /**
+     * @param deadline time by which the call, including retries, must be complete, or null to use
+     *                 only the call timeout of this instance
+     */
+    public Object request(String url, String method, Map<String, Object> data, String contentType, boolean responseInputStream, Deadline deadline) throws VisionServiceException {
+        return request(url, method, data, contentType, responseInputStream, deadline, null);
+    }
 
+    /**
+     * @param deadline     time by which the call, including retries, must be complete, or null to use
+     *                     only the call timeout of this instance
+     * @param cancellation token that cancels the call, or null
+     */
+    public Object request(String url, String method, Map<String, Object> data, String contentType, boolean responseInputStream, Deadline deadline, CancellationToken cancellation) throws VisionServiceException {
+        deadline = effectiveDeadline(deadline);
+        TransportResponse response = exchange(url, method, data, contentType, method.equals("GET"), deadline, cancellation);
         try {
-            HttpResponse response = this.client.execute(request);
-            int statusCode = response.getStatusLine().getStatusCode();
-            if (statusCode == 200) {
-                return readInput(response.getEntity().getContent());
+            if (response.getStatusCode() == 202) {
+                response.close();
+                return response.getHeader("Operation-Location");
+            } else if (responseInputStream) {
+                // The caller owns the stream and must close it to release the connection.
+                return response.getBody();
             } else {
-                throw new Exception("Error executing GET request! Received error code: " + response.getStatusLine().getStatusCode());
+                return readInput(response);
             }
-        } catch (Exception e) {
-            throw new VisionServiceException(e.getMessage());
+        } catch (IOException e) {
+            throw failureOf(e, deadline, cancellation, url);
+        }
+    }
+
+    /**
+     * Sends the request and returns the response without reading its body, e.g. to stream binary
+     * content to a caller-supplied destination.
+     *
+     * @param deadline time by which the call, including reading the response, must be complete, or
+     *                 null to use only the call timeout of this instance
+     * @return the response, which the caller must close to release the connection
+     */
+    public TransportResponse requestResponse(String url, String method, Map<String, Object> data, String contentType, boolean idempotent, Deadline deadline) throws VisionServiceException {
+        return requestResponse(url, method, data, contentType, idempotent, deadline, null);
+    }
+
+    /**
+     * Sends the request and returns the response without reading its body.
+     *
+     * @param deadline     time by which the call, including reading the response, must be complete, or
+     *                     null to use only the call timeout of this instance
+     * @param cancellation token that cancels the call, including reading the response, or null
+     * @return the response, which the caller must close to release the connection
+     */
+    public TransportResponse requestResponse(String url, String method, Map<String, Object> data, String contentType, boolean idempotent, Deadline deadline, CancellationToken cancellation) throws VisionServiceException {
+        return exchange(url, method, data, contentType, idempotent, effectiveDeadline(deadline), cancellation);
+    }
+
+    /**
+     * @return whether {@link #requestResponseAsync} sends calls without holding a thread while they are
+     * in flight: the transport is an {@link AsyncHttpTransport}, and there are no interceptors and no
+     * hedging policy, which run on the calling thread
+     */
+    public boolean canSendAsync() {
+        return this.transport instanceof AsyncHttpTransport && this.interceptors.isEmpty() && this.hedgingPolicy == null;
+    }
+
+    /**
+     * Sends the request like {@link #requestResponse} and returns at once. If {@link #canSendAsync()},
+     * no thread is held while the call is in flight or waits for a retry or a rate limiter permit: the
+     * request body is read on the calling thread, the response is received in full by the transport,
+     * and retries, rate limiting, circuit breakers, the deadline and the cancellation token apply as
+     * to blocking calls. Otherwise the blocking call is made on the executor.
+     *
+     * @param deadline     time by which the call must be complete, or null to use only the call timeout
+     *                     of this instance
+     * @param cancellation token that cancels the call, or null
+     * @param executor     executor the callback, and attempts after the first, run on
+     * @param callback     receives the response or the failure
+     */
+    public void requestResponseAsync(final String url, final String method, final Map<String, Object> data, final String contentType,
+                                     final boolean idempotent, Deadline deadline, final CancellationToken cancellation,
+                                     Executor executor, final ResponseCallback callback) {
+        final Deadline effective = effectiveDeadline(deadline);
+        if (!canSendAsync()) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        TransportResponse response;
+                        try {
+                            response = exchange(url, method, data, contentType, idempotent, effective, cancellation);
+                        } catch (VisionServiceException e) {
+                            callback.onFailure(e);
+                            return;
+                        } catch (RuntimeException e) {
+                            callback.onFailure(new VisionServiceException(e.getMessage(), e));
+                            return;
+                        } catch (Error e) {
+                            // Report the call before the error ends the thread, or its caller would wait forever.
+                            callback.onFailure(new VisionServiceException("Call failed: " + e, e));
+                            throw e;
+                        }
+                        callback.onResponse(response);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                callback.onFailure(new VisionServiceException("Executor rejected the call: " + e.getMessage(), e));
+            }
+            return;
+        }
+
+        TransportRequest request;
+        try {
+            request = new TransportRequest(method, url, bodyOf(method, data, contentType));
+        } catch (VisionServiceException e) {
+            callback.onFailure(e);
+            return;
+        }
+        setDefaultHeaders(request);
+        new AsyncCall(request, idempotent, effective, cancellation, executor, callback).start();
+    }
+
+    /**
+     * Sends the request and deserializes the JSON response into the given type while it is read
+     * from the connection, without materializing the body as a string first.
+     */
+    public <T> T request(String url, String method, Map<String, Object> data, String contentType, Type resultType) throws VisionServiceException {
+        return request(url, method, data, contentType, resultType, method.equals("GET"));
+    }
+
+    /**
+     * Sends the request and deserializes the JSON response into the given type while it is read
+     * from the connection.
+     *
+     * @param idempotent true if sending the request twice has no other effect than sending it once,
+     *                   which allows it to be hedged
+     */
+    public <T> T request(String url, String method, Map<String, Object> data, String contentType, Type resultType, boolean idempotent) throws VisionServiceException {
+        return request(url, method, data, contentType, resultType, idempotent, null);
+    }
+
+    /**
+     * Sends the request and deserializes the JSON response into the given type while it is read
+     * from the connection.
+     *
+     * @param idempotent true if sending the request twice has no other effect than sending it once,
+     *                   which allows it to be hedged
+     * @param deadline   time by which the call, including retries and reading the response, must be
+     *                   complete, or null to use only the call timeout of this instance
+     */
+    public <T> T request(String url, String method, Map<String, Object> data, String contentType, Type resultType, boolean idempotent, Deadline deadline) throws VisionServiceException {
+        return request(url, method, data, contentType, resultType, idempotent, deadline, null);
+    }
+
+    /**
+     * Sends the request and deserializes the JSON response into the given type while it is read
+     * from the connection.
+     *
+     * @param idempotent   true if sending the request twice has no other effect than sending it once,
+     *                     which allows it to be hedged
+     * @param deadline     time by which the call, including retries and reading the response, must be
+     *                     complete, or null to use only the call timeout of this instance
+     * @param cancellation token that cancels the call, or null
+     */
+    public <T> T request(String url, String method, Map<String, Object> data, String contentType, Type resultType, boolean idempotent, Deadline deadline, CancellationToken cancellation) throws VisionServiceException {
+        deadline = effectiveDeadline(deadline);
+        return readJson(url, exchange(url, method, data, contentType, idempotent, deadline, cancellation), resultType, deadline, cancellation);
+    }
+
+    /**
+     * Deserializes the JSON body of a response returned by {@link #requestResponse}, e.g. when its
+     * headers are needed as well, and closes the response.
+     *
+     * @param deadline     deadline the response was requested with, or null
+     * @param cancellation token the response was requested with, or null
+     */
+    public <T> T readJson(String url, TransportResponse response, Type resultType, Deadline deadline, CancellationToken cancellation) throws VisionServiceException {
+        Reader reader = new InputStreamReader(response.getBody(), charsetOf(response));
+        try {
+            return this.gson.fromJson(reader, resultType);
+        } catch (JsonParseException e) {
+            throw failureOf(e, effectiveDeadline(deadline), cancellation, url);
+        } finally {
+            closeQuietly(reader);
         }
     }
 
-    private Object post(String url, Map<String, Object> data, String contentType, boolean responseInputStream) throws VisionServiceException {
-        return webInvoke("POST", url, data, contentType, responseInputStream);
+    private TransportResponse exchange(String url, String method, Map<String, Object> data, String contentType, boolean idempotent, Deadline deadline, CancellationToken cancellation) throws VisionServiceException {
+        TransportRequest request = new TransportRequest(method, url, bodyOf(method, data, contentType));
+        setDefaultHeaders(request);
+        try {
+            return new InterceptorChain(this.interceptors.toArray(new Interceptor[0]), 0, request, idempotent, deadline, cancellation).proceed(request);
+        } catch (IOException e) {
+            throw failureOf(e, deadline, cancellation, url);
+        }
     }
 
-    private Object patch(String url, Map<String, Object> data, String contentType, boolean responseInputStream) throws VisionServiceException {
-        return webInvoke("PATCH", url, data, contentType, responseInputStream);
+    /**
+     * Sends the request once it has passed all interceptors.
+     */
+    private TransportResponse dispatch(TransportRequest request, boolean idempotent, Deadline deadline, CancellationToken cancellation) throws VisionServiceException {
+        RequestBody body = request.getBody();
+        HedgingPolicy hedging = this.hedgingPolicy;
+        if (idempotent && hedging != null && (body == null || body.isRepeatable())) {
+            return hedgedSend(request, hedging, deadline, cancellation);
+        }
+
+        return send(request, idempotent, deadline, cancellation);
     }
 
-    private Object webInvoke(String method, String url, Map<String, Object> data, String contentType, boolean responseInputStream) throws VisionServiceException {
-        HttpPost request = null;
+    private class InterceptorChain implements Interceptor.Chain {
+        private final Interceptor[] interceptors;
+        private final int index;
+        private final TransportRequest request;
+        private final boolean idempotent;
+        private final Deadline deadline;
+        private final CancellationToken cancellation;
+
+        InterceptorChain(Interceptor[] interceptors, int index, TransportRequest request, boolean idempotent, Deadline deadline, CancellationToken cancellation) {
+            this.interceptors = interceptors;
+            this.index = index;
+            this.request = request;
+            this.idempotent = idempotent;
+            this.deadline = deadline;
+            this.cancellation = cancellation;
+        }
+
+        @Override
+        public TransportRequest request() {
+            return request;
+        }
+
+        @Override
+        public Deadline deadline() {
+            return deadline;
+        }
 
-        if (method.matches("POST")) {
-            request = new HttpPost(url);
-        } else if (method.matches("PATCH")) {
-            request = new HttpPatch(url);
+        @Override
+        public CancellationToken cancellation() {
+            return cancellation;
         }
 
-        boolean isStream = false;
+        @Override
+        public TransportResponse proceed(TransportRequest request) throws VisionServiceException, IOException {
+            if (index == interceptors.length) {
+                return dispatch(request, idempotent, deadline, cancellation);
+            }
+
+            Interceptor interceptor = interceptors[index];
+            TransportResponse response = interceptor.intercept(new InterceptorChain(interceptors, index + 1, request, idempotent, deadline, cancellation));
+            if (response == null) {
+                throw new VisionServiceException("Interceptor " + interceptor + " returned no response");
+            }
+            return response;
+        }
+    }
+
+    private TransportResponse send(TransportRequest request, boolean idempotent, Deadline deadline, CancellationToken cancellation) throws VisionServiceException {
+        RetryPolicy policy = this.retryPolicy;
+        policy.onFirstAttempt();
+        return sendAttempts(request, idempotent, policy, deadline, cancellation);
+    }
+
+    /**
+     * Sends the request, retrying as the policy allows. The retry budget has been credited for the
+     * call already, once however many hedged attempts it makes.
+     * <p>
+     * A call that is not idempotent is only sent again if the service cannot have acted on it: the
+     * connection could not be opened, or the service turned the call away with 429, or with 503 and a
+     * {@code Retry-After}. After a read timeout or a 500, for instance, the service may have done the
+     * work, e.g. created a handwriting operation, and a retry would do it a second time.
+     */
+    private TransportResponse sendAttempts(TransportRequest request, boolean idempotent, RetryPolicy policy, Deadline deadline, CancellationToken cancellation) throws VisionServiceException {
+        String method = request.getMethod();
+        String url = request.getUrl();
+        RequestBody body = request.getBody();
+
+        for (int retry = 1; ; retry++) {
+            boolean canRetry = (body == null || body.isRepeatable()) && !request.isAborted();
+
+            checkCall(deadline, cancellation, url);
+
+            // Ask the breaker first, so that calls failing fast do not use up rate limiter permits.
+            CircuitBreakerRegistry breakers = this.circuitBreakers;
+            CircuitBreaker breaker = breakers != null ? breakers.getBreaker(url) : null;
+            if (breaker != null && !breaker.tryAcquirePermission()) {
+                throw new VisionServiceException("Circuit breaker is open for " + breaker.getEndpoint(), 0, null, null, null, -1, true);
+            }
+            try {
+                acquirePermit(deadline, url);
+            } catch (VisionServiceException e) {
+                if (breaker != null) {
+                    breaker.releasePermission();
+                }
+                throw e;
+            }
+
+            TransportResponse response = null;
+            IOException failure = null;
+            ScheduledFuture<?> abort = DeadlineWatchdog.arm(request, deadline);
+            if (cancellation != null) {
+                cancellation.register(request);
+            }
+            long start = System.nanoTime();
+            try {
+                response = execute(request);
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                if (breaker != null) {
+                    recordOutcome(breaker, request, cancellation, response, System.nanoTime() - start);
+                }
+            }
+
+            if (failure != null) {
+                release(abort, cancellation, request);
+                boolean resendable = idempotent ? isTransient(failure) : isConnectFailure(failure);
+                if (canRetry && resendable && !request.isAborted() && awaitRetry(policy, retry, null, deadline, cancellation)) {
+                    continue;
+                }
+                throw failureOf(failure, deadline, cancellation, url);
+            }
+
+            int statusCode = response.getStatusCode();
+            if (isSuccess(method, statusCode)) {
+                return releaseOnClose(response, abort, cancellation, request);
+            }
 
-        /*Set header*/
-        if (contentType != null && !contentType.isEmpty()) {
-            request.setHeader("Content-Type", contentType);
-            if (contentType.toLowerCase().contains("octet-stream")) {
-                isStream = true;
+            boolean retriable = policy.isRetriableStatus(statusCode);
+            VisionServiceException error = errorOf(method, response, retriable);
+            closeQuietly(response);
+            release(abort, cancellation, request);
+            boolean resendable = retriable && (idempotent || isTurnedAway(response));
+            if (canRetry && resendable && awaitRetry(policy, retry, response.getHeader("Retry-After"), deadline, cancellation)) {
+                continue;
             }
+
+            throw error;
+        }
+    }
+
+    private static void recordOutcome(CircuitBreaker breaker, TransportRequest request, CancellationToken cancellation,
+                                      TransportResponse response, long durationNanos) {
+        if (request.isAborted() || (cancellation != null && cancellation.isCancelled())) {
+            // Aborted or cancelled by us, e.g. a hedge that lost, a passed deadline or a closed screen;
+            // that says nothing about the endpoint.
+            breaker.releasePermission();
         } else {
-            request.setHeader("Content-Type", "application/json");
+            breaker.onResult(response == null || isEndpointFailure(response.getStatusCode()), durationNanos);
         }
+    }
 
-        request.setHeader(headerKey, this.subscriptionKey);
+    /**
+     * Runs the first attempt on the hedging executor and, if it is still running after the hedge
+     * delay, a second one. The first successful response wins; the other attempt is aborted. The
+     * attempts send the body from one in-memory copy, since a stream body keeps a read position
+     * that two attempts writing at once would corrupt.
+     */
+    private TransportResponse hedgedSend(TransportRequest request, HedgingPolicy hedging, Deadline deadline, CancellationToken cancellation) throws VisionServiceException {
+        RequestBody body;
+        try {
+            body = RequestBody.shareable(request.getBody());
+        } catch (IOException e) {
+            throw failureOf(e, deadline, cancellation, request.getUrl());
+        }
+
+        hedging.onCall();
+        RetryPolicy policy = this.retryPolicy;
+        policy.onFirstAttempt();
 
+        BlockingQueue<HedgedAttempt> completed = new LinkedBlockingQueue<>();
+        List<HedgedAttempt> attempts = new ArrayList<>(2);
+        HedgedAttempt winner = null;
+        long start = System.nanoTime();
         try {
-            if (!isStream) {
-                String json = this.gson.toJson(data).toString();
-                StringEntity entity = new StringEntity(json);
-                request.setEntity(entity);
-            } else {
-                request.setEntity(new ByteArrayEntity((byte[]) data.get("data")));
+            attempts.add(startAttempt(request, body, policy, hedging, deadline, cancellation, completed));
+
+            HedgedAttempt done = completed.poll(hedging.getDelayMillis(), TimeUnit.MILLISECONDS);
+            if (done == null) {
+                if (hedging.tryAcquireHedge()) {
+                    attempts.add(startAttempt(request, body, policy, hedging, deadline, cancellation, completed));
+                }
+                done = completed.take();
             }
 
-            HttpResponse response = this.client.execute(request);
-            int statusCode = response.getStatusLine().getStatusCode();
-            if (statusCode == 200) {
-                if(!responseInputStream) {
-                    return readInput(response.getEntity().getContent());
-                }else {
-                    return response.getEntity().getContent();
+            // A failed attempt only decides the call if no other attempt is still running.
+            int outstanding = attempts.size() - 1;
+            while (done.failure != null && outstanding > 0) {
+                done = completed.take();
+                outstanding--;
+            }
+
+            winner = done;
+            if (winner.failure != null) {
+                throw winner.failure;
+            }
+
+            hedging.recordLatency(System.nanoTime() - start);
+            return winner.response;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new VisionServiceException("Interrupted while waiting for a response", e);
+        } catch (RejectedExecutionException e) {
+            throw new VisionServiceException("Hedging executor rejected the call: " + e.getMessage(), e);
+        } finally {
+            for (HedgedAttempt attempt : attempts) {
+                if (attempt != winner) {
+                    attempt.cancel();
                 }
-            }else if(statusCode==202)
-            {
-                return response.getFirstHeader("Operation-Location").getValue();
             }
-            else {
-                throw new Exception("Error executing POST request! Received error code: " + response.getStatusLine().getStatusCode());
+        }
+    }
+
+    private HedgedAttempt startAttempt(TransportRequest template, RequestBody body, RetryPolicy policy, HedgingPolicy hedging, Deadline deadline, CancellationToken cancellation, BlockingQueue<HedgedAttempt> completed) {
+        // Each attempt needs a request of its own so that the loser can be aborted on its own.
+        TransportRequest request = new TransportRequest(template.getMethod(), template.getUrl(), body);
+        for (Map.Entry<String, String> header : template.getHeaders().entrySet()) {
+            request.setHeader(header.getKey(), header.getValue());
+        }
+        HedgedAttempt attempt = new HedgedAttempt(request, policy, deadline, cancellation, completed);
+        hedging.getExecutor().execute(attempt);
+        return attempt;
+    }
+
+    private class HedgedAttempt implements Runnable {
+        private final TransportRequest request;
+        private final RetryPolicy policy;
+        private final Deadline deadline;
+        private final CancellationToken cancellation;
+        private final BlockingQueue<HedgedAttempt> completed;
+        private TransportResponse response;
+        private VisionServiceException failure;
+        private boolean cancelled;
+
+        HedgedAttempt(TransportRequest request, RetryPolicy policy, Deadline deadline, CancellationToken cancellation, BlockingQueue<HedgedAttempt> completed) {
+            this.request = request;
+            this.policy = policy;
+            this.deadline = deadline;
+            this.cancellation = cancellation;
+            this.completed = completed;
+        }
+
+        @Override
+        public void run() {
+            TransportResponse result = null;
+            VisionServiceException error = null;
+            try {
+                result = sendAttempts(request, true, policy, deadline, cancellation);
+            } catch (VisionServiceException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                error = new VisionServiceException(e.getMessage(), e);
+            }
+
+            synchronized (this) {
+                if (cancelled) {
+                    if (result != null) {
+                        closeQuietly(result);
+                    }
+                    return;
+                }
+                response = result;
+                failure = error;
+            }
+            completed.add(this);
+        }
+
+        void cancel() {
+            TransportResponse orphan;
+            synchronized (this) {
+                cancelled = true;
+                orphan = response;
+                response = null;
+            }
+
+            request.abort();
+            if (orphan != null) {
+                closeQuietly(orphan);
             }
-        } catch (Exception e) {
-            throw new VisionServiceException(e.getMessage());
         }
     }
 
-    private Object put(String url, Map<String, Object> data) throws VisionServiceException {
-        HttpPut request = new HttpPut(url);
-        request.setHeader(headerKey, this.subscriptionKey);
+    /**
+     * A call sent through an {@link AsyncHttpTransport}: the steps of {@link #sendAttempts}, with the
+     * waits for a permit or a retry spent on the timer of the {@link DeadlineWatchdog}. The first
+     * attempt starts on the calling thread; everything after an exchange runs on the executor. Only one
+     * step runs at a time, each handing over to the next through the executor, the transport or the timer.
+     */
+    private class AsyncCall implements TransportCallback {
+        private final TransportRequest request;
+        private final boolean idempotent;
+        private final Deadline deadline;
+        private final CancellationToken cancellation;
+        private final Executor executor;
+        private final ResponseCallback callback;
+        private final RetryPolicy policy = retryPolicy;
+        private int retry = 1;
+        private boolean canRetry;
+        private CircuitBreaker breaker;
+        private ScheduledFuture<?> abort;
+        private long start;
 
+        AsyncCall(TransportRequest request, boolean idempotent, Deadline deadline, CancellationToken cancellation,
+                  Executor executor, ResponseCallback callback) {
+            this.request = request;
+            this.idempotent = idempotent;
+            this.deadline = deadline;
+            this.cancellation = cancellation;
+            this.executor = executor;
+            this.callback = callback;
+        }
+
+        void start() {
+            policy.onFirstAttempt();
+            attempt();
+        }
+
+        private void attempt() {
+            RequestBody body = request.getBody();
+            canRetry = (body == null || body.isRepeatable()) && !request.isAborted();
+            String url = request.getUrl();
+            try {
+                checkCall(deadline, cancellation, url);
+
+                CircuitBreakerRegistry breakers = circuitBreakers;
+                breaker = breakers != null ? breakers.getBreaker(url) : null;
+                if (breaker != null && !breaker.tryAcquirePermission()) {
+                    throw new VisionServiceException("Circuit breaker is open for " + breaker.getEndpoint(), 0, null, null, null, -1, true);
+                }
+                long waitNanos;
+                try {
+                    waitNanos = reservePermit(deadline, url);
+                } catch (VisionServiceException e) {
+                    if (breaker != null) {
+                        breaker.releasePermission();
+                    }
+                    throw e;
+                }
+
+                if (waitNanos > 0) {
+                    later(waitNanos, true, new Runnable() {
+                        @Override
+                        public void run() {
+                            send();
+                        }
+                    });
+                } else {
+                    send();
+                }
+            } catch (VisionServiceException e) {
+                callback.onFailure(e);
+            }
+        }
+
+        private void send() {
+            abort = DeadlineWatchdog.arm(request, deadline);
+            if (cancellation != null) {
+                cancellation.register(request);
+            }
+            start = System.nanoTime();
+            try {
+                ((AsyncHttpTransport) transport).executeAsync(request, this);
+            } catch (RuntimeException e) {
+                if (breaker != null) {
+                    breaker.releasePermission();
+                }
+                release(abort, cancellation, request);
+                callback.onFailure(new VisionServiceException(e.getMessage(), e));
+            }
+        }
+
+        @Override
+        public void onResponse(final TransportResponse response) {
+            handOff(new Runnable() {
+                @Override
+                public void run() {
+                    received(response, null);
+                }
+            }, response);
+        }
+
+        @Override
+        public void onFailure(final IOException e) {
+            handOff(new Runnable() {
+                @Override
+                public void run() {
+                    received(null, e);
+                }
+            }, null);
+        }
+
+        /**
+         * Leaves the thread of the transport, which must not be held up by parsing or callbacks.
+         */
+        private void handOff(Runnable step, TransportResponse response) {
+            try {
+                executor.execute(step);
+            } catch (RejectedExecutionException e) {
+                if (response != null) {
+                    closeQuietly(response);
+                }
+                if (breaker != null) {
+                    breaker.releasePermission();
+                }
+                release(abort, cancellation, request);
+                callback.onFailure(new VisionServiceException("Executor rejected the call: " + e.getMessage(), e));
+            }
+        }
+
+        private void received(TransportResponse response, IOException failure) {
+            if (breaker != null) {
+                recordOutcome(breaker, request, cancellation, response, System.nanoTime() - start);
+            }
+            // The body is in memory already; there is nothing left to abort.
+            release(abort, cancellation, request);
+
+            String method = request.getMethod();
+            String url = request.getUrl();
+            if (failure != null) {
+                boolean resendable = idempotent ? isTransient(failure) : isConnectFailure(failure);
+                if (!(canRetry && resendable && !request.isAborted() && retry(null))) {
+                    callback.onFailure(failureOf(failure, deadline, cancellation, url));
+                }
+                return;
+            }
+
+            response = ContentDecoding.decode(response, statistics);
+            int statusCode = response.getStatusCode();
+            if (isSuccess(method, statusCode)) {
+                callback.onResponse(response);
+                return;
+            }
+
+            boolean retriable = policy.isRetriableStatus(statusCode);
+            VisionServiceException error = errorOf(method, response, retriable);
+            closeQuietly(response);
+            boolean resendable = retriable && (idempotent || isTurnedAway(response));
+            if (!(canRetry && resendable && retry(response.getHeader("Retry-After")))) {
+                callback.onFailure(error);
+            }
+        }
+
+        /**
+         * @return true if another attempt was scheduled
+         */
+        private boolean retry(String retryAfter) {
+            long delay = retryDelayMillis(policy, retry, retryAfter, deadline);
+            if (delay < 0) {
+                return false;
+            }
+            retry++;
+            later(TimeUnit.MILLISECONDS.toNanos(delay), false, new Runnable() {
+                @Override
+                public void run() {
+                    attempt();
+                }
+            });
+            return true;
+        }
+
+        /**
+         * Runs the step on the executor after the delay. A cancelled call notices when the step runs.
+         *
+         * @param holdsBreaker true if the step goes on with a permission of the circuit breaker
+         */
+        private void later(long delayNanos, final boolean holdsBreaker, final Runnable step) {
+            DeadlineWatchdog.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        executor.execute(step);
+                    } catch (RejectedExecutionException e) {
+                        if (holdsBreaker && breaker != null) {
+                            breaker.releasePermission();
+                        }
+                        callback.onFailure(new VisionServiceException("Executor rejected the call: " + e.getMessage(), e));
+                    }
+                }
+            }, delayNanos);
+        }
+    }
+
+    private void acquirePermit(Deadline deadline, String url) throws VisionServiceException {
+        RateLimiter limiter = this.rateLimiter;
+        if (limiter == null) {
+            return;
+        }
+
+        boolean acquired;
+        long maxWaitMillis = maxPermitWaitMillis(deadline);
         try {
-            String json = this.gson.toJson(data).toString();
-            StringEntity entity = new StringEntity(json);
-            request.setEntity(entity);
-            request.setHeader("Content-Type", "application/json");
-            HttpResponse response = this.client.execute(request);
-
-            int statusCode = response.getStatusLine().getStatusCode();
-            if (statusCode == 200 || statusCode == 201) {
-                return readInput(response.getEntity().getContent());
+            if (maxWaitMillis < 0) {
+                limiter.acquire();
+                acquired = true;
+            } else if (maxWaitMillis == 0) {
+                acquired = limiter.tryAcquire();
             } else {
-                throw new Exception("Error executing PUT request! Received error code: " + response.getStatusLine().getStatusCode());
+                acquired = limiter.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
             }
-        } catch (Exception e) {
-            throw new VisionServiceException(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new VisionServiceException("Interrupted while waiting for the rate limiter", e);
+        }
+
+        if (!acquired) {
+            checkDeadline(deadline, url);
+            throw new VisionServiceException("Client-side rate limit exceeded", 0, null, null, null, -1, true);
         }
     }
 
-    private Object delete(String url) throws VisionServiceException {
-        HttpDelete request = new HttpDelete(url);
-        request.setHeader(headerKey, this.subscriptionKey);
+    /**
+     * Takes a rate limiter permit like {@link #acquirePermit} without waiting for it.
+     *
+     * @return the nanoseconds to wait before sending
+     */
+    private long reservePermit(Deadline deadline, String url) throws VisionServiceException {
+        RateLimiter limiter = this.rateLimiter;
+        if (limiter == null) {
+            return 0;
+        }
 
+        long maxWaitMillis = maxPermitWaitMillis(deadline);
+        long waitNanos = limiter.reserve(maxWaitMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(maxWaitMillis));
+        if (waitNanos < 0) {
+            checkDeadline(deadline, url);
+            throw new VisionServiceException("Client-side rate limit exceeded", 0, null, null, null, -1, true);
+        }
+        return waitNanos;
+    }
+
+    /**
+     * @return how long a call may wait for a permit, or a negative value for as long as necessary
+     */
+    private long maxPermitWaitMillis(Deadline deadline) {
+        long maxWaitMillis = this.rateLimiterMaxWaitMillis;
+        if (deadline != null) {
+            long remaining = Math.max(0, deadline.remaining(TimeUnit.MILLISECONDS));
+            maxWaitMillis = maxWaitMillis < 0 ? remaining : Math.min(maxWaitMillis, remaining);
+        }
+        return maxWaitMillis;
+    }
+
+    private Deadline effectiveDeadline(Deadline deadline) {
+        long timeout = this.callTimeoutMillis;
+        return timeout > 0 ? Deadline.earlierOf(deadline, Deadline.after(timeout, TimeUnit.MILLISECONDS)) : deadline;
+    }
+
+    private static void checkCall(Deadline deadline, CancellationToken cancellation, String url) throws VisionServiceException {
+        if (cancellation != null && cancellation.isCancelled()) {
+            throw new VisionServiceException("Call to " + url + " was cancelled");
+        }
+        checkDeadline(deadline, url);
+    }
+
+    private static void checkDeadline(Deadline deadline, String url) throws VisionServiceException {
+        if (deadline != null && deadline.isExpired()) {
+            throw new VisionServiceException("Deadline exceeded for " + url);
+        }
+    }
+
+    private static void release(ScheduledFuture<?> abort, CancellationToken cancellation, TransportRequest request) {
+        DeadlineWatchdog.disarm(abort);
+        if (cancellation != null) {
+            cancellation.unregister(request);
+        }
+    }
+
+    /**
+     * Keeps the request abortable by its deadline and cancellation token while the body of the
+     * response is read, until the body or the response is closed.
+     */
+    private static TransportResponse releaseOnClose(final TransportResponse response, final ScheduledFuture<?> abort,
+                                                    final CancellationToken cancellation, final TransportRequest request) {
+        if (abort == null && cancellation == null) {
+            return response;
+        }
+
+        InputStream body = new FilterInputStream(response.getBody()) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    release(abort, cancellation, request);
+                }
+            }
+        };
+
+        return new TransportResponse(response.getStatusCode(), response.getHeaders(), body) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    response.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return the exception to report for an I/O or parse failure, which is a deadline failure if the
+     * request was aborted because the deadline passed
+     */
+    private static VisionServiceException failureOf(Exception e, Deadline deadline, CancellationToken cancellation, String url) {
+        if (cancellation != null && cancellation.isCancelled()) {
+            return new VisionServiceException("Call to " + url + " was cancelled", e);
+        }
+        if (deadline != null && deadline.isExpired()) {
+            return new VisionServiceException("Deadline exceeded for " + url, e);
+        }
+        // Malformed responses fail the same way again; connection failures may not.
+        return new VisionServiceException(e.getMessage(), 0, null, null, null, -1, isTransient(e), e);
+    }
+
+    /**
+     * @return whether the failure may not happen again, which holds for I/O errors except requests the
+     * transport cannot send at all
+     */
+    private static boolean isTransient(Exception e) {
+        return e instanceof IOException && !(e instanceof ProtocolException);
+    }
+
+    /**
+     * Builds the exception for an error response from its status, headers and the error the service
+     * returned in the body, which is either {@code {"code": .., "message": ..}} or the same wrapped
+     * in an {@code "error"} object.
+     */
+    private VisionServiceException errorOf(String method, TransportResponse response, boolean retriable) {
+        int statusCode = response.getStatusCode();
+        String errorCode = null;
+        String serviceMessage = null;
+        String requestId = response.getHeader("apim-request-id");
+        if (requestId == null) {
+            requestId = response.getHeader("x-ms-request-id");
+        }
+
+        Exception unreadable = null;
         try {
-            HttpResponse response = this.client.execute(request);
+            JsonElement body = new JsonParser().parse(readError(response));
+            if (body.isJsonObject()) {
+                JsonObject error = body.getAsJsonObject();
+                if (error.has("error") && error.get("error").isJsonObject()) {
+                    error = error.getAsJsonObject("error");
+                }
+                errorCode = stringOf(error, "code");
+                serviceMessage = stringOf(error, "message");
+                if (requestId == null) {
+                    requestId = stringOf(error, "requestId");
+                }
+            }
+        } catch (IOException e) {
+            // The status alone describes the failure; the cause says why the body could not be read.
+            unreadable = e;
+        } catch (JsonParseException e) {
+            // Not a JSON error, e.g. a page from a proxy.
+            unreadable = e;
+        }
 
-            int statusCode = response.getStatusLine().getStatusCode();
-            if (statusCode != 200) {
-                throw new Exception("Error executing DELETE request! Received error code: " + response.getStatusLine().getStatusCode());
+        StringBuilder message = new StringBuilder("Error executing ").append(method)
+                .append(" request! Received error code: ").append(statusCode);
+        if (serviceMessage != null) {
+            message.append(" (");
+            if (errorCode != null) {
+                message.append(errorCode).append(": ");
             }
+            message.append(serviceMessage).append(')');
+        }
 
-            return readInput(response.getEntity().getContent());
-        } catch (Exception e) {
-            throw new VisionServiceException(e.getMessage());
+        return new VisionServiceException(message.toString(), statusCode, errorCode, serviceMessage, requestId,
+                RetryPolicy.parseRetryAfterMillis(response.getHeader("Retry-After")), retriable, unreadable);
+    }
+
+    private static String stringOf(JsonObject object, String name) {
+        JsonElement value = object.get(name);
+        return value != null && value.isJsonPrimitive() ? value.getAsString() : null;
+    }
+
+    private static boolean awaitRetry(RetryPolicy policy, int retry, String retryAfter, Deadline deadline, CancellationToken cancellation) throws VisionServiceException {
+        long delay = retryDelayMillis(policy, retry, retryAfter, deadline);
+        if (delay < 0) {
+            return false;
         }
+
+        try {
+            if (cancellation == null) {
+                Thread.sleep(delay);
+            } else if (!cancellation.await(delay)) {
+                throw new VisionServiceException("Call was cancelled while waiting to retry");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new VisionServiceException("Interrupted while waiting to retry", e);
+        }
+
+        return true;
+    }
+
+    /**
+     * Decides whether to make the given retry and takes it from the retry budget if so.
+     *
+     * @return the delay before the retry, or -1 if no retry is made
+     */
+    private static long retryDelayMillis(RetryPolicy policy, int retry, String retryAfter, Deadline deadline) {
+        if (retry > policy.getMaxRetries()) {
+            return -1;
+        }
+
+        long delay = policy.backoffMillis(retry, retryAfter);
+        if (delay < 0 || (deadline != null && delay >= deadline.remaining(TimeUnit.MILLISECONDS))) {
+            // Waiting out the delay would leave no time for another attempt.
+            return -1;
+        }
+        if (!policy.tryAcquireRetry(retry)) {
+            return -1;
+        }
+        return delay;
+    }
+
+    /**
+     * @return whether the connection could not be opened, so that no part of the request reached the
+     * server; such calls may be sent again even if they are not idempotent
+     */
+    public static boolean isConnectFailure(IOException e) {
+        if (e instanceof ConnectException || e instanceof NoRouteToHostException || e instanceof UnknownHostException
+                || e instanceof ConnectTimeoutException) {
+            return true;
+        }
+        // HttpURLConnection, OkHttp and NioHttpTransport report connect timeouts as plain socket timeouts.
+        String message = e.getMessage();
+        return e instanceof SocketTimeoutException && message != null && message.toLowerCase(Locale.US).contains("connect");
+    }
+
+    /**
+     * @return whether the service turned the call away without acting on it
+     */
+    static boolean isTurnedAway(TransportResponse response) {
+        int statusCode = response.getStatusCode();
+        return statusCode == 429 || (statusCode == 503 && response.getHeader("Retry-After") != null);
+    }
+
+    private static boolean isEndpointFailure(int statusCode) {
+        return statusCode >= 500 || statusCode == 408;
+    }
+
+    private static boolean isSuccess(String method, int statusCode) {
+        if (method.equals("POST") || method.equals("PATCH")) {
+            return statusCode == 200 || statusCode == 202;
+        } else if (method.equals("PUT")) {
+            return statusCode == 200 || statusCode == 201;
+        }
+
+        return statusCode == 200;
+    }
+
+    private RequestBody bodyOf(String method, Map<String, Object> data, String contentType) throws VisionServiceException {
+        if (method.equals("GET") || method.equals("HEAD") || method.equals("DELETE")) {
+            return null;
+        } else if (method.equals("POST") || method.equals("PATCH")) {
+            return createBody(data, contentType);
+        } else if (method.equals("PUT")) {
+            return createBody(data, null);
+        }
+        throw new VisionServiceException("Error! Incorrect method provided: " + method);
+    }
+
+    private RequestBody createBody(Map<String, Object> data, String contentType) {
+        if (contentType == null || contentType.isEmpty()) {
+            contentType = "application/json";
+        }
+
+        if (!contentType.toLowerCase().contains("octet-stream")) {
+            return RequestBody.create(contentType, this.gson.toJson(data).getBytes(UTF_8));
+        }
+
+        Object stream = data.get("data");
+        if (stream instanceof RequestBody) {
+            return (RequestBody) stream;
+        } else if (stream instanceof InputStream) {
+            return RequestBody.create(contentType, (InputStream) stream);
+        }
+
+        return RequestBody.create(contentType, (byte[]) stream);
+    }
+
+    private void setDefaultHeaders(TransportRequest request) {
+        request.setHeader(headerKey, this.subscriptionKey);
+        request.setHeader("Accept-Encoding", ContentDecoding.ACCEPT_ENCODING);
+    }
+
+    private TransportResponse execute(TransportRequest request) throws IOException {
+        return ContentDecoding.decode(this.transport.execute(request), this.statistics);
     }
 
     public static String getUrl(String path, Map<String, Object> params) {
-        StringBuffer url = new StringBuffer(path);
+        StringBuilder url = new StringBuilder(path);
 
-        boolean start = true;
+        // Paths such as RecognizeText?handwriting=true already carry a query string.
+        boolean first = path.indexOf('?') < 0;
         for (Map.Entry<String, Object> param : params.entrySet()) {
-            if (start) {
-                url.append("?");
-                start = false;
-            } else {
-                url.append("&");
-            }
-
-            try {
-                url.append(param.getKey() + "=" + URLEncoder.encode(param.getValue().toString(), "UTF-8"));
-            } catch (UnsupportedEncodingException e) {
-                e.printStackTrace();
+            if (param.getValue() == null) {
+                continue;
             }
+            RequestDescriptor.appendQuery(url, first, param.getKey(), param.getValue());
+            first = false;
         }
 
         return url.toString();
     }
 
-    private String readInput(InputStream is) throws IOException {
-        BufferedReader br = new BufferedReader(new InputStreamReader(is));
-        StringBuffer json = new StringBuffer();
-        String line;
-        while ((line = br.readLine()) != null) {
-            json.append(line);
+    /**
+     * Reads the start of an error body; error bodies are short unless they are pages from a proxy.
+     */
+    private static String readError(TransportResponse response) throws IOException {
+        Reader reader = new InputStreamReader(response.getBody(), charsetOf(response));
+        StringBuilder error = new StringBuilder();
+        char[] buffer = new char[1024];
+        int read;
+        while (error.length() < MAX_ERROR_BODY_CHARS && (read = reader.read(buffer)) != -1) {
+            error.append(buffer, 0, read);
         }
+        return error.toString();
+    }
 
-        return json.toString();
+    private String readInput(TransportResponse response) throws IOException {
+        Reader reader = new InputStreamReader(response.getBody(), charsetOf(response));
+        try {
+            StringBuilder json = new StringBuilder();
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                json.append(buffer, 0, read);
+            }
+
+            return json.toString();
+        } finally {
+            // Closing the content stream returns the connection to the pool.
+            reader.close();
+        }
+    }
+
+    private static Charset charsetOf(TransportResponse response) {
+        String contentType = response.getHeader("Content-Type");
+        if (contentType != null) {
+            for (String parameter : contentType.split(";")) {
+                String[] pair = parameter.trim().split("=", 2);
+                if (pair.length == 2 && pair[0].equalsIgnoreCase("charset")) {
+                    try {
+                        return Charset.forName(pair[1].trim().replace("\"", ""));
+                    } catch (IllegalArgumentException e) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        return UTF_8;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // The connection is discarded by the transport if it cannot be released cleanly.
+        }
     }
 }
@@ -0,0 +1,228 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision;
+
+import com.microsoft.projectoxford.vision.contract.ModelResult;
+import com.microsoft.projectoxford.vision.rest.CancellationToken;
+import com.microsoft.projectoxford.vision.rest.StubHttpTransport;
+import com.microsoft.projectoxford.vision.rest.TransportRequest;
+import com.microsoft.projectoxford.vision.rest.TransportResponse;
+import com.microsoft.projectoxford.vision.rest.VisionServiceException;
+import com.microsoft.projectoxford.vision.rest.WebServiceRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncVisionServiceClientTest {
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch aborted = new CountDownLatch(1);
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test(timeout = 10 * 1000)
+    public void completesWithTheResult() throws Exception {
+        AsyncVisionServiceClient client = new AsyncVisionServiceClient(restClient(StubHttpTransport.json("{\"models\":[]}")), executor);
+
+        ModelResult models = client.listModels().get(5, TimeUnit.SECONDS);
+
+        assertNotNull(models);
+    }
+
+    @Test(timeout = 10 * 1000)
+    public void cancelAbortsTheRequestInFlight() throws Exception {
+        AsyncVisionServiceClient client = new AsyncVisionServiceClient(restClient(hangingTransport()), executor);
+        final AtomicReference<Exception> delivered = new AtomicReference<>();
+        final CountDownLatch notified = new CountDownLatch(1);
+
+        VisionFuture<ModelResult> future = client.listModels();
+        future.addCallback(new VisionCallback<ModelResult>() {
+            @Override
+            public void onSuccess(ModelResult result) {
+                notified.countDown();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                delivered.set(e);
+                notified.countDown();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertTrue(future.cancel(false));
+
+        assertTrue("request was not aborted", aborted.await(5, TimeUnit.SECONDS));
+        assertTrue(future.isCancelled());
+        assertTrue(future.isDone());
+        assertTrue(notified.await(5, TimeUnit.SECONDS));
+        assertTrue(delivered.get() instanceof CancellationException);
+        try {
+            future.get();
+            fail("cancelled future returned a result");
+        } catch (CancellationException e) {
+            // Expected.
+        }
+    }
+
+    @Test(timeout = 10 * 1000)
+    public void cancellingTheClientTokenCancelsItsFutures() throws Exception {
+        CancellationToken token = new CancellationToken();
+        AsyncVisionServiceClient client = new AsyncVisionServiceClient(restClient(hangingTransport()).withCancellation(token), executor);
+
+        VisionFuture<ModelResult> future = client.listModels();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        token.cancel();
+
+        assertTrue(future.isCancelled());
+        assertTrue("request was not aborted", aborted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 10 * 1000)
+    public void cancelAfterCompletionHasNoEffect() throws Exception {
+        AsyncVisionServiceClient client = new AsyncVisionServiceClient(restClient(StubHttpTransport.json("{\"models\":[]}")), executor);
+        VisionFuture<ModelResult> future = client.listModels();
+        ModelResult models = future.get();
+
+        assertFalse(future.cancel(true));
+        assertFalse(future.isCancelled());
+        assertSame(models, future.get());
+    }
+
+    @Test(timeout = 10 * 1000)
+    public void errorFailsTheFutureAndReachesTheThread() throws Exception {
+        final AtomicReference<Throwable> uncaught = new AtomicReference<>();
+        final CountDownLatch died = new CountDownLatch(1);
+        Executor threadPerCall = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                Thread thread = new Thread(command);
+                thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                    @Override
+                    public void uncaughtException(Thread t, Throwable e) {
+                        uncaught.set(e);
+                        died.countDown();
+                    }
+                });
+                thread.start();
+            }
+        };
+        final Error error = new NoClassDefFoundError("com/example/Missing");
+        AsyncVisionServiceClient client = new AsyncVisionServiceClient(restClient(new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) {
+                throw error;
+            }
+        })), threadPerCall);
+
+        VisionFuture<ModelResult> future = client.listModels();
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("future completed although the call threw an error");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof VisionServiceException);
+            assertSame(error, e.getCause().getCause());
+        }
+        assertTrue(died.await(5, TimeUnit.SECONDS));
+        assertSame(error, uncaught.get());
+    }
+
+    @Test(timeout = 10 * 1000)
+    public void rejectedCallFailsTheFuture() throws Exception {
+        Executor rejecting = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException("Queue full");
+            }
+        };
+        AsyncVisionServiceClient client = new AsyncVisionServiceClient(restClient(StubHttpTransport.json("{}")), rejecting);
+
+        VisionFuture<ModelResult> future = client.listModels();
+
+        assertTrue(future.isDone());
+        try {
+            future.get();
+            fail("rejected call completed");
+        } catch (ExecutionException e) {
+            assertEquals("Executor rejected the call: Queue full", e.getCause().getMessage());
+        }
+    }
+
+    private StubHttpTransport hangingTransport() {
+        return new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) throws IOException {
+                started.countDown();
+                try {
+                    Thread.sleep(60 * 1000);
+                } catch (InterruptedException e) {
+                    aborted.countDown();
+                    throw new IOException("Handler interrupted");
+                }
+                return null;
+            }
+        });
+    }
+
+    private static VisionServiceRestClient restClient(StubHttpTransport transport) {
+        return new VisionServiceRestClient(new WebServiceRequest("key", transport), "http://stub/vision/v1.0");
+    }
+}
@@ -0,0 +1,234 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision;
+
+import com.microsoft.projectoxford.vision.contract.HandwritingRecognitionOperation;
+import com.microsoft.projectoxford.vision.contract.HandwritingRecognitionOperationResult;
+import com.microsoft.projectoxford.vision.contract.HandwritingRecognitionStatus;
+import com.microsoft.projectoxford.vision.rest.CancellationToken;
+import com.microsoft.projectoxford.vision.rest.Deadline;
+import com.microsoft.projectoxford.vision.rest.StubHttpTransport;
+import com.microsoft.projectoxford.vision.rest.TransportRequest;
+import com.microsoft.projectoxford.vision.rest.TransportResponse;
+import com.microsoft.projectoxford.vision.rest.VisionServiceException;
+import com.microsoft.projectoxford.vision.rest.WebServiceRequest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link VisionServiceRestClient#awaitHandwritingResult} against a stub service that answers each
+ * poll with the next status of a script.
+ */
+public class HandwritingAwaiterTest {
+    private static final long IMAGE_SIZE = 1000;
+    private static final long FIRST_POLL_MILLIS = new CompletionTimeEstimator().estimateMillis(IMAGE_SIZE);
+    private static final long SLACK_MILLIS = 50;
+    private static final String OPERATION_PATH = "/vision/v1.0/textOperations/0f3e2c4a-1b2c-4d5e-8f90-a1b2c3d4e5f6";
+
+    private final List<Long> pollTimes = Collections.synchronizedList(new ArrayList<Long>());
+    private final List<String> hosts = Collections.synchronizedList(new ArrayList<String>());
+
+    @Test(timeout = 30 * 1000)
+    public void pollsUntilTheStatusIsTerminal() throws Exception {
+        VisionServiceRestClient client = restClient(script("NotStarted", "Running", "Succeeded"));
+
+        HandwritingRecognitionOperationResult result = client.awaitHandwritingResult(operation("http://stub"));
+
+        assertEquals(HandwritingRecognitionStatus.SUCCEEDED, result.getRecognitionStatus());
+        assertEquals(3, pollTimes.size());
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void failedOperationIsReturnedAsTheResult() throws Exception {
+        VisionServiceRestClient client = restClient(script("Running", "Failed"));
+
+        HandwritingRecognitionOperationResult result = client.awaitHandwritingResult(operation("http://stub"));
+
+        assertEquals(HandwritingRecognitionStatus.FAILED, result.getRecognitionStatus());
+        assertEquals(2, pollTimes.size());
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void firstPollWaitsForTheExpectedCompletionTime() throws Exception {
+        VisionServiceRestClient client = restClient(script("Succeeded"));
+
+        long start = System.nanoTime();
+        client.awaitHandwritingResult(operation("http://stub"));
+
+        assertTrue(millisSince(start, pollTimes.get(0)) >= FIRST_POLL_MILLIS - SLACK_MILLIS);
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void retryAfterSetsTheNextInterval() throws Exception {
+        VisionServiceRestClient client = restClient(script("Running;2", "Succeeded"));
+
+        client.awaitHandwritingResult(operation("http://stub"));
+
+        assertTrue(millisSince(pollTimes.get(0), pollTimes.get(1)) >= 2000 - SLACK_MILLIS);
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void laterPollsBackOffWithoutRetryAfter() throws Exception {
+        VisionServiceRestClient client = restClient(script("Running", "Running", "Running", "Succeeded"));
+
+        client.awaitHandwritingResult(operation("http://stub"));
+
+        long first = millisSince(pollTimes.get(0), pollTimes.get(1));
+        long second = millisSince(pollTimes.get(1), pollTimes.get(2));
+        long third = millisSince(pollTimes.get(2), pollTimes.get(3));
+        String intervals = first + ", " + second + ", " + third;
+        assertTrue(intervals, first >= HandwritingPollSchedule.MIN_INTERVAL_MILLIS - SLACK_MILLIS);
+        assertTrue(intervals, second >= 2 * HandwritingPollSchedule.MIN_INTERVAL_MILLIS - SLACK_MILLIS);
+        assertTrue(intervals, third >= 4 * HandwritingPollSchedule.MIN_INTERVAL_MILLIS - SLACK_MILLIS);
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void operationsThatFinishEarlyShortenTheFirstWait() throws Exception {
+        VisionServiceRestClient client = restClient(script("Succeeded"));
+
+        List<Long> firstWaits = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            client.awaitHandwritingResult(operation("http://stub"));
+            firstWaits.add(millisSince(start, pollTimes.get(i)));
+        }
+
+        // Each operation was already done at its first poll, so the estimate keeps coming down.
+        assertTrue(firstWaits.toString(), firstWaits.get(4) < firstWaits.get(0) - 100);
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void deadlinePassingWhileRunningFails() throws Exception {
+        VisionServiceRestClient client = restClient(script("Running"));
+
+        long start = System.nanoTime();
+        try {
+            client.awaitHandwritingResult(operation("http://stub"), Deadline.after(1500, TimeUnit.MILLISECONDS));
+            fail("operation that never finished completed");
+        } catch (VisionServiceException e) {
+            assertTrue(e.getMessage().startsWith("Deadline exceeded"));
+        }
+        assertTrue(millisSince(start, System.nanoTime()) < 1500 + SLACK_MILLIS);
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void cancellationStopsTheWait() throws Exception {
+        final CancellationToken token = new CancellationToken();
+        VisionServiceRestClient client = restClient(script("Running")).withCancellation(token);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                token.cancel();
+            }
+        }).start();
+
+        try {
+            client.awaitHandwritingResult(operation("http://stub"));
+            fail("cancelled wait completed");
+        } catch (VisionServiceException e) {
+            assertTrue(e.getMessage().endsWith("was cancelled"));
+        }
+        assertEquals(0, pollTimes.size());
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void regionalClientWaitsInTheRegionThatCreatedTheOperation() throws Exception {
+        RegionalVisionServiceClient client = new RegionalVisionServiceClient(Arrays.asList(
+                new RegionEndpoint("http://east.stub/vision/v1.0", "key"),
+                new RegionEndpoint("http://west.stub/vision/v1.0", "key")), script("Running", "Succeeded"));
+
+        HandwritingRecognitionOperationResult result = client.awaitHandwritingResult(operation("http://west.stub"));
+
+        assertEquals(HandwritingRecognitionStatus.SUCCEEDED, result.getRecognitionStatus());
+        assertEquals(Arrays.asList("west.stub", "west.stub"), hosts);
+    }
+
+    /**
+     * Answers the n-th poll with the n-th status, repeating the last one; a status may carry a
+     * {@code Retry-After} value after a semicolon.
+     */
+    private StubHttpTransport script(final String... statuses) {
+        return new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) {
+                int index;
+                synchronized (pollTimes) {
+                    index = pollTimes.size();
+                    pollTimes.add(System.nanoTime());
+                }
+                hosts.add(URI.create(request.getUrl()).getHost());
+
+                String[] status = statuses[Math.min(index, statuses.length - 1)].split(";");
+                Map<String, String> headers = new HashMap<>();
+                headers.put("Content-Type", "application/json; charset=utf-8");
+                if (status.length > 1) {
+                    headers.put("Retry-After", status[1]);
+                }
+                return new TransportResponse(200, headers,
+                        new ByteArrayInputStream(("{\"status\":\"" + status[0] + "\"}").getBytes(Charset.forName("UTF-8"))));
+            }
+        });
+    }
+
+    private static HandwritingRecognitionOperation operation(String root) {
+        return new HandwritingRecognitionOperation(root + OPERATION_PATH, IMAGE_SIZE);
+    }
+
+    private static long millisSince(long startNanos, long endNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(endNanos - startNanos);
+    }
+
+    private static VisionServiceRestClient restClient(StubHttpTransport transport) {
+        return new VisionServiceRestClient(new WebServiceRequest("key", transport), "http://stub/vision/v1.0");
+    }
+}
@@ -0,0 +1,288 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision;
+
+import com.microsoft.projectoxford.vision.contract.HandwritingRecognitionOperation;
+import com.microsoft.projectoxford.vision.contract.HandwritingRecognitionOperationResult;
+import com.microsoft.projectoxford.vision.contract.HandwritingRecognitionStatus;
+import com.microsoft.projectoxford.vision.rest.Deadline;
+import com.microsoft.projectoxford.vision.rest.StubHttpTransport;
+import com.microsoft.projectoxford.vision.rest.TransportRequest;
+import com.microsoft.projectoxford.vision.rest.TransportResponse;
+import com.microsoft.projectoxford.vision.rest.VisionServiceException;
+import com.microsoft.projectoxford.vision.rest.WebServiceRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HandwritingResultPollerTest {
+    private static final long IMAGE_SIZE = 1000;
+    private static final long FIRST_POLL_MILLIS = new CompletionTimeEstimator().estimateMillis(IMAGE_SIZE);
+    private static final long TICK_SLACK_MILLIS = 100;
+
+    private final ConcurrentHashMap<String, AtomicInteger> polls = new ConcurrentHashMap<>();
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+    private ExecutorService executor;
+    private HandwritingResultPoller poller;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        if (poller != null) {
+            poller.shutdown();
+        }
+        executor.shutdownNow();
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void completesEachOperationAfterItsOwnNumberOfPolls() throws Exception {
+        // Operation i is still running at its first i % 3 polls.
+        poller = new HandwritingResultPoller(restClient(new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) {
+                int poll = countPoll(request.getUrl());
+                int runningPolls = Integer.parseInt(request.getUrl().substring(request.getUrl().lastIndexOf('/') + 1)) % 3;
+                return status(poll <= runningPolls ? "Running" : "Succeeded", null);
+            }
+        })), 4, executor);
+
+        List<VisionFuture<HandwritingRecognitionOperationResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            futures.add(poller.submit(operation(i)));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(HandwritingRecognitionStatus.SUCCEEDED, futures.get(i).get(20, TimeUnit.SECONDS).getRecognitionStatus());
+            assertEquals(i % 3 + 1, polls.get(operation(i).Url()).get());
+        }
+        assertEquals(0, poller.getPendingCount());
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void pollsInFlightAreBounded() throws Exception {
+        poller = new HandwritingResultPoller(restClient(new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) {
+                int now = concurrent.incrementAndGet();
+                try {
+                    int max;
+                    while (now > (max = maxConcurrent.get()) && !maxConcurrent.compareAndSet(max, now)) {
+                        // Retry.
+                    }
+                    Thread.sleep(20);
+                    return status("Succeeded", null);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                } finally {
+                    concurrent.decrementAndGet();
+                }
+            }
+        })), 3, executor);
+
+        List<VisionFuture<HandwritingRecognitionOperationResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            futures.add(poller.submit(operation(i)));
+        }
+        for (VisionFuture<HandwritingRecognitionOperationResult> future : futures) {
+            future.get(20, TimeUnit.SECONDS);
+        }
+
+        assertTrue("up to " + maxConcurrent.get() + " polls in flight", maxConcurrent.get() <= 3);
+        assertTrue(maxConcurrent.get() > 1);
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void pollsAreNotMadeBeforeTheyAreDue() throws Exception {
+        final List<Long> pollTimes = new CopyOnWriteArrayList<>();
+        poller = new HandwritingResultPoller(restClient(new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) {
+                pollTimes.add(System.nanoTime());
+                return status(pollTimes.size() < 3 ? "Running" : "Succeeded", "1");
+            }
+        })), 2, executor);
+
+        long submitted = System.nanoTime();
+        poller.submit(operation(0)).get(20, TimeUnit.SECONDS);
+
+        assertEquals(3, pollTimes.size());
+        assertTrue(millisBetween(submitted, pollTimes.get(0)) >= FIRST_POLL_MILLIS - TICK_SLACK_MILLIS);
+        // Retry-After: 1 asks for a second between polls.
+        assertTrue(millisBetween(pollTimes.get(0), pollTimes.get(1)) >= 1000 - TICK_SLACK_MILLIS);
+        assertTrue(millisBetween(pollTimes.get(1), pollTimes.get(2)) >= 1000 - TICK_SLACK_MILLIS);
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void manyOperationsShareAFewThreads() throws Exception {
+        int threadsBefore = countThreads("vision-handwriting-");
+        poller = new HandwritingResultPoller(restClient(new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) {
+                return status(countPoll(request.getUrl()) < 2 ? "Running" : "Succeeded", null);
+            }
+        })), 4);
+
+        List<VisionFuture<HandwritingRecognitionOperationResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            futures.add(poller.submit(operation(i)));
+        }
+        assertTrue(countThreads("vision-handwriting-") - threadsBefore <= 4 + 1);
+        for (VisionFuture<HandwritingRecognitionOperationResult> future : futures) {
+            future.get(20, TimeUnit.SECONDS);
+        }
+        assertTrue(countThreads("vision-handwriting-") - threadsBefore <= 4 + 1);
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void operationStillRunningAtTheDeadlineFails() throws Exception {
+        poller = new HandwritingResultPoller(restClient(new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) {
+                return status("Running", null);
+            }
+        })), 2, executor);
+
+        try {
+            poller.submit(operation(0), Deadline.after(1500, TimeUnit.MILLISECONDS)).get(10, TimeUnit.SECONDS);
+            fail("operation that never finished completed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().startsWith("Deadline exceeded"));
+        }
+        assertEquals(0, poller.getPendingCount());
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void errorFailsTheOperationAndFreesItsSlot() throws Exception {
+        final Error error = new NoClassDefFoundError("com/example/Missing");
+        Executor threadPerPoll = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                Thread thread = new Thread(command);
+                thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                    @Override
+                    public void uncaughtException(Thread t, Throwable e) {
+                        // The error is meant to reach the thread; the test checks the futures.
+                    }
+                });
+                thread.start();
+            }
+        };
+        poller = new HandwritingResultPoller(restClient(new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) {
+                if (request.getUrl().endsWith("/0")) {
+                    throw error;
+                }
+                return status("Succeeded", null);
+            }
+        })), 1, threadPerPoll);
+
+        VisionFuture<HandwritingRecognitionOperationResult> failing = poller.submit(operation(0));
+        VisionFuture<HandwritingRecognitionOperationResult> next = poller.submit(operation(1));
+
+        try {
+            failing.get(10, TimeUnit.SECONDS);
+            fail("operation completed although its poll threw an error");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof VisionServiceException);
+            assertSame(error, e.getCause().getCause());
+        }
+        // With one poll in flight at most, the next operation is polled only if the failed poll let go of its slot.
+        assertEquals(HandwritingRecognitionStatus.SUCCEEDED, next.get(10, TimeUnit.SECONDS).getRecognitionStatus());
+        assertEquals(0, poller.getPendingCount());
+    }
+
+    private int countPoll(String url) {
+        polls.putIfAbsent(url, new AtomicInteger());
+        return polls.get(url).incrementAndGet();
+    }
+
+    private static HandwritingRecognitionOperation operation(int i) {
+        return new HandwritingRecognitionOperation("http://stub/vision/v1.0/textOperations/" + i, IMAGE_SIZE);
+    }
+
+    private static TransportResponse status(String status, String retryAfter) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/json; charset=utf-8");
+        if (retryAfter != null) {
+            headers.put("Retry-After", retryAfter);
+        }
+        return new TransportResponse(200, headers,
+                new ByteArrayInputStream(("{\"status\":\"" + status + "\"}").getBytes(Charset.forName("UTF-8"))));
+    }
+
+    private static long millisBetween(long fromNanos, long toNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(toNanos - fromNanos);
+    }
+
+    private static int countThreads(String prefix) {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(prefix) && thread.isAlive()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static VisionServiceRestClient restClient(StubHttpTransport transport) {
+        return new VisionServiceRestClient(new WebServiceRequest("key", transport), "http://stub/vision/v1.0");
+    }
+}
@@ -0,0 +1,211 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision;
+
+import com.microsoft.projectoxford.vision.contract.HandwritingRecognitionOperation;
+import com.microsoft.projectoxford.vision.rest.RetryPolicy;
+import com.microsoft.projectoxford.vision.rest.StubHttpTransport;
+import com.microsoft.projectoxford.vision.rest.TransportRequest;
+import com.microsoft.projectoxford.vision.rest.TransportResponse;
+import com.microsoft.projectoxford.vision.rest.VisionServiceException;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Fails the first request of each call, whichever region it goes to, and checks whether the call
+ * moves on to the other region.
+ */
+public class RegionalFailoverTest {
+    private final List<String> hosts = Collections.synchronizedList(new ArrayList<String>());
+
+    @Test
+    public void analysisFailsOverAfterServerError() throws Exception {
+        RegionalVisionServiceClient client = client(status(500), ok());
+
+        assertNotNull(client.analyzeImage("http://example.com/page.jpg", new String[]{"Tags"}, null));
+
+        assertEquals(2, hosts.size());
+        assertNotEquals(hosts.get(0), hosts.get(1));
+    }
+
+    @Test
+    public void analysisIsNotFailedOverAfterPermanentError() {
+        RegionalVisionServiceClient client = client(status(400), ok());
+
+        try {
+            client.analyzeImage("http://example.com/page.jpg", new String[]{"Tags"}, null);
+            fail("call succeeded after a 400");
+        } catch (VisionServiceException e) {
+            assertEquals(400, e.getStatusCode());
+        }
+        assertEquals(1, hosts.size());
+    }
+
+    @Test
+    public void createFailsOverWhenTheRegionCannotBeConnectedTo() throws Exception {
+        RegionalVisionServiceClient client = client(new ConnectException("Connection refused"), accepted());
+
+        HandwritingRecognitionOperation operation = client.createHandwritingRecognitionOperationAsync("http://example.com/page.jpg");
+
+        assertEquals(2, hosts.size());
+        assertNotEquals(hosts.get(0), hosts.get(1));
+        assertEquals(hosts.get(1), new URI(operation.Url()).getHost());
+    }
+
+    @Test
+    public void createIsNotFailedOverAfterServerError() {
+        RegionalVisionServiceClient client = client(status(500), accepted());
+
+        try {
+            client.createHandwritingRecognitionOperationAsync("http://example.com/page.jpg");
+            fail("create was failed over");
+        } catch (VisionServiceException e) {
+            assertEquals(500, e.getStatusCode());
+        }
+        assertEquals(1, hosts.size());
+    }
+
+    @Test
+    public void createIsNotFailedOverAfterReadTimeout() {
+        RegionalVisionServiceClient client = client(new SocketTimeoutException("Read timed out"), accepted());
+
+        try {
+            client.createHandwritingRecognitionOperationAsync("http://example.com/page.jpg");
+            fail("create was failed over");
+        } catch (VisionServiceException e) {
+            assertEquals(0, e.getStatusCode());
+        }
+        assertEquals(1, hosts.size());
+    }
+
+    @Test
+    public void createFromStreamIsNotFailedOverAfterServerError() throws Exception {
+        RegionalVisionServiceClient client = client(status(502), accepted());
+
+        try {
+            client.createHandwritingRecognitionOperationAsync(new ByteArrayInputStream(new byte[1024]));
+            fail("create was failed over");
+        } catch (VisionServiceException e) {
+            assertEquals(502, e.getStatusCode());
+        }
+        assertEquals(1, hosts.size());
+    }
+
+    @Test
+    public void operationIsPolledInTheRegionThatCreatedIt() throws Exception {
+        RegionalVisionServiceClient client = client(ok());
+
+        client.getHandwritingRecognitionOperationResultAsync("http://west.stub/vision/v1.0/textOperations/0f3e2c4a-1b2c-4d5e-8f90-a1b2c3d4e5f6");
+
+        assertEquals(Arrays.asList("west.stub"), hosts);
+    }
+
+    /**
+     * Creates a client over two regions whose requests get the given outcomes in turn: a response
+     * builder, or an I/O failure to throw.
+     */
+    private RegionalVisionServiceClient client(final Object... outcomes) {
+        StubHttpTransport transport = new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) throws IOException {
+                String host = URI.create(request.getUrl()).getHost();
+                int index;
+                synchronized (hosts) {
+                    index = hosts.size();
+                    hosts.add(host);
+                }
+
+                Object outcome = outcomes[Math.min(index, outcomes.length - 1)];
+                if (outcome instanceof IOException) {
+                    throw (IOException) outcome;
+                }
+                return ((Reply) outcome).to(host);
+            }
+        });
+
+        RegionalVisionServiceClient client = new RegionalVisionServiceClient(Arrays.asList(
+                new RegionEndpoint("http://east.stub/vision/v1.0", "key"),
+                new RegionEndpoint("http://west.stub/vision/v1.0", "key")), transport);
+        for (VisionServiceRestClient regional : client.getRegionalClients()) {
+            regional.setRetryPolicy(RetryPolicy.none());
+        }
+        return client;
+    }
+
+    private interface Reply {
+        TransportResponse to(String host);
+    }
+
+    private static Reply ok() {
+        return status(200);
+    }
+
+    private static Reply status(final int statusCode) {
+        return new Reply() {
+            @Override
+            public TransportResponse to(String host) {
+                Map<String, String> headers = new HashMap<>();
+                headers.put("Content-Type", "application/json");
+                return new TransportResponse(statusCode, headers, new ByteArrayInputStream("{}".getBytes()));
+            }
+        };
+    }
+
+    private static Reply accepted() {
+        return new Reply() {
+            @Override
+            public TransportResponse to(String host) {
+                Map<String, String> headers = new HashMap<>();
+                headers.put("Operation-Location", "http://" + host + "/vision/v1.0/textOperations/0f3e2c4a-1b2c-4d5e-8f90-a1b2c3d4e5f6");
+                return new TransportResponse(202, headers, new ByteArrayInputStream(new byte[0]));
+            }
+        };
+    }
+}
@@ -0,0 +1,120 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision;
+
+import com.microsoft.projectoxford.vision.rest.StubHttpTransport;
+import com.microsoft.projectoxford.vision.rest.TransportRequest;
+import com.microsoft.projectoxford.vision.rest.TransportResponse;
+import com.microsoft.projectoxford.vision.rest.WebServiceRequest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the URLs the client builds from its cached request descriptors.
+ */
+public class RequestUrlTest {
+    private static final String API_ROOT = "http://stub/vision/v1.0";
+
+    private final List<String> urls = Collections.synchronizedList(new ArrayList<String>());
+    private VisionServiceRestClient client;
+
+    @Before
+    public void setUp() {
+        StubHttpTransport transport = new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) {
+                urls.add(request.getMethod() + " " + request.getUrl());
+                Map<String, String> headers = new HashMap<>();
+                headers.put("Content-Type", "application/json");
+                return new TransportResponse(200, headers, new ByteArrayInputStream("{}".getBytes()));
+            }
+        });
+        client = new VisionServiceRestClient(new WebServiceRequest("key", transport), API_ROOT + "/");
+    }
+
+    @Test
+    public void buildsTheUrlOfEachOperation() throws Exception {
+        client.analyzeImage("http://example.com/a.jpg", new String[]{"Tags", "Description"}, new String[]{"Celebrities"});
+        client.analyzeImageInDomain("http://example.com/a.jpg", "landmarks");
+        client.describe("http://example.com/a.jpg", 2);
+        client.recognizeText("http://example.com/a.jpg", "unk", true);
+        client.listModels();
+
+        assertEquals("POST " + API_ROOT + "/analyze?visualFeatures=Tags%2CDescription&details=Celebrities", urls.get(0));
+        assertEquals("POST " + API_ROOT + "/models/landmarks/analyze", urls.get(1));
+        assertEquals("POST " + API_ROOT + "/describe?maxCandidates=2", urls.get(2));
+        assertEquals("POST " + API_ROOT + "/ocr?language=unk&detectOrientation=true", urls.get(3));
+        assertEquals("GET " + API_ROOT + "/models", urls.get(4));
+    }
+
+    @Test
+    public void omitsParametersThatAreNotGiven() throws Exception {
+        client.analyzeImage("http://example.com/a.jpg", new String[0], null);
+
+        assertEquals("POST " + API_ROOT + "/analyze", urls.get(0));
+    }
+
+    @Test
+    public void cachedUrlIsNotAffectedByChangesToTheCallersArray() throws Exception {
+        String[] features = {"Tags"};
+        client.analyzeImage("http://example.com/a.jpg", features, null);
+        features[0] = "Color";
+        client.analyzeImage("http://example.com/a.jpg", features, null);
+        client.analyzeImage("http://example.com/a.jpg", new String[]{"Tags"}, null);
+
+        assertEquals("POST " + API_ROOT + "/analyze?visualFeatures=Tags", urls.get(0));
+        assertEquals("POST " + API_ROOT + "/analyze?visualFeatures=Color", urls.get(1));
+        assertEquals("POST " + API_ROOT + "/analyze?visualFeatures=Tags", urls.get(2));
+    }
+
+    @Test
+    public void manyParameterSetsStillGetTheirOwnUrl() throws Exception {
+        for (int i = 1; i <= 600; i++) {
+            client.describe("http://example.com/a.jpg", i);
+        }
+        client.describe("http://example.com/a.jpg", 1);
+
+        assertEquals("POST " + API_ROOT + "/describe?maxCandidates=600", urls.get(599));
+        assertEquals("POST " + API_ROOT + "/describe?maxCandidates=1", urls.get(600));
+    }
+}
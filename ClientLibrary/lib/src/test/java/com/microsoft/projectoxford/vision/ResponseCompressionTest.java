@@ -0,0 +1,176 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision;
+
+import com.microsoft.projectoxford.vision.contract.AnalysisResult;
+import com.microsoft.projectoxford.vision.contract.OCR;
+import com.microsoft.projectoxford.vision.rest.ApacheHttpTransport;
+import com.microsoft.projectoxford.vision.rest.HttpTransport;
+import com.microsoft.projectoxford.vision.rest.NioHttpTransport;
+import com.microsoft.projectoxford.vision.rest.OkHttpTransport;
+import com.microsoft.projectoxford.vision.rest.TransferStatistics;
+import com.microsoft.projectoxford.vision.rest.TransportResponse;
+import com.microsoft.projectoxford.vision.rest.UrlConnectionTransport;
+import com.microsoft.projectoxford.vision.rest.WebServiceRequest;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Negotiates compressed responses with a local server through every transport and checks what the
+ * caller gets and what the statistics count.
+ */
+@RunWith(Parameterized.class)
+public class ResponseCompressionTest {
+    private static final int THUMBNAIL_SIZE = 4000;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> transports() {
+        return Arrays.asList(new Object[][]{{"apache"}, {"urlconnection"}, {"nio"}, {"okhttp"}});
+    }
+
+    private final String transportName;
+    private StubVisionServer server;
+    private HttpTransport transport;
+    private WebServiceRequest restCall;
+    private VisionServiceRestClient client;
+
+    public ResponseCompressionTest(String transportName) {
+        this.transportName = transportName;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubVisionServer();
+        if (transportName.equals("apache")) {
+            transport = new ApacheHttpTransport();
+        } else if (transportName.equals("urlconnection")) {
+            transport = new UrlConnectionTransport();
+        } else if (transportName.equals("nio")) {
+            transport = new NioHttpTransport();
+        } else {
+            transport = new OkHttpTransport();
+        }
+        restCall = new WebServiceRequest("key", transport);
+        client = new VisionServiceRestClient(restCall, server.getApiRoot());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        transport.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void decodesGzip() throws Exception {
+        server.setEncoding(StubVisionServer.Encoding.GZIP);
+
+        byte[] thumbnail = client.getThumbnail(THUMBNAIL_SIZE, 10, true, "http://img");
+
+        assertArrayEquals(new byte[THUMBNAIL_SIZE], thumbnail);
+        assertEquals("gzip, deflate", server.getLastAcceptEncoding());
+        assertCounted(1, server.getLastBodyLength(), THUMBNAIL_SIZE);
+    }
+
+    @Test
+    public void decodesZlibWrappedDeflate() throws Exception {
+        server.setEncoding(StubVisionServer.Encoding.DEFLATE);
+
+        OCR ocr = client.recognizeText(new ByteArrayInputStream(new byte[100]), "de", false);
+
+        assertEquals("de", ocr.language);
+        assertEquals(1, restCall.getStatistics().getCompressedResponseCount());
+    }
+
+    @Test
+    public void decodesRawDeflate() throws Exception {
+        server.setEncoding(StubVisionServer.Encoding.RAW_DEFLATE);
+
+        byte[] thumbnail = client.getThumbnail(THUMBNAIL_SIZE, 10, true, "http://img");
+
+        assertArrayEquals(new byte[THUMBNAIL_SIZE], thumbnail);
+        assertCounted(1, server.getLastBodyLength(), THUMBNAIL_SIZE);
+    }
+
+    @Test
+    public void readsEmptyCompressedBodyAsEmpty() throws Exception {
+        server.setEncoding(StubVisionServer.Encoding.GZIP);
+        server.setEmptyBodies(true);
+
+        assertEquals(0, client.getThumbnail(THUMBNAIL_SIZE, 10, true, "http://img").length);
+        AnalysisResult analysis = client.analyzeImage("http://img", new String[]{"Tags"}, null);
+
+        assertNull(analysis);
+        assertCounted(2, 0, 0);
+    }
+
+    @Test
+    public void dropsWireHeadersOfDecodedResponses() throws Exception {
+        server.setEncoding(StubVisionServer.Encoding.GZIP);
+
+        TransportResponse response = restCall.requestResponse(server.getApiRoot() + "/models", "GET", null, null, true, null);
+        try {
+            assertNull(response.getHeader("Content-Encoding"));
+            assertNull(response.getHeader("Content-Length"));
+            assertEquals("{\"tags\":[],\"categories\":[]}", IOUtils.toString(response.getBody(), "UTF-8"));
+        } finally {
+            response.close();
+        }
+    }
+
+    @Test
+    public void countsIdentityResponsesOnBothSides() throws Exception {
+        client.getThumbnail(THUMBNAIL_SIZE, 10, true, "http://img");
+
+        assertCounted(0, THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+    }
+
+    private void assertCounted(long compressedResponses, long wireBytes, long decodedBytes) {
+        TransferStatistics statistics = restCall.getStatistics();
+        assertEquals(compressedResponses, statistics.getCompressedResponseCount());
+        assertEquals(wireBytes, statistics.getWireBytesReceived());
+        assertEquals(decodedBytes, statistics.getDecodedBytesReceived());
+    }
+}
@@ -0,0 +1,306 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Minimal HTTP/1.1 server on the loopback interface that answers like the Computer Vision API, for
+ * tests that need real sockets. Connections are kept alive and each is served on its own thread.
+ * <p>
+ * OCR responses echo the {@code language} query parameter; thumbnails are {@code width} bytes long,
+ * so that a test can tell whether it received the response to its own request. Responses can be
+ * compressed to test content decoding.
+ */
+class StubVisionServer {
+    /**
+     * How response bodies are encoded on the wire.
+     */
+    enum Encoding {
+        IDENTITY, GZIP, DEFLATE, RAW_DEFLATE
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ServerSocket serverSocket;
+    private final CopyOnWriteArrayList<Socket> connections = new CopyOnWriteArrayList<>();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private volatile boolean closed;
+    private volatile Encoding encoding = Encoding.IDENTITY;
+    private volatile boolean emptyBodies;
+    private volatile String lastAcceptEncoding;
+    private volatile int lastBodyLength;
+
+    StubVisionServer() throws IOException {
+        serverSocket = new ServerSocket(0, 128, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "stub-vision-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String getApiRoot() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/vision/v1.0";
+    }
+
+    int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Encodes the bodies of later responses; {@link Encoding#RAW_DEFLATE} is sent as {@code deflate}
+     * without the zlib wrapper, as some servers do.
+     */
+    void setEncoding(Encoding encoding) {
+        this.encoding = encoding;
+    }
+
+    /**
+     * Makes later responses carry no body at all, while still declaring the configured encoding.
+     */
+    void setEmptyBodies(boolean emptyBodies) {
+        this.emptyBodies = emptyBodies;
+    }
+
+    /**
+     * @return the {@code Accept-Encoding} header of the last request, or null if it had none
+     */
+    String getLastAcceptEncoding() {
+        return lastAcceptEncoding;
+    }
+
+    /**
+     * @return the number of body bytes sent on the wire for the last response
+     */
+    int getLastBodyLength() {
+        return lastBodyLength;
+    }
+
+    void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket connection : connections) {
+            connection.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            final Socket connection;
+            try {
+                connection = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            connections.add(connection);
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(connection);
+                    } catch (IOException e) {
+                        // The client closed the connection.
+                    } finally {
+                        connections.remove(connection);
+                        try {
+                            connection.close();
+                        } catch (IOException e) {
+                            // Already closed.
+                        }
+                    }
+                }
+            }, "stub-vision-connection");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    private void serve(Socket connection) throws IOException {
+        InputStream in = new BufferedInputStream(connection.getInputStream());
+        OutputStream out = connection.getOutputStream();
+        while (true) {
+            String requestLine = readLine(in);
+            if (requestLine == null || requestLine.isEmpty()) {
+                return;
+            }
+
+            Map<String, String> headers = new HashMap<>();
+            String line;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+            }
+            readBody(in, headers);
+            lastAcceptEncoding = headers.get("accept-encoding");
+            requestCount.incrementAndGet();
+
+            String target = requestLine.split(" ")[1];
+            String path = target.contains("?") ? target.substring(0, target.indexOf('?')) : target;
+            Map<String, String> query = parseQuery(target);
+
+            byte[] body;
+            String contentType;
+            if (path.endsWith("/generateThumbnail")) {
+                body = new byte[Integer.parseInt(query.get("width"))];
+                contentType = "image/png";
+            } else if (path.endsWith("/ocr")) {
+                body = ("{\"language\":\"" + query.get("language") + "\",\"regions\":[]}").getBytes(UTF_8);
+                contentType = "application/json; charset=utf-8";
+            } else {
+                body = "{\"tags\":[],\"categories\":[]}".getBytes(UTF_8);
+                contentType = "application/json; charset=utf-8";
+            }
+
+            Encoding encoding = this.encoding;
+            body = emptyBodies ? new byte[0] : encode(body, encoding);
+            lastBodyLength = body.length;
+
+            String head = "HTTP/1.1 200 OK\r\n"
+                    + "Content-Type: " + contentType + "\r\n"
+                    + (encoding == Encoding.GZIP ? "Content-Encoding: gzip\r\n" : "")
+                    + (encoding == Encoding.DEFLATE || encoding == Encoding.RAW_DEFLATE ? "Content-Encoding: deflate\r\n" : "")
+                    + "Content-Length: " + body.length + "\r\n\r\n";
+            out.write(head.getBytes(UTF_8));
+            out.write(body);
+            out.flush();
+        }
+    }
+
+    private static byte[] encode(byte[] body, Encoding encoding) throws IOException {
+        if (encoding == Encoding.IDENTITY) {
+            return body;
+        }
+
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        Deflater deflater = null;
+        OutputStream out;
+        if (encoding == Encoding.GZIP) {
+            out = new GZIPOutputStream(encoded);
+        } else {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, encoding == Encoding.RAW_DEFLATE);
+            out = new DeflaterOutputStream(encoded, deflater);
+        }
+        try {
+            out.write(body);
+            out.close();
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        return encoded.toByteArray();
+    }
+
+    private static void readBody(InputStream in, Map<String, String> headers) throws IOException {
+        if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+            while (true) {
+                String size = readLine(in);
+                if (size == null) {
+                    throw new SocketException("Connection closed in a chunk");
+                }
+                int length = Integer.parseInt(size.trim(), 16);
+                skip(in, length);
+                readLine(in);
+                if (length == 0) {
+                    return;
+                }
+            }
+        }
+
+        String contentLength = headers.get("content-length");
+        if (contentLength != null) {
+            skip(in, Long.parseLong(contentLength));
+        }
+    }
+
+    private static void skip(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new SocketException("Connection closed in a request body");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                String text = new String(line.toByteArray(), UTF_8);
+                return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+            }
+            line.write(b);
+        }
+        return line.size() > 0 ? new String(line.toByteArray(), UTF_8) : null;
+    }
+
+    private static Map<String, String> parseQuery(String target) {
+        Map<String, String> query = new HashMap<>();
+        int start = target.indexOf('?');
+        if (start < 0) {
+            return query;
+        }
+        for (String pair : target.substring(start + 1).split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                query.put(pair.substring(0, equals), pair.substring(equals + 1));
+            }
+        }
+        return query;
+    }
+}
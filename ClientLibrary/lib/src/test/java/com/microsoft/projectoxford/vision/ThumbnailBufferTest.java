@@ -0,0 +1,185 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision;
+
+import com.microsoft.projectoxford.vision.contract.ThumbnailResult;
+import com.microsoft.projectoxford.vision.rest.StubHttpTransport;
+import com.microsoft.projectoxford.vision.rest.TransportRequest;
+import com.microsoft.projectoxford.vision.rest.TransportResponse;
+import com.microsoft.projectoxford.vision.rest.WebServiceRequest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ThumbnailBufferTest {
+    private static final String IMAGE_URL = "http://example.com/page.jpg";
+
+    @Test
+    public void thumbnailThatFillsTheBufferExactlyFits() throws Exception {
+        byte[] thumbnail = bytes(100);
+        ByteBuffer sink = ByteBuffer.allocate(100);
+
+        ThumbnailResult result = client(thumbnail, false, true).getThumbnail(64, 64, true, IMAGE_URL, sink);
+
+        assertEquals(100, result.getByteCount());
+        assertEquals("image/jpeg", result.getContentType());
+        assertEquals(100, sink.position());
+        assertArrayEquals(thumbnail, sink.array());
+    }
+
+    @Test
+    public void thumbnailsAreAppendedAtThePosition() throws Exception {
+        byte[] backing = new byte[260];
+        // A slice has an array offset, which the copy has to honour.
+        ByteBuffer sink = ByteBuffer.wrap(backing, 10, 250).slice();
+        VisionServiceRestClient client = client(bytes(100), false, true);
+
+        client.getThumbnail(64, 64, true, IMAGE_URL, sink);
+        client.getThumbnail(64, 64, true, IMAGE_URL, sink);
+
+        assertEquals(200, sink.position());
+        assertEquals(0, backing[9]);
+        assertEquals(1, backing[10]);
+        assertEquals(1, backing[110]);
+        assertEquals(100, backing[209]);
+        assertEquals(0, backing[210]);
+    }
+
+    @Test
+    public void directBufferReceivesTheThumbnail() throws Exception {
+        byte[] thumbnail = bytes(100);
+        ByteBuffer sink = ByteBuffer.allocateDirect(150);
+
+        client(thumbnail, false, false).getThumbnail(64, 64, true, IMAGE_URL, sink);
+
+        assertEquals(100, sink.position());
+        byte[] copied = new byte[100];
+        sink.flip();
+        sink.get(copied);
+        assertArrayEquals(thumbnail, copied);
+    }
+
+    @Test
+    public void declaredLengthLargerThanTheBufferOverflowsUpFront() throws Exception {
+        expectOverflow(client(bytes(200), false, true), ByteBuffer.allocate(150));
+    }
+
+    @Test
+    public void undeclaredLengthLargerThanTheBufferOverflows() throws Exception {
+        expectOverflow(client(bytes(200), false, false), ByteBuffer.allocate(150));
+    }
+
+    @Test
+    public void undeclaredLengthLargerThanADirectBufferOverflows() throws Exception {
+        expectOverflow(client(bytes(200), false, false), ByteBuffer.allocateDirect(150));
+    }
+
+    @Test
+    public void compressedThumbnailLargerThanTheBufferOnceDecodedOverflows() throws Exception {
+        // 4000 bytes compress to a few dozen, so only the decoded size tells that it does not fit.
+        expectOverflow(client(new byte[4000], true, true), ByteBuffer.allocate(1000));
+    }
+
+    @Test
+    public void compressedThumbnailThatFitsOnceDecodedIsRead() throws Exception {
+        ByteBuffer sink = ByteBuffer.allocate(4000);
+
+        ThumbnailResult result = client(new byte[4000], true, true).getThumbnail(64, 64, true, IMAGE_URL, sink);
+
+        assertEquals(4000, result.getByteCount());
+        assertEquals(4000, sink.position());
+    }
+
+    private static void expectOverflow(VisionServiceRestClient client, ByteBuffer sink) throws Exception {
+        sink.position(7);
+        try {
+            client.getThumbnail(64, 64, true, IMAGE_URL, sink);
+            fail("thumbnail did not fit but no overflow was reported");
+        } catch (BufferOverflowException e) {
+            assertEquals(7, sink.position());
+        }
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i % 100 + 1);
+        }
+        return bytes;
+    }
+
+    /**
+     * @param gzip          whether to send the thumbnail gzip-encoded
+     * @param declareLength whether to send a Content-Length header
+     */
+    private static VisionServiceRestClient client(byte[] thumbnail, final boolean gzip, final boolean declareLength) throws IOException {
+        final byte[] body;
+        if (gzip) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            GZIPOutputStream out = new GZIPOutputStream(compressed);
+            out.write(thumbnail);
+            out.close();
+            body = compressed.toByteArray();
+        } else {
+            body = thumbnail;
+        }
+
+        StubHttpTransport transport = new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) {
+                Map<String, String> headers = new HashMap<>();
+                headers.put("Content-Type", "image/jpeg");
+                if (gzip) {
+                    headers.put("Content-Encoding", "gzip");
+                }
+                if (declareLength) {
+                    headers.put("Content-Length", String.valueOf(body.length));
+                }
+                return new TransportResponse(200, headers, new ByteArrayInputStream(body));
+            }
+        });
+        return new VisionServiceRestClient(new WebServiceRequest("key", transport), "http://stub/vision/v1.0");
+    }
+}
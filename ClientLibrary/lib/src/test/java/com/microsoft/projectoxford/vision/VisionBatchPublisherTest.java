@@ -0,0 +1,336 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision;
+
+import com.microsoft.projectoxford.vision.rest.CancellationToken;
+
+import org.junit.After;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VisionBatchPublisherTest {
+    private final List<VisionFuture<String>> started = Collections.synchronizedList(new ArrayList<VisionFuture<String>>());
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private ExecutorService executor;
+    private ExecutorService upstreamExecutor;
+
+    @After
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (upstreamExecutor != null) {
+            upstreamExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void requestOfZeroFailsTheStream() {
+        Recorder recorder = subscribe(new VisionBatchPublisher<>(sources(10), immediate(), 4));
+
+        recorder.subscription.request(0);
+
+        assertTrue(recorder.error instanceof IllegalArgumentException);
+        assertFalse(recorder.completed);
+        assertEquals(0, recorder.results.size());
+    }
+
+    @Test
+    public void negativeRequestFailsTheStreamAndCancelsCallsInFlight() {
+        Recorder recorder = subscribe(new VisionBatchPublisher<>(sources(10), pending(), 4));
+        recorder.subscription.request(2);
+        assertEquals(2, started.size());
+
+        recorder.subscription.request(-1);
+
+        assertTrue(recorder.error instanceof IllegalArgumentException);
+        assertTrue(started.get(0).isCancelled());
+        assertTrue(started.get(1).isCancelled());
+
+        // Nothing is signalled after the error, whatever happens next.
+        recorder.subscription.request(5);
+        assertEquals(2, started.size());
+        assertEquals(0, recorder.results.size());
+        assertEquals(1, recorder.terminalSignals.get());
+    }
+
+    @Test
+    public void callsStartOnlyForRequestedResults() {
+        Recorder recorder = subscribe(new VisionBatchPublisher<>(sources(100), immediate(), 8));
+        assertEquals(0, started.size());
+
+        recorder.subscription.request(3);
+        assertEquals(3, started.size());
+        assertEquals(3, recorder.results.size());
+
+        recorder.subscription.request(2);
+        assertEquals(5, started.size());
+        assertEquals(5, recorder.results.size());
+        assertFalse(recorder.completed);
+    }
+
+    @Test
+    public void callsInFlightAreBoundedByMaxConcurrency() {
+        Recorder recorder = subscribe(new VisionBatchPublisher<>(sources(10), pending(), 3));
+
+        recorder.subscription.request(Long.MAX_VALUE);
+        assertEquals(3, started.size());
+
+        started.get(1).complete("done");
+        assertEquals(4, started.size());
+        assertEquals(1, recorder.results.size());
+
+        for (int i = 0; i < 10; i++) {
+            started.get(i).complete("done");
+        }
+        assertEquals(10, started.size());
+        assertEquals(10, recorder.results.size());
+        assertTrue(recorder.completed);
+    }
+
+    @Test
+    public void completedResultsWaitForDemandWithoutStartingMoreCalls() {
+        Recorder recorder = subscribe(new VisionBatchPublisher<>(sources(10), pending(), 5));
+        recorder.subscription.request(2);
+        started.get(0).complete("a");
+        started.get(1).complete("b");
+        assertEquals(2, recorder.results.size());
+        assertEquals(2, started.size());
+
+        recorder.subscription.request(1);
+        assertEquals(3, started.size());
+    }
+
+    @Test
+    public void sourcesArePulledFromTheUpstreamPublisherOnlyOnDemand() {
+        CountingPublisher upstream = new CountingPublisher(100);
+        Recorder recorder = subscribe(new VisionBatchPublisher<>(upstream, immediate(), 4));
+        assertEquals(0, upstream.requested.get());
+
+        recorder.subscription.request(7);
+
+        assertEquals(7, upstream.requested.get());
+        assertEquals(7, recorder.results.size());
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void concurrencyStaysBoundedWhenCallsCompleteOnOtherThreads() throws Exception {
+        executor = Executors.newFixedThreadPool(8);
+        upstreamExecutor = Executors.newSingleThreadExecutor();
+        final int sources = 2000;
+        final int maxConcurrency = 4;
+        // Sources arrive on their own thread while completions drain on others.
+        CountingPublisher upstream = new CountingPublisher(sources, upstreamExecutor);
+        final CountDownLatch done = new CountDownLatch(1);
+        Recorder recorder = new Recorder() {
+            @Override
+            public void onComplete() {
+                super.onComplete();
+                done.countDown();
+            }
+        };
+        new VisionBatchPublisher<>(upstream, new VisionBatchPublisher.Operation<Integer, String>() {
+            @Override
+            public VisionFuture<String> start(Integer source) {
+                final VisionFuture<String> future = track();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        inFlight.decrementAndGet();
+                        future.complete("done");
+                    }
+                });
+                return future;
+            }
+        }, maxConcurrency).subscribe(recorder);
+
+        recorder.subscription.request(Long.MAX_VALUE);
+
+        assertTrue(done.await(20, TimeUnit.SECONDS));
+        assertNull(recorder.error);
+        assertEquals(sources, recorder.results.size());
+        assertTrue("up to " + maxInFlight.get() + " calls in flight", maxInFlight.get() <= maxConcurrency);
+    }
+
+    private Recorder subscribe(VisionBatchPublisher<Integer, String> publisher) {
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        return recorder;
+    }
+
+    private static List<Integer> sources(int count) {
+        List<Integer> sources = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            sources.add(i);
+        }
+        return sources;
+    }
+
+    private VisionBatchPublisher.Operation<Integer, String> immediate() {
+        return new VisionBatchPublisher.Operation<Integer, String>() {
+            @Override
+            public VisionFuture<String> start(Integer source) {
+                VisionFuture<String> future = track();
+                inFlight.decrementAndGet();
+                future.complete("result " + source);
+                return future;
+            }
+        };
+    }
+
+    /**
+     * Starts calls that finish only when the test completes their futures.
+     */
+    private VisionBatchPublisher.Operation<Integer, String> pending() {
+        return new VisionBatchPublisher.Operation<Integer, String>() {
+            @Override
+            public VisionFuture<String> start(Integer source) {
+                return track();
+            }
+        };
+    }
+
+    private VisionFuture<String> track() {
+        int now = inFlight.incrementAndGet();
+        int max;
+        while (now > (max = maxInFlight.get()) && !maxInFlight.compareAndSet(max, now)) {
+            // Retry.
+        }
+        VisionFuture<String> future = new VisionFuture<>(new CancellationToken());
+        started.add(future);
+        return future;
+    }
+
+    /**
+     * Publishes the numbers up to a count as they are requested, and counts the requests. Numbers
+     * are signalled on the given executor, or on the requesting thread if there is none.
+     */
+    private static class CountingPublisher implements Publisher<Integer> {
+        final AtomicLong requested = new AtomicLong();
+        private final int count;
+        private final Executor executor;
+
+        CountingPublisher(int count) {
+            this(count, null);
+        }
+
+        CountingPublisher(int count, Executor executor) {
+            this.count = count;
+            this.executor = executor;
+        }
+
+        @Override
+        public void subscribe(final Subscriber<? super Integer> subscriber) {
+            subscriber.onSubscribe(new Subscription() {
+                private final AtomicInteger next = new AtomicInteger();
+
+                @Override
+                public void request(final long n) {
+                    requested.addAndGet(n);
+                    Runnable signal = new Runnable() {
+                        @Override
+                        public void run() {
+                            for (long i = 0; i < n; i++) {
+                                int value = next.getAndIncrement();
+                                if (value < count) {
+                                    subscriber.onNext(value);
+                                } else if (value == count) {
+                                    subscriber.onComplete();
+                                }
+                            }
+                        }
+                    };
+                    if (executor == null) {
+                        signal.run();
+                    } else {
+                        executor.execute(signal);
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+        }
+    }
+
+    private static class Recorder implements Subscriber<BatchResult<Integer, String>> {
+        final ConcurrentLinkedQueue<BatchResult<Integer, String>> results = new ConcurrentLinkedQueue<>();
+        volatile Subscription subscription;
+        volatile Throwable error;
+        volatile boolean completed;
+        final AtomicInteger terminalSignals = new AtomicInteger();
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+        }
+
+        @Override
+        public void onNext(BatchResult<Integer, String> result) {
+            results.add(result);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            terminalSignals.incrementAndGet();
+            error = t;
+        }
+
+        @Override
+        public void onComplete() {
+            terminalSignals.incrementAndGet();
+            completed = true;
+        }
+    }
+}
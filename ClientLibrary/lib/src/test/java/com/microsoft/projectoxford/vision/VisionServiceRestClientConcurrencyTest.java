@@ -0,0 +1,150 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision;
+
+import com.microsoft.projectoxford.vision.contract.OCR;
+import com.microsoft.projectoxford.vision.rest.Deadline;
+import com.microsoft.projectoxford.vision.rest.RetryPolicy;
+import com.microsoft.projectoxford.vision.rest.UrlConnectionTransport;
+import com.microsoft.projectoxford.vision.rest.WebServiceRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Shares one client among many threads while another thread keeps changing its retry policy and
+ * call timeout, which is how the client is meant to be used by an application.
+ */
+public class VisionServiceRestClientConcurrencyTest {
+    private static final int THREADS = 64;
+    private static final int CALLS_PER_THREAD = 150;
+
+    private StubVisionServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubVisionServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test(timeout = 5 * 60 * 1000)
+    public void sharedClientServesConcurrentCallsWhileReconfigured() throws Exception {
+        final VisionServiceRestClient client = new VisionServiceRestClient(
+                new WebServiceRequest("key", new UrlConnectionTransport()), server.getApiRoot());
+        final Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicInteger reconfigurations = new AtomicInteger();
+
+        Thread reconfigurer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!stop.get()) {
+                    int i = reconfigurations.incrementAndGet();
+                    client.setRetryPolicy(i % 2 == 0 ? new RetryPolicy(2, 10, 100, 0.2) : null);
+                    client.setCallTimeoutMillis(i % 3 == 0 ? 0 : 10000);
+                }
+            }
+        });
+        reconfigurer.start();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < CALLS_PER_THREAD; i++) {
+                            call(client, thread, i);
+                            succeeded.incrementAndGet();
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue("calls did not finish", executor.awaitTermination(4, TimeUnit.MINUTES));
+        stop.set(true);
+        reconfigurer.join();
+
+        if (!failures.isEmpty()) {
+            throw new AssertionError(failures.size() + " threads failed; first: " + failures.peek());
+        }
+        assertEquals(THREADS * CALLS_PER_THREAD, succeeded.get());
+        assertEquals(THREADS * CALLS_PER_THREAD, server.getRequestCount());
+        assertTrue("the client was not reconfigured during the calls", reconfigurations.get() > 1);
+    }
+
+    private static void call(VisionServiceRestClient client, int thread, int i) throws Exception {
+        switch (i % 4) {
+            case 0:
+                String language = i % 8 == 0 ? "en" : "unk";
+                OCR ocr = client.recognizeText(new ByteArrayInputStream(new byte[100 + thread]), language, true);
+                assertEquals(language, ocr.language);
+                break;
+            case 1:
+                client.analyzeImage("http://img/" + i, new String[]{"Tags", "F" + (thread * 1000 + i)}, null);
+                break;
+            case 2:
+                assertEquals(thread + 1, client.getThumbnail(thread + 1, i + 1, true, "http://img").length);
+                break;
+            default:
+                client.withDeadline(Deadline.after(5, TimeUnit.SECONDS)).describe("http://img", i % 5);
+                break;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Calls sent with {@link WebServiceRequest#requestResponseAsync} through {@link NioHttpTransport}.
+ */
+public class AsyncRequestTest {
+    private static final Map<String, Object> BODY = Collections.<String, Object>singletonMap("url", "http://img");
+
+    private MockWebServer server;
+    private NioHttpTransport transport;
+    private WebServiceRequest request;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        transport = new NioHttpTransport(1, 8);
+        request = new WebServiceRequest("key", transport);
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        transport.shutdown();
+        server.shutdown();
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void responseIsReceivedInFullBeforeTheCallback() throws Exception {
+        byte[] body = new byte[300 * 1024];
+        body[body.length - 1] = 7;
+        server.enqueue(new MockResponse().setBody(new Buffer().write(body)));
+
+        assertTrue(request.canSendAsync());
+        Outcome outcome = send("GET", false, null, null);
+
+        assertNull(outcome.failure);
+        assertEquals(200, outcome.response.getStatusCode());
+        // Everything is buffered, so the whole body can be taken without waiting for the network.
+        assertEquals(body.length, outcome.response.getBody().available());
+        byte[] received = IOUtils.toByteArray(outcome.response.getBody());
+        assertEquals(body.length, received.length);
+        assertEquals(7, received[received.length - 1]);
+        outcome.response.close();
+        assertTrue(outcome.thread.startsWith("pool-"));
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void unavailableIsRetriedOnTheTimer() throws Exception {
+        request.setRetryPolicy(new RetryPolicy(2, 10, 10, 1));
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        Outcome outcome = send("POST", true, null, null);
+
+        assertNull(outcome.failure);
+        assertEquals(200, outcome.response.getStatusCode());
+        outcome.response.close();
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void createIsNotRetriedAfterServerError() throws Exception {
+        request.setRetryPolicy(new RetryPolicy(2, 10, 10, 1));
+        server.enqueue(new MockResponse().setResponseCode(500));
+        server.enqueue(new MockResponse().setResponseCode(202));
+
+        Outcome outcome = send("POST", false, null, null);
+
+        assertNotNull(outcome.failure);
+        assertEquals(500, outcome.failure.getStatusCode());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void createIsRetriedWhenTurnedAway() throws Exception {
+        request.setRetryPolicy(new RetryPolicy(2, 10, 10, 1));
+        server.enqueue(new MockResponse().setResponseCode(429));
+        server.enqueue(new MockResponse().setResponseCode(202).setHeader("Operation-Location", "http://op"));
+
+        Outcome outcome = send("POST", false, null, null);
+
+        assertNull(outcome.failure);
+        assertEquals("http://op", outcome.response.getHeader("Operation-Location"));
+        outcome.response.close();
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void rateLimiterWaitIsSpentOnTheTimer() throws Exception {
+        request.setRateLimiter(new RateLimiter(4, 1));
+        server.enqueue(new MockResponse().setBody("{}"));
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        long start = System.nanoTime();
+        Outcome first = new Outcome();
+        Outcome second = new Outcome();
+        request.requestResponseAsync(server.url("/a").toString(), "GET", null, null, true, null, null, executor, first);
+        // Returns at once although the second call has to wait for a permit.
+        request.requestResponseAsync(server.url("/b").toString(), "GET", null, null, true, null, null, executor, second);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 200);
+
+        first.await();
+        second.await();
+        assertNull(second.failure);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(second.completed - start) >= 200);
+        first.response.close();
+        second.response.close();
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void openBreakerFailsWithoutSending() throws Exception {
+        request.setCircuitBreakers(new CircuitBreakerRegistry(2, 2, 0.5f, 1.0f, 60 * 1000, 60 * 1000, 1, null));
+        server.enqueue(new MockResponse().setResponseCode(500));
+        server.enqueue(new MockResponse().setResponseCode(500));
+
+        assertEquals(500, send("GET", true, null, null).failure.getStatusCode());
+        assertEquals(500, send("GET", true, null, null).failure.getStatusCode());
+        Outcome outcome = send("GET", true, null, null);
+
+        assertTrue(outcome.failure.getMessage().contains("Circuit breaker is open"));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void deadlineAbortsTheExchange() throws Exception {
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+
+        Outcome outcome = send("GET", true, Deadline.after(200, TimeUnit.MILLISECONDS), null);
+
+        assertTrue(outcome.failure.getMessage().startsWith("Deadline exceeded"));
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void cancellationAbortsTheExchange() throws Exception {
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+        final CancellationToken cancellation = new CancellationToken();
+        Outcome outcome = new Outcome();
+
+        request.requestResponseAsync(server.url("/").toString(), "GET", null, null, true, null, cancellation, executor, outcome);
+        server.takeRequest();
+        cancellation.cancel();
+        outcome.await();
+
+        assertTrue(outcome.failure.getMessage().contains("was cancelled"));
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void callsWithInterceptorsFallBackToTheExecutor() throws Exception {
+        final CountDownLatch intercepted = new CountDownLatch(1);
+        request.addInterceptor(new Interceptor() {
+            @Override
+            public TransportResponse intercept(Chain chain) throws VisionServiceException, IOException {
+                intercepted.countDown();
+                return chain.proceed(chain.request());
+            }
+        });
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        assertFalse(request.canSendAsync());
+        Outcome outcome = send("GET", true, null, null);
+
+        assertNull(outcome.failure);
+        assertEquals("{}", IOUtils.toString(outcome.response.getBody(), "UTF-8"));
+        outcome.response.close();
+        assertEquals(0, intercepted.getCount());
+    }
+
+    private Outcome send(String method, boolean idempotent, Deadline deadline, CancellationToken cancellation) throws InterruptedException {
+        Outcome outcome = new Outcome();
+        request.requestResponseAsync(server.url("/vision/v1.0/ocr").toString(), method, BODY, null, idempotent, deadline,
+                cancellation, executor, outcome);
+        outcome.await();
+        return outcome;
+    }
+
+    private static class Outcome implements ResponseCallback {
+        private final CountDownLatch done = new CountDownLatch(1);
+        volatile TransportResponse response;
+        volatile VisionServiceException failure;
+        volatile String thread;
+        volatile long completed;
+
+        @Override
+        public void onResponse(TransportResponse response) {
+            this.response = response;
+            finish();
+        }
+
+        @Override
+        public void onFailure(VisionServiceException e) {
+            this.failure = e;
+            finish();
+        }
+
+        private void finish() {
+            thread = Thread.currentThread().getName();
+            completed = System.nanoTime();
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("no outcome", done.await(20, TimeUnit.SECONDS));
+        }
+    }
+}
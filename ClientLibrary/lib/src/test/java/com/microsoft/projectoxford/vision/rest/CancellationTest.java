@@ -0,0 +1,320 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import com.microsoft.projectoxford.vision.HandwritingResultPoller;
+import com.microsoft.projectoxford.vision.VisionFuture;
+import com.microsoft.projectoxford.vision.VisionServiceRestClient;
+import com.microsoft.projectoxford.vision.contract.HandwritingRecognitionOperation;
+import com.microsoft.projectoxford.vision.contract.HandwritingRecognitionOperationResult;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link CancellationToken} on its own, and cancellation of blocking calls, retry waits and handwriting
+ * polling through it.
+ */
+public class CancellationTest {
+    private MockWebServer server;
+    private NioHttpTransport transport;
+    private WebServiceRequest request;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        // Answers by path rather than from a queue: a queued answer goes to whichever request the
+        // server reads first, and the call made after a cancellation can overtake the one cancelled.
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().equals("/hang")) {
+                    return new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE);
+                } else if (request.getPath().equals("/unavailable")) {
+                    return new MockResponse().setResponseCode(503).setHeader("Retry-After", "30");
+                }
+                return new MockResponse().setBody("{}");
+            }
+        });
+        server.start();
+        // A single connection, so that a call still holding it would keep the next one waiting.
+        transport = new NioHttpTransport(1, 1);
+        request = new WebServiceRequest("key", transport);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        transport.shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    public void cancelAbortsRegisteredRequestsAndRunsListenersOnce() {
+        CancellationToken token = new CancellationToken();
+        TransportRequest registered = new TransportRequest("GET", "http://stub/", null);
+        TransportRequest unregistered = new TransportRequest("GET", "http://stub/", null);
+        final AtomicInteger notified = new AtomicInteger();
+        token.register(registered);
+        token.register(unregistered);
+        token.unregister(unregistered);
+        token.addListener(new Runnable() {
+            @Override
+            public void run() {
+                notified.incrementAndGet();
+            }
+        });
+
+        token.cancel();
+        token.cancel();
+
+        assertTrue(token.isCancelled());
+        assertTrue(registered.isAborted());
+        assertFalse(unregistered.isAborted());
+        assertEquals(1, notified.get());
+    }
+
+    @Test
+    public void requestsAndListenersAddedAfterCancelAreHandledRightAway() {
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        TransportRequest late = new TransportRequest("GET", "http://stub/", null);
+        final AtomicInteger notified = new AtomicInteger();
+
+        token.register(late);
+        token.addListener(new Runnable() {
+            @Override
+            public void run() {
+                notified.incrementAndGet();
+            }
+        });
+
+        assertTrue(late.isAborted());
+        assertEquals(1, notified.get());
+    }
+
+    @Test
+    public void childIsCancelledWithItsParentUntilDetached() {
+        CancellationToken parent = new CancellationToken();
+        CancellationToken attached = parent.newChild();
+        CancellationToken detached = parent.newChild();
+        CancellationToken alone = parent.newChild();
+        detached.detach();
+
+        alone.cancel();
+        assertFalse(parent.isCancelled());
+
+        parent.cancel();
+        assertTrue(attached.isCancelled());
+        assertFalse(detached.isCancelled());
+    }
+
+    @Test(timeout = 10 * 1000)
+    public void awaitReturnsAsSoonAsTheTokenIsCancelled() throws Exception {
+        final CancellationToken token = new CancellationToken();
+        cancelLater(token, 100);
+
+        long start = System.nanoTime();
+        assertFalse(token.await(60 * 1000));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        assertTrue(new CancellationToken().await(1));
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void cancellingACallInFlightFreesItsConnection() throws Exception {
+        CancellationToken token = new CancellationToken();
+
+        BackgroundCall call = new BackgroundCall("/hang", token);
+        assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+        token.cancel();
+
+        assertTrue(call.failure().getMessage().contains("was cancelled"));
+        // The only connection was given up, so the next call can go out.
+        TransportResponse response = request.requestResponse(server.url("/").toString(), "GET", null, null, true,
+                Deadline.after(5, TimeUnit.SECONDS), null);
+        assertEquals(200, response.getStatusCode());
+        response.close();
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void cancellingStopsAWaitBeforeARetry() throws Exception {
+        request.setRetryPolicy(new RetryPolicy(3, 30 * 1000, 30 * 1000, 1));
+        CancellationToken token = new CancellationToken();
+
+        long start = System.nanoTime();
+        BackgroundCall call = new BackgroundCall("/unavailable", token);
+        assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+        cancelLater(token, 100);
+
+        assertNotNull(call.failure());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 10 * 1000);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void cancelledCallsDoNotOpenTheBreaker() throws Exception {
+        CircuitBreakerRegistry breakers = new CircuitBreakerRegistry(2, 2, 0.5f, 1.0f, 60 * 1000, 60 * 1000, 1, null);
+        request.setCircuitBreakers(breakers);
+        for (int i = 0; i < 3; i++) {
+            CancellationToken token = new CancellationToken();
+            BackgroundCall call = new BackgroundCall("/hang", token);
+            assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+            token.cancel();
+            assertNotNull(call.failure());
+        }
+
+        assertEquals(CircuitBreaker.State.CLOSED, breakers.getBreaker(server.url("/hang").toString()).getState());
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void cancellingTheClientStopsHandwritingPolling() throws Exception {
+        final ConcurrentHashMap<String, AtomicInteger> polls = new ConcurrentHashMap<>();
+        final CountDownLatch polled = new CountDownLatch(2);
+        CancellationToken token = new CancellationToken();
+        VisionServiceRestClient client = new VisionServiceRestClient(new WebServiceRequest("key", new StubHttpTransport(
+                new StubHttpTransport.Handler() {
+                    @Override
+                    public TransportResponse handle(TransportRequest request) {
+                        polls.putIfAbsent(request.getUrl(), new AtomicInteger());
+                        polls.get(request.getUrl()).incrementAndGet();
+                        polled.countDown();
+                        return running();
+                    }
+                })), "http://stub/vision/v1.0").withCancellation(token);
+        HandwritingResultPoller poller = new HandwritingResultPoller(client, 2);
+        try {
+            VisionFuture<HandwritingRecognitionOperationResult> first = poller.submit(operation(1));
+            VisionFuture<HandwritingRecognitionOperationResult> second = poller.submit(operation(2));
+            assertTrue(polled.await(10, TimeUnit.SECONDS));
+
+            // Cancelling one operation stops only its polling.
+            assertTrue(first.cancel(false));
+            int firstPolls = polls.get(operation(1).Url()).get();
+            int secondPolls = polls.get(operation(2).Url()).get();
+            Thread.sleep(1000);
+            assertEquals(firstPolls, polls.get(operation(1).Url()).get());
+            assertTrue(polls.get(operation(2).Url()).get() > secondPolls);
+
+            // Cancelling the client stops the rest.
+            token.cancel();
+            assertTrue(second.isCancelled());
+            Thread.sleep(300);
+            secondPolls = polls.get(operation(2).Url()).get();
+            Thread.sleep(1000);
+            assertEquals(secondPolls, polls.get(operation(2).Url()).get());
+            assertEquals(0, poller.getPendingCount());
+        } finally {
+            poller.shutdown();
+        }
+    }
+
+    private static void cancelLater(final CancellationToken token, final long millis) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                token.cancel();
+            }
+        }).start();
+    }
+
+    private static HandwritingRecognitionOperation operation(int id) {
+        return new HandwritingRecognitionOperation("http://stub/vision/v1.0/textOperations/" + id, 1000);
+    }
+
+    private static TransportResponse running() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/json; charset=utf-8");
+        headers.put("Retry-After", "0");
+        return new TransportResponse(200, headers,
+                new ByteArrayInputStream("{\"status\":\"Running\"}".getBytes(Charset.forName("UTF-8"))));
+    }
+
+    /**
+     * A GET made on its own thread, so that the test can cancel it while it waits.
+     */
+    private class BackgroundCall {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final AtomicReference<VisionServiceException> failure = new AtomicReference<>();
+
+        BackgroundCall(final String path, final CancellationToken token) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        IOUtils.closeQuietly(request.requestResponse(server.url(path).toString(), "GET", null, null, true, null, token));
+                    } catch (VisionServiceException e) {
+                        failure.set(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        /**
+         * @return the failure of the call once it has ended, or null if it succeeded
+         */
+        VisionServiceException failure() throws InterruptedException {
+            assertTrue("call did not end", done.await(10, TimeUnit.SECONDS));
+            return failure.get();
+        }
+    }
+}
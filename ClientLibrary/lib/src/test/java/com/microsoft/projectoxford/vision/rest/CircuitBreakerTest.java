@@ -0,0 +1,230 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private final List<String> transitions = new ArrayList<>();
+    private final AtomicInteger rejected = new AtomicInteger();
+    private final CircuitBreakerListener listener = new CircuitBreakerListener() {
+        @Override
+        public synchronized void onStateTransition(String endpoint, CircuitBreaker.State from, CircuitBreaker.State to) {
+            transitions.add(from + "->" + to);
+        }
+
+        @Override
+        public void onCallNotPermitted(String endpoint) {
+            rejected.incrementAndGet();
+        }
+    };
+
+    @Test
+    public void staysClosedBelowMinimumCalls() {
+        CircuitBreaker breaker = registry(10, 4, 50).getBreaker("http://stub/vision/v1.0/ocr");
+
+        for (int i = 0; i < 3; i++) {
+            call(breaker, true, FAST);
+        }
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void opensWhenTheFailureRateReachesTheThreshold() {
+        CircuitBreaker breaker = registry(10, 4, 50).getBreaker("http://stub/vision/v1.0/ocr");
+
+        call(breaker, false, FAST);
+        call(breaker, false, FAST);
+        call(breaker, true, FAST);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        call(breaker, true, FAST);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquirePermission());
+        assertEquals(1, rejected.get());
+        assertEquals(Arrays.asList("CLOSED->OPEN"), transitions);
+    }
+
+    @Test
+    public void opensWhenTheSlowCallRateReachesTheThreshold() {
+        CircuitBreaker breaker = new CircuitBreakerRegistry(10, 4, 1.0f, 0.5f, 100, 60 * 1000, 1, listener)
+                .getBreaker("http://stub/vision/v1.0/ocr");
+
+        call(breaker, false, FAST);
+        call(breaker, false, FAST);
+        call(breaker, false, SLOW);
+        call(breaker, false, SLOW);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void onlyRecentCallsCount() {
+        CircuitBreaker breaker = registry(4, 4, 50).getBreaker("http://stub/vision/v1.0/ocr");
+
+        call(breaker, true, FAST);
+        for (int i = 0; i < 4; i++) {
+            call(breaker, false, FAST);
+        }
+        call(breaker, true, FAST);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        // Two of the last four calls failed; over all seven it would be three.
+        call(breaker, true, FAST);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void successfulProbesCloseTheBreaker() throws Exception {
+        CircuitBreaker breaker = registry(4, 2, 50).getBreaker("http://stub/vision/v1.0/ocr");
+        open(breaker);
+
+        Thread.sleep(60);
+        assertTrue(breaker.tryAcquirePermission());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquirePermission());
+        assertFalse("third probe let through", breaker.tryAcquirePermission());
+
+        breaker.onResult(false, FAST);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onResult(false, FAST);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(Arrays.asList("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED"), transitions);
+    }
+
+    @Test
+    public void failedProbeReopensTheBreaker() throws Exception {
+        CircuitBreaker breaker = registry(4, 2, 50).getBreaker("http://stub/vision/v1.0/ocr");
+        open(breaker);
+
+        Thread.sleep(60);
+        assertTrue(breaker.tryAcquirePermission());
+        breaker.onResult(true, FAST);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquirePermission());
+    }
+
+    @Test
+    public void slowProbeReopensTheBreaker() throws Exception {
+        CircuitBreaker breaker = new CircuitBreakerRegistry(4, 2, 0.5f, 1.0f, 100, 50, 2, listener)
+                .getBreaker("http://stub/vision/v1.0/ocr");
+        open(breaker);
+
+        Thread.sleep(60);
+        assertTrue(breaker.tryAcquirePermission());
+        breaker.onResult(false, SLOW);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void releasedPermissionFreesAProbeSlot() throws Exception {
+        CircuitBreaker breaker = registry(4, 2, 50).getBreaker("http://stub/vision/v1.0/ocr");
+        open(breaker);
+
+        Thread.sleep(60);
+        assertTrue(breaker.tryAcquirePermission());
+        assertTrue(breaker.tryAcquirePermission());
+        assertFalse(breaker.tryAcquirePermission());
+
+        breaker.releasePermission();
+
+        assertTrue(breaker.tryAcquirePermission());
+    }
+
+    @Test
+    public void operationUrlsShareOneBreaker() {
+        CircuitBreakerRegistry registry = registry(4, 2, 50);
+
+        CircuitBreaker first = registry.getBreaker("http://stub/vision/v1.0/textOperations/0f3e2c4a-1b2c-4d5e-8f90-a1b2c3d4e5f6");
+        CircuitBreaker second = registry.getBreaker("http://stub/vision/v1.0/textOperations/9a8b7c6d-5e4f-4a3b-2c1d-0e9f8a7b6c5d?x=1");
+
+        assertTrue(first == second);
+        assertEquals("stub/vision/v1.0/textOperations/{id}", first.getEndpoint());
+    }
+
+    @Test
+    public void openBreakerFailsCallsWithoutSendingThem() throws Exception {
+        StubHttpTransport transport = StubHttpTransport.fixed(500, "application/json", "{}".getBytes());
+        WebServiceRequest request = new WebServiceRequest("key", transport);
+        request.setRetryPolicy(RetryPolicy.none());
+        request.setCircuitBreakers(registry(4, 2, 60 * 1000));
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                request.requestResponse("http://stub/models", "GET", null, null, true, null);
+                fail("call succeeded against a failing service");
+            } catch (VisionServiceException e) {
+                if (i < 2) {
+                    assertEquals(500, e.getStatusCode());
+                } else {
+                    assertTrue(e.getMessage().startsWith("Circuit breaker is open"));
+                }
+            }
+        }
+
+        assertEquals(2, transport.getRequestCount());
+    }
+
+    private CircuitBreakerRegistry registry(int windowSize, int minimumCalls, long openDurationMillis) {
+        return new CircuitBreakerRegistry(windowSize, minimumCalls, 0.5f, 1.0f, 10 * 1000, openDurationMillis, 2, listener);
+    }
+
+    private static void open(CircuitBreaker breaker) {
+        while (breaker.getState() != CircuitBreaker.State.OPEN) {
+            call(breaker, true, FAST);
+        }
+    }
+
+    private static void call(CircuitBreaker breaker, boolean failed, long durationNanos) {
+        assertTrue(breaker.tryAcquirePermission());
+        breaker.onResult(failed, durationNanos);
+    }
+}
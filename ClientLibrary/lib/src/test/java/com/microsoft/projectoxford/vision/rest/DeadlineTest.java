@@ -0,0 +1,170 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DeadlineTest {
+    private static final String URL = "http://stub/vision/v1.0/models";
+
+    @Test
+    public void earlierOfPicksTheEarlierDeadline() {
+        Deadline soon = Deadline.after(1, TimeUnit.SECONDS);
+        Deadline later = Deadline.after(1, TimeUnit.MINUTES);
+
+        assertSame(soon, Deadline.earlierOf(soon, later));
+        assertSame(soon, Deadline.earlierOf(later, soon));
+        assertSame(later, Deadline.earlierOf(null, later));
+        assertSame(soon, Deadline.earlierOf(soon, null));
+        assertNull(Deadline.earlierOf(null, null));
+    }
+
+    @Test
+    public void expiredDeadlineFailsTheCallWithoutSendingIt() {
+        StubHttpTransport transport = StubHttpTransport.json("{}");
+        WebServiceRequest request = new WebServiceRequest("key", transport);
+
+        expectDeadlineExceeded(request, Deadline.after(0, TimeUnit.MILLISECONDS));
+
+        assertEquals(0, transport.getRequestCount());
+    }
+
+    @Test(timeout = 10 * 1000)
+    public void callTimeoutAbortsASlowResponse() {
+        WebServiceRequest request = new WebServiceRequest("key", new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) throws IOException {
+                try {
+                    Thread.sleep(60 * 1000);
+                } catch (InterruptedException e) {
+                    throw new IOException("Handler interrupted");
+                }
+                return null;
+            }
+        }));
+        request.setCallTimeoutMillis(200);
+
+        long elapsed = expectDeadlineExceeded(request, null);
+
+        assertTrue("took " + elapsed + " ms", elapsed < 5000);
+    }
+
+    @Test(timeout = 10 * 1000)
+    public void deadlineAbortsReadingASlowBody() {
+        WebServiceRequest request = new WebServiceRequest("key", new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) {
+                Map<String, String> headers = new HashMap<>();
+                headers.put("Content-Type", "application/json");
+                return new TransportResponse(200, headers, new TricklingStream());
+            }
+        }));
+
+        long elapsed = expectDeadlineExceeded(request, Deadline.after(300, TimeUnit.MILLISECONDS));
+
+        assertTrue("took " + elapsed + " ms", elapsed < 5000);
+    }
+
+    @Test(timeout = 10 * 1000)
+    public void retryIsSkippedWhenTheBackoffWouldOutliveTheDeadline() {
+        StubHttpTransport transport = new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) {
+                Map<String, String> headers = new HashMap<>();
+                headers.put("Content-Type", "application/json");
+                headers.put("Retry-After", "2");
+                return new TransportResponse(503, headers, new ByteArrayInputStream("{}".getBytes()));
+            }
+        });
+        WebServiceRequest request = new WebServiceRequest("key", transport);
+
+        long start = System.nanoTime();
+        try {
+            request.request(URL, "GET", null, null, Object.class, true, Deadline.after(500, TimeUnit.MILLISECONDS));
+            fail("call succeeded against an unavailable service");
+        } catch (VisionServiceException e) {
+            assertEquals(503, e.getStatusCode());
+        }
+
+        assertEquals(1, transport.getRequestCount());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+    }
+
+    /**
+     * @return how long the call took to fail
+     */
+    private static long expectDeadlineExceeded(WebServiceRequest request, Deadline deadline) {
+        long start = System.nanoTime();
+        try {
+            request.request(URL, "GET", null, null, Object.class, true, deadline);
+            fail("call outlived its deadline");
+        } catch (VisionServiceException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Deadline exceeded"));
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * A JSON body that never ends: one space every 20 ms.
+     */
+    private static class TricklingStream extends InputStream {
+        @Override
+        public int read() {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(20));
+            return ' ';
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            b[off] = (byte) read();
+            return 1;
+        }
+    }
+}
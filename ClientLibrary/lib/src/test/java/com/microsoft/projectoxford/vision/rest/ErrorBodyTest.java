@@ -0,0 +1,193 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import com.google.gson.JsonParseException;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ErrorBodyTest {
+    private static final String URL = "http://stub/vision/v1.0/analyze";
+
+    @Test
+    public void readsAFlatError() {
+        VisionServiceException e = errorFor(400, json(), "{\"code\":\"InvalidImageUrl\",\"message\":\"Image URL is badly formatted.\",\"requestId\":\"r-1\"}");
+
+        assertEquals(400, e.getStatusCode());
+        assertEquals("InvalidImageUrl", e.getErrorCode());
+        assertEquals("Image URL is badly formatted.", e.getServiceMessage());
+        assertEquals("r-1", e.getRequestId());
+        assertEquals("Error executing POST request! Received error code: 400 (InvalidImageUrl: Image URL is badly formatted.)", e.getMessage());
+        assertFalse(e.isRetriable());
+    }
+
+    @Test
+    public void readsAWrappedError() {
+        VisionServiceException e = errorFor(401, json(), "{\"error\":{\"code\":\"Unauthorized\",\"message\":\"Access denied.\"}}");
+
+        assertEquals("Unauthorized", e.getErrorCode());
+        assertEquals("Access denied.", e.getServiceMessage());
+        assertNull(e.getRequestId());
+    }
+
+    @Test
+    public void requestIdHeaderWinsOverTheBody() {
+        Map<String, String> headers = json();
+        headers.put("apim-request-id", "header-id");
+
+        VisionServiceException e = errorFor(400, headers, "{\"code\":\"BadArgument\",\"message\":\"m\",\"requestId\":\"body-id\"}");
+
+        assertEquals("header-id", e.getRequestId());
+    }
+
+    @Test
+    public void fallsBackToTheAlternativeRequestIdHeader() {
+        Map<String, String> headers = json();
+        headers.put("x-ms-request-id", "ms-id");
+
+        assertEquals("ms-id", errorFor(400, headers, "{}").getRequestId());
+    }
+
+    @Test
+    public void messageWithoutCodeIsReported() {
+        VisionServiceException e = errorFor(415, json(), "{\"message\":\"Unsupported media type.\"}");
+
+        assertNull(e.getErrorCode());
+        assertEquals("Error executing POST request! Received error code: 415 (Unsupported media type.)", e.getMessage());
+    }
+
+    @Test
+    public void nonStringFieldsAreReadAsTheyAreOrIgnored() {
+        VisionServiceException e = errorFor(404, json(), "{\"code\":404,\"message\":{\"text\":\"nested\"}}");
+
+        assertEquals("404", e.getErrorCode());
+        assertNull(e.getServiceMessage());
+    }
+
+    @Test
+    public void nonJsonBodyLeavesTheStatusAlone() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "text/html");
+
+        VisionServiceException e = errorFor(502, headers, "<html><body>Bad gateway</body></html>");
+
+        assertEquals(502, e.getStatusCode());
+        assertNull(e.getServiceMessage());
+        assertEquals("Error executing POST request! Received error code: 502", e.getMessage());
+        assertTrue(e.getCause() instanceof JsonParseException);
+        assertTrue(e.isRetriable());
+    }
+
+    @Test
+    public void emptyBodyLeavesTheStatusAlone() {
+        VisionServiceException e = errorFor(500, json(), "");
+
+        assertEquals(500, e.getStatusCode());
+        assertNull(e.getErrorCode());
+        assertEquals("Error executing POST request! Received error code: 500", e.getMessage());
+    }
+
+    @Test
+    public void hugeBodyIsNotReadToTheEnd() {
+        char[] filler = new char[4 * 1024 * 1024];
+        Arrays.fill(filler, ' ');
+        String body = "{\"code\":\"Big\",\"message\":\"" + new String(filler) + "\"}";
+
+        VisionServiceException e = errorFor(400, json(), body);
+
+        assertEquals(400, e.getStatusCode());
+        assertNull(e.getServiceMessage());
+    }
+
+    @Test
+    public void retryAfterIsReported() {
+        Map<String, String> headers = json();
+        headers.put("Retry-After", "2");
+
+        VisionServiceException e = errorFor(429, headers, "{\"code\":\"RateLimitExceeded\",\"message\":\"Slow down.\"}");
+
+        assertEquals(2000, e.getRetryAfterMillis());
+        assertTrue(e.isRetriable());
+    }
+
+    @Test
+    public void errorBodyIsDecodedInItsCharset() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/json; charset=UTF-16");
+
+        VisionServiceException e = errorFor(400, headers, "{\"code\":\"BadArgument\",\"message\":\"Ungültiges Bild\"}", Charset.forName("UTF-16"));
+
+        assertEquals("Ungültiges Bild", e.getServiceMessage());
+    }
+
+    private static VisionServiceException errorFor(int statusCode, Map<String, String> headers, String body) {
+        return errorFor(statusCode, headers, body, Charset.forName("UTF-8"));
+    }
+
+    private static VisionServiceException errorFor(final int statusCode, final Map<String, String> headers, String body, Charset charset) {
+        final byte[] bytes = body.getBytes(charset);
+        WebServiceRequest request = new WebServiceRequest("key", new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) {
+                return new TransportResponse(statusCode, headers, new ByteArrayInputStream(bytes));
+            }
+        }));
+        request.setRetryPolicy(RetryPolicy.none());
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("url", "http://example.com/page.jpg");
+        try {
+            request.request(URL, "POST", data, null, Object.class, true);
+        } catch (VisionServiceException e) {
+            return e;
+        }
+        throw new AssertionError("call succeeded with status " + statusCode);
+    }
+
+    private static Map<String, String> json() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/json");
+        return headers;
+    }
+}
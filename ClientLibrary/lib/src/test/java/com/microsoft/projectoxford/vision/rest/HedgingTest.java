@@ -0,0 +1,210 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HedgingTest {
+    private static final String OK = "{\"models\":[]}";
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test(timeout = 10 * 1000)
+    public void slowAttemptIsHedgedAndTheLoserAborted() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch loserAborted = new CountDownLatch(1);
+        WebServiceRequest request = new WebServiceRequest("key", new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) throws IOException {
+                if (attempts.incrementAndGet() == 1) {
+                    try {
+                        Thread.sleep(60 * 1000);
+                    } catch (InterruptedException e) {
+                        loserAborted.countDown();
+                        throw new IOException("Handler interrupted");
+                    }
+                }
+                return ok();
+            }
+        }));
+        HedgingPolicy hedging = new HedgingPolicy(50, -1, 1.0, executor);
+        request.setHedgingPolicy(hedging);
+
+        TransportResponse response = request.requestResponse("http://stub/models", "GET", null, null, true, null);
+        response.close();
+
+        assertEquals(200, response.getStatusCode());
+        assertEquals(1, hedging.getHedgeCount());
+        assertEquals(2, attempts.get());
+        assertTrue("first attempt was not aborted", loserAborted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 10 * 1000)
+    public void concurrentAttemptsEachSendTheWholeStreamBody() throws Exception {
+        byte[] content = new byte[256 * 1024];
+        new Random(7).nextBytes(content);
+        final AtomicInteger attempts = new AtomicInteger();
+        final List<byte[]> received = Collections.synchronizedList(new ArrayList<byte[]>());
+        WebServiceRequest request = new WebServiceRequest("key", new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) throws IOException {
+                int attempt = attempts.incrementAndGet();
+                // Read the body slowly so that the two attempts write it at the same time.
+                ByteArrayOutputStream sink = new ByteArrayOutputStream() {
+                    @Override
+                    public synchronized void write(byte[] b, int off, int len) {
+                        for (int i = off; i < off + len; i += 8192) {
+                            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                            super.write(b, i, Math.min(8192, off + len - i));
+                        }
+                    }
+                };
+                request.getBody().writeTo(sink);
+                received.add(sink.toByteArray());
+                if (attempt == 1) {
+                    try {
+                        Thread.sleep(60 * 1000);
+                    } catch (InterruptedException e) {
+                        throw new IOException("Handler interrupted");
+                    }
+                }
+                return ok();
+            }
+        }));
+        request.setHedgingPolicy(new HedgingPolicy(10, -1, 1.0, executor));
+
+        TransportResponse response = request.requestResponse("http://stub/analyze", "POST", streamData(new ByteArrayInputStream(content)),
+                "application/octet-stream", true, null);
+        response.close();
+
+        assertEquals(2, attempts.get());
+        assertEquals(2, received.size());
+        assertArrayEquals(content, received.get(0));
+        assertArrayEquals(content, received.get(1));
+    }
+
+    @Test(timeout = 10 * 1000)
+    public void oneShotStreamBodyIsNotHedged() throws Exception {
+        StubHttpTransport transport = new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) throws IOException {
+                sleep(100);
+                return ok();
+            }
+        });
+        WebServiceRequest request = new WebServiceRequest("key", transport);
+        HedgingPolicy hedging = new HedgingPolicy(5, -1, 1.0, executor);
+        request.setHedgingPolicy(hedging);
+
+        InputStream stream = new BufferedInputStream(new ByteArrayInputStream(new byte[1024]));
+        request.requestResponse("http://stub/analyze", "POST", streamData(stream), "application/octet-stream", true, null).close();
+
+        assertEquals(0, hedging.getHedgeCount());
+        assertEquals(1, transport.getRequestCount());
+    }
+
+    @Test(timeout = 10 * 1000)
+    public void hedgesStopWhenTheBudgetRunsOut() throws Exception {
+        WebServiceRequest request = new WebServiceRequest("key", new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) throws IOException {
+                sleep(30);
+                return ok();
+            }
+        }));
+        HedgingPolicy hedging = new HedgingPolicy(1, -1, 0.0, executor);
+        request.setHedgingPolicy(hedging);
+
+        for (int i = 0; i < 15; i++) {
+            request.requestResponse("http://stub/models", "GET", null, null, true, null).close();
+        }
+
+        // Without a long-run ratio only the initial burst of ten hedges is allowed.
+        assertEquals(10, hedging.getHedgeCount());
+    }
+
+    private static Map<String, Object> streamData(InputStream stream) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("data", stream);
+        return data;
+    }
+
+    private static TransportResponse ok() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/json");
+        return new TransportResponse(200, headers, new ByteArrayInputStream(OK.getBytes(Charset.forName("UTF-8"))));
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new IOException("Handler interrupted");
+        }
+    }
+}
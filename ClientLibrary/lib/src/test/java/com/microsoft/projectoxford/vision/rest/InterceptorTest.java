@@ -0,0 +1,224 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InterceptorTest {
+    private static final String URL = "http://stub/vision/v1.0/models";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+    @Test
+    public void shortCircuitSkipsLaterInterceptorsAndTheTransport() throws Exception {
+        StubHttpTransport transport = StubHttpTransport.json("{\"from\":\"service\"}");
+        WebServiceRequest request = new WebServiceRequest("key", transport);
+        request.addInterceptor(new Interceptor() {
+            @Override
+            public TransportResponse intercept(Chain chain) {
+                events.add("cache");
+                return json("{\"from\":\"cache\"}");
+            }
+        });
+        request.addInterceptor(recorder("later"));
+
+        Map<String, String> result = request.request(URL, "GET", null, null, Map.class, true);
+
+        assertEquals("cache", result.get("from"));
+        assertEquals(Arrays.asList("cache"), events);
+        assertEquals(0, transport.getRequestCount());
+    }
+
+    @Test
+    public void shortCircuitIsNotRateLimited() throws Exception {
+        WebServiceRequest request = new WebServiceRequest("key", StubHttpTransport.json("{}"));
+        request.setRateLimiter(new RateLimiter(0.01, 1), 0);
+        request.addInterceptor(new Interceptor() {
+            @Override
+            public TransportResponse intercept(Chain chain) {
+                return json("{}");
+            }
+        });
+
+        for (int i = 0; i < 5; i++) {
+            request.requestResponse(URL, "GET", null, null, true, null).close();
+        }
+    }
+
+    @Test
+    public void interceptorsRunInOrderAndSeeEarlierChanges() throws Exception {
+        final List<String> sentHeaders = new ArrayList<>();
+        StubHttpTransport transport = new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) {
+                sentHeaders.add(request.getHeaders().get("X-Trace"));
+                return json("{}");
+            }
+        });
+        WebServiceRequest request = new WebServiceRequest("key", transport);
+        request.addInterceptor(new Interceptor() {
+            @Override
+            public TransportResponse intercept(Chain chain) throws VisionServiceException, IOException {
+                events.add("trace");
+                chain.request().setHeader("X-Trace", "abc");
+                return chain.proceed(chain.request());
+            }
+        });
+        request.addInterceptor(new Interceptor() {
+            @Override
+            public TransportResponse intercept(Chain chain) throws VisionServiceException, IOException {
+                events.add("log " + chain.request().getHeaders().get("X-Trace") + " " + chain.request().getHeaders().get("ocp-apim-subscription-key"));
+                return chain.proceed(chain.request());
+            }
+        });
+
+        request.requestResponse(URL, "GET", null, null, true, null).close();
+
+        assertEquals(Arrays.asList("trace", "log abc key"), events);
+        assertEquals(Arrays.asList("abc"), sentHeaders);
+    }
+
+    @Test
+    public void interceptorRunsOncePerCallAroundRetries() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        StubHttpTransport transport = new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) {
+                if (attempts.incrementAndGet() == 1) {
+                    return new TransportResponse(500, new HashMap<String, String>(), new ByteArrayInputStream(new byte[0]));
+                }
+                return json("{}");
+            }
+        });
+        WebServiceRequest request = new WebServiceRequest("key", transport);
+        request.setRetryPolicy(new RetryPolicy(3, 1, 10, 1.0));
+        request.addInterceptor(recorder("call"));
+
+        TransportResponse response = request.requestResponse(URL, "GET", null, null, true, null);
+        response.close();
+
+        assertEquals(200, response.getStatusCode());
+        assertEquals(Arrays.asList("call"), events);
+        assertEquals(2, transport.getRequestCount());
+    }
+
+    @Test
+    public void interceptorReturningNoResponseFailsTheCall() {
+        WebServiceRequest request = new WebServiceRequest("key", StubHttpTransport.json("{}"));
+        request.addInterceptor(new Interceptor() {
+            @Override
+            public TransportResponse intercept(Chain chain) {
+                return null;
+            }
+
+            @Override
+            public String toString() {
+                return "broken";
+            }
+        });
+
+        try {
+            request.requestResponse(URL, "GET", null, null, true, null);
+            fail("call succeeded without a response");
+        } catch (VisionServiceException e) {
+            assertEquals("Interceptor broken returned no response", e.getMessage());
+        }
+    }
+
+    @Test
+    public void interceptorFailureFailsTheCall() {
+        StubHttpTransport transport = StubHttpTransport.json("{}");
+        WebServiceRequest request = new WebServiceRequest("key", transport);
+        request.addInterceptor(new Interceptor() {
+            @Override
+            public TransportResponse intercept(Chain chain) throws IOException {
+                throw new IOException("Cache unavailable");
+            }
+        });
+
+        try {
+            request.requestResponse(URL, "GET", null, null, true, null);
+            fail("call succeeded although the interceptor failed");
+        } catch (VisionServiceException e) {
+            assertTrue(e.getCause() instanceof IOException);
+            assertEquals("Cache unavailable", e.getMessage());
+        }
+        assertEquals(0, transport.getRequestCount());
+    }
+
+    @Test
+    public void removedInterceptorNoLongerRuns() throws Exception {
+        WebServiceRequest request = new WebServiceRequest("key", StubHttpTransport.json("{}"));
+        Interceptor interceptor = recorder("call");
+        request.addInterceptor(interceptor);
+        request.requestResponse(URL, "GET", null, null, true, null).close();
+
+        request.removeInterceptor(interceptor);
+        request.requestResponse(URL, "GET", null, null, true, null).close();
+
+        assertEquals(Arrays.asList("call"), events);
+        assertTrue(request.getInterceptors().isEmpty());
+    }
+
+    private Interceptor recorder(final String name) {
+        return new Interceptor() {
+            @Override
+            public TransportResponse intercept(Chain chain) throws VisionServiceException, IOException {
+                events.add(name);
+                return chain.proceed(chain.request());
+            }
+        };
+    }
+
+    private static TransportResponse json(String json) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/json");
+        return new TransportResponse(200, headers, new ByteArrayInputStream(json.getBytes(UTF_8)));
+    }
+}
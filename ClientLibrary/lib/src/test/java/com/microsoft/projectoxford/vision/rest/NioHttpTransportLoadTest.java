@@ -0,0 +1,197 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import com.microsoft.projectoxford.vision.AsyncVisionServiceClient;
+import com.microsoft.projectoxford.vision.VisionFuture;
+import com.microsoft.projectoxford.vision.VisionServiceRestClient;
+import com.microsoft.projectoxford.vision.contract.OCR;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Many concurrent calls through {@link NioHttpTransport}, with request bodies on both sides of the
+ * size up to which the transport buffers them, and many asynchronous calls in flight on few threads.
+ * OCR responses echo the {@code language} query parameter and thumbnails are {@code width} bytes long,
+ * so that a caller can tell whether it received the response to its own request.
+ */
+public class NioHttpTransportLoadTest {
+    private static final int THREADS = 200;
+    private static final int CALLS_PER_THREAD = 20;
+    private static final int EVENT_LOOPS = 2;
+
+    private MockWebServer server;
+    private NioHttpTransport transport;
+    private volatile CountDownLatch hold;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                CountDownLatch latch = hold;
+                if (latch != null) {
+                    latch.countDown();
+                    latch.await(30, TimeUnit.SECONDS);
+                }
+                return respond(request.getRequestUrl());
+            }
+        });
+        server.start();
+        transport = new NioHttpTransport(EVENT_LOOPS, THREADS);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        transport.shutdown();
+        server.shutdown();
+    }
+
+    @Test(timeout = 5 * 60 * 1000)
+    public void concurrentCallsShareTheEventLoops() throws Exception {
+        final VisionServiceRestClient client = new VisionServiceRestClient(
+                new WebServiceRequest("key", transport), server.url("/vision/v1.0").toString());
+        final Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        final AtomicInteger succeeded = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < CALLS_PER_THREAD; i++) {
+                            // Every tenth body is larger than the transport buffers and is streamed.
+                            int size = i % 10 == 0 ? 200 * 1024 + thread : 1000 + thread;
+                            String language = thread % 2 == 0 ? "en" : "unk";
+                            OCR ocr = client.recognizeText(new ByteArrayInputStream(new byte[size]), language, true);
+                            assertEquals(language, ocr.language);
+                            assertEquals(thread + 1, client.getThumbnail(thread + 1, 10, true, "http://img").length);
+                            succeeded.incrementAndGet();
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue("calls did not finish", executor.awaitTermination(4, TimeUnit.MINUTES));
+
+        if (!failures.isEmpty()) {
+            throw new AssertionError(failures.size() + " threads failed; first: " + failures.peek());
+        }
+        assertEquals(THREADS * CALLS_PER_THREAD, succeeded.get());
+        assertEquals(2 * THREADS * CALLS_PER_THREAD, server.getRequestCount());
+        assertEquals(EVENT_LOOPS, countThreads("vision-nio-"));
+    }
+
+    /**
+     * The server answers only once every call has arrived, which two threads could not bring about
+     * if each call held its thread while in flight.
+     */
+    @Test(timeout = 2 * 60 * 1000)
+    public void asyncCallsHoldNoThreadWhileInFlight() throws Exception {
+        final int calls = THREADS / 2;
+        final CountDownLatch arrived = new CountDownLatch(calls);
+        hold = arrived;
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            AsyncVisionServiceClient client = new AsyncVisionServiceClient(new VisionServiceRestClient(
+                    new WebServiceRequest("key", transport), server.url("/vision/v1.0").toString()), executor);
+
+            List<VisionFuture<OCR>> futures = new ArrayList<>();
+            for (int i = 0; i < calls; i++) {
+                String language = i % 2 == 0 ? "en" : "unk";
+                futures.add(i % 3 == 0
+                        ? client.recognizeText(new ByteArrayInputStream(new byte[1000 + i]), language, true)
+                        : client.recognizeText("http://img/" + i, language, true));
+            }
+
+            for (int i = 0; i < calls; i++) {
+                assertEquals(i % 2 == 0 ? "en" : "unk", futures.get(i).get(60, TimeUnit.SECONDS).language);
+            }
+            assertEquals(0, arrived.getCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static MockResponse respond(HttpUrl url) {
+        if (url.encodedPath().endsWith("/generateThumbnail")) {
+            return new MockResponse().setHeader("Content-Type", "image/png")
+                    .setBody(new Buffer().write(new byte[Integer.parseInt(url.queryParameter("width"))]));
+        }
+        return new MockResponse().setHeader("Content-Type", "application/json; charset=utf-8")
+                .setBody("{\"language\":\"" + url.queryParameter("language") + "\",\"regions\":[]}");
+    }
+
+    private static int countThreads(String prefix) {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,179 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Replaying requests after a pooled connection turns out to be stale.
+ */
+public class NioHttpTransportTest {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private ServerSocket serverSocket;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private NioHttpTransport transport;
+
+    @Before
+    public void setUp() throws IOException {
+        serverSocket = new ServerSocket(0, 16, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        transport = new NioHttpTransport(1, 4);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        transport.shutdown();
+        serverSocket.close();
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void idempotentRequestIsReplayedOnStaleConnection() throws IOException {
+        assertEquals(200, call("GET", null));
+        assertEquals(200, call("GET", null));
+        // The second request reached the server on the stale connection and again on a fresh one.
+        assertEquals(3, requestCount.get());
+    }
+
+    @Test(timeout = 30 * 1000)
+    public void postWrittenInFullIsNotReplayedOnStaleConnection() throws IOException {
+        assertEquals(200, call("GET", null));
+        try {
+            call("POST", RequestBody.create("application/json", "{\"url\":\"http://img\"}".getBytes(ISO_8859_1)));
+            fail("the POST was sent again");
+        } catch (IOException expected) {
+            // WebServiceRequest resends it only if the call is idempotent or never reached the server.
+        }
+        assertEquals(2, requestCount.get());
+    }
+
+    private int call(String method, RequestBody body) throws IOException {
+        String url = "http://127.0.0.1:" + serverSocket.getLocalPort() + "/vision/v1.0/analyze";
+        TransportResponse response = transport.execute(new TransportRequest(method, url, body));
+        try {
+            InputStream in = response.getBody();
+            while (in.read() != -1) {
+                // Drain the body so that the connection goes back to the pool.
+            }
+            return response.getStatusCode();
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Answers the first request on each connection and keeps the connection open, then reads the
+     * second one in full and closes the connection without answering, like a server that dropped an
+     * idle connection while the request was on its way.
+     */
+    private void acceptLoop() {
+        while (true) {
+            Socket connection;
+            try {
+                connection = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            try {
+                InputStream in = new BufferedInputStream(connection.getInputStream());
+                OutputStream out = connection.getOutputStream();
+                readRequest(in);
+                out.write("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: 2\r\n\r\n{}"
+                        .getBytes(ISO_8859_1));
+                out.flush();
+                readRequest(in);
+            } catch (IOException e) {
+                // The client closed the connection first.
+            } finally {
+                try {
+                    connection.close();
+                } catch (IOException e) {
+                    // Already closed.
+                }
+            }
+        }
+    }
+
+    private void readRequest(InputStream in) throws IOException {
+        long contentLength = 0;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                contentLength = Long.parseLong(line.substring("content-length:".length()).trim());
+            }
+        }
+        for (long i = 0; i < contentLength; i++) {
+            if (in.read() == -1) {
+                throw new IOException("Connection closed in a request body");
+            }
+        }
+        requestCount.incrementAndGet();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                throw new IOException("Connection closed");
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return new String(line.toByteArray(), ISO_8859_1);
+    }
+}
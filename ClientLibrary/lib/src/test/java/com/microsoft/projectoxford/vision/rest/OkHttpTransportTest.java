@@ -0,0 +1,170 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class OkHttpTransportTest {
+    private MockWebServer server;
+
+    @Before
+    public void setUp() {
+        server = new MockWebServer();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test(timeout = 60 * 1000)
+    public void multiplexesConcurrentCallsOverOneHttp2Connection() throws Exception {
+        final int calls = 50;
+        server.setProtocols(Arrays.asList(Protocol.H2_PRIOR_KNOWLEDGE));
+        for (int i = 0; i < calls; i++) {
+            server.enqueue(new MockResponse().setBody("{}").setBodyDelay(100, TimeUnit.MILLISECONDS));
+        }
+        server.start();
+
+        final OkHttpTransport transport = OkHttpTransport.withPriorKnowledge();
+        final String url = server.url("/vision/v1.0/models").toString();
+        ExecutorService executor = Executors.newFixedThreadPool(calls);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < calls; i++) {
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws IOException {
+                        TransportResponse response = transport.execute(new TransportRequest("GET", url, null));
+                        try {
+                            while (response.getBody().read() != -1) {
+                                // Drain the body.
+                            }
+                            return response.getStatusCode();
+                        } finally {
+                            response.close();
+                        }
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(200, (int) result.get());
+            }
+        } finally {
+            executor.shutdown();
+            transport.shutdown();
+        }
+
+        assertEquals(calls, transport.getHttp2ResponseCount());
+        assertEquals(0, transport.getHttp1ResponseCount());
+        // Streams are numbered per connection, so distinct numbers mean a single connection.
+        Set<Integer> sequenceNumbers = new HashSet<>();
+        for (int i = 0; i < calls; i++) {
+            sequenceNumbers.add(server.takeRequest().getSequenceNumber());
+        }
+        assertEquals(calls, sequenceNumbers.size());
+    }
+
+    @Test(timeout = 60 * 1000)
+    public void streamBodyIsNotResentAfterConnectionFailure() throws Exception {
+        server.enqueue(new MockResponse().setBody("{}"));
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST));
+        server.enqueue(new MockResponse().setBody("{}"));
+        server.start();
+
+        OkHttpTransport transport = new OkHttpTransport();
+        // Leaves a pooled connection behind, which the server drops once the body has been sent.
+        transport.execute(new TransportRequest("GET", server.url("/vision/v1.0/models").toString(), null)).close();
+
+        // Unlike a ByteArrayInputStream, a filtered stream cannot be rewound.
+        InputStream stream = new FilterInputStream(new ByteArrayInputStream(new byte[1024])) {
+        };
+        RequestBody body = RequestBody.create("application/octet-stream", stream);
+        try {
+            transport.execute(new TransportRequest("POST", server.url("/vision/v1.0/ocr").toString(), body)).close();
+            fail("the consumed body was sent again");
+        } catch (IOException expected) {
+            // The caller decides what to do with a request that cannot be replayed.
+        } finally {
+            transport.shutdown();
+        }
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test(timeout = 60 * 1000)
+    public void shutdownLeavesSharedClientUsable() throws Exception {
+        server.enqueue(new MockResponse().setBody("{}"));
+        server.start();
+
+        OkHttpClient shared = new OkHttpClient();
+        new OkHttpTransport(shared).shutdown();
+        assertFalse(shared.dispatcher().executorService().isShutdown());
+
+        Response response = shared.newCall(new Request.Builder().url(server.url("/")).build()).execute();
+        try {
+            assertEquals(200, response.code());
+        } finally {
+            response.close();
+        }
+        shared.dispatcher().executorService().shutdown();
+    }
+}
@@ -0,0 +1,156 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RateLimiterTest {
+    @Test
+    public void burstIsAvailableAtOnce() {
+        RateLimiter limiter = new RateLimiter(1, 5);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue("permit " + i, limiter.tryAcquire());
+        }
+        assertFalse(limiter.tryAcquire());
+    }
+
+    @Test
+    public void refillIsCappedAtBurst() throws Exception {
+        RateLimiter limiter = new RateLimiter(1000, 2);
+
+        Thread.sleep(50);
+
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+    }
+
+    @Test(timeout = 10 * 1000)
+    public void acquirePacesCallsAtTheSustainedRate() throws Exception {
+        RateLimiter limiter = new RateLimiter(20, 1);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 11; i++) {
+            limiter.acquire();
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // The first permit is free, the other ten are 50 ms apart.
+        assertTrue("took " + elapsed + " ms", elapsed >= 450 && elapsed < 2000);
+    }
+
+    @Test(timeout = 10 * 1000)
+    public void concurrentCallersReserveSeparatePermits() throws Exception {
+        final RateLimiter limiter = new RateLimiter(10, 1);
+        limiter.acquire();
+
+        Thread[] threads = new Thread[3];
+        long start = System.nanoTime();
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        limiter.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // Three permits at 10 per second: the last caller waits about 300 ms, not 100 ms.
+        assertTrue("took " + elapsed + " ms", elapsed >= 270);
+    }
+
+    @Test
+    public void tryAcquireGivesUpWithoutWaitingWhenTheTimeoutIsTooShort() throws Exception {
+        RateLimiter limiter = new RateLimiter(1, 1);
+        assertTrue(limiter.tryAcquire());
+
+        long start = System.nanoTime();
+        assertFalse(limiter.tryAcquire(100, TimeUnit.MILLISECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 50);
+    }
+
+    @Test
+    public void tryAcquireWaitsForAPermitWithinTheTimeout() throws Exception {
+        RateLimiter limiter = new RateLimiter(10, 1);
+        assertTrue(limiter.tryAcquire());
+
+        long start = System.nanoTime();
+        assertTrue(limiter.tryAcquire(500, TimeUnit.MILLISECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 80);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveRate() {
+        new RateLimiter(0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyBurst() {
+        new RateLimiter(1, 0);
+    }
+
+    @Test
+    public void callFailsFastWhenNoPermitIsLeft() throws Exception {
+        StubHttpTransport transport = StubHttpTransport.json("{\"models\":[]}");
+        WebServiceRequest request = new WebServiceRequest("key", transport);
+        request.setRetryPolicy(RetryPolicy.none());
+        request.setRateLimiter(new RateLimiter(0.01, 1), 0);
+
+        request.requestResponse("http://stub/models", "GET", null, null, true, null).close();
+        try {
+            request.requestResponse("http://stub/models", "GET", null, null, true, null);
+            fail("call went past the rate limiter");
+        } catch (VisionServiceException e) {
+            assertEquals("Client-side rate limit exceeded", e.getMessage());
+            assertTrue(e.isRetriable());
+        }
+        assertEquals(1, transport.getRequestCount());
+    }
+}
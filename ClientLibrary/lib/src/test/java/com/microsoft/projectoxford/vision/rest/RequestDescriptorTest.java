@@ -0,0 +1,80 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class RequestDescriptorTest {
+    @Test
+    public void firstParameterStartsTheQueryString() {
+        RequestDescriptor descriptor = new RequestDescriptor("POST", "http://stub/vision/v1.0/describe").withQuery("maxCandidates", 3);
+
+        assertEquals("POST", descriptor.getMethod());
+        assertEquals("http://stub/vision/v1.0/describe?maxCandidates=3", descriptor.getUrl());
+    }
+
+    @Test
+    public void furtherParametersAreAppended() {
+        RequestDescriptor descriptor = new RequestDescriptor("POST", "http://stub/vision/v1.0/RecognizeText?handwriting=true")
+                .withQuery("language", "de").withQuery("detectOrientation", true);
+
+        assertEquals("http://stub/vision/v1.0/RecognizeText?handwriting=true&language=de&detectOrientation=true", descriptor.getUrl());
+    }
+
+    @Test
+    public void valuesAreEncoded() {
+        RequestDescriptor descriptor = new RequestDescriptor("POST", "http://stub/analyze").withQuery("visualFeatures", "Tags,Faces & more");
+
+        assertEquals("http://stub/analyze?visualFeatures=Tags%2CFaces+%26+more", descriptor.getUrl());
+    }
+
+    @Test
+    public void nullValueLeavesTheDescriptorAsItIs() {
+        RequestDescriptor descriptor = new RequestDescriptor("GET", "http://stub/models");
+
+        assertSame(descriptor, descriptor.withQuery("details", null));
+    }
+
+    @Test
+    public void withQueryDoesNotChangeTheOriginal() {
+        RequestDescriptor base = new RequestDescriptor("POST", "http://stub/ocr");
+
+        base.withQuery("language", "en");
+
+        assertEquals("http://stub/ocr", base.getUrl());
+        assertEquals("POST http://stub/ocr", base.toString());
+    }
+}
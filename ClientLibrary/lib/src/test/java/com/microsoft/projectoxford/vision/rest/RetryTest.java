@@ -0,0 +1,232 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryTest {
+    private static final String URL = "http://stub/vision/v1.0/recognizeText";
+
+    @Test
+    public void createIsNotRetriedAfterServerError() {
+        StubHttpTransport transport = script(status(500), status(202));
+
+        expectFailure(transport, false);
+
+        assertEquals(1, transport.getRequestCount());
+    }
+
+    @Test
+    public void createIsNotRetriedAfterReadTimeout() {
+        StubHttpTransport transport = script(new SocketTimeoutException("Read timed out"), status(202));
+
+        expectFailure(transport, false);
+
+        assertEquals(1, transport.getRequestCount());
+    }
+
+    @Test
+    public void createIsNotRetriedAfterUnavailableWithoutRetryAfter() {
+        StubHttpTransport transport = script(status(503), status(202));
+
+        expectFailure(transport, false);
+
+        assertEquals(1, transport.getRequestCount());
+    }
+
+    @Test
+    public void createIsRetriedAfterConnectFailure() throws Exception {
+        StubHttpTransport transport = script(new ConnectException("Connection refused"), status(202));
+
+        assertEquals(202, send(transport, false, fastPolicy()).getStatusCode());
+        assertEquals(2, transport.getRequestCount());
+    }
+
+    @Test
+    public void createIsRetriedWhenThrottled() throws Exception {
+        StubHttpTransport transport = script(status(429), status(202));
+
+        assertEquals(202, send(transport, false, fastPolicy()).getStatusCode());
+        assertEquals(2, transport.getRequestCount());
+    }
+
+    @Test
+    public void createIsRetriedAfterUnavailableWithRetryAfter() throws Exception {
+        StubHttpTransport transport = script(status(503, "0"), status(202));
+
+        assertEquals(202, send(transport, false, fastPolicy()).getStatusCode());
+        assertEquals(2, transport.getRequestCount());
+    }
+
+    @Test
+    public void idempotentCallIsRetriedAfterServerErrorAndTimeout() throws Exception {
+        StubHttpTransport transport = script(status(500), new SocketTimeoutException("Read timed out"), status(200));
+
+        assertEquals(200, send(transport, true, fastPolicy()).getStatusCode());
+        assertEquals(3, transport.getRequestCount());
+    }
+
+    @Test
+    public void retryAfterLongerThanMaxDelayFailsTheCall() {
+        StubHttpTransport transport = script(status(503, "120"), status(200));
+
+        try {
+            send(transport, true, fastPolicy());
+            fail("call waited out a two minute Retry-After");
+        } catch (VisionServiceException e) {
+            assertEquals(503, e.getStatusCode());
+        }
+        assertEquals(1, transport.getRequestCount());
+    }
+
+    @Test
+    public void retryBudgetCapsRetriesUnderSustainedFailure() {
+        StubHttpTransport transport = StubHttpTransport.fixed(500, "application/json", "{}".getBytes());
+        RetryPolicy policy = new RetryPolicy(3, 1, 10, 0.0);
+
+        for (int i = 0; i < 5; i++) {
+            try {
+                send(transport, true, policy);
+                fail("call succeeded against a failing service");
+            } catch (VisionServiceException e) {
+                assertEquals(500, e.getStatusCode());
+            }
+        }
+
+        // The initial ten tokens pay for 3 + 3 + 3 + 1 retries; the fifth call gets none.
+        assertEquals(5 + 10, transport.getRequestCount());
+    }
+
+    @Test
+    public void parsesRetryAfterSeconds() {
+        assertEquals(3000, RetryPolicy.parseRetryAfterMillis("3"));
+        assertEquals(3000, RetryPolicy.parseRetryAfterMillis(" 3 "));
+        assertEquals(0, RetryPolicy.parseRetryAfterMillis("-5"));
+    }
+
+    @Test
+    public void parsesRetryAfterDate() {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+        long delay = RetryPolicy.parseRetryAfterMillis(format.format(new Date(System.currentTimeMillis() + 60 * 1000)));
+        assertTrue("delay was " + delay, delay > 55 * 1000 && delay <= 60 * 1000);
+        assertEquals(0, RetryPolicy.parseRetryAfterMillis(format.format(new Date(System.currentTimeMillis() - 60 * 1000))));
+    }
+
+    @Test
+    public void rejectsMalformedRetryAfter() {
+        assertEquals(-1, RetryPolicy.parseRetryAfterMillis(null));
+        assertEquals(-1, RetryPolicy.parseRetryAfterMillis(""));
+        assertEquals(-1, RetryPolicy.parseRetryAfterMillis("soon"));
+        assertEquals(-1, RetryPolicy.parseRetryAfterMillis("Friday"));
+    }
+
+    private static void expectFailure(StubHttpTransport transport, boolean idempotent) {
+        try {
+            send(transport, idempotent, fastPolicy());
+            fail("call was retried");
+        } catch (VisionServiceException e) {
+            // Expected.
+        }
+    }
+
+    private static TransportResponse send(StubHttpTransport transport, boolean idempotent, RetryPolicy policy) throws VisionServiceException {
+        WebServiceRequest request = new WebServiceRequest("key", transport);
+        request.setRetryPolicy(policy);
+        Map<String, Object> data = new HashMap<>();
+        data.put("url", "http://example.com/page.jpg");
+        TransportResponse response = request.requestResponse(URL, "POST", data, null, idempotent, null);
+        try {
+            response.close();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return response;
+    }
+
+    private static RetryPolicy fastPolicy() {
+        return new RetryPolicy(3, 1, 10, RetryPolicy.DEFAULT_RETRY_BUDGET_RATIO);
+    }
+
+    private static TransportResponse status(int statusCode) {
+        return status(statusCode, null);
+    }
+
+    private static TransportResponse status(int statusCode, String retryAfter) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/json");
+        if (retryAfter != null) {
+            headers.put("Retry-After", retryAfter);
+        }
+        return new TransportResponse(statusCode, headers, new ByteArrayInputStream("{}".getBytes()));
+    }
+
+    /**
+     * Answers each request with the next outcome: a response, or an I/O failure to throw.
+     */
+    private static StubHttpTransport script(Object... outcomes) {
+        final Queue<Object> queue = new ArrayDeque<>(Arrays.asList(outcomes));
+        return new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) throws IOException {
+                Object outcome;
+                synchronized (queue) {
+                    outcome = queue.remove();
+                }
+                if (outcome instanceof IOException) {
+                    throw (IOException) outcome;
+                }
+                return (TransportResponse) outcome;
+            }
+        });
+    }
+}
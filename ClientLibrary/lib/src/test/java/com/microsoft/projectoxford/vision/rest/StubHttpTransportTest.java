@@ -0,0 +1,88 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StubHttpTransportTest {
+    @Test
+    public void handlerWithoutResponseFailsTheCall() {
+        WebServiceRequest request = new WebServiceRequest("key", new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) {
+                return null;
+            }
+        }));
+
+        try {
+            request.requestResponse("http://stub/models", "GET", null, null, true, null);
+            fail("call succeeded without a response");
+        } catch (VisionServiceException e) {
+            assertTrue(e.getCause() instanceof IOException);
+            assertEquals("Stub handler returned no response", e.getCause().getMessage());
+        }
+    }
+
+    @Test(timeout = 10 * 1000)
+    public void abortInterruptsTheHandler() throws Exception {
+        WebServiceRequest request = new WebServiceRequest("key", new StubHttpTransport(new StubHttpTransport.Handler() {
+            @Override
+            public TransportResponse handle(TransportRequest request) throws IOException {
+                try {
+                    Thread.sleep(60 * 1000);
+                } catch (InterruptedException e) {
+                    throw new IOException("Handler interrupted");
+                }
+                return null;
+            }
+        }));
+
+        long start = System.nanoTime();
+        try {
+            request.requestResponse("http://stub/models", "GET", null, null, true, Deadline.after(200, TimeUnit.MILLISECONDS));
+            fail("call outlived its deadline");
+        } catch (VisionServiceException e) {
+            assertTrue(e.getMessage().startsWith("Deadline exceeded"));
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        assertFalse("interrupt leaked to the caller", Thread.currentThread().isInterrupted());
+    }
+}
@@ -0,0 +1,114 @@
+//
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license.
+//
+// Microsoft Cognitive Services (formerly Project Oxford): https://www.microsoft.com/cognitive-services
+//
+// Microsoft Cognitive Services (formerly Project Oxford) GitHub:
+// https://github.com/Microsoft/Cognitive-Vision-Android
+//
+// Copyright (c) Microsoft Corporation
+// All rights reserved.
+//
+// MIT License:
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+//
+package com.microsoft.projectoxford.vision.rest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+
+public class WarmUpTest {
+    private MockWebServer server;
+
+    @Before
+    public void setUp() {
+        server = new MockWebServer();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test(timeout = 60 * 1000)
+    public void sendsHeadThroughInterceptorsAndReportsErrorStatus() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(401));
+        server.start();
+
+        final List<String> intercepted = new ArrayList<String>();
+        HttpTransport transport = new UrlConnectionTransport();
+        WebServiceRequest request = new WebServiceRequest("key", transport);
+        request.addInterceptor(new Interceptor() {
+            @Override
+            public TransportResponse intercept(Chain chain) throws VisionServiceException, IOException {
+                intercepted.add(chain.request().getMethod());
+                return chain.proceed(chain.request());
+            }
+        });
+
+        try {
+            WarmUpResult result = request.warmUp(server.url("/vision/v1.0").toString());
+
+            assertEquals(401, result.getStatusCode());
+            assertEquals(1, intercepted.size());
+            assertEquals("HEAD", intercepted.get(0));
+            RecordedRequest recorded = server.takeRequest();
+            assertEquals("HEAD", recorded.getMethod());
+            assertEquals("key", recorded.getHeader("Ocp-Apim-Subscription-Key"));
+        } finally {
+            transport.shutdown();
+        }
+    }
+
+    @Test(timeout = 60 * 1000)
+    public void slowHeadIsNotHedged() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200).setHeadersDelay(300, TimeUnit.MILLISECONDS));
+        server.enqueue(new MockResponse().setResponseCode(200));
+        server.start();
+
+        HttpTransport transport = new UrlConnectionTransport();
+        WebServiceRequest request = new WebServiceRequest("key", transport);
+        HedgingPolicy hedging = new HedgingPolicy(10, 1.0);
+        request.setHedgingPolicy(hedging);
+
+        try {
+            WarmUpResult result = request.warmUp(server.url("/vision/v1.0").toString());
+
+            assertEquals(200, result.getStatusCode());
+            assertEquals(0, hedging.getHedgeCount());
+            assertEquals(1, server.getRequestCount());
+        } finally {
+            transport.shutdown();
+        }
+    }
+}
@@ -36,7 +36,6 @@ import android.content.Intent;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.AsyncTask;
-import android.support.v7.app.ActionBarActivity;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.Menu;
@@ -50,7 +49,6 @@ import android.widget.TextView;
 
 import com.google.gson.Gson;
 import com.microsoft.projectoxford.vision.VisionServiceClient;
-import com.microsoft.projectoxford.vision.VisionServiceRestClient;
 import com.microsoft.projectoxford.vision.contract.AnalysisResult;
 import com.microsoft.projectoxford.vision.contract.Category;
 import com.microsoft.projectoxford.vision.contract.Face;
@@ -61,7 +59,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
-public class AnalyzeActivity extends ActionBarActivity {
+public class AnalyzeActivity extends VisionActivity {
 
     // Flag to indicate which task is to be performed.
     private static final int REQUEST_SELECT_IMAGE = 0;
@@ -86,7 +84,7 @@ public class AnalyzeActivity extends ActionBarActivity {
         setContentView(R.layout.activity_analyze);
 
         if (client==null){
-            client = new VisionServiceRestClient(getString(R.string.subscription_key), getString(R.string.subscription_apiroot));
+            client = createClient();
         }
 
         mButtonSelectImage = (Button)findViewById(R.id.buttonSelectImage);
@@ -37,7 +37,6 @@ import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
-import android.support.v7.app.ActionBarActivity;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -47,12 +46,13 @@ import android.widget.EditText;
 import android.widget.ImageView;
 
 import com.google.gson.Gson;
-import com.microsoft.projectoxford.vision.VisionServiceClient;
 import com.microsoft.projectoxford.vision.VisionServiceRestClient;
 import com.microsoft.projectoxford.vision.contract.HandwritingRecognitionOperation;
 import com.microsoft.projectoxford.vision.contract.HandwritingRecognitionOperationResult;
+import com.microsoft.projectoxford.vision.contract.HandwritingRecognitionStatus;
 import com.microsoft.projectoxford.vision.contract.HandwritingTextLine;
 import com.microsoft.projectoxford.vision.contract.HandwritingTextWord;
+import com.microsoft.projectoxford.vision.rest.Deadline;
 import com.microsoft.projectoxford.vision.rest.VisionServiceException;
 import com.microsoft.projectoxford.visionsample.helper.ImageHelper;
 
@@ -60,8 +60,9 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.concurrent.TimeUnit;
 
-public class HandwritingRecognizeActivity extends ActionBarActivity {
+public class HandwritingRecognizeActivity extends VisionActivity {
 
     // Flag to indicate which task is to be performed.
     private static final int REQUEST_SELECT_IMAGE = 0;
@@ -78,10 +79,10 @@ public class HandwritingRecognizeActivity extends ActionBarActivity {
     // The edit to show status and result.
     private EditText editText;
 
-    private VisionServiceClient client;
+    private VisionServiceRestClient client;
 
-    //max retry times to get operation result
-    private int retryCountThreshold = 30;
+    //max time to wait for the operation result
+    private long resultTimeoutSeconds = 30;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -89,7 +90,7 @@ public class HandwritingRecognizeActivity extends ActionBarActivity {
         setContentView(R.layout.activity_recognize_handwriting);
 
         if (client == null) {
-            client = new VisionServiceRestClient(getString(R.string.subscription_key), getString(R.string.subscription_apiroot));
+            client = createClient();
         }
 
         buttonSelectImage = (Button) findViewById(R.id.buttonSelectImage);
@@ -179,18 +180,9 @@ public class HandwritingRecognizeActivity extends ActionBarActivity {
                 //post image and got operation from API
                 HandwritingRecognitionOperation operation = this.client.createHandwritingRecognitionOperationAsync(inputStream);
 
-                HandwritingRecognitionOperationResult operationResult;
-                //try to get recognition result until it finished.
-
-                int retryCount = 0;
-                do {
-                    if (retryCount > retryCountThreshold) {
-                        throw new InterruptedException("Can't get result after retry in time.");
-                    }
-                    Thread.sleep(1000);
-                    operationResult = this.client.getHandwritingRecognitionOperationResultAsync(operation.Url());
-                }
-                while (operationResult.getStatus().equals("NotStarted") || operationResult.getStatus().equals("Running"));
+                //wait for the recognition result until it finished.
+                HandwritingRecognitionOperationResult operationResult = this.client.awaitHandwritingResult(
+                        operation, Deadline.after(resultTimeoutSeconds, TimeUnit.SECONDS));
 
                 String result = gson.toJson(operationResult);
                 Log.d("result", result);
@@ -246,7 +238,7 @@ public class HandwritingRecognizeActivity extends ActionBarActivity {
 
                 StringBuilder resultBuilder = new StringBuilder();
                 //if recognition result status is failed. display failed
-                if (r.getStatus().equals("Failed")) {
+                if (r.getRecognitionStatus() == HandwritingRecognitionStatus.FAILED) {
                     resultBuilder.append("Error: Recognition Failed");
                 } else {
                     for (HandwritingTextLine line : r.getRecognitionResult().getLines()) {
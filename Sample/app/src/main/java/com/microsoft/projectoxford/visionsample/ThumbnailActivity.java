@@ -37,7 +37,6 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.AsyncTask;
-import android.support.v7.app.ActionBarActivity;
 import android.os.Bundle;
 import android.util.Base64;
 import android.util.DisplayMetrics;
@@ -51,7 +50,6 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.microsoft.projectoxford.vision.VisionServiceClient;
-import com.microsoft.projectoxford.vision.VisionServiceRestClient;
 import com.microsoft.projectoxford.vision.rest.VisionServiceException;
 import com.microsoft.projectoxford.visionsample.helper.ImageHelper;
 
@@ -59,7 +57,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
-public class ThumbnailActivity extends ActionBarActivity {
+public class ThumbnailActivity extends VisionActivity {
     // Flag to indicate which task is to be performed.
     private static final int REQUEST_SELECT_IMAGE = 0;
 
@@ -83,7 +81,7 @@ public class ThumbnailActivity extends ActionBarActivity {
         setContentView(R.layout.activity_thumbnail);
 
         if (client==null){
-            client = new VisionServiceRestClient(getString(R.string.subscription_key), getString(R.string.subscription_apiroot));
+            client = createClient();
         }
 
         mButtonSelectImage = (Button)findViewById(R.id.buttonSelectImage);